@@ -44,7 +44,7 @@ import java.io.IOException;
 import se.sics.mspsim.core.*;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 
-public class AT45DB extends ExternalFlash implements USARTListener {
+public class AT45DB extends ExternalFlash implements USARTListener, Snapshotable {
 
   public static final int PAGE_SIZE = 264;
   public static final int NUM_PAGES = 2048;
@@ -358,6 +358,38 @@ public class AT45DB extends ExternalFlash implements USARTListener {
       }
     }
 
+    public void saveState(SnapshotOutput out) throws IOException {
+      out.writeInt(state);
+      out.writeInt(next_state);
+      out.writeBoolean(Reset);
+      out.writeBoolean(chipSelect);
+      out.writeInt(pos);
+      out.writeInt(status);
+      out.writeInt(pageAddress);
+      out.writeInt(bufferAddress);
+      out.writeInt(dummy);
+      out.write(buffer1);
+      out.write(buffer2);
+      out.writeTimeEvent(writeEvent);
+      saveStorage(out);
+    }
+
+    public void loadState(SnapshotInput in) throws IOException {
+      state = in.readInt();
+      next_state = in.readInt();
+      Reset = in.readBoolean();
+      chipSelect = in.readBoolean();
+      pos = in.readInt();
+      status = in.readInt();
+      pageAddress = in.readInt();
+      bufferAddress = in.readInt();
+      dummy = in.readInt();
+      in.readFully(buffer1);
+      in.readFully(buffer2);
+      in.readTimeEvent(writeEvent);
+      loadStorage(in);
+    }
+
     public int getModeMax() {
       return 0;
     }
@@ -30,14 +30,18 @@
  */
 package se.sics.mspsim.chip;
 
+import java.io.IOException;
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
 
 /**
  * @author Niclas Finne
  *
  */
-public abstract class Accelerometer extends Chip {
+public abstract class Accelerometer extends Chip implements Snapshotable {
 
     protected double x, y, z;
 
@@ -79,4 +83,20 @@ public abstract class Accelerometer extends Chip {
         setZ(z);
     }
 
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        out.writeInt(getMode());
+        out.writeDouble(x);
+        out.writeDouble(y);
+        out.writeDouble(z);
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        setMode(in.readInt());
+        x = in.readDouble();
+        y = in.readDouble();
+        z = in.readDouble();
+    }
+
 }
@@ -40,6 +40,7 @@
  */
 
 package se.sics.mspsim.chip;
+import java.io.IOException;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
@@ -49,12 +50,15 @@ import javax.sound.sampled.SourceDataLine;
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
 import se.sics.mspsim.core.TimeEvent;
 
 /**
  * Beeper for the ESB...
  */
-public class Beeper extends Chip {
+public class Beeper extends Chip implements Snapshotable {
 
     public static final int MODE_OFF = 0;
     public static final int MODE_ON = 1;
@@ -197,6 +201,24 @@ public class Beeper extends Chip {
         + " Sound Enabled: " + isSoundEnabled;
     }
 
+    /* the sound output is not part of the node state and is restarted if enabled */
+    public void saveState(SnapshotOutput out) throws IOException {
+        out.writeBoolean(beepOn);
+        out.writeInt(beepCtrl);
+    }
+
+    public void loadState(SnapshotInput in) throws IOException {
+        boolean beep = in.readBoolean();
+        beepCtrl = in.readInt();
+        if (beepOn != beep) {
+            beepOn = beep;
+            setMode(beepOn ? MODE_ON : MODE_OFF);
+        }
+        if (isSoundEnabled && !soundEvent.isScheduled()) {
+            cpu.scheduleTimeEvent(soundEvent, cpu.getTime() + 2);
+        }
+    }
+
     /* just return some value */
     public int getConfiguration(int parameter) {
         return beepOn ? 1 : 0;
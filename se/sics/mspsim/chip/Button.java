@@ -29,15 +29,20 @@
  *
  */
 package se.sics.mspsim.chip;
+import java.io.IOException;
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
+import se.sics.mspsim.core.StimulusRecorder;
 
 /**
  * @author Niclas Finne
  *
  */
-public class Button extends Chip {
+public class Button extends Chip implements Snapshotable {
 
     private final IOPort port;
     private final int pin;
@@ -56,6 +61,19 @@ public class Button extends Chip {
     }
 
     public void setPressed(boolean isPressed) {
+        StimulusRecorder recorder = cpu.getStimulusRecorder();
+        if (recorder != null && recorder.enter(this, StimulusRecorder.BUTTON, isPressed ? 1 : 0)) {
+            try {
+                updatePressed(isPressed);
+            } finally {
+                recorder.exit();
+            }
+        } else {
+            updatePressed(isPressed);
+        }
+    }
+
+    private void updatePressed(boolean isPressed) {
         if (this.isPressed != isPressed) {
             this.isPressed = isPressed;
             stateChanged(isPressed ? 1 : 0);
@@ -78,4 +96,19 @@ public class Button extends Chip {
     public String info() {
         return " Button is " + (isPressed ? "pressed" : "not pressed");
     }
+
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        out.writeBoolean(isPressed);
+    }
+
+    /* the pin state is restored with the port */
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        boolean pressed = in.readBoolean();
+        if (this.isPressed != pressed) {
+            this.isPressed = pressed;
+            stateChanged(pressed ? 1 : 0);
+        }
+    }
 }
@@ -28,17 +28,22 @@
  */
 
 package se.sics.mspsim.chip;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.IOPort.PinState;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
+import se.sics.mspsim.core.StimulusRecorder;
 import se.sics.mspsim.core.TimeEvent;
 import se.sics.mspsim.core.USARTListener;
 import se.sics.mspsim.core.USARTSource;
 
-public class CC1101 extends Radio802154 implements USARTListener {
+public class CC1101 extends Radio802154 implements USARTListener, Snapshotable {
     protected boolean DEBUG = false;
 
 	/* cc1101-const.h: Configuration registers */
@@ -177,6 +182,27 @@ public class CC1101 extends Radio802154 implements USARTListener {
 		}
 	};
 
+	private TimeEvent goToRXEvent = new TimeEvent(0, "CC1101 go to RX") {
+		public void execute(long t) {
+			if (getState() == CC1101RadioState.CC1101_STATE_RX) {
+				/* Radio already in RX, ignore */
+				return;
+			}
+			rxfifo.clear();
+			rxExpectedLen = -1;
+			rxGotSynchByte = false;
+			setGDO0(false);
+			setState(CC1101RadioState.CC1101_STATE_RX);
+		}
+	};
+
+	private TimeEvent rssiValidEvent = new TimeEvent(0, "CC1101 set RSSI valid") {
+		public void execute(long t) {
+			log("RSSI is now valid");
+			currentRssiValid = true;
+		}
+	};
+
 	public final static double FREQUENCY_CHANNEL_0 = 902; /* MHz */
 	public final static double FREQUENCY_CHANNEL_WIDTH = 0.125; /* MHz */
 
@@ -260,31 +286,12 @@ public class CC1101 extends Radio802154 implements USARTListener {
                     if(getState() == CC1101RadioState.CC1101_STATE_IDLE ||
                        getState() == CC1101RadioState.CC1101_STATE_SLEEP) {
                         log("CC1101 from idle to rx, should wait");
-                        TimeEvent goToRX = new TimeEvent(0, "CC1101 go to RX") {
-                                public void execute(long t) {
-                                    if(getState() == CC1101RadioState.CC1101_STATE_RX) {
-                                        /* Radio already in RX, ignore */
-                                        return;
-                                    }
-                                    rxfifo.clear();
-                                    rxExpectedLen = -1;
-                                    rxGotSynchByte = false;
-                                    setGDO0(false);
-                                    setState(CC1101RadioState.CC1101_STATE_RX);
-                                }
-                            };
                         int RXTIME = 190;
-                        cpu.scheduleTimeEventMillis(goToRX, RXTIME / 1000.0);
-
-                        TimeEvent rssiValid = new TimeEvent(0, "CC1101 set RSSI valid") {
-                                public void execute(long t) {
-                                    log("RSSI is now valid");
-                                    currentRssiValid = true;
-                                }
-                            };
+                        cpu.scheduleTimeEventMillis(goToRXEvent, RXTIME / 1000.0);
+
                         log("RSSI is not valid");
                         int RSSITIME = 380;
-                        cpu.scheduleTimeEventMillis(rssiValid, RSSITIME / 1000.0);
+                        cpu.scheduleTimeEventMillis(rssiValidEvent, RSSITIME / 1000.0);
                         //                        setState(CC1101RadioState.CC1101_STATE_RX);
                     } else {
                         setStateRX();
@@ -706,6 +713,19 @@ public class CC1101 extends Radio802154 implements USARTListener {
 	boolean rxGotSynchByte = false;
 	private int rxExpectedLen = -1;
 	public void receivedByte(byte data) {
+		StimulusRecorder recorder = cpu.getStimulusRecorder();
+		if (recorder != null && recorder.enter(this, StimulusRecorder.RADIO, data & 0xff)) {
+			try {
+				receiveByte(data);
+			} finally {
+				recorder.exit();
+			}
+		} else {
+			receiveByte(data);
+		}
+	}
+
+	private void receiveByte(byte data) {
             if(state != CC1101RadioState.CC1101_STATE_RX) {
                 return;
             }
@@ -902,4 +922,79 @@ public class CC1101 extends Radio802154 implements USARTListener {
     return status;
   }
 
+	private static void saveFIFO(SnapshotOutput out, List<Byte> fifo) throws IOException {
+		out.writeInt(fifo.size());
+		for (byte data : fifo) {
+			out.writeByte(data);
+		}
+	}
+
+	private static void loadFIFO(SnapshotInput in, List<Byte> fifo) throws IOException {
+		fifo.clear();
+		for (int i = in.readInt(); i > 0; i--) {
+			fifo.add(in.readByte());
+		}
+	}
+
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+		out.writeInt(getMode());
+		out.writeInt(state.ordinal());
+		out.writeBoolean(triggerGDO0onSynch);
+		out.writeBoolean(triggerGDO0onFifoThreshold);
+		out.writeBoolean(currentRssiValid);
+		out.writeInt(currentRssiReg);
+		out.writeIntArray(registers);
+		out.writeIntArray(memory);
+		out.writeBoolean(chipSelect);
+		out.writeInt(channel);
+		out.writeBoolean(spiBurstMode);
+		out.writeBoolean(spiReadMode);
+		out.writeBoolean(spiGotAddress);
+		out.writeInt(spiAddress);
+		out.writeInt(txFooterCountdown);
+		out.writeBoolean(txSentSynchByte);
+		out.writeInt(txSendSynchByteCnt);
+		out.writeBoolean(txSentFirstCRC);
+		out.writeBoolean(receiverOn);
+		out.writeBoolean(rxGotSynchByte);
+		out.writeInt(rxExpectedLen);
+		out.writeBoolean(lastWasRead);
+		saveFIFO(out, txfifo);
+		saveFIFO(out, rxfifo);
+		out.writeTimeEvent(sendEvent);
+		out.writeTimeEvent(goToRXEvent);
+		out.writeTimeEvent(rssiValidEvent);
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+		setMode(in.readInt());
+		state = CC1101RadioState.values()[in.readInt()];
+		triggerGDO0onSynch = in.readBoolean();
+		triggerGDO0onFifoThreshold = in.readBoolean();
+		currentRssiValid = in.readBoolean();
+		currentRssiReg = in.readInt();
+		in.readIntArray(registers);
+		in.readIntArray(memory);
+		chipSelect = in.readBoolean();
+		channel = in.readInt();
+		spiBurstMode = in.readBoolean();
+		spiReadMode = in.readBoolean();
+		spiGotAddress = in.readBoolean();
+		spiAddress = in.readInt();
+		txFooterCountdown = in.readInt();
+		txSentSynchByte = in.readBoolean();
+		txSendSynchByteCnt = in.readInt();
+		txSentFirstCRC = in.readBoolean();
+		receiverOn = in.readBoolean();
+		rxGotSynchByte = in.readBoolean();
+		rxExpectedLen = in.readInt();
+		lastWasRead = in.readBoolean();
+		loadFIFO(in, txfifo);
+		loadFIFO(in, rxfifo);
+		in.readTimeEvent(sendEvent);
+		in.readTimeEvent(goToRXEvent);
+		in.readTimeEvent(rssiValidEvent);
+	}
 }
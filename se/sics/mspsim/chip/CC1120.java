@@ -29,16 +29,21 @@
 
 package se.sics.mspsim.chip;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
+import se.sics.mspsim.core.StimulusRecorder;
 import se.sics.mspsim.core.TimeEvent;
 import se.sics.mspsim.core.USARTListener;
 import se.sics.mspsim.core.USARTSource;
 
-public class CC1120 extends Radio802154 implements USARTListener {
+public class CC1120 extends Radio802154 implements USARTListener, Snapshotable {
 
 	/* cc1120-const.h: Configuration registers */
 	public final static int CC1120_IOCFG3 = 0x00;
@@ -298,6 +303,20 @@ public class CC1120 extends Radio802154 implements USARTListener {
 		}
 	};
 
+	private TimeEvent goToRXEvent = new TimeEvent(0, "CC1120 go to RX") {
+		public void execute(long t) {
+			if (getState() == CC1120RadioState.CC1120_STATE_RX) {
+				/* Radio already in RX, ignore */
+				return;
+			}
+			rxfifo.clear();
+			rxExpectedLen = -1;
+			rxGotSynchByte = false;
+			setGDO0(false);
+			setState(CC1120RadioState.CC1120_STATE_RX);
+		}
+	};
+
 	protected boolean DEBUG = false;
 
 	public final static double BITRATE_BYTE_DURATION = 0.16; /* ms. Duration per byte transmitted, corresponds to 50kbit/s */
@@ -361,20 +380,6 @@ public class CC1120 extends Radio802154 implements USARTListener {
 
 			if(getState() == CC1120RadioState.CC1120_STATE_IDLE ||
 			getState() == CC1120RadioState.CC1120_STATE_SLEEP) {
-				TimeEvent goToRX = new TimeEvent(0, "CC1120 go to RX") {
-					public void execute(long t) {
-						if(getState() == CC1120RadioState.CC1120_STATE_RX) {
-							/* Radio already in RX, ignore */
-							return;
-						}
-						rxfifo.clear();
-						rxExpectedLen = -1;
-						rxGotSynchByte = false;
-						setGDO0(false);
-						setState(CC1120RadioState.CC1120_STATE_RX);
-					}
-				};
-
 				/* The time to activate RX depends on SETTLING_CFG's FS_AUTOCAL settings.
 				 * Calibrated from trxeb1120 platform. */
 				double stateDelay;
@@ -388,7 +393,7 @@ public class CC1120 extends Radio802154 implements USARTListener {
 					/* not implemented: assuming calibration */
 					stateDelay = 0.50;
 				}
-				cpu.scheduleTimeEventMillis(goToRX, stateDelay);
+				cpu.scheduleTimeEventMillis(goToRXEvent, stateDelay);
 
 			} else {
 				setStateRX();
@@ -904,6 +909,19 @@ public class CC1120 extends Radio802154 implements USARTListener {
 	boolean rxGotSynchByte = false;
 	private int rxExpectedLen = -1;
 	public void receivedByte(byte data) {
+		StimulusRecorder recorder = cpu.getStimulusRecorder();
+		if (recorder != null && recorder.enter(this, StimulusRecorder.RADIO, data & 0xff)) {
+			try {
+				receiveByte(data);
+			} finally {
+				recorder.exit();
+			}
+		} else {
+			receiveByte(data);
+		}
+	}
+
+	private void receiveByte(byte data) {
 		if (!rxGotSynchByte) {
 			/* Await synch byte */
 			if (data == SYNCH_BYTE_LAST) {
@@ -1036,4 +1054,93 @@ public class CC1120 extends Radio802154 implements USARTListener {
 		return getState().getStateAsInt();
 	}
 
+	private static void saveFIFO(SnapshotOutput out, List<Byte> fifo) throws IOException {
+		out.writeInt(fifo.size());
+		for (byte data : fifo) {
+			out.writeByte(data);
+		}
+	}
+
+	private static void loadFIFO(SnapshotInput in, List<Byte> fifo) throws IOException {
+		fifo.clear();
+		for (int i = in.readInt(); i > 0; i--) {
+			fifo.add(in.readByte());
+		}
+	}
+
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+		out.writeInt(getMode());
+		out.writeInt(state.ordinal());
+		out.writeBoolean(triggerGDO0onSynch);
+		out.writeBoolean(triggerGDO0onFifoThreshold);
+		out.writeInt(currentRssiReg1);
+		out.writeInt(currentRssiReg0);
+		out.writeInt(currentRssi);
+		out.writeDouble(frequency);
+		out.writeInt(nextFreq0);
+		out.writeInt(nextFreq1);
+		out.writeInt(nextFreq2);
+		out.writeBoolean(changeFrequencyNextState);
+		out.writeIntArray(registers);
+		out.writeIntArray(extendedRegisters);
+		out.writeIntArray(memory);
+		out.writeBoolean(chipSelect);
+		out.writeBoolean(spiAwaitingAddressExtended);
+		out.writeBoolean(spiExtendedMode);
+		out.writeBoolean(spiBurstMode);
+		out.writeBoolean(spiReadMode);
+		out.writeBoolean(spiGotAddress);
+		out.writeInt(spiAddress);
+		out.writeInt(txFooterCountdown);
+		out.writeBoolean(txPreambleDelay);
+		out.writeBoolean(txSentSynchByte);
+		out.writeInt(txSendSynchByteCnt);
+		out.writeBoolean(txSentFirstCRC);
+		out.writeBoolean(receiverOn);
+		out.writeBoolean(rxGotSynchByte);
+		out.writeInt(rxExpectedLen);
+		saveFIFO(out, txfifo);
+		saveFIFO(out, rxfifo);
+		out.writeTimeEvent(sendEvent);
+		out.writeTimeEvent(goToRXEvent);
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+		setMode(in.readInt());
+		state = CC1120RadioState.values()[in.readInt()];
+		triggerGDO0onSynch = in.readBoolean();
+		triggerGDO0onFifoThreshold = in.readBoolean();
+		currentRssiReg1 = in.readInt();
+		currentRssiReg0 = in.readInt();
+		currentRssi = in.readInt();
+		frequency = in.readDouble();
+		nextFreq0 = in.readInt();
+		nextFreq1 = in.readInt();
+		nextFreq2 = in.readInt();
+		changeFrequencyNextState = in.readBoolean();
+		in.readIntArray(registers);
+		in.readIntArray(extendedRegisters);
+		in.readIntArray(memory);
+		chipSelect = in.readBoolean();
+		spiAwaitingAddressExtended = in.readBoolean();
+		spiExtendedMode = in.readBoolean();
+		spiBurstMode = in.readBoolean();
+		spiReadMode = in.readBoolean();
+		spiGotAddress = in.readBoolean();
+		spiAddress = in.readInt();
+		txFooterCountdown = in.readInt();
+		txPreambleDelay = in.readBoolean();
+		txSentSynchByte = in.readBoolean();
+		txSendSynchByteCnt = in.readInt();
+		txSentFirstCRC = in.readBoolean();
+		receiverOn = in.readBoolean();
+		rxGotSynchByte = in.readBoolean();
+		rxExpectedLen = in.readInt();
+		loadFIFO(in, txfifo);
+		loadFIFO(in, rxfifo);
+		in.readTimeEvent(sendEvent);
+		in.readTimeEvent(goToRXEvent);
+	}
 }
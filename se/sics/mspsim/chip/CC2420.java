@@ -37,9 +37,15 @@
  */
 
 package se.sics.mspsim.chip;
+import java.io.IOException;
+
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
+import se.sics.mspsim.core.StimulusRecorder;
 import se.sics.mspsim.core.TimeEvent;
 import se.sics.mspsim.core.USARTListener;
 import se.sics.mspsim.core.USARTSource;
@@ -47,7 +53,7 @@ import se.sics.mspsim.util.ArrayFIFO;
 import se.sics.mspsim.util.CCITT_CRC;
 import se.sics.mspsim.util.Utils;
 
-public class CC2420 extends Radio802154 implements USARTListener {
+public class CC2420 extends Radio802154 implements USARTListener, Snapshotable {
 
   public enum Reg {
     SNOP, SXOSCON, STXCAL, SRXON, /* 0x00 */
@@ -572,6 +578,19 @@ public class CC2420 extends Radio802154 implements USARTListener {
    * @see se.sics.mspsim.chip.RFListener#receivedByte(byte)
    */
   public void receivedByte(byte data) {
+    StimulusRecorder recorder = cpu.getStimulusRecorder();
+    if (recorder != null && recorder.enter(this, StimulusRecorder.RADIO, data & 0xff)) {
+      try {
+        receiveByte(data);
+      } finally {
+        recorder.exit();
+      }
+    } else {
+      receiveByte(data);
+    }
+  }
+
+  private void receiveByte(byte data) {
       // Received a byte from the "air"
 
       if (logLevel > INFO)
@@ -1446,6 +1465,132 @@ public class CC2420 extends Radio802154 implements USARTListener {
     registers[register] = data;
   }
 
+  /*****************************************************************************
+   * Snapshot support
+   *****************************************************************************/
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(getMode());
+    out.writeInt(stateMachine.ordinal());
+    out.writeInt(state.ordinal());
+    out.writeInt(usartDataPos);
+    out.writeInt(usartDataAddress);
+    out.writeInt(usartDataValue);
+    out.writeInt(shrPos);
+    out.writeInt(txfifoPos);
+    out.writeBoolean(txfifoFlush);
+    out.writeInt(rxfifoReadLeft);
+    out.writeInt(rxlen);
+    out.writeInt(rxread);
+    out.writeInt(zeroSymbols);
+    out.writeBoolean(ramRead);
+    out.writeInt(rssi);
+    out.writeBoolean(cca);
+    out.writeInt(corrval);
+    out.writeInt(fifopThr);
+    out.writeBoolean(autoAck);
+    out.writeBoolean(shouldAck);
+    out.writeBoolean(addressDecode);
+    out.writeBoolean(ackRequest);
+    out.writeBoolean(autoCRC);
+    out.writeInt(dsn);
+    out.writeInt(fcf0);
+    out.writeInt(fcf1);
+    out.writeInt(frameType);
+    out.writeBoolean(crcOk);
+    out.writeInt(activeFrequency);
+    out.writeInt(activeChannel);
+    out.writeInt(status);
+    out.writeIntArray(registers);
+    out.writeIntArray(memory);
+    out.write(SHR);
+    out.writeBoolean(chipSelect);
+    out.writeInt(txCursor);
+    out.writeBoolean(on);
+    out.writeBoolean(currentCCA);
+    out.writeBoolean(currentSFD);
+    out.writeBoolean(currentFIFO);
+    out.writeBoolean(currentFIFOP);
+    out.writeBoolean(overflow);
+    out.writeBoolean(frameRejected);
+    out.writeInt(ackPos);
+    out.writeIntArray(ackBuf);
+    out.writeBoolean(ackFramePending);
+    out.writeInt(rxCrc.getCRC());
+    out.writeInt(txCrc.getCRC());
+    out.writeInt(destinationAddressMode);
+    out.writeBoolean(decodeAddress);
+    rxFIFO.saveState(out);
+    out.writeTimeEvent(oscillatorEvent);
+    out.writeTimeEvent(vregEvent);
+    out.writeTimeEvent(sendEvent);
+    out.writeTimeEvent(ackEvent);
+    out.writeTimeEvent(shrEvent);
+    out.writeTimeEvent(symbolEvent);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    setMode(in.readInt());
+    stateMachine = RadioState.values()[in.readInt()];
+    state = SpiState.values()[in.readInt()];
+    usartDataPos = in.readInt();
+    usartDataAddress = in.readInt();
+    usartDataValue = in.readInt();
+    shrPos = in.readInt();
+    txfifoPos = in.readInt();
+    txfifoFlush = in.readBoolean();
+    rxfifoReadLeft = in.readInt();
+    rxlen = in.readInt();
+    rxread = in.readInt();
+    zeroSymbols = in.readInt();
+    ramRead = in.readBoolean();
+    rssi = in.readInt();
+    cca = in.readBoolean();
+    corrval = in.readInt();
+    fifopThr = in.readInt();
+    autoAck = in.readBoolean();
+    shouldAck = in.readBoolean();
+    addressDecode = in.readBoolean();
+    ackRequest = in.readBoolean();
+    autoCRC = in.readBoolean();
+    dsn = in.readInt();
+    fcf0 = in.readInt();
+    fcf1 = in.readInt();
+    frameType = in.readInt();
+    crcOk = in.readBoolean();
+    activeFrequency = in.readInt();
+    activeChannel = in.readInt();
+    status = in.readInt();
+    in.readIntArray(registers);
+    in.readIntArray(memory);
+    in.readFully(SHR);
+    chipSelect = in.readBoolean();
+    txCursor = in.readInt();
+    on = in.readBoolean();
+    currentCCA = in.readBoolean();
+    currentSFD = in.readBoolean();
+    currentFIFO = in.readBoolean();
+    currentFIFOP = in.readBoolean();
+    overflow = in.readBoolean();
+    frameRejected = in.readBoolean();
+    ackPos = in.readInt();
+    in.readIntArray(ackBuf);
+    ackFramePending = in.readBoolean();
+    rxCrc.setCRC(in.readInt());
+    txCrc.setCRC(in.readInt());
+    destinationAddressMode = in.readInt();
+    decodeAddress = in.readBoolean();
+    rxFIFO.loadState(in);
+    in.readTimeEvent(oscillatorEvent);
+    in.readTimeEvent(vregEvent);
+    in.readTimeEvent(sendEvent);
+    in.readTimeEvent(ackEvent);
+    in.readTimeEvent(shrEvent);
+    in.readTimeEvent(symbolEvent);
+  }
+
   /*****************************************************************************
    * Chip APIs
    *****************************************************************************/
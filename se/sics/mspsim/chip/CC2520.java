@@ -35,13 +35,15 @@
  */
 
 package se.sics.mspsim.chip;
+import java.io.IOException;
+
 import se.sics.mspsim.core.*;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.ArrayFIFO;
 import se.sics.mspsim.util.CCITT_CRC;
 import se.sics.mspsim.util.Utils;
 
-public class CC2520 extends Radio802154 implements USARTListener, SPIData {
+public class CC2520 extends Radio802154 implements USARTListener, SPIData, Snapshotable {
 
     public static class GPIO {
         private IOPort port;
@@ -708,6 +710,19 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
      * @see se.sics.mspsim.chip.RFListener#receivedByte(byte)
      */
     public void receivedByte(byte data) {
+        StimulusRecorder recorder = cpu.getStimulusRecorder();
+        if (recorder != null && recorder.enter(this, StimulusRecorder.RADIO, data & 0xff)) {
+            try {
+                receiveByte(data);
+            } finally {
+                recorder.exit();
+            }
+        } else {
+            receiveByte(data);
+        }
+    }
+
+    private void receiveByte(byte data) {
         // Received a byte from the "air"
 
         if (DEBUG)
@@ -1529,6 +1544,148 @@ public class CC2520 extends Radio802154 implements USARTListener, SPIData {
         gpio[index].setConfig(port, pin);
     }
 
+    private int indexOf(GPIO g) {
+        for (int i = 0; i < gpio.length; i++) {
+            if (gpio[i] == g) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        out.writeInt(getMode());
+        out.writeInt(stateMachine.ordinal());
+        out.writeInt(instructionBuffer);
+        out.writeInt(shrPos);
+        out.writeInt(txfifoPos);
+        out.writeBoolean(txfifoFlush);
+        out.writeInt(rxfifoReadLeft);
+        out.writeInt(rxlen);
+        out.writeInt(rxread);
+        out.writeInt(zeroSymbols);
+        out.writeInt(rssi);
+        out.writeInt(corrval);
+        out.writeInt(fifopThr);
+        out.writeBoolean(frameFilter);
+        out.writeBoolean(autoAck);
+        out.writeBoolean(shouldAck);
+        out.writeBoolean(ackRequest);
+        out.writeBoolean(autoCRC);
+        out.writeInt(dsn);
+        out.writeInt(fcf0);
+        out.writeInt(fcf1);
+        out.writeInt(frameType);
+        out.writeBoolean(crcOk);
+        out.writeInt(activeFrequency);
+        out.writeInt(activeChannel);
+        out.writeInt(status);
+        out.writeIntArray(memory);
+        out.writeIntArray(spiData);
+        out.writeInt(spiLen);
+        out.write(SHR);
+        out.writeInt(outputSPI);
+        out.writeBoolean(chipSelect);
+        out.writeBoolean(currentFIFO);
+        out.writeBoolean(currentFIFOP);
+        out.writeBoolean(currentCCA);
+        out.writeInt(txCursor);
+        out.writeBoolean(isRadioOn);
+        out.writeBoolean(overflow);
+        out.writeBoolean(frameRejected);
+        out.writeInt(ackPos);
+        out.writeIntArray(ackBuf);
+        out.writeBoolean(ackFramePending);
+        out.writeInt(destinationAddressMode);
+        out.writeBoolean(decodeAddress);
+        /* the SPI commands are stateless and found again from the first SPI byte */
+        out.writeBoolean(command != null);
+        out.writeInt(rxCrc.getCRC());
+        out.writeInt(txCrc.getCRC());
+        for (GPIO g : gpio) {
+            out.writeBoolean(g.polarity);
+            out.writeBoolean(g.isActive);
+        }
+        out.writeInt(indexOf(fifoGPIO));
+        out.writeInt(indexOf(fifopGPIO));
+        out.writeInt(indexOf(ccaGPIO));
+        out.writeInt(indexOf(sfdGPIO));
+        rxFIFO.saveState(out);
+        out.writeTimeEvent(oscillatorEvent);
+        out.writeTimeEvent(vregEvent);
+        out.writeTimeEvent(sendEvent);
+        out.writeTimeEvent(ackEvent);
+        out.writeTimeEvent(shrEvent);
+        out.writeTimeEvent(symbolEvent);
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        setMode(in.readInt());
+        stateMachine = RadioState.values()[in.readInt()];
+        instructionBuffer = in.readInt();
+        shrPos = in.readInt();
+        txfifoPos = in.readInt();
+        txfifoFlush = in.readBoolean();
+        rxfifoReadLeft = in.readInt();
+        rxlen = in.readInt();
+        rxread = in.readInt();
+        zeroSymbols = in.readInt();
+        rssi = in.readInt();
+        corrval = in.readInt();
+        fifopThr = in.readInt();
+        frameFilter = in.readBoolean();
+        autoAck = in.readBoolean();
+        shouldAck = in.readBoolean();
+        ackRequest = in.readBoolean();
+        autoCRC = in.readBoolean();
+        dsn = in.readInt();
+        fcf0 = in.readInt();
+        fcf1 = in.readInt();
+        frameType = in.readInt();
+        crcOk = in.readBoolean();
+        activeFrequency = in.readInt();
+        activeChannel = in.readInt();
+        status = in.readInt();
+        in.readIntArray(memory);
+        in.readIntArray(spiData);
+        spiLen = in.readInt();
+        in.readFully(SHR);
+        outputSPI = in.readInt();
+        chipSelect = in.readBoolean();
+        currentFIFO = in.readBoolean();
+        currentFIFOP = in.readBoolean();
+        currentCCA = in.readBoolean();
+        txCursor = in.readInt();
+        isRadioOn = in.readBoolean();
+        overflow = in.readBoolean();
+        frameRejected = in.readBoolean();
+        ackPos = in.readInt();
+        in.readIntArray(ackBuf);
+        ackFramePending = in.readBoolean();
+        destinationAddressMode = in.readInt();
+        decodeAddress = in.readBoolean();
+        command = in.readBoolean() ? cc2520SPI.getCommand(spiData[0]) : null;
+        rxCrc.setCRC(in.readInt());
+        txCrc.setCRC(in.readInt());
+        for (GPIO g : gpio) {
+            g.polarity = in.readBoolean();
+            g.isActive = in.readBoolean();
+        }
+        fifoGPIO = gpio[in.readInt()];
+        fifopGPIO = gpio[in.readInt()];
+        ccaGPIO = gpio[in.readInt()];
+        sfdGPIO = gpio[in.readInt()];
+        rxFIFO.loadState(in);
+        in.readTimeEvent(oscillatorEvent);
+        in.readTimeEvent(vregEvent);
+        in.readTimeEvent(sendEvent);
+        in.readTimeEvent(ackEvent);
+        in.readTimeEvent(shrEvent);
+        in.readTimeEvent(symbolEvent);
+    }
+
 
     /*****************************************************************************
      * Chip APIs
@@ -36,13 +36,18 @@
  */
 package se.sics.mspsim.chip;
 
+import java.io.IOException;
+
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
 import se.sics.mspsim.core.TimeEvent;
 import se.sics.mspsim.util.Utils;
 
-public class DS2411 extends Chip {
+public class DS2411 extends Chip implements Snapshotable {
   
   private enum STATE {
     IDLE, WAIT_FOR_RESET, RESETTING, SIGNAL_READY, READY, WAIT_SENDING, SENDING
@@ -242,4 +247,29 @@ public class DS2411 extends Chip {
   public int getConfiguration(int parameter) {
       return 0;
   }
+
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(state.ordinal());
+    out.writeBoolean(lastPin);
+    out.writeInt(pos);
+    out.writeInt(readByte);
+    out.writeInt(writeByte);
+    out.writeInt(writeLen);
+    out.writeInt(writePos);
+    out.writeIntArray(writeBuf);
+    out.writeTimeEvent(stateEvent);
+  }
+
+  public void loadState(SnapshotInput in) throws IOException {
+    state = STATE.values()[in.readInt()];
+    lastPin = in.readBoolean();
+    pos = in.readInt();
+    readByte = in.readInt();
+    writeByte = in.readInt();
+    writeLen = in.readInt();
+    writePos = in.readInt();
+    in.readIntArray(writeBuf);
+    in.readTimeEvent(stateEvent);
+    stateChanged(state.ordinal());
+  }
 }
@@ -33,14 +33,18 @@
 
 package se.sics.mspsim.chip;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.IOPort.PinState;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
 
-public class Enc28J60 extends Chip {
+public class Enc28J60 extends Chip implements Snapshotable {
 	protected boolean DEBUG = false;
 
 	public static final int EIE = 0x1b;
@@ -269,4 +273,56 @@ public class Enc28J60 extends Chip {
 	public int getModeMax() {
 		return -1;
 	}
+
+	private static void saveData(SnapshotOutput out, ArrayList<Byte> data) throws IOException {
+		out.writeInt(data.size());
+		for (byte b : data) {
+			out.writeByte(b);
+		}
+	}
+
+	private static void loadData(SnapshotInput in, ArrayList<Byte> data) throws IOException {
+		data.clear();
+		for (int i = in.readInt(); i > 0; i--) {
+			data.add(in.readByte());
+		}
+	}
+
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+		out.writeBoolean(writingToWBM);
+		out.writeBoolean(readingFromRBM);
+		out.writeBoolean(nextEcon1);
+		out.writeBoolean(nextEcon2);
+		out.writeInt(spiOut);
+		out.writeInt(spiOutCount);
+		out.writeInt(spiIn);
+		out.writeInt(spiInCount);
+		saveData(out, wbmData);
+		out.writeInt(rbmPackets.size());
+		for (RbmPacket packet : rbmPackets) {
+			saveData(out, packet.data);
+			out.writeBoolean(packet.wasRead);
+		}
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+		writingToWBM = in.readBoolean();
+		readingFromRBM = in.readBoolean();
+		nextEcon1 = in.readBoolean();
+		nextEcon2 = in.readBoolean();
+		spiOut = in.readInt();
+		spiOutCount = in.readInt();
+		spiIn = in.readInt();
+		spiInCount = in.readInt();
+		loadData(in, wbmData);
+		rbmPackets.clear();
+		for (int i = in.readInt(); i > 0; i--) {
+			RbmPacket packet = new RbmPacket();
+			loadData(in, packet.data);
+			packet.wasRead = in.readBoolean();
+			rbmPackets.add(packet);
+		}
+	}
 }
@@ -30,8 +30,13 @@
  */
 package se.sics.mspsim.chip;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
 
 public abstract class ExternalFlash extends Chip {
 
@@ -58,6 +63,88 @@ public abstract class ExternalFlash extends Chip {
         this.storage = storage;
     }
 
+    /**
+     * Creates an independent copy of the current storage for a forked node.
+     * An overlay storage is copied with its written pages on the shared read
+     * only base. Any other storage is left as is, and written through to by
+     * this node, while the copy is an overlay on a frozen in-memory copy of
+     * its current contents.
+     */
+    public Storage forkStorage() throws IOException {
+        Storage storage = getStorage();
+        if (storage instanceof OverlayStorage) {
+            return ((OverlayStorage) storage).copy();
+        }
+        MemoryStorage frozen = new MemoryStorage();
+        byte[] data = readStorage();
+        frozen.write(0, data);
+        frozen.setMaxSize(storage.getMaxSize());
+        return new OverlayStorage(frozen);
+    }
+
+    /* Reads the contents of the storage up to the size of the flash */
+    private byte[] readStorage() throws IOException {
+        byte[] data = new byte[getSize()];
+        Storage storage = getStorage();
+        long maxSize = storage.getMaxSize();
+        int len = maxSize > 0 ? (int) Math.min(data.length, maxSize) : data.length;
+        if (len > 0) {
+            storage.read(0, data, 0, len);
+        }
+        return data;
+    }
+
+    /**
+     * Saves the pages written to an overlay storage, or the contents of any
+     * other type of storage.
+     */
+    protected void saveStorage(SnapshotOutput out) throws IOException {
+        if (storage instanceof OverlayStorage) {
+            out.writeBoolean(true);
+            ((OverlayStorage) storage).savePages(out);
+        } else {
+            out.writeBoolean(false);
+            byte[] data = readStorage();
+            out.writeInt(data.length);
+            out.writeMemoryRLE(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Restores the storage saved by {@link #saveStorage(SnapshotOutput)}.
+     * Saved overlay pages are restored in an overlay, and the current storage
+     * becomes the base of a new overlay if it is not already an overlay.
+     * Saved storage contents are written to the current storage, only the
+     * pages that differ to avoid needless writes to a storage file.
+     */
+    protected void loadStorage(SnapshotInput in) throws IOException {
+        if (in.readBoolean()) {
+            OverlayStorage overlay;
+            if (storage instanceof OverlayStorage) {
+                overlay = (OverlayStorage) storage;
+            } else {
+                overlay = new OverlayStorage(getStorage());
+                setStorage(overlay);
+            }
+            overlay.loadPages(in);
+        } else {
+            int size = in.readInt();
+            if (size != getSize()) {
+                throw new IOException("storage size " + size + " does not match flash size " + getSize());
+            }
+            byte[] data = new byte[size];
+            in.readMemoryRLE(data, 0, size);
+            byte[] current = readStorage();
+            for (int pos = 0; pos < size; pos += OverlayStorage.PAGE_SIZE) {
+                int len = Math.min(OverlayStorage.PAGE_SIZE, size - pos);
+                if (!Arrays.equals(Arrays.copyOfRange(data, pos, pos + len),
+                        Arrays.copyOfRange(current, pos, pos + len))) {
+                    getStorage().write(pos, data, pos, len);
+                }
+            }
+        }
+    }
+
     @Override
     public int getConfiguration(int param) {
         return 0;
@@ -44,6 +44,7 @@ import java.util.regex.Pattern;
 public class FileStorage implements Storage {
 
     private String filename;
+    private final boolean readOnly;
     private String currentFilename;
     private RandomAccessFile file;
     private FileChannel fileChannel;
@@ -55,7 +56,20 @@ public class FileStorage implements Storage {
     }
 
     public FileStorage(String filename) {
+        this(filename, false);
+    }
+
+    /**
+     * Creates a file storage. A read only storage does not lock the file and
+     * can be shared, for example as base image for several overlay storages.
+     */
+    public FileStorage(String filename, boolean readOnly) {
         this.filename = filename;
+        this.readOnly = readOnly;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
     }
 
     private boolean ensureOpen(boolean write) throws IOException {
@@ -69,6 +83,12 @@ public class FileStorage implements Storage {
                 return false;
             }
         }
+        if (readOnly) {
+            currentFilename = filename;
+            file = new RandomAccessFile(filename, "r");
+            fileChannel = file.getChannel();
+            return true;
+        }
 
         // Open flash file for R/W
         if (!openFile(filename)) {
@@ -159,6 +179,9 @@ public class FileStorage implements Storage {
         if (maxSize > 0 && pos + len > maxSize) {
             throw new IOException("outside storage");
         }
+        if (readOnly) {
+            throw new IOException("storage file '" + filename + "' is read only");
+        }
         if (file != null || ensureOpen(true)) {
             file.seek(pos);
             file.write(b, offset, len);
@@ -173,7 +196,7 @@ public class FileStorage implements Storage {
     @Override
     public void setMaxSize(long size) {
         this.maxSize = size;
-        if (size > 0 && file != null) {
+        if (size > 0 && file != null && !readOnly) {
             try {
                 if (file.length() > size) {
                     file.setLength(size);
@@ -205,7 +228,7 @@ public class FileStorage implements Storage {
     public String info() {
         File fp = getCurrentFile();
         StringBuilder sb = new StringBuilder();
-        sb.append("FileStorage(");
+        sb.append(readOnly ? "FileStorage(read only, " : "FileStorage(");
         if (file != null) {
             try {
                 long len = file.length();
@@ -42,11 +42,15 @@
 
 package se.sics.mspsim.chip;
 
+import java.io.IOException;
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
 import se.sics.mspsim.util.Utils;
 
-public class Leds extends Chip {
+public class Leds extends Chip implements Snapshotable {
 
     private final int[] ledColors;
 
@@ -105,4 +109,14 @@ public class Leds extends Chip {
         return 0;
     }
 
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        out.writeInt(leds);
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        setLeds(in.readInt());
+    }
+
 }
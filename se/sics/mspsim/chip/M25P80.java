@@ -47,7 +47,7 @@ import se.sics.mspsim.core.*;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.Utils;
 
-public class M25P80 extends ExternalFlash implements USARTListener, PortListener, Memory {
+public class M25P80 extends ExternalFlash implements USARTListener, PortListener, Memory, Snapshotable {
 
   public static final int WRITE_STATUS = 0x01;
   public static final int PAGE_PROGRAM = 0x02;
@@ -384,6 +384,41 @@ public class M25P80 extends ExternalFlash implements USARTListener, PortListener
     }
   }
 
+  /* The storage is not part of the snapshot - it is kept by the node */
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(state);
+    out.writeBoolean(chipSelect);
+    out.writeInt(pos);
+    out.writeInt(status);
+    out.writeBoolean(writeEnable);
+    out.writeBoolean(writing);
+    out.writeInt(readAddress);
+    out.writeInt(loadedAddress);
+    out.writeInt(blockWriteAddress);
+    out.write(readMemory);
+    out.write(buffer);
+    out.writeTimeEvent(writeEvent);
+    saveStorage(out);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    state = in.readInt();
+    chipSelect = in.readBoolean();
+    pos = in.readInt();
+    status = in.readInt();
+    writeEnable = in.readBoolean();
+    writing = in.readBoolean();
+    readAddress = in.readInt();
+    loadedAddress = in.readInt();
+    blockWriteAddress = in.readInt();
+    in.readFully(readMemory);
+    in.readFully(buffer);
+    in.readTimeEvent(writeEvent);
+    loadStorage(in);
+  }
+
   @Override
   public int getModeMax() {
     return 0;
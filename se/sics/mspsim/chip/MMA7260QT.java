@@ -39,7 +39,10 @@
  */
 
 package se.sics.mspsim.chip;
+import java.io.IOException;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
 
 /**
  * MMA7260QT - 1.5g-6g Three Axis Low-g Micromachined Accelerometer
@@ -117,6 +120,18 @@ public class MMA7260QT extends Accelerometer {
                 getX(), getADCX(), getY(), getADCY(), getZ(), getADCZ());
     }
 
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        super.saveState(out);
+        out.writeInt(gSelect);
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        super.loadState(in);
+        gSelect = in.readInt();
+    }
+
     /* currently just return the gSelect as configuration */
     @Override
     public int getConfiguration(int parameter) {
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ */
+package se.sics.mspsim.chip;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Copy-on-write storage on top of a base storage. Written pages are kept in
+ * memory and the base storage is never modified, which allows several nodes
+ * to share one base image. The written pages are part of node snapshots.
+ */
+public class OverlayStorage implements Storage {
+
+    public static final int PAGE_SIZE = 4096;
+
+    private final Storage base;
+    private final TreeMap<Long,byte[]> pages = new TreeMap<Long,byte[]>();
+    private long maxSize;
+
+    public OverlayStorage(Storage base) {
+        this.base = base;
+        this.maxSize = base.getMaxSize();
+    }
+
+    public Storage getBase() {
+        return base;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Creates a new overlay on the same base storage with a copy of the
+     * pages written to this overlay.
+     */
+    public OverlayStorage copy() {
+        OverlayStorage copy = new OverlayStorage(base);
+        copy.maxSize = maxSize;
+        for (Map.Entry<Long,byte[]> entry : pages.entrySet()) {
+            copy.pages.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+
+    /* Reads from the base storage with any data missing in the base read as zeroes */
+    private void readBase(long pos, byte[] buffer, int offset, int len) throws IOException {
+        long baseSize = base.getMaxSize();
+        int n = 0;
+        if (baseSize <= 0 || pos < baseSize) {
+            int available = baseSize > 0 ? (int) Math.min(len, baseSize - pos) : len;
+            n = Math.max(base.read(pos, buffer, offset, available), 0);
+        }
+        if (n < len) {
+            Arrays.fill(buffer, offset + n, offset + len, (byte) 0);
+        }
+    }
+
+    @Override
+    public int read(long pos, byte[] buffer) throws IOException {
+        return read(pos, buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(long pos, byte[] buffer, int offset, int len) throws IOException {
+        if (maxSize > 0 && pos + len > maxSize) {
+            throw new IOException("outside storage");
+        }
+        for (int done = 0; done < len; ) {
+            long page = (pos + done) / PAGE_SIZE;
+            int pageOffset = (int) ((pos + done) % PAGE_SIZE);
+            int n = Math.min(len - done, PAGE_SIZE - pageOffset);
+            byte[] data = pages.get(page);
+            if (data != null) {
+                System.arraycopy(data, pageOffset, buffer, offset + done, n);
+            } else {
+                readBase(pos + done, buffer, offset + done, n);
+            }
+            done += n;
+        }
+        return len;
+    }
+
+    @Override
+    public void write(long pos, byte[] buffer) throws IOException {
+        write(pos, buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void write(long pos, byte[] buffer, int offset, int len) throws IOException {
+        if (maxSize > 0 && pos + len > maxSize) {
+            throw new IOException("outside storage");
+        }
+        for (int done = 0; done < len; ) {
+            long page = (pos + done) / PAGE_SIZE;
+            int pageOffset = (int) ((pos + done) % PAGE_SIZE);
+            int n = Math.min(len - done, PAGE_SIZE - pageOffset);
+            byte[] data = pages.get(page);
+            if (data == null) {
+                data = new byte[PAGE_SIZE];
+                if (n < PAGE_SIZE) {
+                    readBase(page * PAGE_SIZE, data, 0, PAGE_SIZE);
+                }
+                pages.put(page, data);
+            }
+            System.arraycopy(buffer, offset + done, data, pageOffset, n);
+            done += n;
+        }
+    }
+
+    @Override
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void setMaxSize(long size) {
+        /* the base storage is shared and left as is */
+        this.maxSize = size;
+    }
+
+    @Override
+    public void close() {
+        /* the base storage might be shared with other overlays and is not closed */
+    }
+
+    public void savePages(DataOutput out) throws IOException {
+        out.writeInt(PAGE_SIZE);
+        out.writeInt(pages.size());
+        for (Map.Entry<Long,byte[]> entry : pages.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.write(entry.getValue());
+        }
+    }
+
+    public void loadPages(DataInput in) throws IOException {
+        if (in.readInt() != PAGE_SIZE) {
+            throw new IOException("overlay page size does not match");
+        }
+        int count = in.readInt();
+        pages.clear();
+        for (int i = 0; i < count; i++) {
+            long page = in.readLong();
+            byte[] data = new byte[PAGE_SIZE];
+            in.readFully(data);
+            pages.put(page, data);
+        }
+    }
+
+    @Override
+    public String info() {
+        return "OverlayStorage(" + pages.size() + " written pages of " + PAGE_SIZE
+                + " bytes) on " + base.info();
+    }
+}
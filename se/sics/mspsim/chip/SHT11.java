@@ -41,13 +41,18 @@
 
 package se.sics.mspsim.chip;
 
+import java.io.IOException;
+
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
 import se.sics.mspsim.core.TimeEvent;
 import se.sics.mspsim.util.Utils;
 
-public class SHT11 extends Chip {
+public class SHT11 extends Chip implements Snapshotable {
 
   private static final int IDLE = 0;
   private static final int COMMAND = 1;
@@ -292,4 +297,36 @@ public class SHT11 extends Chip {
       return 0;
   }
 
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(initPos);
+    out.writeInt(state);
+    out.writeBoolean(clockHi);
+    out.writeBoolean(dataHi);
+    out.writeInt(readData);
+    out.writeInt(bitCnt);
+    out.writeInt(temp);
+    out.writeInt(humid);
+    out.writeIntArray(output);
+    out.writeInt(writePos);
+    out.writeInt(writeLen);
+    out.writeInt(writeData);
+    out.writeTimeEvent(measureEvent);
+  }
+
+  public void loadState(SnapshotInput in) throws IOException {
+    initPos = in.readInt();
+    state = in.readInt();
+    clockHi = in.readBoolean();
+    dataHi = in.readBoolean();
+    readData = in.readInt();
+    bitCnt = in.readInt();
+    temp = in.readInt();
+    humid = in.readInt();
+    in.readIntArray(output);
+    writePos = in.readInt();
+    writeLen = in.readInt();
+    writeData = in.readInt();
+    in.readTimeEvent(measureEvent);
+  }
+
 }
@@ -35,8 +35,13 @@
  */
 
 package se.sics.mspsim.chip;
+import java.io.IOException;
 import se.sics.mspsim.core.Chip;
 import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
+import se.sics.mspsim.core.StimulusRecorder;
 import se.sics.mspsim.core.USART;
 import se.sics.mspsim.core.USARTListener;
 import se.sics.mspsim.core.USARTSource;
@@ -44,7 +49,7 @@ import se.sics.mspsim.core.USARTSource;
 /**
  *
  */
-public class TR1001 extends Chip implements RFListener, RFSource {
+public class TR1001 extends Chip implements RFListener, RFSource, Snapshotable {
 
   public static final int MODE_TXRX_OFF = 0x00;
   public static final int MODE_RX_ON = 0x01;
@@ -104,6 +109,19 @@ public class TR1001 extends Chip implements RFListener, RFSource {
    * @see se.sics.mspsim.chip.RFListener#receivedByte(byte)
    */
   public void receivedByte(byte data) {
+    StimulusRecorder recorder = cpu.getStimulusRecorder();
+    if (recorder != null && recorder.enter(this, StimulusRecorder.RADIO, data & 0xff)) {
+      try {
+        receiveByte(data);
+      } finally {
+        recorder.exit();
+      }
+    } else {
+      receiveByte(data);
+    }
+  }
+
+  private void receiveByte(byte data) {
     if (getMode() == MODE_TXRX_OFF) {
       // Radio turned off
       if (DEBUG) {
@@ -124,4 +142,12 @@ public class TR1001 extends Chip implements RFListener, RFSource {
   public int getConfiguration(int parameter) {
       return 0;
   }
+
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(getMode());
+  }
+
+  public void loadState(SnapshotInput in) throws IOException {
+    setMode(in.readInt());
+  }
 }
@@ -33,6 +33,7 @@
  * Created : Mon Feb 11 2008
  */
 package se.sics.mspsim.cli;
+import java.io.IOException;
 import se.sics.mspsim.core.DbgInstruction;
 import se.sics.mspsim.core.DisAsm;
 import se.sics.mspsim.core.EmulationException;
@@ -362,6 +363,82 @@ public class DebugCommands implements CommandBundle {
           }
         });
 
+        ch.registerCommand("checkpoints", new BasicCommand("set interval for automatic checkpoints used for reverse execution",
+            "[cycles | off] [max checkpoints]") {
+          public int executeCommand(CommandContext context) {
+            if (context.getArgumentCount() > 0) {
+              if (cpu.isRunning()) {
+                context.err.println("Can not change checkpoints when emulation is running.");
+                return -1;
+              }
+              long interval = "off".equals(context.getArgument(0)) ? 0 : context.getArgumentAsLong(0);
+              int max = context.getArgumentCount() > 1 ? context.getArgumentAsInt(1) : cpu.getMaxCheckpoints();
+              try {
+                cpu.setCheckpointInterval(interval, max);
+              } catch (IOException e) {
+                context.err.println("Can not enable checkpoints: " + e.getMessage());
+                return 1;
+              }
+            }
+            if (cpu.getCheckpointInterval() > 0) {
+              context.out.println("Checkpoint every " + cpu.getCheckpointInterval() + " cycles, "
+                  + cpu.getCheckpointCount() + " of max " + cpu.getMaxCheckpoints() + " checkpoints saved");
+            } else {
+              context.out.println("Checkpoints are off");
+            }
+            return 0;
+          }
+        });
+
+        ch.registerCommand("reverse-step", new BasicCommand("single step the CPU backwards", "[number of instructions]") {
+          public int executeCommand(CommandContext context) {
+            long nr = context.getArgumentCount() > 0 ? context.getArgumentAsLong(0) : 1;
+            long cyc = cpu.cycles;
+            if (cpu.isRunning()) {
+                context.err.println("Can not single step when emulation is running.");
+                return -1;
+            }
+            if (cpu.getCheckpointCount() == 0) {
+                context.err.println("No checkpoints available - enable with 'checkpoints <cycles>'");
+                return 1;
+            }
+            try {
+              long steps = cpu.reverseStep(nr);
+              if (steps < nr) {
+                context.out.println("Reached oldest checkpoint after " + steps + " instructions");
+              }
+            } catch (Exception e) {
+              e.printStackTrace(context.out);
+            }
+            context.out.println("CPU stepped back to: $" + cpu.getAddressAsString(cpu.getPC()) +
+                " in " + (cyc - cpu.cycles) + " cycles (" + cpu.cycles + ")");
+            return 0;
+          }
+        });
+
+        ch.registerCommand("reverse-continue", new BasicCommand("run the CPU backwards until the previous breakpoint", "") {
+          public int executeCommand(CommandContext context) {
+            if (cpu.isRunning()) {
+                context.err.println("Can not reverse when emulation is running.");
+                return -1;
+            }
+            if (cpu.getCheckpointCount() == 0) {
+                context.err.println("No checkpoints available - enable with 'checkpoints <cycles>'");
+                return 1;
+            }
+            try {
+              if (!cpu.reverseContinue()) {
+                context.out.println("Reached oldest checkpoint");
+              }
+            } catch (Exception e) {
+              e.printStackTrace(context.out);
+            }
+            context.out.println("CPU stopped at: $" + cpu.getAddressAsString(cpu.getPC()) +
+                " (" + cpu.cycles + ")");
+            return 0;
+          }
+        });
+
         ch.registerCommand("stack", new BasicCommand("show stack info", "") {
           public int executeCommand(CommandContext context) {
             int stackEnd = context.getMapTable().heapStartAddress;
@@ -375,9 +452,9 @@ public class DebugCommands implements CommandBundle {
           public int executeCommand(CommandContext context) {
             int adr = context.getArgumentAsAddress(0);
             if (adr >= 0) {
-              int value = cpu.memory[adr];
+              int value = cpu.peekMemory(adr, AccessMode.BYTE);
               if (adr >= 0x100 && adr + 1 < cpu.MAX_MEM) {
-                  value |= cpu.memory[adr + 1] << 8;
+                  value |= cpu.peekMemory(adr + 1, AccessMode.BYTE) << 8;
               }
               context.out.println(context.getArgument(0) + " = $" + Utils.hex16(value));
               return 0;
@@ -472,7 +549,7 @@ public class DebugCommands implements CommandBundle {
             DisAsm disAsm = cpu.getDisAsm();
             for (int i = 0; i < count; i++) {
                 if (mode == Utils.DIS_ASM) {
-                    DbgInstruction dbg = disAsm.disassemble(start, cpu.memory, cpu.reg, new DbgInstruction(),
+                    DbgInstruction dbg = disAsm.disassemble(start, cpu, cpu.reg, new DbgInstruction(),
                             0);
                     String fkn;
                     if ((fkn = dbg.getFunction()) != null) {
@@ -482,9 +559,9 @@ public class DebugCommands implements CommandBundle {
                     start += dbg.getSize();
                 } else {
                     int data = 0;
-                    data = cpu.memory[start++];
+                    data = cpu.peekMemory(start++, AccessMode.BYTE);
                     if (Utils.size(type) == 2) {
-                        data = data  + (cpu.memory[start++] << 8);
+                        data = data  + (cpu.peekMemory(start++, AccessMode.BYTE) << 8);
                     }
                     context.out.print((mode != Utils.ASCII ? " " : "") + 
                             Utils.toString(data, type, mode));
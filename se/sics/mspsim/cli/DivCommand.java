@@ -1,12 +1,13 @@
 package se.sics.mspsim.cli;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
 
 import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.Snapshot;
+import se.sics.mspsim.core.SnapshotDiff;
+import se.sics.mspsim.core.StimulusRecorder;
+import se.sics.mspsim.core.StimulusReplayer;
 import se.sics.mspsim.util.ComponentRegistry;
 
 public class DivCommand implements CommandBundle {
@@ -16,25 +17,41 @@ public class DivCommand implements CommandBundle {
         this.registry = registry;
         final MSP430 cpu = registry.getComponent(MSP430.class);
         // Add save command
-        handler.registerCommand("save", new BasicCommand("save CPU state to file", "<filename>") {
+        handler.registerCommand("save", new BasicCommand("save node state to snapshot file",
+                "[-d] [-c | -z] <filename>") {
             @Override
             public int executeCommand(CommandContext context) {
-                if (context.getArgumentCount() != 1) {
-                    context.err.println("Usage: save <filename>");
+                boolean delta = false;
+                Snapshot.Encoding encoding = Snapshot.Encoding.RAW;
+                int index = 0;
+                for (; index < context.getArgumentCount() - 1; index++) {
+                    String option = context.getArgument(index);
+                    if ("-d".equals(option)) {
+                        delta = true;
+                    } else if ("-c".equals(option)) {
+                        encoding = Snapshot.Encoding.RLE;
+                    } else if ("-z".equals(option)) {
+                        encoding = Snapshot.Encoding.GZIP;
+                    } else {
+                        break;
+                    }
+                }
+                if (context.getArgumentCount() != index + 1) {
+                    context.err.println("Usage: save [-d] [-c | -z] <filename>");
                     return 1;
                 }
-                String filename = context.getArgument(0);
-                
-                try (DataOutputStream out = new DataOutputStream(new FileOutputStream(filename))) {
-                    // Save PC (Program Counter)
-                    out.writeInt(cpu.getPC());
-                    
-                    // Save all 16 registers
-                    for (int i = 0; i < 16; i++) {
-                        out.writeInt(cpu.getRegister(i));
-                    }
-                    
-                    context.out.println("CPU state saved to: " + filename);
+                String filename = context.getArgument(index);
+                if (cpu.isRunning()) {
+                    context.err.println("Can not save state while CPU is running - stop it first");
+                    return 1;
+                }
+
+                try {
+                    /* -d only saves memory changed since the previous save or load,
+                       -c run length encodes the memory and -z also compresses with gzip */
+                    int size = delta ? Snapshot.saveDelta(cpu, new File(filename), encoding)
+                            : Snapshot.save(cpu, new File(filename), encoding);
+                    context.out.println("Node state saved to: " + filename + " (" + size + " bytes)");
                     context.out.println("PC: $" + cpu.getAddressAsString(cpu.getPC()));
                     return 0;
                 } catch (IOException e) {
@@ -45,39 +62,114 @@ public class DivCommand implements CommandBundle {
         });
 
         // Add load command  
-        handler.registerCommand("load", new BasicCommand("load CPU state from file", "<filename>") {
+        handler.registerCommand("load", new BasicCommand("load node state from snapshot file",
+                "[-m] <filename>") {
             @Override
             public int executeCommand(CommandContext context) {
-                if (context.getArgumentCount() != 1) {
-                    context.err.println("Usage: load <filename>");
+                boolean mapped = context.getArgumentCount() == 2 && "-m".equals(context.getArgument(0));
+                if (context.getArgumentCount() != (mapped ? 2 : 1)) {
+                    context.err.println("Usage: load [-m] <filename>");
+                    return 1;
+                }
+                String filename = context.getArgument(mapped ? 1 : 0);
+                if (cpu.isRunning()) {
+                    context.err.println("Can not load state while CPU is running - stop it first");
                     return 1;
                 }
-                String filename = context.getArgument(0);
-                
-                try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
-                    // First stop CPU if running
-                    if (cpu.isRunning()) {
-                        cpu.stop();
+
+                try {
+                    /* -m maps the file and restores memory on first access */
+                    if (mapped) {
+                        Snapshot.map(cpu, new File(filename));
+                    } else {
+                        Snapshot.load(cpu, new File(filename));
                     }
+                    context.out.println("Node state loaded from: " + filename);
+                    context.out.println("PC restored to: $" + cpu.getAddressAsString(cpu.getPC()));
+                    return 0;
+                } catch (IOException e) {
+                    context.err.println("Error loading state: " + e.getMessage());
+                    return 1;
+                }
+            }
+        });
 
-                    // Load PC (Program Counter) 
-                    int pc = in.readInt();
-                    cpu.setPC(pc);
+        handler.registerCommand("snapdiff", new BasicCommand("show differences between two snapshot files",
+                "<filename1> <filename2>") {
+            @Override
+            public int executeCommand(CommandContext context) {
+                SnapshotDiff diff = new SnapshotDiff(context.out);
+                diff.setMap(context.getMapTable());
+                try {
+                    int differences = diff.diff(new File(context.getArgument(0)),
+                            new File(context.getArgument(1)));
+                    context.out.println(differences + " differences");
+                    return 0;
+                } catch (IOException e) {
+                    context.err.println("Error comparing snapshots: " + e.getMessage());
+                    return 1;
+                }
+            }
+        });
 
-                    // Load all 16 registers
-                    for (int i = 0; i < 16; i++) {
-                        int value = in.readInt();
-                        cpu.setRegister(i, value);
+        handler.registerCommand("stimulus", new BasicCommand("record or replay external inputs",
+                "record|replay <filename> | stop | status") {
+            @Override
+            public int executeCommand(CommandContext context) {
+                String mode = context.getArgument(0);
+                StimulusRecorder recorder = cpu.getStimulusRecorder();
+                StimulusReplayer replayer = cpu.getStimulusReplayer();
+                if ("stop".equals(mode) && context.getArgumentCount() == 1) {
+                    if (recorder != null) {
+                        recorder.close();
+                        context.out.println("Recorded " + recorder.getRecordCount() + " inputs");
+                    }
+                    if (replayer != null) {
+                        replayer.close();
+                        context.out.println("Replayed " + replayer.getReplayCount() + " inputs");
+                    }
+                    return 0;
+                }
+                if ("status".equals(mode) && context.getArgumentCount() == 1) {
+                    context.out.println(recorder != null ? "Recording: " + recorder.getRecordCount() + " inputs"
+                            : "Not recording");
+                    context.out.println(replayer != null ? "Replaying: " + replayer.getReplayCount() + " inputs"
+                            + (replayer.isFinished() ? " (finished)" : "") : "Not replaying");
+                    return 0;
+                }
+                if (context.getArgumentCount() != 2
+                        || !("record".equals(mode) || "replay".equals(mode))) {
+                    context.err.println("Usage: stimulus record|replay <filename> | stop | status");
+                    return 1;
+                }
+                if (cpu.isRunning()) {
+                    context.err.println("Can not start " + mode + " while CPU is running - stop it first");
+                    return 1;
+                }
+                File file = new File(context.getArgument(1));
+                try {
+                    /* replay should start from the state the recording started from */
+                    if ("record".equals(mode)) {
+                        if (recorder != null) {
+                            context.err.println("Already recording - stop it first");
+                            return 1;
+                        }
+                        new StimulusRecorder(cpu, file);
+                        context.out.println("Recording inputs to: " + file);
+                    } else {
+                        if (replayer != null) {
+                            context.err.println("Already replaying - stop it first");
+                            return 1;
+                        }
+                        new StimulusReplayer(cpu, file);
+                        context.out.println("Replaying inputs from: " + file);
                     }
-
-                    context.out.println("CPU state loaded from: " + filename);
-                    context.out.println("PC restored to: $" + cpu.getAddressAsString(pc));
                     return 0;
                 } catch (IOException e) {
-                    context.err.println("Error loading state: " + e.getMessage());
+                    context.err.println("Error starting " + mode + ": " + e.getMessage());
                     return 1;
                 }
             }
         });
     }
-}
\ No newline at end of file
+}
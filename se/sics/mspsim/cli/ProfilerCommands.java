@@ -61,11 +61,23 @@ public class ProfilerCommands implements CommandBundle {
     final MSP430 cpu = registry.getComponent(MSP430.class);
     if (cpu != null) {
       ch.registerCommand("profile", new BasicCommand("show profile information",
-          "[-clear] [-sort column] [-showcallers] [regexp]") {
+          "[-start] [-stop] [-clear] [-sort column] [-showcallers] [regexp]") {
         public int executeCommand(final CommandContext context) {
+          if (context.getArgumentCount() > 0 && "-start".equals(context.getArgument(0))) {
+            if (cpu.getProfiler() == null) {
+              cpu.setProfiler(new SimpleProfiler());
+            }
+            context.out.println("Started profiling.");
+            return 0;
+          }
+          if (context.getArgumentCount() > 0 && "-stop".equals(context.getArgument(0))) {
+            cpu.setProfiler(null);
+            context.out.println("Stopped profiling.");
+            return 0;
+          }
           Profiler profiler = cpu.getProfiler();
           if (profiler == null) {
-            context.err.println("No profiler found.");
+            context.err.println("No profiler found. Use 'profile -start' to start profiling.");
             return 1;
           }
           String namematch = null;
@@ -69,19 +69,19 @@ public class MSP430f1611Config extends MSP430Config {
     
 
     public int setup(MSP430Core cpu, ArrayList<IOUnit> ioUnits) {
-        USART usart0 = new USART(cpu, 0, cpu.memory, 0x70);
-        USART usart1 = new USART(cpu, 1, cpu.memory, 0x78);
+        USART usart0 = new USART(cpu, 0, cpu.ioMemory, 0x70);
+        USART usart1 = new USART(cpu, 1, cpu.ioMemory, 0x78);
         cpu.setIORange(0x70, 8, usart0);
         cpu.setIORange(0x78, 8, usart1);
 
-        Multiplier mp = new Multiplier(cpu, cpu.memory, 0);
+        Multiplier mp = new Multiplier(cpu, cpu.ioMemory, 0);
         cpu.setIORange(0x130, 0x0f, mp);
 
         // Usarts
         ioUnits.add(usart0);
         ioUnits.add(usart1);
 
-        DMA dma = new DMA("dma", cpu, cpu.memory, 0);
+        DMA dma = new DMA("dma", cpu, cpu.ioMemory, 0);
         cpu.setIORange(0x1e0, 24, dma);
 
         /* DMA Ctl */
@@ -99,13 +99,13 @@ public class MSP430f1611Config extends MSP430Config {
         
         // Add port 1,2 with interrupt capability!
         // IOPorts will add themselves to the CPU
-        ioUnits.add(new IOPort(cpu, 1, 4, cpu.memory, 0x20));
-        ioUnits.add(new IOPort(cpu, 2, 1, cpu.memory, 0x28));
+        ioUnits.add(new IOPort(cpu, 1, 4, cpu.ioMemory, 0x20));
+        ioUnits.add(new IOPort(cpu, 2, 1, cpu.ioMemory, 0x28));
 
         // Add port 3,4 & 5,6
         for (int i = 0, n = 2; i < n; i++) {
-            ioUnits.add(new IOPort(cpu, (3 + i), 0, cpu.memory, 0x18 + i * 4));
-            ioUnits.add(new IOPort(cpu, (5 + i), 0, cpu.memory, 0x30 + i * 4));
+            ioUnits.add(new IOPort(cpu, (3 + i), 0, cpu.ioMemory, 0x18 + i * 4));
+            ioUnits.add(new IOPort(cpu, (5 + i), 0, cpu.ioMemory, 0x30 + i * 4));
         }
 
         ADC12 adc12 = new ADC12(cpu);
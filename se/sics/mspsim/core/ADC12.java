@@ -47,9 +47,10 @@
 
 package se.sics.mspsim.core;
 
+import java.io.IOException;
 import java.util.Arrays;
 
-public class ADC12 extends IOUnit {
+public class ADC12 extends IOUnit implements Snapshotable {
 
   public static final int ADC12CTL0 = 0x01A0;// Reset with POR
   public static final int ADC12CTL1 = 0x01A2;// Reset with POR
@@ -139,7 +140,7 @@ public class ADC12 extends IOUnit {
 
   
   public ADC12(MSP430Core cpu) {
-    super("ADC12", cpu, cpu.memory, 0);
+    super("ADC12", cpu, cpu.ioMemory, 0);
   }
 
   public void reset(int type) {
@@ -163,6 +164,10 @@ public class ADC12 extends IOUnit {
     Arrays.fill(adc12mctl, 0);
   }
 
+  public ADCInput getADCInput(int adindex) {
+    return adcInput[adindex];
+  }
+
   public void setADCInput(int adindex, ADCInput input) {
     adcInput[adindex] = input;
   }
@@ -267,8 +272,12 @@ public class ADC12 extends IOUnit {
     }
     boolean runAgain = enableConversion && conSeq != CONSEQ_SINGLE;
     // Some noise...
-    ADCInput input = adcInput[adc12mctl[adc12Pos] & 0xf];
+    int channel = adc12mctl[adc12Pos] & 0xf;
+    ADCInput input = adcInput[channel];
     adc12mem[adc12Pos] = input != null ? input.nextData() : 2048 + 100 - smp & 255;
+    if (cpu.stimulusRecorder != null) {
+      cpu.stimulusRecorder.recordSample(this, channel, adc12mem[adc12Pos]);
+    }
     smp += 7;
     adc12ifg |= (1 << adc12Pos);
     if ((adc12ie & (1 << adc12Pos)) > 0) {
@@ -299,4 +308,54 @@ public class ADC12 extends IOUnit {
   
   public void interruptServiced(int vector) {
   }
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(adc12ctl0);
+    out.writeInt(adc12ctl1);
+    out.writeIntArray(adc12mctl);
+    out.writeIntArray(adc12mem);
+    out.writeInt(adc12Pos);
+    out.writeInt(shTime0);
+    out.writeInt(shTime1);
+    out.writeBoolean(adc12On);
+    out.writeBoolean(enableConversion);
+    out.writeBoolean(startConversion);
+    out.writeBoolean(isConverting);
+    out.writeInt(shSource);
+    out.writeInt(startMem);
+    out.writeInt(adcDiv);
+    out.writeInt(conSeq);
+    out.writeInt(adc12ie);
+    out.writeInt(adc12ifg);
+    out.writeInt(adc12iv);
+    out.writeInt(adcSSel);
+    out.writeInt(smp);
+    out.writeTimeEvent(adcTrigger);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    adc12ctl0 = in.readInt();
+    adc12ctl1 = in.readInt();
+    in.readIntArray(adc12mctl);
+    in.readIntArray(adc12mem);
+    adc12Pos = in.readInt();
+    shTime0 = in.readInt();
+    shTime1 = in.readInt();
+    adc12On = in.readBoolean();
+    enableConversion = in.readBoolean();
+    startConversion = in.readBoolean();
+    isConverting = in.readBoolean();
+    shSource = in.readInt();
+    startMem = in.readInt();
+    adcDiv = in.readInt();
+    conSeq = in.readInt();
+    adc12ie = in.readInt();
+    adc12ifg = in.readInt();
+    adc12iv = in.readInt();
+    adcSSel = in.readInt();
+    smp = in.readInt();
+    in.readTimeEvent(adcTrigger);
+  }
 }
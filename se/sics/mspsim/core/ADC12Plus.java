@@ -76,6 +76,7 @@
 
 package se.sics.mspsim.core;
 
+import java.io.IOException;
 import java.util.Arrays;
 
 import se.sics.mspsim.core.EmulationLogger.WarningType;
@@ -93,7 +94,7 @@ import se.sics.mspsim.core.EmulationLogger.WarningType;
  * @author Joakim Eriksson <joakime@sics.se>
  * @author Víctor Ariño <victor.arino@tado.com>
  */
-public class ADC12Plus extends IOUnit {
+public class ADC12Plus extends IOUnit implements Snapshotable {
 
 	/**
 	 * Address and size for IO configuration
@@ -200,7 +201,7 @@ public class ADC12Plus extends IOUnit {
 	private boolean ref25V = false;
 
 	public ADC12Plus(MSP430Core cpu, int offset, int intVector) {
-		super("ADC12Plus", cpu, cpu.memory, offset);
+		super("ADC12Plus", cpu, cpu.ioMemory, offset);
 		adc12Vector = intVector;
 	}
 
@@ -439,4 +440,61 @@ public class ADC12Plus extends IOUnit {
 		return ref25V;
 	}
 
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+		out.writeInt(adc12ctl0);
+		out.writeInt(adc12ctl1);
+		out.writeInt(adc12ctl2);
+		out.writeIntArray(adc12mctl);
+		out.writeIntArray(adc12mem);
+		out.writeInt(adc12Pos);
+		out.writeInt(shTime0);
+		out.writeInt(shTime1);
+		out.writeBoolean(adc12On);
+		out.writeBoolean(enableConversion);
+		out.writeBoolean(startConversion);
+		out.writeBoolean(isConverting);
+		out.writeInt(shSource);
+		out.writeInt(startMem);
+		out.writeInt(adcDiv);
+		out.writeInt(conSeq);
+		out.writeInt(adc12ie);
+		out.writeInt(adc12ifg);
+		out.writeInt(adc12iv);
+		out.writeInt(adcSSel);
+		out.writeInt(bitsResolution);
+		out.writeBoolean(formatSigned);
+		out.writeInt(clockPredivider);
+		out.writeBoolean(ref25V);
+		out.writeTimeEvent(adcTrigger);
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+		adc12ctl0 = in.readInt();
+		adc12ctl1 = in.readInt();
+		adc12ctl2 = in.readInt();
+		in.readIntArray(adc12mctl);
+		in.readIntArray(adc12mem);
+		adc12Pos = in.readInt();
+		shTime0 = in.readInt();
+		shTime1 = in.readInt();
+		adc12On = in.readBoolean();
+		enableConversion = in.readBoolean();
+		startConversion = in.readBoolean();
+		isConverting = in.readBoolean();
+		shSource = in.readInt();
+		startMem = in.readInt();
+		adcDiv = in.readInt();
+		conSeq = in.readInt();
+		adc12ie = in.readInt();
+		adc12ifg = in.readInt();
+		adc12iv = in.readInt();
+		adcSSel = in.readInt();
+		bitsResolution = in.readInt();
+		formatSigned = in.readBoolean();
+		clockPredivider = in.readInt();
+		ref25V = in.readBoolean();
+		in.readTimeEvent(adcTrigger);
+	}
 }
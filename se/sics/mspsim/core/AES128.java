@@ -32,6 +32,8 @@
  */
 package se.sics.mspsim.core;
 
+import java.io.IOException;
+
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -50,7 +52,7 @@ import se.sics.mspsim.core.EmulationLogger.WarningType;
  * 
  * @author Víctor Ariño <victor.arino@tado.com>
  */
-public class AES128 extends IOUnit {
+public class AES128 extends IOUnit implements Snapshotable {
 
 	/**
 	 * Address and size for IO configuration
@@ -121,7 +123,7 @@ public class AES128 extends IOUnit {
 	 * @param offset
 	 */
 	public AES128(MSP430Core cpu, int offset) {
-		super("CRC", cpu, cpu.memory, offset);
+		super("CRC", cpu, cpu.ioMemory, offset);
 	}
 
 	/**
@@ -504,4 +506,44 @@ public class AES128 extends IOUnit {
 			readyInterruptFlag = false;
 		}
 	}
+
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+		out.write(key.array());
+		out.writeInt(key.position());
+		out.write(inData.array());
+		out.writeInt(inData.position());
+		out.write(outData.array());
+		out.writeInt(outData.position());
+		out.writeBoolean(isBusy);
+		out.writeBoolean(advancedCipherMode);
+		out.writeBoolean(interruptEnable);
+		out.writeBoolean(errorFlag);
+		out.writeBoolean(readyInterruptFlag);
+		out.writeBoolean(resetFlag);
+		out.writeInt(cipherMode);
+		out.writeInt(keyLength);
+		out.writeInt(operation);
+		out.writeInt(cipherBlockCounter);
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+		in.readFully(key.array());
+		key.position(in.readInt());
+		in.readFully(inData.array());
+		inData.position(in.readInt());
+		in.readFully(outData.array());
+		outData.position(in.readInt());
+		isBusy = in.readBoolean();
+		advancedCipherMode = in.readBoolean();
+		interruptEnable = in.readBoolean();
+		errorFlag = in.readBoolean();
+		readyInterruptFlag = in.readBoolean();
+		resetFlag = in.readBoolean();
+		cipherMode = in.readInt();
+		keyLength = in.readInt();
+		operation = in.readInt();
+		cipherBlockCounter = in.readInt();
+	}
 }
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * BasicBlock
+ *
+ * A straight-line sequence of predecoded instructions.
+ */
+package se.sics.mspsim.core;
+
+import java.util.ArrayList;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+
+/**
+ * A sequence of predecoded instructions that are executed one after the
+ * other. A block ends with the first instruction that may change the
+ * control flow, i.e. a jump, a call, RETI or a write to PC, or that may
+ * change the interrupt or low power mode by writing to SR. Blocks never
+ * cross a memory segment so they can be dropped per segment when the
+ * memory is modified.
+ */
+final class BasicBlock implements MSP430Constants {
+
+    /** Marks an address where no block can be built. */
+    static final BasicBlock EMPTY = new BasicBlock(new DecodedInstruction[0], 0);
+
+    /** The maximal number of instructions of a polling loop. */
+    static final int MAX_BUSY_WAIT_LENGTH = 8;
+
+    final DecodedInstruction[] instructions;
+    final int address;
+
+    /* executions before compilation, Integer.MIN_VALUE once compiled or failed */
+    int executions;
+    CompiledBlock compiled;
+    int compiledLength;
+
+    /* cycles of one iteration if the block is a polling loop, 0 if not and
+       -1 before analyzeBusyWait has been called */
+    int busyWaitCycles = -1;
+    /* the memory reads of the polling loop */
+    int[] busyWaitReads;
+    AccessMode[] busyWaitModes;
+
+    private BasicBlock(DecodedInstruction[] instructions, int address) {
+        this.instructions = instructions;
+        this.address = address;
+    }
+
+    /* Returns true if the instruction writes to the specified register */
+    private static boolean writesRegister(DecodedInstruction d, int register) {
+        if (d.dstRegister != register || !d.dstRegMode) {
+            return false;
+        }
+        if (d.type == DecodedInstruction.SINGLE) {
+            return d.op != PUSH && d.op != CALL && d.op != RETI;
+        }
+        return d.op != CMP && d.op != BIT;
+    }
+
+    static boolean endsBlock(DecodedInstruction d) {
+        if (d.type == DecodedInstruction.JUMP) {
+            return true;
+        }
+        if (d.type == DecodedInstruction.SINGLE && (d.op == CALL || d.op == RETI)) {
+            return true;
+        }
+        return writesRegister(d, PC) || writesRegister(d, SR);
+    }
+
+    /**
+     * Builds the block starting at the specified address using the
+     * predecoded instructions of the CPU.
+     */
+    static BasicBlock build(MSP430Core cpu, int pc) {
+        int address = pc;
+        ArrayList<DecodedInstruction> list = new ArrayList<DecodedInstruction>();
+        int end = (pc & 0xfff00) + Memory.SEGMENT_SIZE;
+        while (pc < end) {
+            DecodedInstruction d = cpu.getDecoded(pc);
+            if (d.type == DecodedInstruction.NONE) {
+                break;
+            }
+            list.add(d);
+            if (endsBlock(d)) {
+                break;
+            }
+            pc += d.size;
+        }
+        if (list.isEmpty()) {
+            return EMPTY;
+        }
+        return new BasicBlock(list.toArray(new DecodedInstruction[list.size()]), address);
+    }
+
+    /**
+     * Checks if the block is a short polling loop, i.e. a block that ends
+     * with a jump back to its start, only reads memory at fixed addresses and
+     * only writes to registers other than PC and SR. Sets busyWaitCycles and
+     * the addresses read by the loop.
+     */
+    void analyzeBusyWait() {
+        busyWaitCycles = 0;
+        int length = instructions.length;
+        if (length == 0 || length > MAX_BUSY_WAIT_LENGTH
+                || instructions[length - 1].type != DecodedInstruction.JUMP) {
+            return;
+        }
+        ArrayList<Integer> reads = new ArrayList<Integer>();
+        ArrayList<AccessMode> modes = new ArrayList<AccessMode>();
+        int cycles = 0;
+        int pc = address;
+        for (DecodedInstruction d : instructions) {
+            switch (d.type) {
+            case DecodedInstruction.JUMP:
+                if (pc + 2 + d.jumpOffset != address) {
+                    return;
+                }
+                break;
+            case DecodedInstruction.SINGLE:
+                if ((d.op != RRC && d.op != RRA && d.op != SWPB && d.op != SXT)
+                        || d.ad != AM_REG || d.dstRegister == PC || d.dstRegister == SR) {
+                    return;
+                }
+                break;
+            default:
+                if (!d.srcConstant) {
+                    if (d.as == AM_INDEX) {
+                        /* absolute or symbolic mode */
+                        if (d.srcRegister == SR) {
+                            reads.add(d.srcIndex & 0xffff);
+                        } else if (d.srcRegister == PC) {
+                            reads.add(indexAddress(d.srcIndex, pc + 2));
+                        } else {
+                            return;
+                        }
+                        modes.add(d.mode);
+                    } else if (d.as != AM_REG && !(d.as == AM_IND_AUTOINC && d.srcRegister == PC)) {
+                        return;
+                    }
+                }
+                boolean compare = d.op == CMP || d.op == BIT;
+                if (d.dstRegMode) {
+                    if (!compare && (d.dstRegister == PC || d.dstRegister == SR)) {
+                        return;
+                    }
+                } else if (compare && d.dstRegister == SR) {
+                    reads.add(d.dstWord);
+                    modes.add(d.mode);
+                } else if (compare && d.dstRegister == PC) {
+                    reads.add(indexAddress(d.dstWord, pc + d.size - 2));
+                    modes.add(d.mode);
+                } else {
+                    return;
+                }
+                break;
+            }
+            cycles += d.cycles;
+            pc += d.size;
+        }
+        busyWaitReads = new int[reads.size()];
+        for (int i = 0; i < busyWaitReads.length; i++) {
+            busyWaitReads[i] = reads.get(i);
+        }
+        busyWaitModes = modes.toArray(new AccessMode[modes.size()]);
+        busyWaitCycles = cycles;
+    }
+
+    private static int indexAddress(int index, int pc) {
+        return (index + pc) & (pc <= 0xffff ? 0xffff : 0xfffff);
+    }
+
+}
@@ -40,9 +40,11 @@
  */
 
 package se.sics.mspsim.core;
+import java.io.IOException;
+
 import se.sics.mspsim.util.Utils;
 
-public class BasicClockModule extends ClockSystem {
+public class BasicClockModule extends ClockSystem implements Snapshotable {
 
   private static final int DCOCTL = 0x56; // 0x60
   private static final int BCSCTL1 = 0x57; // 0x84 
@@ -81,7 +83,7 @@ public class BasicClockModule extends ClockSystem {
    * Creates a new <code>BasicClockModule</code> instance.
    *
    */
-  public BasicClockModule(MSP430Core core, int[] memory, int offset, Timer[] timers, int maxClockSpeed) {
+  public BasicClockModule(MSP430Core core, byte[] memory, int offset, Timer[] timers, int maxClockSpeed) {
 
     super("BasicClockModule", core, memory, offset);
     MAX_DCO_FRQ = maxClockSpeed;
@@ -110,11 +112,7 @@ public class BasicClockModule extends ClockSystem {
 
   // do nothing?
   public int read(int address, boolean word, long cycles) {
-    int val = memory[address];
-    if (word) {
-      val |= memory[(address + 1) & 0xffff] << 8;
-    }
-    return val;
+    return readMemory(address, word);
   }
 
   public void write(int address, int data, boolean word, long cycles) {
@@ -122,8 +120,7 @@ public class BasicClockModule extends ClockSystem {
     if (DEBUG) log("Write to BasicClockModule: " +
 		       Utils.hex16(address) + " => " + Utils.hex16(data));
 
-    memory[address] = data & 0xff;
-    if (word) memory[address + 1] = (data >> 8) & 0xff;
+    writeMemory(address, data, word);
 
 
     switch (address) {
@@ -179,4 +176,36 @@ public class BasicClockModule extends ClockSystem {
   
   public void interruptServiced(int vector) {
   }
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(dcoFrequency);
+    out.writeInt(dcoModulator);
+    out.writeInt(resistorSel);
+    out.writeInt(calcDCOFrq);
+    out.writeInt(divAclk);
+    out.writeInt(lfxt1Mode);
+    out.writeInt(xt2Off);
+    out.writeInt(mclkSel);
+    out.writeInt(divMclk);
+    out.writeInt(smclSel);
+    out.writeInt(divSMclk);
+    out.writeInt(dcoResitorSel);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    dcoFrequency = in.readInt();
+    dcoModulator = in.readInt();
+    resistorSel = in.readInt();
+    calcDCOFrq = in.readInt();
+    divAclk = in.readInt();
+    lfxt1Mode = in.readInt();
+    xt2Off = in.readInt();
+    mclkSel = in.readInt();
+    divMclk = in.readInt();
+    smclSel = in.readInt();
+    divSMclk = in.readInt();
+    dcoResitorSel = in.readInt();
+  }
 }
@@ -0,0 +1,1094 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * BlockCompiler
+ *
+ * Compiles hot basic blocks to JVM bytecode.
+ */
+package se.sics.mspsim.core;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+
+/**
+ * Translates the predecoded instructions of a basic block into a JVM class
+ * extending {@link CompiledBlock}. The CPU registers are kept in local
+ * variables while the block executes and are written back before each
+ * memory access and when the block is left, so that IO units and events
+ * see the same state as with the interpreter. The status flags are
+ * computed by the static helpers in CompiledBlock.
+ * <p>
+ * Double operand instructions, RRC, SWPB, RRA, SXT, PUSH and a final jump
+ * are compiled. The block is compiled up to the first instruction that
+ * writes PC or SR as a register, CALL, RETI or DADD; these instructions are
+ * left to the interpreter. The classes are defined as hidden classes when
+ * the JVM supports them, so that they can be unloaded when the block is
+ * dropped, and otherwise via {@link MethodHandles.Lookup#defineClass}.
+ * <p>
+ * The class files are written in the Java 5 format that does not need any
+ * stack map frames.
+ */
+final class BlockCompiler implements MSP430Constants {
+
+    /* HotSpot does not compile methods larger than this */
+    private static final int MAX_CODE_SIZE = 7000;
+
+    private static final String BLOCK_CLASS = "se/sics/mspsim/core/CompiledBlock";
+    private static final String CORE_CLASS = "se/sics/mspsim/core/MSP430Core";
+    private static final String MODE_CLASS = "se/sics/mspsim/core/Memory$AccessMode";
+    private static final String EXECUTE_DESC = "(L" + CORE_CLASS + ";JI)I";
+
+    /* local variables of the generated execute method */
+    private static final int CPU = 1;
+    private static final int CYCLE_LIMIT = 2;
+    private static final int GENERATION = 4;
+    private static final int REG = 5;
+    private static final int REGISTERS = 6;
+    private static final int SRC = 22;
+    private static final int DST = 23;
+    private static final int SRC_ADDRESS = 24;
+    private static final int DST_ADDRESS = 25;
+    private static final int SP_VALUE = 26;
+    private static final int RESULT = 27;
+    private static final int NEXT_PC = 28;
+    private static final int COUNT = 29;
+    private static final int INSTRUCTION = 30;
+    private static final int CYCLES = 31;
+    private static final int MAX_LOCALS = 32;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static int classCount;
+
+    /* state while compiling a block */
+    private final ClassWriter cw = new ClassWriter();
+    private final Code code = new Code(cw);
+    private final Code.Label exit = new Code.Label();
+    private final Code.Label exitEvents = new Code.Label();
+    private int pc;
+    private boolean memoryAccess;
+    /* registers written since the last write back and registers written at all */
+    private final boolean[] unsaved = new boolean[16];
+    private final boolean[] written = new boolean[16];
+    private int savedPC;
+
+    private BlockCompiler() {
+    }
+
+    /**
+     * Returns true if the instruction can be compiled.
+     */
+    static boolean isCompilable(DecodedInstruction d, boolean last) {
+        switch (d.type) {
+        case DecodedInstruction.JUMP:
+            return last;
+        case DecodedInstruction.SINGLE:
+            if (d.op == CALL || d.op == RETI) {
+                return false;
+            }
+            if (d.op != PUSH) {
+                if (d.dstRegMode && (d.dstRegister == PC || d.dstRegister == SR)) {
+                    return false;
+                }
+                /* writes into the instruction stream */
+                if (!d.dstRegMode && d.ad == AM_IND_AUTOINC && d.dstRegister == PC) {
+                    return false;
+                }
+            }
+            return true;
+        case DecodedInstruction.DOUBLE:
+            if (d.op == DADD || d.dstRegister == PC) {
+                return false;
+            }
+            return !(d.dstRegMode && d.dstRegister == SR && d.op != CMP && d.op != BIT);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of leading instructions of the block that can be
+     * compiled.
+     */
+    static int getCompilableLength(BasicBlock block) {
+        DecodedInstruction[] instructions = block.instructions;
+        int length = 0;
+        while (length < instructions.length
+                && isCompilable(instructions[length], length == instructions.length - 1)) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Compiles the first length instructions of the block.
+     *
+     * @return the compiled block or null if the code became too large
+     */
+    static CompiledBlock compile(BasicBlock block, int length) throws ReflectiveOperationException {
+        BlockCompiler compiler = new BlockCompiler();
+        byte[] classFile = compiler.generate(block, length);
+        if (classFile == null) {
+            return null;
+        }
+        Class<?> c = defineClass(classFile);
+        return (CompiledBlock) c.getDeclaredConstructor().newInstance();
+    }
+
+    private static synchronized String nextClassName() {
+        return BLOCK_CLASS + "$" + (++classCount);
+    }
+
+    private static Method defineHiddenClass;
+    private static Object hiddenClassOptions;
+    private static boolean hiddenClassChecked;
+
+    private static Class<?> defineClass(byte[] classFile) throws ReflectiveOperationException {
+        synchronized (BlockCompiler.class) {
+            if (!hiddenClassChecked) {
+                hiddenClassChecked = true;
+                try {
+                    /* hidden classes are available from Java 15 */
+                    Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+                    hiddenClassOptions = Array.newInstance(option, 0);
+                    defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                            byte[].class, boolean.class, hiddenClassOptions.getClass());
+                } catch (ReflectiveOperationException e) {
+                    defineHiddenClass = null;
+                }
+            }
+        }
+        if (defineHiddenClass != null) {
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup)
+                defineHiddenClass.invoke(LOOKUP, classFile, true, hiddenClassOptions);
+            return lookup.lookupClass();
+        }
+        return LOOKUP.defineClass(classFile);
+    }
+
+    private byte[] generate(BasicBlock block, int length) {
+        /* load the registers used by the block into local variables */
+        boolean[] used = new boolean[16];
+        for (int i = 0; i < length; i++) {
+            DecodedInstruction d = block.instructions[i];
+            used[d.srcRegister] = true;
+            used[d.dstRegister] = true;
+        }
+        used[SR] = true;
+        used[SP] = true;
+        used[PC] = false;
+
+        code.aload(CPU);
+        code.getfield(CORE_CLASS, "reg", "[I");
+        code.astore(REG);
+        for (int r = 0; r < 16; r++) {
+            if (used[r]) {
+                code.aload(REG);
+                code.iconst(r);
+                code.op(Code.IALOAD);
+                code.istore(REGISTERS + r);
+            }
+        }
+        /* the old verifier requires all locals to be assigned on all paths */
+        for (int l = SRC; l < MAX_LOCALS; l++) {
+            code.iconst(0);
+            code.istore(l);
+        }
+
+        pc = block.address;
+        savedPC = -1;
+        for (int i = 0; i < length; i++) {
+            DecodedInstruction d = block.instructions[i];
+            memoryAccess = false;
+            int cycles;
+            switch (d.type) {
+            case DecodedInstruction.DOUBLE:
+                cycles = compileDouble(d);
+                break;
+            case DecodedInstruction.SINGLE:
+                cycles = compileSingle(d);
+                break;
+            default:
+                cycles = compileJump(d);
+                break;
+            }
+            endInstruction(d, i + 1, cycles, i == length - 1);
+            if (code.length > MAX_CODE_SIZE) {
+                return null;
+            }
+        }
+
+        /* leave the block after executing the events */
+        code.bind(exitEvents);
+        writeBack();
+        code.aload(CPU);
+        code.iload(INSTRUCTION);
+        code.putfield(CORE_CLASS, "instruction", "I");
+        code.aload(CPU);
+        code.invokevirtual(CORE_CLASS, "runEvents", "()V");
+        code.aload(CPU);
+        code.op(Code.DUP);
+        code.getfield(CORE_CLASS, "cpuCycles", "J");
+        code.iload(CYCLES);
+        code.op(Code.I2L);
+        code.op(Code.LADD);
+        code.putfield(CORE_CLASS, "cpuCycles", "J");
+        code.iload(COUNT);
+        code.op(Code.IRETURN);
+
+        code.bind(exit);
+        writeBack();
+        code.aload(CPU);
+        code.iload(INSTRUCTION);
+        code.putfield(CORE_CLASS, "instruction", "I");
+        code.iload(COUNT);
+        code.op(Code.IRETURN);
+
+        if (code.length > MAX_CODE_SIZE) {
+            return null;
+        }
+        return cw.toByteArray(nextClassName(), BLOCK_CLASS, "execute", EXECUTE_DESC, code, MAX_LOCALS);
+    }
+
+    /* Writes back all registers written by the block and the PC in NEXT_PC */
+    private void writeBack() {
+        for (int r = 0; r < 16; r++) {
+            if (written[r]) {
+                code.aload(REG);
+                code.iconst(r);
+                code.iload(REGISTERS + r);
+                code.op(Code.IASTORE);
+            }
+        }
+        code.aload(REG);
+        code.iconst(PC);
+        code.iload(NEXT_PC);
+        code.op(Code.IASTORE);
+    }
+
+    /* Writes back the registers before a memory access that may reach IO units */
+    private void flush() {
+        for (int r = 0; r < 16; r++) {
+            if (unsaved[r]) {
+                code.aload(REG);
+                code.iconst(r);
+                code.iload(REGISTERS + r);
+                code.op(Code.IASTORE);
+                unsaved[r] = false;
+            }
+        }
+        if (savedPC != pc) {
+            code.aload(REG);
+            code.iconst(PC);
+            code.iconst(pc);
+            code.op(Code.IASTORE);
+            savedPC = pc;
+        }
+        memoryAccess = true;
+    }
+
+    private void loadRegister(int r) {
+        if (r == PC) {
+            code.iconst(pc);
+        } else {
+            code.iload(REGISTERS + r);
+        }
+    }
+
+    private void loadRegisterCG(int r, int m) {
+        if ((r == CG1 && m != 0) || r == CG2) {
+            code.iconst(CREG_VALUES[r - 2][m]);
+        } else {
+            loadRegister(r);
+        }
+    }
+
+    private void storeRegister(int r) {
+        code.istore(REGISTERS + r);
+        unsaved[r] = true;
+        written[r] = true;
+    }
+
+    private void addCycles(int cycles) {
+        code.aload(CPU);
+        code.op(Code.DUP);
+        code.getfield(CORE_CLASS, "cycles", "J");
+        code.lconst(cycles);
+        code.op(Code.LADD);
+        code.putfield(CORE_CLASS, "cycles", "J");
+    }
+
+    private void accessMode(AccessMode mode) {
+        code.getstatic(MODE_CLASS, mode.name(), "L" + MODE_CLASS + ";");
+    }
+
+    private void readMemory(int address, int target, AccessMode mode) {
+        flush();
+        code.aload(CPU);
+        code.iload(address);
+        accessMode(mode);
+        code.invokevirtual(CORE_CLASS, "readData", "(IL" + MODE_CLASS + ";)I");
+        code.istore(target);
+    }
+
+    private void writeMemory(int address, int value, AccessMode mode) {
+        flush();
+        code.aload(CPU);
+        code.iload(address);
+        code.iload(value);
+        accessMode(mode);
+        code.invokevirtual(CORE_CLASS, "writeData", "(IIL" + MODE_CLASS + ";)V");
+    }
+
+    private void helper(String name, String desc) {
+        code.invokestatic(BLOCK_CLASS, name, desc);
+    }
+
+    private void mask(int mask) {
+        code.iconst(mask);
+        code.op(Code.IAND);
+    }
+
+    private int compileDouble(DecodedInstruction d) {
+        AccessMode mode = d.mode;
+        int op = d.op;
+        boolean srcInMemory = false;
+        boolean write = false;
+        boolean updateStatus = true;
+
+        pc += 2;
+        addCycles(d.cycles);
+        if (d.srcConstant) {
+            code.iconst(d.srcValue);
+            code.istore(SRC);
+        } else {
+            switch (d.as) {
+            case AM_REG:
+                loadRegister(d.srcRegister);
+                mask(mode.mask);
+                code.istore(SRC);
+                break;
+            case AM_INDEX:
+                code.iconst(d.srcIndex);
+                loadRegisterCG(d.srcRegister, AM_INDEX);
+                helper("index", "(II)I");
+                code.istore(SRC_ADDRESS);
+                pc += 2;
+                srcInMemory = true;
+                break;
+            case AM_IND_REG:
+                loadRegister(d.srcRegister);
+                code.istore(SRC_ADDRESS);
+                srcInMemory = true;
+                break;
+            case AM_IND_AUTOINC:
+                if (d.srcRegister == PC) {
+                    code.iconst(d.srcValue);
+                    code.istore(SRC);
+                    pc += 2;
+                } else {
+                    loadRegister(d.srcRegister);
+                    code.op(Code.DUP);
+                    code.istore(SRC_ADDRESS);
+                    code.iconst(mode.bytes);
+                    code.op(Code.IADD);
+                    storeRegister(d.srcRegister);
+                    srcInMemory = true;
+                }
+                break;
+            }
+        }
+
+        if (d.dstRegMode) {
+            if (op != MOV) {
+                loadRegister(d.dstRegister);
+                mask(mode.mask);
+                code.istore(DST);
+            }
+        } else {
+            if (d.dstRegister == SR) {
+                code.iconst(d.dstWord);
+            } else {
+                code.iconst(d.dstWord);
+                loadRegister(d.dstRegister);
+                helper("index", "(II)I");
+            }
+            code.istore(DST_ADDRESS);
+            if (op != MOV) {
+                readMemory(DST_ADDRESS, DST, mode);
+            }
+            pc += 2;
+        }
+        if (srcInMemory) {
+            readMemory(SRC_ADDRESS, SRC, mode);
+        }
+
+        switch (op) {
+        case MOV:
+            code.iload(SRC);
+            code.istore(DST);
+            write = true;
+            updateStatus = false;
+            break;
+        case SUB:
+        case SUBC:
+        case ADDC:
+        case ADD:
+            if (op == SUB || op == SUBC) {
+                code.iload(SRC);
+                code.iconst(0xffff);
+                code.op(Code.IXOR);
+                mask(0xffff);
+                code.istore(SRC);
+            }
+            code.iload(DST);
+            code.iload(SRC);
+            code.op(Code.IADD);
+            if (op == SUB) {
+                code.iconst(1);
+                code.op(Code.IADD);
+            } else if (op == SUBC || op == ADDC) {
+                code.iload(REGISTERS + SR);
+                mask(CARRY);
+                code.op(Code.IADD);
+            }
+            code.istore(RESULT);
+            code.iload(REGISTERS + SR);
+            code.iload(SRC);
+            code.iload(DST);
+            code.iload(RESULT);
+            code.iconst(mode.msb);
+            code.iconst(mode.mask);
+            helper("addFlags", "(IIIIII)I");
+            storeRegister(SR);
+            code.iload(RESULT);
+            code.istore(DST);
+            write = true;
+            break;
+        case CMP:
+            code.iload(REGISTERS + SR);
+            code.iload(SRC);
+            code.iload(DST);
+            code.iconst(mode.msb);
+            helper("cmpFlags", "(IIII)I");
+            storeRegister(SR);
+            code.iload(DST);
+            code.iload(SRC);
+            code.op(Code.ISUB);
+            code.istore(DST);
+            break;
+        case BIT:
+        case AND:
+            code.iload(SRC);
+            code.iload(DST);
+            code.op(Code.IAND);
+            code.istore(DST);
+            code.iload(REGISTERS + SR);
+            code.iload(DST);
+            helper("nonZeroFlags", "(II)I");
+            storeRegister(SR);
+            write = op == AND;
+            break;
+        case BIC:
+            code.iload(SRC);
+            code.iconst(-1);
+            code.op(Code.IXOR);
+            code.iload(DST);
+            code.op(Code.IAND);
+            code.istore(DST);
+            write = true;
+            updateStatus = false;
+            break;
+        case BIS:
+            code.iload(SRC);
+            code.iload(DST);
+            code.op(Code.IOR);
+            code.istore(DST);
+            write = true;
+            updateStatus = false;
+            break;
+        case XOR:
+            code.iload(REGISTERS + SR);
+            code.iload(SRC);
+            code.iload(DST);
+            code.iconst(mode.msb);
+            helper("xorFlags", "(IIII)I");
+            storeRegister(SR);
+            code.iload(SRC);
+            code.iload(DST);
+            code.op(Code.IXOR);
+            code.istore(DST);
+            write = true;
+            break;
+        }
+        finishInstruction(d, write, updateStatus, DST_ADDRESS);
+        return d.cycles;
+    }
+
+    private int compileSingle(DecodedInstruction d) {
+        AccessMode mode = d.mode;
+        int op = d.op;
+        int ad = d.ad;
+        boolean write = true;
+        boolean updateStatus = true;
+
+        pc += 2;
+        if (op == PUSH) {
+            loadRegister(SP);
+            code.iconst(2);
+            code.op(Code.ISUB);
+            code.op(Code.DUP);
+            code.istore(SP_VALUE);
+            mask(0xfffff);
+            storeRegister(SP);
+        }
+        addCycles(d.cycles);
+
+        if (d.dstRegMode) {
+            loadRegisterCG(d.dstRegister, ad);
+            mask(mode.mask);
+            code.istore(DST);
+        } else {
+            switch (ad) {
+            case AM_INDEX:
+                code.iconst(d.dstWord);
+                loadRegisterCG(d.dstRegister, AM_INDEX);
+                helper("index", "(II)I");
+                code.istore(DST_ADDRESS);
+                pc += 2;
+                readMemory(DST_ADDRESS, DST, mode);
+                break;
+            case AM_IND_REG:
+                loadRegister(d.dstRegister);
+                code.istore(DST_ADDRESS);
+                readMemory(DST_ADDRESS, DST, mode);
+                break;
+            case AM_IND_AUTOINC:
+                if (d.dstRegister == PC) {
+                    code.iconst(d.dstWord);
+                    code.istore(DST);
+                    pc += 2;
+                } else {
+                    loadRegister(d.dstRegister);
+                    code.op(Code.DUP);
+                    code.istore(DST_ADDRESS);
+                    code.iconst(mode.bytes);
+                    code.op(Code.IADD);
+                    mask(0xfffff);
+                    storeRegister(d.dstRegister);
+                    readMemory(DST_ADDRESS, DST, mode);
+                }
+                break;
+            }
+        }
+
+        switch (op) {
+        case RRC:
+            code.iload(DST);
+            code.iload(REGISTERS + SR);
+            code.iconst(mode.msb);
+            helper("rrc", "(III)I");
+            code.istore(RESULT);
+            code.iload(REGISTERS + SR);
+            code.iload(DST);
+            helper("shiftFlags", "(II)I");
+            storeRegister(SR);
+            code.iload(RESULT);
+            code.istore(DST);
+            break;
+        case SWPB:
+            code.iload(DST);
+            helper("swpb", "(I)I");
+            code.istore(DST);
+            updateStatus = false;
+            break;
+        case RRA:
+            code.iload(DST);
+            code.iconst(mode.msb);
+            helper("rra", "(II)I");
+            code.istore(RESULT);
+            code.iload(REGISTERS + SR);
+            code.iload(DST);
+            helper("shiftFlags", "(II)I");
+            storeRegister(SR);
+            code.iload(RESULT);
+            code.istore(DST);
+            break;
+        case SXT:
+            code.iload(DST);
+            helper("sxt", "(I)I");
+            code.istore(DST);
+            code.iload(REGISTERS + SR);
+            code.iload(DST);
+            helper("nonZeroFlags", "(II)I");
+            storeRegister(SR);
+            break;
+        case PUSH:
+            writeMemory(SP_VALUE, DST, mode);
+            addCycles(d.opCycles);
+            write = false;
+            updateStatus = false;
+            break;
+        }
+        finishInstruction(d, write, updateStatus, DST_ADDRESS);
+        return d.cycles + d.opCycles;
+    }
+
+    private void finishInstruction(DecodedInstruction d, boolean write, boolean updateStatus, int address) {
+        code.iload(DST);
+        mask(d.mode.mask);
+        code.istore(DST);
+        if (write) {
+            if (d.dstRegMode) {
+                code.iload(DST);
+                storeRegister(d.dstRegister);
+            } else {
+                writeMemory(address, DST, d.mode);
+            }
+        }
+        if (updateStatus) {
+            code.iload(REGISTERS + SR);
+            code.iload(DST);
+            code.iconst(d.mode.msb);
+            helper("statusZN", "(III)I");
+            storeRegister(SR);
+        }
+        code.iconst(pc);
+        code.istore(NEXT_PC);
+    }
+
+    private int compileJump(DecodedInstruction d) {
+        pc += 2;
+        addCycles(2);
+        Code.Label taken = new Code.Label();
+        Code.Label done = new Code.Label();
+        code.iconst(d.op);
+        code.iload(REGISTERS + SR);
+        helper("jumps", "(II)Z");
+        code.jump(Code.IFNE, taken);
+        code.iconst(pc);
+        code.istore(NEXT_PC);
+        code.jump(Code.GOTO, done);
+        code.bind(taken);
+        code.iconst((pc + d.jumpOffset) & 0xfffff);
+        code.istore(NEXT_PC);
+        code.bind(done);
+        return 2;
+    }
+
+    /* Event processing and the checks for leaving the block after each instruction */
+    private void endInstruction(DecodedInstruction d, int count, int cycles, boolean last) {
+        Code.Label noEvents = new Code.Label();
+        code.aload(CPU);
+        code.getfield(CORE_CLASS, "cycles", "J");
+        code.aload(CPU);
+        code.getfield(CORE_CLASS, "nextEventCycles", "J");
+        code.op(Code.LCMP);
+        code.jump(Code.IFLT, noEvents);
+        code.iconst(count);
+        code.istore(COUNT);
+        code.iconst(d.instruction);
+        code.istore(INSTRUCTION);
+        code.iconst(cycles);
+        code.istore(CYCLES);
+        code.jump(Code.GOTO, exitEvents);
+        code.bind(noEvents);
+
+        code.aload(CPU);
+        code.op(Code.DUP);
+        code.getfield(CORE_CLASS, "cpuCycles", "J");
+        code.lconst(cycles);
+        code.op(Code.LADD);
+        code.putfield(CORE_CLASS, "cpuCycles", "J");
+
+        Code.Label next = new Code.Label();
+        if (!last) {
+            if (memoryAccess) {
+                /* IO units may have changed the interrupt or low power state */
+                code.aload(CPU);
+                code.iload(GENERATION);
+                code.lload(CYCLE_LIMIT);
+                code.invokevirtual(CORE_CLASS, "canContinueBlock", "(IJ)Z");
+                code.jump(Code.IFNE, next);
+            } else {
+                code.aload(CPU);
+                code.getfield(CORE_CLASS, "cycles", "J");
+                code.lload(CYCLE_LIMIT);
+                code.op(Code.LCMP);
+                code.jump(Code.IFLT, next);
+            }
+        }
+        code.iconst(count);
+        code.istore(COUNT);
+        code.iconst(d.instruction);
+        code.istore(INSTRUCTION);
+        code.jump(Code.GOTO, exit);
+        code.bind(next);
+    }
+
+    /* A minimal class file writer for a class with a constructor and one method */
+    private static final class ClassWriter {
+
+        private final HashMap<String,Integer> constants = new HashMap<String,Integer>();
+        private byte[] pool = new byte[256];
+        private int poolLength;
+        private int poolCount = 1;
+
+        private void poolByte(int b) {
+            if (poolLength == pool.length) {
+                pool = Arrays.copyOf(pool, pool.length * 2);
+            }
+            pool[poolLength++] = (byte) b;
+        }
+
+        private void poolShort(int s) {
+            poolByte(s >> 8);
+            poolByte(s);
+        }
+
+        private void poolInt(int i) {
+            poolShort(i >>> 16);
+            poolShort(i & 0xffff);
+        }
+
+        private Integer lookup(String key) {
+            return constants.get(key);
+        }
+
+        private int add(String key, int slots) {
+            int index = poolCount;
+            constants.put(key, index);
+            poolCount += slots;
+            return index;
+        }
+
+        int utf8(String s) {
+            Integer index = lookup("U" + s);
+            if (index != null) {
+                return index;
+            }
+            poolByte(1);
+            poolShort(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                /* class, member and descriptor names are plain ASCII */
+                poolByte(s.charAt(i));
+            }
+            return add("U" + s, 1);
+        }
+
+        int classRef(String name) {
+            Integer index = lookup("C" + name);
+            if (index != null) {
+                return index;
+            }
+            int utf = utf8(name);
+            poolByte(7);
+            poolShort(utf);
+            return add("C" + name, 1);
+        }
+
+        int integer(int value) {
+            Integer index = lookup("I" + value);
+            if (index != null) {
+                return index;
+            }
+            poolByte(3);
+            poolInt(value);
+            return add("I" + value, 1);
+        }
+
+        int longConstant(long value) {
+            Integer index = lookup("J" + value);
+            if (index != null) {
+                return index;
+            }
+            poolByte(5);
+            poolInt((int) (value >>> 32));
+            poolInt((int) value);
+            return add("J" + value, 2);
+        }
+
+        private int nameAndType(String name, String desc) {
+            Integer index = lookup("N" + name + ' ' + desc);
+            if (index != null) {
+                return index;
+            }
+            int n = utf8(name);
+            int t = utf8(desc);
+            poolByte(12);
+            poolShort(n);
+            poolShort(t);
+            return add("N" + name + ' ' + desc, 1);
+        }
+
+        int memberRef(int tag, String owner, String name, String desc) {
+            String key = "M" + tag + owner + '.' + name + ' ' + desc;
+            Integer index = lookup(key);
+            if (index != null) {
+                return index;
+            }
+            int c = classRef(owner);
+            int nt = nameAndType(name, desc);
+            poolByte(tag);
+            poolShort(c);
+            poolShort(nt);
+            return add(key, 1);
+        }
+
+        byte[] toByteArray(String name, String superName, String methodName, String methodDesc,
+                Code code, int maxLocals) {
+            int thisClass = classRef(name);
+            int superClass = classRef(superName);
+            int superInit = memberRef(10, superName, "<init>", "()V");
+            int initName = utf8("<init>");
+            int initDesc = utf8("()V");
+            int codeName = utf8("Code");
+            int execName = utf8(methodName);
+            int execDesc = utf8(methodDesc);
+
+            Code init = new Code(this);
+            init.aload(0);
+            init.op(Code.INVOKESPECIAL);
+            init.u2(superInit);
+            init.op(Code.RETURN);
+
+            Code out = new Code(this);
+            out.u2(0xcafe);
+            out.u2(0xbabe);
+            out.u2(0);
+            /* Java 5 - verified without stack map frames */
+            out.u2(49);
+            out.u2(poolCount);
+            out.bytes(pool, poolLength);
+            /* ACC_PUBLIC | ACC_FINAL | ACC_SUPER */
+            out.u2(0x0031);
+            out.u2(thisClass);
+            out.u2(superClass);
+            out.u2(0);
+            out.u2(0);
+            out.u2(2);
+            writeMethod(out, 0x0001, initName, initDesc, codeName, init, 1, 1);
+            writeMethod(out, 0x0000, execName, execDesc, codeName, code, 16, maxLocals);
+            out.u2(0);
+            return Arrays.copyOf(out.buffer, out.length);
+        }
+
+        private static void writeMethod(Code out, int access, int name, int desc, int codeName,
+                Code code, int maxStack, int maxLocals) {
+            out.u2(access);
+            out.u2(name);
+            out.u2(desc);
+            out.u2(1);
+            out.u2(codeName);
+            out.u4(12 + code.length);
+            out.u2(maxStack);
+            out.u2(maxLocals);
+            out.u4(code.length);
+            out.bytes(code.buffer, code.length);
+            out.u2(0);
+            out.u2(0);
+        }
+    }
+
+    /* Bytecode buffer with branch label fixups */
+    private static final class Code {
+
+        static final int ICONST_0 = 0x03;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC_W = 0x13;
+        static final int LDC2_W = 0x14;
+        static final int ILOAD = 0x15;
+        static final int LLOAD = 0x16;
+        static final int ALOAD = 0x19;
+        static final int IALOAD = 0x2e;
+        static final int ISTORE = 0x36;
+        static final int ASTORE = 0x3a;
+        static final int IASTORE = 0x4f;
+        static final int DUP = 0x59;
+        static final int IADD = 0x60;
+        static final int LADD = 0x61;
+        static final int ISUB = 0x64;
+        static final int IAND = 0x7e;
+        static final int IOR = 0x80;
+        static final int IXOR = 0x82;
+        static final int I2L = 0x85;
+        static final int LCMP = 0x94;
+        static final int IFNE = 0x9a;
+        static final int IFLT = 0x9b;
+        static final int GOTO = 0xa7;
+        static final int IRETURN = 0xac;
+        static final int RETURN = 0xb1;
+        static final int GETSTATIC = 0xb2;
+        static final int GETFIELD = 0xb4;
+        static final int PUTFIELD = 0xb5;
+        static final int INVOKEVIRTUAL = 0xb6;
+        static final int INVOKESPECIAL = 0xb7;
+        static final int INVOKESTATIC = 0xb8;
+
+        static final class Label {
+            int position = -1;
+            int[] fixups = new int[4];
+            int fixupCount;
+        }
+
+        private final ClassWriter cw;
+        byte[] buffer = new byte[1024];
+        int length;
+
+        Code(ClassWriter cw) {
+            this.cw = cw;
+        }
+
+        void op(int b) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        void u2(int s) {
+            op(s >> 8);
+            op(s);
+        }
+
+        void u4(int i) {
+            u2(i >>> 16);
+            u2(i & 0xffff);
+        }
+
+        void bytes(byte[] data, int len) {
+            for (int i = 0; i < len; i++) {
+                op(data[i]);
+            }
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                op(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W);
+                u2(cw.integer(value));
+            }
+        }
+
+        void lconst(long value) {
+            op(LDC2_W);
+            u2(cw.longConstant(value));
+        }
+
+        void iload(int local) {
+            op(ILOAD);
+            op(local);
+        }
+
+        void lload(int local) {
+            op(LLOAD);
+            op(local);
+        }
+
+        void aload(int local) {
+            op(ALOAD);
+            op(local);
+        }
+
+        void istore(int local) {
+            op(ISTORE);
+            op(local);
+        }
+
+        void astore(int local) {
+            op(ASTORE);
+            op(local);
+        }
+
+        void getfield(String owner, String name, String desc) {
+            op(GETFIELD);
+            u2(cw.memberRef(9, owner, name, desc));
+        }
+
+        void putfield(String owner, String name, String desc) {
+            op(PUTFIELD);
+            u2(cw.memberRef(9, owner, name, desc));
+        }
+
+        void getstatic(String owner, String name, String desc) {
+            op(GETSTATIC);
+            u2(cw.memberRef(9, owner, name, desc));
+        }
+
+        void invokevirtual(String owner, String name, String desc) {
+            op(INVOKEVIRTUAL);
+            u2(cw.memberRef(10, owner, name, desc));
+        }
+
+        void invokestatic(String owner, String name, String desc) {
+            op(INVOKESTATIC);
+            u2(cw.memberRef(10, owner, name, desc));
+        }
+
+        void jump(int opcode, Label label) {
+            int position = length;
+            op(opcode);
+            if (label.position >= 0) {
+                u2(label.position - position);
+            } else {
+                if (label.fixupCount == label.fixups.length) {
+                    label.fixups = Arrays.copyOf(label.fixups, label.fixups.length * 2);
+                }
+                label.fixups[label.fixupCount++] = position;
+                u2(0);
+            }
+        }
+
+        void bind(Label label) {
+            label.position = length;
+            for (int i = 0; i < label.fixupCount; i++) {
+                int position = label.fixups[i];
+                int offset = length - position;
+                buffer[position + 1] = (byte) (offset >> 8);
+                buffer[position + 2] = (byte) offset;
+            }
+            label.fixupCount = 0;
+        }
+    }
+
+}
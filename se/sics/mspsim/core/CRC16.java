@@ -32,13 +32,14 @@
  */
 package se.sics.mspsim.core;
 
+import java.io.IOException;
 
 /**
  * CRC16 module for the MSP430
  * 
  * @author Victor Ariño <victor.arino@tado.com>
  */
-public class CRC16 extends IOUnit {
+public class CRC16 extends IOUnit implements Snapshotable {
 
 	/**
 	 * Address and size for IO configuration
@@ -77,7 +78,7 @@ public class CRC16 extends IOUnit {
 	 *           Address offset, by default is 0x0150
 	 */
 	public CRC16(MSP430Core cpu, int offset) {
-		super("CRC16", cpu, cpu.memory, offset);
+		super("CRC16", cpu, cpu.ioMemory, offset);
 		setLogLevel(Loggable.DEBUG);
 	}
 
@@ -247,4 +248,14 @@ public class CRC16 extends IOUnit {
 
 	public void interruptServiced(int vector) {
 	}
+
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+		out.writeInt(crc.getCRC());
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+		crc.reset(in.readInt());
+	}
 }
@@ -47,7 +47,7 @@ public abstract class ClockSystem extends IOUnit {
   public abstract int getAddressRangeMin();
   public abstract int getAddressRangeMax();
 
-  public ClockSystem(String type, MSP430Core cpu, int[] memory, int offset) {
+  public ClockSystem(String type, MSP430Core cpu, byte[] memory, int offset) {
     super(type, cpu, memory, offset);
   }
 
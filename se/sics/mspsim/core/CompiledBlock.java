@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * CompiledBlock
+ *
+ * Base class of basic blocks compiled to JVM bytecode.
+ */
+package se.sics.mspsim.core;
+
+/**
+ * Base class of the classes generated by {@link BlockCompiler}. The
+ * generated code keeps the CPU registers in local variables and calls the
+ * static helpers below for the status flags so that the generated methods
+ * stay small and are inlined by the JVM.
+ */
+abstract class CompiledBlock implements MSP430Constants {
+
+    /**
+     * Executes the compiled instructions of the block. Stops early, as
+     * emulateBlock does, when events are due, the cycle limit is reached or
+     * the CPU state no longer allows block execution.
+     *
+     * @return the number of executed instructions
+     */
+    abstract int execute(MSP430Core cpu, long cycleLimit, int generation) throws EmulationException;
+
+    /* Indexed address - bits 19:16 are cleared for registers in the lower 64 KB */
+    static int index(int index, int rval) {
+        return (index + rval) & (rval <= 0xffff ? 0xffff : 0xfffff);
+    }
+
+    /* Carry and overflow after ADD, ADDC, SUB and SUBC */
+    static int addFlags(int sr, int src, int dst, int result, int msb, int mask) {
+        sr &= ~(OVERFLOW | CARRY);
+        if (result > mask) {
+            sr |= CARRY;
+        }
+        if (((src ^ dst) & msb) == 0 && ((src ^ result) & msb) != 0) {
+            sr |= OVERFLOW;
+        }
+        return sr;
+    }
+
+    /* Carry and overflow after CMP */
+    static int cmpFlags(int sr, int src, int dst, int msb) {
+        sr = (sr & ~(CARRY | OVERFLOW)) | (dst >= src ? CARRY : 0);
+        int tmp = dst - src;
+        if (((src ^ tmp) & msb) == 0 && ((src ^ dst) & msb) != 0) {
+            sr |= OVERFLOW;
+        }
+        return sr;
+    }
+
+    /* Carry and overflow after XOR */
+    static int xorFlags(int sr, int src, int dst, int msb) {
+        sr &= ~(CARRY | OVERFLOW);
+        if ((src & msb) != 0 && (dst & msb) != 0) {
+            sr |= OVERFLOW;
+        }
+        if ((src ^ dst) != 0) {
+            sr |= CARRY;
+        }
+        return sr;
+    }
+
+    /* Carry set if the result is non-zero and overflow cleared, i.e. after BIT, AND and SXT */
+    static int nonZeroFlags(int sr, int result) {
+        return (sr & ~(CARRY | OVERFLOW)) | (result != 0 ? CARRY : 0);
+    }
+
+    /* Carry from the shifted out bit and overflow cleared after RRC and RRA */
+    static int shiftFlags(int sr, int dst) {
+        return (sr & ~(CARRY | OVERFLOW)) | ((dst & 1) != 0 ? CARRY : 0);
+    }
+
+    static int rrc(int dst, int sr, int msb) {
+        return (dst >> 1) | ((sr & CARRY) != 0 ? msb : 0);
+    }
+
+    static int rra(int dst, int msb) {
+        return (dst & msb) | dst >> 1;
+    }
+
+    static int swpb(int dst) {
+        return ((dst >> 8) & 0xff) + ((dst << 8) & 0xff00);
+    }
+
+    static int sxt(int dst) {
+        return (dst & 0x80) != 0 ? dst | 0xfff00 : dst & 0x7f;
+    }
+
+    /* Zero and negative after the result has been masked */
+    static int statusZN(int sr, int dst, int msb) {
+        return (sr & ~(ZERO | NEGATIVE)) | (dst == 0 ? ZERO : 0) | ((dst & msb) != 0 ? NEGATIVE : 0);
+    }
+
+    static boolean jumps(int op, int sr) {
+        switch (op) {
+        case JNE:
+            return (sr & ZERO) == 0;
+        case JEQ:
+            return (sr & ZERO) != 0;
+        case JNC:
+            return (sr & CARRY) == 0;
+        case JC:
+            return (sr & CARRY) != 0;
+        case JN:
+            return (sr & NEGATIVE) != 0;
+        case JGE:
+            return (sr & NEGATIVE) != 0 == ((sr & OVERFLOW) != 0);
+        case JL:
+            return (sr & NEGATIVE) != 0 != ((sr & OVERFLOW) != 0);
+        default:
+            return true;
+        }
+    }
+
+}
@@ -1,9 +1,11 @@
 package se.sics.mspsim.core;
 
+import java.io.IOException;
+
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.Utils;
 
-public class DMA extends IOUnit {
+public class DMA extends IOUnit implements Snapshotable {
 
     /* global DMA configuration */
     public static final int DMACTL0 = 0x122;
@@ -159,6 +161,44 @@ public class DMA extends IOUnit {
         public void interruptServiced(int vector) {
         }
 
+        void saveState(SnapshotOutput out) throws IOException {
+            out.writeInt(ctl);
+            out.writeInt(sourceAddress);
+            out.writeInt(destinationAddress);
+            out.writeInt(size);
+            out.writeInt(currentSourceAddress);
+            out.writeInt(currentDestinationAddress);
+            out.writeInt(storedSize);
+            out.writeInt(srcIncr);
+            out.writeInt(dstIncr);
+            out.writeBoolean(dstByteMode);
+            out.writeBoolean(srcByteMode);
+            out.writeInt(transferMode);
+            out.writeBoolean(enable);
+            out.writeBoolean(dmaLevel);
+            out.writeBoolean(dmaIE);
+            out.writeBoolean(dmaIFG);
+        }
+
+        void loadState(SnapshotInput in) throws IOException {
+            ctl = in.readInt();
+            sourceAddress = in.readInt();
+            destinationAddress = in.readInt();
+            size = in.readInt();
+            currentSourceAddress = in.readInt();
+            currentDestinationAddress = in.readInt();
+            storedSize = in.readInt();
+            srcIncr = in.readInt();
+            dstIncr = in.readInt();
+            dstByteMode = in.readBoolean();
+            srcByteMode = in.readBoolean();
+            transferMode = in.readInt();
+            enable = in.readBoolean();
+            dmaLevel = in.readBoolean();
+            dmaIE = in.readBoolean();
+            dmaIFG = in.readBoolean();
+        }
+
         public String getName() {
             return "DMA Channel " + channelNo;
         }
@@ -182,7 +222,7 @@ public class DMA extends IOUnit {
     private DMATrigger[] dmaTrigger = new DMATrigger[16];
     private int[] dmaTriggerIndex = new int[16];
     
-    public DMA(String id, MSP430Core cpu, int[] memory, int offset) {
+    public DMA(String id, MSP430Core cpu, byte[] memory, int offset) {
         super(id, cpu, memory, offset);
         channels[0] = new Channel(0);
         channels[1] = new Channel(1);
@@ -250,6 +290,29 @@ public class DMA extends IOUnit {
         }
     }
 
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        out.writeInt(dmactl0);
+        out.writeInt(dmactl1);
+        for (Channel c : channels) {
+            c.saveState(out);
+        }
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        /* the triggers are selected by DMACTL0 */
+        write(DMACTL0, in.readInt(), true, cpu.cycles);
+        dmactl1 = in.readInt();
+        for (Channel c : channels) {
+            c.loadState(in);
+            if (interruptMultiplexer != null) {
+                /* makes the multiplexer known to the CPU when restoring the interrupt sources */
+                interruptMultiplexer.updateInterrupt(c.dmaIFG & c.dmaIE, c.channelNo);
+            }
+        }
+    }
+
     public String info() {
         StringBuilder sb = new StringBuilder();
         sb.append("  DMACTL0: 0x" + Utils.hex16(dmactl0) + "  DMACTL1: 0x" + Utils.hex16(dmactl1));
@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * DecodedInstruction
+ *
+ * A predecoded MSP430 instruction.
+ */
+package se.sics.mspsim.core;
+
+import se.sics.mspsim.core.Memory.AccessMode;
+
+/**
+ * An MSP430 instruction decoded once from memory and cached by the CPU, so
+ * that the same instruction does not have to be fetched and decoded again
+ * each time it is executed. Holds the operation, the addressing modes and
+ * registers, the constant generator or immediate source value, the index
+ * and absolute words, the size and the cycle cost of the instruction.
+ * <p>
+ * Only the original MSP430 instruction formats are decoded. Extension words
+ * and MSP430X instructions are marked as {@link #NOT_DECODED} and executed
+ * by the full emulation.
+ */
+final class DecodedInstruction implements MSP430Constants {
+
+    static final int NONE = 0;
+    static final int SINGLE = 1;
+    static final int JUMP = 2;
+    static final int DOUBLE = 3;
+
+    /** Marks an instruction that is always executed by the full emulation. */
+    static final DecodedInstruction NOT_DECODED = new DecodedInstruction(NONE, 0, 2);
+
+    final int type;
+    final int instruction;
+    /** Size of the instruction including operand words, in bytes. */
+    final int size;
+
+    int op;
+    AccessMode mode;
+    boolean word;
+
+    int srcRegister;
+    int as;
+    /** Source is a constant generator or immediate value in srcValue. */
+    boolean srcConstant;
+    int srcValue;
+    /** Sign converted source index. */
+    int srcIndex;
+
+    int dstRegister;
+    int ad;
+    boolean dstRegMode;
+    /** Destination index or absolute address, or immediate value of single operand instructions. */
+    int dstWord;
+
+    int jumpOffset;
+
+    /** Cycles added before the operands are accessed. */
+    int cycles;
+    /** Cycles added by PUSH, CALL and RETI after the stack has been accessed. */
+    int opCycles;
+
+    private DecodedInstruction(int type, int instruction, int size) {
+        this.type = type;
+        this.instruction = instruction;
+        this.size = size;
+    }
+
+    private static int readWord(byte[] page, int address) {
+        return (page[address & 0xff] & 0xff) | ((page[(address & 0xff) + 1] & 0xff) << 8);
+    }
+
+    private static int convertTwoComplement16(int index) {
+        if (index > 0x8000) {
+            return -(0x10000 - index);
+        }
+        return index;
+    }
+
+    /**
+     * Decodes the instruction at the specified even address from the memory
+     * page of its segment. The caller must ensure that the instruction with
+     * its operand words are within plain memory. Returns NOT_DECODED for
+     * instructions that can not be predecoded.
+     */
+    static DecodedInstruction decode(byte[] page, int pc, int maxAddress) {
+        int instruction = readWord(page, pc);
+        int format = instruction >> 12;
+        if (format == 0 || (instruction & 0xf800) == 0x1800) {
+            /* MSP430X instruction or extension word */
+            return NOT_DECODED;
+        }
+        boolean word = (instruction & 0x40) == 0;
+        AccessMode mode = word ? AccessMode.WORD : AccessMode.BYTE;
+
+        if (format == 1) {
+            int op = instruction & 0xff80;
+            if ((instruction & CALLA_MASK) > RETI || op > RETI) {
+                return NOT_DECODED;
+            }
+            int dstRegister = instruction & 0xf;
+            int ad = (instruction >> 4) & 3;
+            boolean dstRegMode = (dstRegister == CG1 && ad > AM_INDEX) || dstRegister == CG2 || ad == AM_REG;
+            boolean hasWord = !dstRegMode && (ad == AM_INDEX || (ad == AM_IND_AUTOINC && dstRegister == PC));
+            int size = hasWord ? 4 : 2;
+            if (pc + size > maxAddress) {
+                return NOT_DECODED;
+            }
+            DecodedInstruction d = new DecodedInstruction(SINGLE, instruction, size);
+            d.op = op;
+            d.mode = mode;
+            d.word = word;
+            d.dstRegister = dstRegister;
+            d.ad = ad;
+            d.dstRegMode = dstRegMode;
+            if (hasWord) {
+                if (ad == AM_INDEX) {
+                    d.dstWord = convertTwoComplement16(readWord(page, pc + 2));
+                } else {
+                    /* immediate - the PC is always handled as word */
+                    d.dstWord = mode == AccessMode.BYTE ? page[(pc + 2) & 0xff] & 0xff : readWord(page, pc + 2);
+                }
+            }
+            d.cycles = dstRegMode ? 1 : (ad == AM_INDEX ? 4 : 3);
+            if (op == PUSH) {
+                d.opCycles = (ad == AM_REG || ad == AM_IND_AUTOINC) ? 2 : 1;
+            } else if (op == CALL) {
+                d.opCycles = ad == AM_REG ? 3 : (ad == AM_IND_AUTOINC ? 2 : 1);
+            } else if (op == RETI) {
+                d.opCycles = 4;
+            }
+            return d;
+        }
+
+        if (format < 4) {
+            DecodedInstruction d = new DecodedInstruction(JUMP, instruction, 2);
+            d.op = instruction & 0xfc00;
+            int jmpOffset = instruction & 0x3ff;
+            d.jumpOffset = (jmpOffset & 0x200) == 0 ?
+                    2 * jmpOffset : -(2 * (0x200 - (jmpOffset & 0x1ff)));
+            d.mode = mode;
+            d.cycles = 2;
+            return d;
+        }
+
+        int dstRegister = instruction & 0xf;
+        int srcRegister = (instruction >> 8) & 0xf;
+        int as = (instruction >> 4) & 3;
+        boolean dstRegMode = ((instruction >> 7) & 1) == 0;
+        boolean srcConstant = (srcRegister == CG1 && as > AM_INDEX) || srcRegister == CG2;
+        boolean srcWord = !srcConstant && (as == AM_INDEX || (as == AM_IND_AUTOINC && srcRegister == PC));
+        int size = 2 + (srcWord ? 2 : 0) + (dstRegMode ? 0 : 2);
+        if (pc + size > maxAddress) {
+            return NOT_DECODED;
+        }
+        DecodedInstruction d = new DecodedInstruction(DOUBLE, instruction, size);
+        d.op = format;
+        d.mode = mode;
+        d.word = word;
+        d.srcRegister = srcRegister;
+        d.as = as;
+        d.dstRegister = dstRegister;
+        d.dstRegMode = dstRegMode;
+        int address = pc + 2;
+        if (srcConstant) {
+            d.srcConstant = true;
+            d.srcValue = CREG_VALUES[srcRegister - 2][as] & mode.mask;
+            d.cycles = dstRegMode ? 1 : 4;
+        } else {
+            switch (as) {
+            case AM_REG:
+                d.cycles = (dstRegMode ? 1 : 4) + (dstRegister == PC ? 1 : 0);
+                break;
+            case AM_INDEX:
+                d.srcIndex = convertTwoComplement16(readWord(page, address));
+                address += 2;
+                d.cycles = dstRegMode ? 3 : 6;
+                break;
+            case AM_IND_REG:
+                d.cycles = dstRegMode ? 2 : 5;
+                break;
+            case AM_IND_AUTOINC:
+                if (srcRegister == PC) {
+                    /* immediate - the PC is always handled as word */
+                    d.srcValue = mode == AccessMode.BYTE ? page[address & 0xff] & 0xff : readWord(page, address);
+                    address += 2;
+                }
+                d.cycles = (dstRegMode ? 2 : 5) + (dstRegister == PC ? 1 : 0);
+                break;
+            }
+        }
+        if (!dstRegMode) {
+            int index = readWord(page, address);
+            /* absolute mode when the destination is SR */
+            d.dstWord = dstRegister == SR ? index : convertTwoComplement16(index);
+        }
+        return d;
+    }
+
+}
@@ -42,10 +42,32 @@
 package se.sics.mspsim.core;
 
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.LongUnaryOperator;
 
-public class EventQueue {
+/**
+ * Binary heap of time events where each event keeps its own heap index so
+ * that it can be removed or rescheduled in O(log n).
+ *
+ * Events are ordered by their deadline which is the same as their time
+ * unless they are scheduled in another time base than the queue. Events
+ * with the same deadline are executed in the same order as in the earlier
+ * sorted list: the most recently added event first.
+ */
+public class EventQueue implements EventScheduler {
+
+  static final Comparator<TimeEvent> ORDER = new Comparator<TimeEvent>() {
+    @Override
+    public int compare(TimeEvent e1, TimeEvent e2) {
+      return before(e1, e2) ? -1 : (before(e2, e1) ? 1 : 0);
+    }
+  };
 
-  private TimeEvent first;
+  private TimeEvent[] heap = new TimeEvent[16];
+  /* decreases for every added event to order events with the same time */
+  private long sequence;
+  /* the deadline of the first event */
   public long nextTime;
   public int eventCount = 0;
 
@@ -53,119 +75,212 @@ public class EventQueue {
   }
 
   public void addEvent(TimeEvent event, long time) {
-    event.time = time;
-    addEvent(event);
+    addEvent(event, time, time);
   }
 
   public void addEvent(TimeEvent event) {
+    addEvent(event, event.time, event.time);
+  }
+
+  @Override
+  public void addEvent(TimeEvent event, long time, long deadline) {
     if (event.scheduledIn != null) {
       event.remove();
     }
-    if (first == null) {
-      first = event;
-    } else {
-      TimeEvent pos = first;
-      TimeEvent lastPos = first;
-      while (pos != null && pos.time < event.time) {
-        lastPos = pos;
-        pos = pos.nextEvent;
-      }
-      // Here pos will be the first TE after event
-      // and lastPos the first before
-      if (pos == first) {
-        // Before all other
-        event.nextEvent = pos;
-        first = event;
-      } else {
-        event.nextEvent = pos;
-        lastPos.nextEvent = event;
-      }
-    }
-    if (first != null) {
-      nextTime = first.time;
-    } else {
-      nextTime = 0;
-    }
+    event.time = time;
+    event.deadline = deadline;
+    event.sequence = --sequence;
     event.scheduledIn = this;
-    eventCount++;
+    insert(event);
   }
 
-  // Not yet impl.
+  @Override
   public boolean removeEvent(TimeEvent event) {
-    TimeEvent pos = first;
-    TimeEvent lastPos = first;
-//  System.out.println("Removing: " + event.getShort() + "  Before remove: ");
-//  print();
-    while (pos != null && pos != event) {
-      lastPos = pos;
-      pos = pos.nextEvent;
-    }
-    if (pos == null) return false;
-    // pos == event!
-    if (pos == first) {
-      // remove it from first pos.
-      first = pos.nextEvent;
-    } else {
-      // else link prev to next...
-      lastPos.nextEvent = pos.nextEvent;
-    }
-    // unlink
-    pos.nextEvent = null;
-
-    if (first != null) {
-      nextTime = first.time;
-    } else {
-      nextTime = 0;
+    if (event.scheduledIn != this || !delete(event)) {
+      return false;
     }
-//  System.out.println("Removed =>");
-//  print();
     event.scheduledIn = null;
-    eventCount--;
     return true;
   }
 
+  @Override
   public TimeEvent popFirst() {
-    TimeEvent tmp = first;
+    TimeEvent tmp = poll();
     if (tmp != null) {
-      first = tmp.nextEvent;
-      // Unlink.
-      tmp.nextEvent = null;
-
       // No longer scheduled!
       tmp.scheduledIn = null;
+    }
+    return tmp;
+  }
 
-      eventCount--;
+  @Override
+  public int getEventCount() {
+    return eventCount;
+  }
+
+  @Override
+  public long getNextTime() {
+    return nextTime;
+  }
+
+  /* adds the event to the heap without changing its scheduling state */
+  void insert(TimeEvent event) {
+    if (eventCount == heap.length) {
+      heap = Arrays.copyOf(heap, eventCount * 2);
     }
+    siftUp(event, eventCount++);
+    nextTime = heap[0].deadline;
+  }
 
-    if (first != null) {
-      nextTime = first.time;
+  /* removes the event from the heap without changing its scheduling state */
+  boolean delete(TimeEvent event) {
+    int index = event.heapIndex;
+    if (index >= eventCount || heap[index] != event) {
+      return false;
+    }
+    TimeEvent last = heap[--eventCount];
+    heap[eventCount] = null;
+    if (index < eventCount) {
+      if (index > 0 && before(last, heap[(index - 1) >> 1])) {
+        siftUp(last, index);
+      } else {
+        siftDown(last, index);
+      }
+    }
+    nextTime = eventCount > 0 ? heap[0].deadline : 0;
+    return true;
+  }
+
+  /* removes the first event without changing its scheduling state */
+  TimeEvent poll() {
+    if (eventCount == 0) {
+      nextTime = 0;
+      return null;
+    }
+    TimeEvent tmp = heap[0];
+    TimeEvent last = heap[--eventCount];
+    heap[eventCount] = null;
+    if (eventCount > 0) {
+      siftDown(last, 0);
+      nextTime = heap[0].deadline;
     } else {
       nextTime = 0;
     }
     return tmp;
   }
 
+  /* removes all events without changing their scheduling state */
+  void clear() {
+    Arrays.fill(heap, 0, eventCount, null);
+    eventCount = 0;
+    nextTime = 0;
+  }
+
+  @Override
   public void removeAll() {
-    TimeEvent t = first;
-    while(t != null) {
-      TimeEvent clr = t;
-      t = t.nextEvent;
-      clr.nextEvent = null;
+    for (int i = 0; i < eventCount; i++) {
+      TimeEvent clr = heap[i];
+      heap[i] = null;
       clr.time = 0;
       clr.scheduledIn = null;
     }
-    first = null;
     eventCount = 0;
   }
-  
+
+  @Override
+  public void updateDeadlines(LongUnaryOperator toDeadline) {
+    boolean changed = false;
+    for (int i = 0; i < eventCount; i++) {
+      TimeEvent event = heap[i];
+      if (event.virtualTime) {
+        long deadline = toDeadline.applyAsLong(event.time);
+        if (deadline != event.deadline) {
+          event.deadline = deadline;
+          changed = true;
+        }
+      }
+    }
+    if (changed) {
+      for (int i = (eventCount >> 1) - 1; i >= 0; i--) {
+        siftDown(heap[i], i);
+      }
+      nextTime = heap[0].deadline;
+    }
+  }
+
+  @Override
+  public TimeEvent[] getEvents() {
+    TimeEvent[] events = Arrays.copyOf(heap, eventCount);
+    Arrays.sort(events, ORDER);
+    return events;
+  }
+
+  @Override
+  public void restoreEvents(TimeEvent[] events) {
+    if (events.length > heap.length) {
+      heap = new TimeEvent[events.length];
+    }
+    /* a sorted array is a valid heap */
+    for (int i = 0; i < events.length; i++) {
+      TimeEvent event = events[i];
+      event.sequence = sequence + i;
+      event.heapIndex = i;
+      event.scheduledIn = this;
+      heap[i] = event;
+    }
+    eventCount = events.length;
+    nextTime = eventCount > 0 ? heap[0].deadline : 0;
+  }
+
+  private static boolean before(TimeEvent e1, TimeEvent e2) {
+    return e1.deadline < e2.deadline
+        || (e1.deadline == e2.deadline && e1.sequence < e2.sequence);
+  }
+
+  private void siftUp(TimeEvent event, int index) {
+    while (index > 0) {
+      int parent = (index - 1) >> 1;
+      TimeEvent p = heap[parent];
+      if (!before(event, p)) {
+        break;
+      }
+      heap[index] = p;
+      p.heapIndex = index;
+      index = parent;
+    }
+    heap[index] = event;
+    event.heapIndex = index;
+  }
+
+  private void siftDown(TimeEvent event, int index) {
+    int half = eventCount >> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      TimeEvent c = heap[child];
+      int right = child + 1;
+      if (right < eventCount && before(heap[right], c)) {
+        child = right;
+        c = heap[child];
+      }
+      if (!before(c, event)) {
+        break;
+      }
+      heap[index] = c;
+      c.heapIndex = index;
+      index = child;
+    }
+    heap[index] = event;
+    event.heapIndex = index;
+  }
+
+  @Override
   public void print(PrintStream out) {
-    TimeEvent t = first;
+    TimeEvent[] events = getEvents();
     out.print("nxt: " + nextTime + " [");
-    while(t != null) {
-      out.print(t.getShort());
-      t = t.nextEvent;
-      if (t != null) out.print(", ");
+    for (int i = 0; i < events.length; i++) {
+      if (i > 0) out.print(", ");
+      out.print(events[i].getShort());
     }
     out.println("]");
   }
-} // LLEventQueue
+} // EventQueue
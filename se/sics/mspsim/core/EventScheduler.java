@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * EventScheduler
+ *
+ * Orders the scheduled time events of a CPU by their deadline in cycles.
+ */
+
+package se.sics.mspsim.core;
+
+import java.io.PrintStream;
+import java.util.function.LongUnaryOperator;
+
+interface EventScheduler {
+
+    /* schedules the event at the specified time to be executed at the deadline */
+    void addEvent(TimeEvent event, long time, long deadline);
+
+    boolean removeEvent(TimeEvent event);
+
+    /* removes and returns the first event or null if no event is scheduled */
+    TimeEvent popFirst();
+
+    int getEventCount();
+
+    /* returns the deadline of the first event */
+    long getNextTime();
+
+    void removeAll();
+
+    /* updates the deadline of all events scheduled in virtual time */
+    void updateDeadlines(LongUnaryOperator toDeadline);
+
+    /* returns the scheduled events in execution order */
+    TimeEvent[] getEvents();
+
+    /* Fills an empty scheduler with the specified events which must already
+     * be sorted in execution order and have their deadlines set (used when
+     * restoring snapshots).
+     */
+    void restoreEvents(TimeEvent[] events);
+
+    void print(PrintStream out);
+
+}
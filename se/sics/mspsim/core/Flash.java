@@ -36,13 +36,13 @@
  */
 package se.sics.mspsim.core;
 
-import java.util.Arrays;
+import java.io.IOException;
 
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.core.Memory.AccessMode;
 import se.sics.mspsim.util.Utils;
 
-public class Flash extends IOUnit {
+public class Flash extends IOUnit implements Snapshotable {
   
   private static final int FCTL1 = 0x00;
   private static final int FCTL2 = 0x02;
@@ -178,15 +178,15 @@ public class Flash extends IOUnit {
     }
   };
   
-  public Flash(MSP430Core cpu, int[] memory, FlashRange main_range,
+  public Flash(MSP430Core cpu, byte[] memory, FlashRange main_range,
       FlashRange info_range, int offset) {
     super("Flash", "Internal Flash", cpu, memory, offset);
     this.main_range = main_range;
     this.info_range = info_range;
     locked = true;
 
-    Arrays.fill(memory, main_range.start, main_range.end, 0xff);
-    Arrays.fill(memory, info_range.start, info_range.end, 0xff);
+    cpu.fillMemory(main_range.start, main_range.end, 0xff);
+    cpu.fillMemory(info_range.start, info_range.end, 0xff);
 
     reset(MSP430.RESET_POR);
   }
@@ -292,9 +292,8 @@ public class Flash extends IOUnit {
 	    ": erasing area " + Utils.hex(area_start, 4) + "-" +
 	    Utils.hex(area_end, 4));
       }
-      for (int i = area_start; i < area_end; i++) {
-	memory[i] = 0xff;
-      }
+      cpu.setMemoryDirty(area_start, area_end);
+      cpu.fillMemory(area_start, area_end, 0xff);
       waitFlashProcess(SEGMENT_ERASE_TIME);
       break;
       
@@ -302,19 +301,14 @@ public class Flash extends IOUnit {
       if (! main_range.isInRange(address)) {
 	return;
       }
-      for (int i = main_range.start; i < main_range.end; i++) {
-	memory[i] = 0xff;
-      }
+      cpu.setMemoryDirty(main_range.start, main_range.end);
+      cpu.fillMemory(main_range.start, main_range.end, 0xff);
       waitFlashProcess(MASS_ERASE_TIME);
       break;
       
     case ERASE_ALL:
-      for (int i = main_range.start; i < main_range.end; i++) {
-	memory[i] = 0xff;
-      }
-      for (int i = info_range.start; i < main_range.end; i++) {
-	memory[i] = 0xff;
-      }
+      cpu.setMemoryDirty(info_range.start, main_range.end);
+      cpu.fillMemory(info_range.start, main_range.end, 0xff);
       waitFlashProcess(MASS_ERASE_TIME);
       break;
     case WRITE_SINGLE:
@@ -338,15 +332,8 @@ public class Flash extends IOUnit {
         wait_time = WRITE_TIME;
       }
       /* Flash memory allows clearing bits only */
-      memory[address] &= data & 0xff;
-      if (dataMode != AccessMode.BYTE) {
-          memory[address + 1] &= (data >> 8) & 0xff;
-          if (dataMode == AccessMode.WORD20) {
-              /* TODO should the write really write the full word? CHECK THIS */
-              memory[address + 2] &= (data >> 16) & 0xff;
-              memory[address + 3] &= (data >> 24) & 0xff;
-          }
-      }
+      /* TODO should a WORD20 write really write the full word? CHECK THIS */
+      cpu.pokeMemory(address, cpu.peekMemory(address, dataMode) & data, dataMode);
       if (DEBUG) {
         log("Writing $" + Utils.hex20(data) + " to $" + Utils.hex(address, 4) + " (" + dataMode.bytes + " bytes)");
       }
@@ -620,4 +607,34 @@ public class Flash extends IOUnit {
     locked = true;
     currentWriteMode = WriteMode.NONE;
   }
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(mode);
+    out.writeInt(clockcfg);
+    out.writeInt(statusreg);
+    out.writeBoolean(locked);
+    out.writeBoolean(wait);
+    out.writeBoolean(blocked_cpu);
+    out.writeInt(currentWriteMode.ordinal());
+    out.writeInt(blockwriteCount);
+    out.writeInt(infomemcfg);
+    out.writeBoolean(lockInfo);
+    out.writeTimeEvent(end_process);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    mode = in.readInt();
+    clockcfg = in.readInt();
+    statusreg = in.readInt();
+    locked = in.readBoolean();
+    wait = in.readBoolean();
+    blocked_cpu = in.readBoolean();
+    currentWriteMode = WriteMode.values()[in.readInt()];
+    blockwriteCount = in.readInt();
+    infomemcfg = in.readInt();
+    lockInfo = in.readBoolean();
+    in.readTimeEvent(end_process);
+  }
 }
@@ -36,12 +36,13 @@
  */
 
 package  se.sics.mspsim.core;
+import java.io.IOException;
 import java.util.Arrays;
 
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.Utils;
 
-public class IOPort extends IOUnit {
+public class IOPort extends IOUnit implements Snapshotable {
 
     public enum PinState { LOW, HI };
 
@@ -86,14 +87,14 @@ public class IOPort extends IOUnit {
      * Creates a new <code>IOPort</code> instance.
      *
      */
-    public IOPort(MSP430Core cpu, int port, int interrupt, int[] memory, int offset) {
+    public IOPort(MSP430Core cpu, int port, int interrupt, byte[] memory, int offset) {
         this(cpu, port, interrupt, memory, offset,
                 interrupt == 0 ? PORTMAP_NO_INTERRUPT : PORTMAP_INTERRUPT);
     }
 
     /* Create an IOPort with a special PortMap */
     public IOPort(MSP430Core cpu, int port,
-            int interrupt, int[] memory, int offset, PortReg[] portMap) {
+            int interrupt, byte[] memory, int offset, PortReg[] portMap) {
         super("P" + port, "Port " + port, cpu, memory, offset);
         this.port = port;
         this.interrupt = interrupt;
@@ -134,7 +135,7 @@ public class IOPort extends IOUnit {
         if (highest + 1 < portMap.length) {
             portMap = Arrays.copyOf(portMap, highest + 1);
         }
-        IOPort newPort = new IOPort(cpu, port, interrupt, cpu.memory, offset, portMap);
+        IOPort newPort = new IOPort(cpu, port, interrupt, cpu.ioMemory, offset, portMap);
         if (last != null && offset == last.offset && offset > 0) {
             // This port is a pair with previous port to allow 16 bits writes
             last.ioPair = newPort;
@@ -350,6 +351,14 @@ public class IOPort extends IOUnit {
         return readPort(reg, cycles);
     }
 
+    @Override
+    public boolean isReadStable(int address) {
+        /* the input pins and their interrupt flags can be driven from outside
+           and reading the interrupt vector clears the highest interrupt flag */
+        PortReg reg = portMap[address - offset];
+        return reg != null && reg != PortReg.IN && reg != PortReg.IFG
+            && reg != PortReg.IV_L && reg != PortReg.IV_H;
+    }
 
     public void write(int address, int data, boolean word, long cycles) {
         int iAddress = address - offset;
@@ -375,6 +384,19 @@ public class IOPort extends IOUnit {
 
     // for HW to set hi/low on the pins...
     public void setPinState(int pin, PinState state) {
+        StimulusRecorder recorder = cpu.getStimulusRecorder();
+        if (recorder != null && recorder.enter(this, StimulusRecorder.PIN, pin << 1 | (state == PinState.HI ? 1 : 0))) {
+            try {
+                updatePinState(pin, state);
+            } finally {
+                recorder.exit();
+            }
+        } else {
+            updatePinState(pin, state);
+        }
+    }
+
+    private void updatePinState(int pin, PinState state) {
         if (pinState[pin] != state) {
             pinState[pin] = state;
             int bit = 1 << pin;
@@ -435,6 +457,43 @@ public class IOPort extends IOUnit {
         }
     }
 
+    @Override
+    public void saveState(SnapshotOutput output) throws IOException {
+        output.writeInt(in);
+        output.writeInt(out);
+        output.writeInt(dir);
+        output.writeInt(sel);
+        output.writeInt(sel2);
+        output.writeInt(ie);
+        output.writeInt(ifg);
+        output.writeInt(ies);
+        output.writeInt(ren);
+        output.writeInt(ds);
+        output.writeInt(iv);
+        for (PinState state : pinState) {
+            output.writeByte(state == null ? -1 : state.ordinal());
+        }
+    }
+
+    @Override
+    public void loadState(SnapshotInput input) throws IOException {
+        in = input.readInt();
+        out = input.readInt();
+        dir = input.readInt();
+        sel = input.readInt();
+        sel2 = input.readInt();
+        ie = input.readInt();
+        ifg = input.readInt();
+        ies = input.readInt();
+        ren = input.readInt();
+        ds = input.readInt();
+        iv = input.readInt();
+        for (int i = 0; i < pinState.length; i++) {
+            int state = input.readByte();
+            pinState[i] = state < 0 ? null : PinState.values()[state];
+        }
+    }
+
     public String info() {
         StringBuilder sb = new StringBuilder();
         sb.append(" $").append(Utils.hex(offset, 2)).append(':');
@@ -1,5 +1,6 @@
 package se.sics.mspsim.core;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import se.sics.mspsim.util.Utils;
 
@@ -64,6 +65,29 @@ public class IOSegment implements Memory {
         write(address, data, mode);
     }
 
+    /**
+     * Returns the IO unit mapped at the specified address or null if none.
+     */
+    public IOUnit getIOUnit(int address) {
+        IOUnit unit = mem[address];
+        return unit != voidIO ? unit : null;
+    }
+
+    /**
+     * Returns the IO units mapped in this segment in address order, each
+     * unit listed once and excluding the void IO unit.
+     */
+    public IOUnit[] getIOUnits() {
+        ArrayList<IOUnit> units = new ArrayList<IOUnit>();
+        for (int i = 0; i < mem.length; i++) {
+            IOUnit unit = mem[i];
+            if (unit != voidIO && (i == 0 || unit != mem[i - 1]) && !units.contains(unit)) {
+                units.add(unit);
+            }
+        }
+        return units.toArray(new IOUnit[units.size()]);
+    }
+
     public String info() {
         StringBuilder sb = new StringBuilder();
         sb.append("IOSegment[0x0000-").append(Utils.hex(mem.length, 4)).append("]\n");
@@ -37,11 +37,12 @@
 
 package se.sics.mspsim.core;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
+import se.sics.mspsim.core.Memory.AccessMode;
 
 public abstract class IOUnit implements InterruptHandler, Loggable {
 
   protected final MSP430Core cpu;
-  protected final int[] memory;
+  protected final byte[] memory;
   protected final int offset;
 
   protected final String id;
@@ -54,11 +55,11 @@ public abstract class IOUnit implements InterruptHandler, Loggable {
 
   protected EmulationLogger logger;
 
-  public IOUnit(String id, MSP430Core cpu, int[] memory, int offset) {
+  public IOUnit(String id, MSP430Core cpu, byte[] memory, int offset) {
     this(id, id, cpu, memory, offset);
   }
 
-  public IOUnit(String id, String name, MSP430Core cpu, int[] memory, int offset) {
+  public IOUnit(String id, String name, MSP430Core cpu, byte[] memory, int offset) {
     this.id = id;
     this.name = name;
     this.cpu = cpu;
@@ -114,6 +115,26 @@ public abstract class IOUnit implements InterruptHandler, Loggable {
   // read a value from the IO unit
   public abstract int read(int address, boolean word, long cycles);
 
+  /**
+   * Returns true if a read of the specified address has no side effects and
+   * returns the same value until the unit is written or its events are
+   * executed. Registers that can be changed from outside the emulated CPU,
+   * such as input pins and receive flags, are not stable. The CPU only
+   * fast-forwards polling loops that read stable registers.
+   */
+  public boolean isReadStable(int address) {
+      return false;
+  }
+
+  // Registers kept in the IO memory of the CPU, words are stored little endian
+  protected int readMemory(int address, boolean word) {
+      return (word ? AccessMode.WORD : AccessMode.BYTE).get(memory, address);
+  }
+
+  protected void writeMemory(int address, int value, boolean word) {
+      (word ? AccessMode.WORD : AccessMode.BYTE).set(memory, address, value);
+  }
+
   public String getID() {
       return id;
   }
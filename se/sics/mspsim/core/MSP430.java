@@ -36,9 +36,12 @@
  */
 
 package se.sics.mspsim.core;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 
-import se.sics.mspsim.profiler.SimpleProfiler;
+import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.ArrayUtils;
 import se.sics.mspsim.util.ComponentRegistry;
 import se.sics.mspsim.util.MapTable;
@@ -48,9 +51,12 @@ public class MSP430 extends MSP430Core {
   private int[] execCounter;
   private int[] trace;
   private int tracePos;
+  // true when execution counters, trace, debug output or the profiler need every executed instruction
+  private boolean instrumented;
   
   private boolean debug = false;
   private boolean running = false;
+  private boolean blockExecution = false;
   private boolean isBreaking = false;
   private double rate = 2.0;
 
@@ -67,6 +73,29 @@ public class MSP430 extends MSP430Core {
 
   private SimEventListener[] simEventListeners;
 
+  // Automatic checkpoints used for reverse execution
+  private static class Checkpoint {
+    final long instructions;
+    final long cycles;
+    final int pc;
+    final ByteBuffer state;
+    /* true when a replay from this checkpoint has reached the next one */
+    boolean verified;
+
+    Checkpoint(long instructions, long cycles, int pc, ByteBuffer state) {
+      this.instructions = instructions;
+      this.cycles = cycles;
+      this.pc = pc;
+      this.state = state;
+    }
+  }
+
+  private final ArrayList<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+  private long checkpointInterval = 0;
+  private int maxCheckpoints = 32;
+  private long nextCheckpointCycles = Long.MAX_VALUE;
+  private long instructionCount = 0;
+
   /**
    * Creates a new <code>MSP430</code> instance.
    *
@@ -106,26 +135,16 @@ public class MSP430 extends MSP430Core {
 	nextOut = cycles + 20000007;
       }
 
-      int pc = emulateOP(-1);
-      if (pc >= 0) {
-	if (execCounter != null) {
-	  execCounter[pc]++;
-	}
-	if (trace != null) {
-	    trace[tracePos++] = pc;
-	    if (tracePos >= trace.length)
-		tracePos = 0;
-	}
-	// -------------------------------------------------------------------
-	// Debug information
-	// -------------------------------------------------------------------
-	if (debug) {
-	    if (servicedInterrupt >= 0) {
-	        disAsm.disassemble(pc, memory, reg, servicedInterrupt);
-	    } else {
-	        disAsm.disassemble(pc, memory, reg);
-	    }
-	}
+      if (instrumented) {
+        emulateInstrumented(-1);
+        if (busyWaitPC >= 0 && trace == null && !debug) {
+          instructionCount += skipBusyWait(nextCheckpointCycles, Integer.MAX_VALUE, execCounter);
+        }
+        if (cycles >= nextCheckpointCycles) {
+          checkpoint();
+        }
+      } else {
+        runLean(-1, Integer.MAX_VALUE, Math.min(nextOut, nextSleep));
       }
 
       /* Just a test to see if it gets down to a reasonable speed */
@@ -146,6 +165,77 @@ public class MSP430 extends MSP430Core {
     isStopping = isBreaking = false;
   }
 
+  /*
+   * Executes instructions without execution counters, trace or debug
+   * output. Runs until the CPU is stopping, instrumentation is enabled,
+   * maxInstructions have been executed, the cycles have passed pauseCycles
+   * or, unless maxCycles is negative, maxCycles have been reached. Returns
+   * the number of executed instructions.
+   */
+  private int runLean(long maxCycles, int maxInstructions, long pauseCycles) throws EmulationException {
+    int executed = 0;
+    while (!isStopping && !instrumented && executed < maxInstructions && cycles <= pauseCycles
+        && (maxCycles < 0 || cycles < maxCycles || (cpuOff && (nextEventCycles < cycles)))) {
+      long cycleLimit = maxCycles < 0 ? nextCheckpointCycles : Math.min(maxCycles, nextCheckpointCycles);
+      int count = 0;
+      if (blockExecution) {
+        count = Math.max(emulateBlock(maxCycles, cycleLimit, maxInstructions - executed), 0);
+      } else if (emulateOP(maxCycles) >= 0) {
+        count = 1;
+      }
+      if (busyWaitPC >= 0 && executed + count < maxInstructions) {
+        count += skipBusyWait(cycleLimit, maxInstructions - executed - count, null);
+      }
+      executed += count;
+      instructionCount += count;
+      if (cycles >= nextCheckpointCycles) {
+        checkpoint();
+      }
+    }
+    return executed;
+  }
+
+  /* Executes one instruction and records it in the execution counters, the
+     trace, the debug output and the profiler */
+  private int emulateInstrumented(long maxCycles) throws EmulationException {
+    if (profiler != null && interruptsEnabled && servicedInterrupt == -1 && interruptMax >= 0) {
+      /* the interrupt is serviced before the instruction */
+      profiler.profileInterrupt(interruptMax, cycles);
+    }
+    long startCpuCycles = cpuCycles;
+    int pc = emulateOP(maxCycles);
+    if (pc >= 0) {
+      instructionCount++;
+      instrumentInstruction(pc, startCpuCycles);
+    }
+    return pc;
+  }
+
+  private void instrumentInstruction(int pc, long startCpuCycles) {
+    if (profiler != null) {
+      profileInstruction(pc, startCpuCycles);
+    }
+    if (execCounter != null) {
+      execCounter[pc]++;
+    }
+    if (trace != null) {
+      trace[tracePos++] = pc;
+      if (tracePos >= trace.length) {
+        tracePos = 0;
+      }
+    }
+    // -------------------------------------------------------------------
+    // Debug information
+    // -------------------------------------------------------------------
+    if (debug) {
+      if (servicedInterrupt >= 0) {
+        disAsm.disassemble(pc, this, reg, servicedInterrupt);
+      } else {
+        disAsm.disassemble(pc, this, reg);
+      }
+    }
+  }
+
   /* Use stepInstructions or stepMicros instead */
   @Deprecated public long step() throws EmulationException {
     return stepMicros(1, 1);
@@ -158,29 +248,20 @@ public class MSP430 extends MSP430Core {
     setRunning(true);
     try {
     while (count > 0 && !isStopping) {
-      int pc = emulateOP(-1);
-      if (pc >= 0) {
+      if (!instrumented) {
+        count -= runLean(-1, count, Long.MAX_VALUE);
+        continue;
+      }
+      if (emulateInstrumented(-1) >= 0) {
         count--;
-        if (execCounter != null) {
-          execCounter[pc]++;
-        }
-        if (trace != null) {
-  	  trace[tracePos++] = pc;
-          if (tracePos >= trace.length) {
-            tracePos = 0;
-          }
-        }
-
-        // -------------------------------------------------------------------
-        // Debug information
-        // -------------------------------------------------------------------
-        if (debug) {
-            if (servicedInterrupt >= 0) {
-                disAsm.disassemble(pc, memory, reg, servicedInterrupt);
-            } else {
-                disAsm.disassemble(pc, memory, reg);
-            }
-        }
+      }
+      if (busyWaitPC >= 0 && count > 0 && trace == null && !debug) {
+        int skipped = skipBusyWait(nextCheckpointCycles, count, execCounter);
+        count -= skipped;
+        instructionCount += skipped;
+      }
+      if (cycles >= nextCheckpointCycles) {
+        checkpoint();
       }
     }
     } finally { 
@@ -212,7 +293,15 @@ public class MSP430 extends MSP430Core {
     if (isRunning()) {
       throw new IllegalStateException("step not possible when CPU is running");
     }
+    emulationThread = Thread.currentThread();
+    try {
+      return runMicros(jumpMicros, executeMicros);
+    } finally {
+      emulationThread = null;
+    }
+  }
 
+  private long runMicros(long jumpMicros, long executeMicros) throws EmulationException {
     if (jumpMicros < 0) {
       throw new IllegalArgumentException("Can not jump a negative time: " + jumpMicros);
     }
@@ -253,27 +342,16 @@ public class MSP430 extends MSP430Core {
 
 
     while (cycles < maxCycles || (cpuOff && (nextEventCycles < cycles))) {
-        int pc = emulateOP(maxCycles);
-        if (pc >= 0) {
-            if (execCounter != null) {
-                execCounter[pc]++;
-            }
-            if (trace != null) {
-              if (tracePos >= trace.length) {
-                tracePos = 0;
-              }
-              trace[tracePos++] = pc;
+        if (instrumented) {
+            emulateInstrumented(maxCycles);
+            if (busyWaitPC >= 0 && trace == null && !debug) {
+                instructionCount += skipBusyWait(Math.min(maxCycles, nextCheckpointCycles), Integer.MAX_VALUE, execCounter);
             }
-            // -------------------------------------------------------------------
-            // Debug information
-            // -------------------------------------------------------------------
-            if (debug) {
-              if (servicedInterrupt >= 0) {
-                disAsm.disassemble(pc, memory, reg, servicedInterrupt);
-              } else {
-                disAsm.disassemble(pc, memory, reg);
-              }
+            if (cycles >= nextCheckpointCycles) {
+                checkpoint();
             }
+        } else {
+            runLean(maxCycles, Integer.MAX_VALUE, Long.MAX_VALUE);
         }
 
         if (isStopping) {
@@ -311,6 +389,268 @@ public class MSP430 extends MSP430Core {
       isStopping = true;
   }
 
+  public boolean isBlockExecution() {
+      return blockExecution;
+  }
+
+  /**
+   * Enables or disables execution of basic blocks of predecoded instructions
+   * instead of one instruction at a time via emulateOP. Blocks are only used
+   * while no exec monitor, trace or debug output is enabled.
+   */
+  public void setBlockExecution(boolean enabled) {
+      blockExecution = enabled;
+  }
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+      super.saveState(out);
+      out.writeLong(lastReturnedMicros);
+      out.writeLong(lastMicrosCycles);
+      out.writeBoolean(microClockReady);
+      out.writeLong(maxCycles);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+      super.loadState(in);
+      lastReturnedMicros = in.readLong();
+      lastMicrosCycles = in.readLong();
+      microClockReady = in.readBoolean();
+      maxCycles = in.readLong();
+  }
+
+  /**
+   * Copies the complete state of this CPU, with its IO units, chips and
+   * scheduled events, to a CPU with the same configuration. The memory is
+   * copied to the target on first access.
+   */
+  public void cloneState(MSP430 target) throws IOException {
+      if (running) {
+          throw new IllegalStateException("can not clone the state of a running CPU");
+      }
+      Snapshot.load(target, Snapshot.save(this), true);
+  }
+
+  /**
+   * Returns the number of instructions executed since this CPU was created.
+   */
+  public long getInstructionCount() {
+      return instructionCount;
+  }
+
+  public long getCheckpointInterval() {
+      return checkpointInterval;
+  }
+
+  public int getMaxCheckpoints() {
+      return maxCheckpoints;
+  }
+
+  public int getCheckpointCount() {
+      return checkpoints.size();
+  }
+
+  /**
+   * Enables automatic checkpoints every specified number of cycles, keeping
+   * at most maxCheckpoints of the latest checkpoints. The checkpoints are
+   * used for reverse execution by replaying forward from the nearest
+   * checkpoint. A cycle interval of zero disables the checkpoints.
+   * @throws IOException if the state of the node can not be saved completely,
+   * which would make the replay diverge from the recorded execution
+   */
+  public void setCheckpointInterval(long cycles, int maxCheckpoints) throws IOException {
+      if (cycles > 0) {
+          Snapshot.checkSnapshotable(this);
+      }
+      checkpoints.clear();
+      this.checkpointInterval = cycles > 0 ? cycles : 0;
+      this.maxCheckpoints = maxCheckpoints > 0 ? maxCheckpoints : 1;
+      /* take the first checkpoint at the next instruction */
+      nextCheckpointCycles = cycles > 0 ? this.cycles : Long.MAX_VALUE;
+  }
+
+  private void checkpoint() {
+      if (saveCheckpoint()) {
+          while (checkpoints.size() > maxCheckpoints) {
+              checkpoints.remove(0);
+          }
+          nextCheckpointCycles = cycles + checkpointInterval;
+      }
+  }
+
+  private boolean saveCheckpoint() {
+      try {
+          /* run length encoded as most of the memory is zeroed RAM or erased flash */
+          ByteBuffer state = Snapshot.save(this, Snapshot.Encoding.RLE);
+          checkpoints.add(new Checkpoint(instructionCount, cycles, reg[PC], state));
+          return true;
+      } catch (IOException e) {
+          logw(WarningType.EMULATION_ERROR, "failed to save checkpoint - checkpoints disabled: " + e);
+          disableCheckpoints();
+          return false;
+      }
+  }
+
+  private void disableCheckpoints() {
+      checkpoints.clear();
+      checkpointInterval = 0;
+      nextCheckpointCycles = Long.MAX_VALUE;
+  }
+
+  /*
+   * Saves the current position as the latest checkpoint, if not already saved,
+   * so that replays can be verified against it. Returns false if there are no
+   * checkpoints to replay from.
+   */
+  private boolean saveCurrentPosition() {
+      if (checkpoints.isEmpty()) {
+          return false;
+      }
+      if (checkpoints.get(checkpoints.size() - 1).instructions < instructionCount) {
+          return saveCheckpoint();
+      }
+      return true;
+  }
+
+  /* Restore a checkpoint and forget all later checkpoints if discardLater is true */
+  private void restoreCheckpoint(int index, boolean discardLater) throws IOException {
+      Checkpoint checkpoint = checkpoints.get(index);
+      Snapshot.load(this, checkpoint.state, true);
+      instructionCount = checkpoint.instructions;
+      if (discardLater) {
+          while (checkpoints.size() > index + 1) {
+              checkpoints.remove(checkpoints.size() - 1);
+          }
+          nextCheckpointCycles = checkpoint.cycles + checkpointInterval;
+      }
+  }
+
+  /* Returns the index of the latest checkpoint at or before the instruction count */
+  private int findCheckpoint(long instructions) {
+      for (int i = checkpoints.size() - 1; i >= 0; i--) {
+          if (checkpoints.get(i).instructions <= instructions) {
+              return i;
+          }
+      }
+      return -1;
+  }
+
+  /*
+   * Execute forward until the specified instruction count without taking any
+   * checkpoints. Returns the instruction count of the last stop, i.e. due to a
+   * breakpoint, before the specified instruction count or -1 if none.
+   */
+  private long replay(long target) throws EmulationException {
+      long lastStop = -1;
+      long next = nextCheckpointCycles;
+      nextCheckpointCycles = Long.MAX_VALUE;
+      try {
+          while (instructionCount < target) {
+              long before = instructionCount;
+              stepInstructions((int) Math.min(target - instructionCount, Integer.MAX_VALUE));
+              if (instructionCount < target) {
+                  if (instructionCount == before) {
+                      /* can not get past this stop */
+                      break;
+                  }
+                  lastStop = instructionCount;
+              }
+          }
+      } finally {
+          nextCheckpointCycles = next;
+      }
+      return lastStop;
+  }
+
+  /*
+   * Replays from the checkpoint at index to the next checkpoint and checks
+   * that the cycles and PC match the recorded execution. Returns the
+   * instruction count of the last stop before the next checkpoint or -1.
+   */
+  private long replayVerified(int index) throws IOException, EmulationException {
+      Checkpoint next = checkpoints.get(index + 1);
+      restoreCheckpoint(index, false);
+      long stop = replay(next.instructions);
+      /* the checkpoint may have been saved while sleeping after the last instruction */
+      while (instructionCount == next.instructions && cycles < next.cycles
+          && isCPUBlocked() && !(interruptsEnabled && interruptMax >= 0)) {
+          long before = cycles;
+          if (emulateOP(next.cycles) >= 0 || cycles == before) {
+              break;
+          }
+      }
+      if (instructionCount == next.instructions) {
+          if (cycles != next.cycles || reg[PC] != next.pc) {
+              String message = "replay diverged from the recorded execution at instruction "
+                  + next.instructions + ": cycles " + cycles + " PC $" + getAddressAsString(reg[PC])
+                  + ", expected cycles " + next.cycles + " PC $" + getAddressAsString(next.pc);
+              disableCheckpoints();
+              throw new EmulationException(message);
+          }
+          checkpoints.get(index).verified = true;
+      }
+      return stop;
+  }
+
+  /**
+   * Steps back the specified number of instructions by restoring the nearest
+   * earlier checkpoint and executing forward. Can not step back further than
+   * the oldest checkpoint.
+   * @return the number of instructions stepped back
+   * @throws EmulationException if the replay diverges from the recorded
+   * execution, in which case the checkpoints are disabled
+   */
+  public long reverseStep(long count) throws IOException, EmulationException {
+      if (isRunning()) {
+          throw new IllegalStateException("reverse step not possible when CPU is running");
+      }
+      if (!saveCurrentPosition()) {
+          return 0;
+      }
+      long start = instructionCount;
+      long target = Math.max(0, start - count);
+      int index = findCheckpoint(target);
+      if (index < 0) {
+          index = 0;
+          target = checkpoints.get(0).instructions;
+      }
+      if (index + 1 < checkpoints.size() && !checkpoints.get(index).verified) {
+          replayVerified(index);
+      }
+      restoreCheckpoint(index, true);
+      replay(target);
+      return start - instructionCount;
+  }
+
+  /**
+   * Executes backwards until the last breakpoint stop before the current
+   * position, or to the oldest checkpoint if there is no such stop.
+   * @return true if stopped at a breakpoint and false if the oldest
+   * checkpoint was reached
+   * @throws EmulationException if the replay diverges from the recorded
+   * execution, in which case the checkpoints are disabled
+   */
+  public boolean reverseContinue() throws IOException, EmulationException {
+      if (isRunning()) {
+          throw new IllegalStateException("reverse continue not possible when CPU is running");
+      }
+      if (!saveCurrentPosition()) {
+          return false;
+      }
+      /* the current position is the latest checkpoint */
+      for (int index = checkpoints.size() - 2; index >= 0; index--) {
+          long stop = replayVerified(index);
+          if (stop >= 0) {
+              restoreCheckpoint(index, true);
+              replay(stop);
+              return true;
+          }
+      }
+      restoreCheckpoint(0, true);
+      return false;
+  }
+
   public void triggBreakpoint() {
       isBreaking = true;
       stop();
@@ -334,6 +674,7 @@ public class MSP430 extends MSP430Core {
     } else {
       execCounter = null;
     }
+    updateInstrumented();
   }
 
   public void setTrace(int size) {
@@ -343,6 +684,12 @@ public class MSP430 extends MSP430Core {
 	  trace = new int[size];
       }
       tracePos = 0;
+      updateInstrumented();
+  }
+
+  /* The run loops switch between the lean and the instrumented execution when this changes */
+  private void updateInstrumented() {
+      instrumented = execCounter != null || trace != null || debug || profiler != null;
   }
   
   public int getBackTrace(int pos) {
@@ -382,7 +729,7 @@ public class MSP430 extends MSP430Core {
     lastCycles = cycles;
     lastCpuCycles = cpuCycles;
     if (DEBUGGING_LEVEL > 0) {
-      disAsm.disassemble(pc, memory, reg);
+      disAsm.disassemble(pc, this, reg);
     }
   }
 
@@ -398,20 +745,27 @@ public class MSP430 extends MSP430Core {
 
   public void setDebug(boolean db) {
     debug = db;
+    updateInstrumented();
   }
 
   public void setMap(MapTable map) {
     this.map = map;
-    /* When we got the map table we can also profile! */
-    if (profiler == null) {
-      setProfiler(new SimpleProfiler());
-      profiler.setCPU(this);
-    }
+  }
+
+  /**
+   * Sets the profiler, or stops profiling if null. Profiling requires the
+   * instrumented execution which is used while a profiler is set.
+   */
+  @Override
+  public void setProfiler(Profiler prof) {
+    super.setProfiler(prof);
+    updateInstrumented();
   }
 
   private void setRunning(boolean running) {
     if (this.running != running) {
       this.running = running;
+      emulationThread = running ? Thread.currentThread() : null;
       if (running) {
           isStopping = false;
           isBreaking = false;
@@ -36,9 +36,13 @@
  */
 
 package se.sics.mspsim.core;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.core.Memory.AccessMode;
@@ -52,9 +56,11 @@ import se.sics.mspsim.util.Utils;
 /**
  * The CPU of the MSP430
  */
-public class MSP430Core extends Chip implements MSP430Constants {
+public class MSP430Core extends Chip implements MSP430Constants, Snapshotable {
 
   public static final int RETURN = 0x4130;
+  // RETA - MOVA @SP+,PC
+  static final int RETURN_A = 0x0110;
 
   public static final boolean debugInterrupts = false;
 
@@ -69,18 +75,61 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
   private final RegisterMonitor[] regWriteMonitors = new RegisterMonitor[16];
   private final RegisterMonitor[] regReadMonitors = new RegisterMonitor[16];
+  // true when any register monitor is installed
+  private boolean hasRegisterMonitors;
 
   // true => breakpoints can occur!
   boolean breakpointActive = true;
 
-  public final int memory[];
+  // IO registers with one byte per address, accessed directly by the IO units
+  public final byte ioMemory[];
+  // The memory above the IO registers in pages of Memory.SEGMENT_SIZE bytes
+  // with one byte per address. Flash and unused pages are shared with other
+  // nodes via the MemoryPagePool and copied by getWritablePage() before written.
+  final byte memoryPages[][];
+  private final boolean sharedPages[];
+  private final boolean ramPages[];
+  private final int ioSegments;
   private final Flash flash;
   boolean isFlashBusy;
   boolean isStopping = false;
 
   private final Memory memorySegments[];
+  // Segments accessed directly in memory by the fast path, one type per memory segment
+  private static final byte SEGMENT_OTHER = 0;
+  private static final byte SEGMENT_RAM = 1;
+  private static final byte SEGMENT_FLASH = 2;
+  private final byte segmentTypes[];
+  final IOSegment ioSegment;
   Memory currentSegment;
 
+  // One dirty flag per memory segment, set on writes since the last snapshot
+  final boolean dirtySegments[];
+  // Predecoded instructions, one lazily allocated page per memory segment
+  final DecodedInstruction[][] decodedSegments;
+  private boolean decodeCacheEnabled = true;
+  // true when the decode cache is enabled and no global monitor is installed
+  private boolean decodeCacheActive = true;
+  // Basic blocks of predecoded instructions, one lazily allocated page per memory segment
+  private final BasicBlock[][] blockSegments;
+  // Incremented when basic blocks are dropped
+  private int blockGeneration;
+  // Executions before a basic block is compiled to JVM bytecode, 0 = never
+  private int blockCompileThreshold;
+  // Fast-forward polling loops that only wait for an event
+  private boolean busyWaitDetection = false;
+  // Start of the loop entered by the last backward jump, -1 if none
+  int busyWaitPC = -1;
+  private final int[] busyWaitRegisters = new int[16];
+  // Cycles and id of the last saved or loaded snapshot, -1 if none
+  long checkpointCycles = -1;
+  long checkpointId;
+  // Snapshot memory not yet copied into memory after a lazy restore
+  private ByteBuffer pageSource;
+  private int pageSourceOffset;
+  private boolean pendingPages[];
+  private int pendingPageCount;
+
   public long cycles = 0;
   public long cpuCycles = 0;
   MapTable map;
@@ -107,6 +156,10 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
   protected boolean interruptsEnabled = false;
   protected boolean cpuOff = false;
+  // SR bits that control interrupts and low power modes
+  private static final int SR_MODE_BITS = GIE | CPUOFF | OSCOFF | SCG0 | SCG1;
+  // Mode bits of the last SR write, -1 when the mode must be derived again
+  private int srModeBits = -1;
 
   // Not private since they are needed (for fast access...)
   public int dcoFrq = 2500000;
@@ -123,14 +176,18 @@ public class MSP430Core extends Chip implements MSP430Constants {
 //  private int clkACaptureMode = CLKCAPTURE_NONE;
   // Other clocks too...
   long nextEventCycles;
-  private EventQueue vTimeEventQueue = new EventQueue();
-  private long nextVTimeEventCycles;
-
-  private EventQueue cycleEventQueue = new EventQueue();
-  private long nextCycleEventCycles;
+  // Cycle and virtual time events ordered by their deadline in cycles
+  EventScheduler eventQueue = new EventQueue();
+  // How far the clock is advanced at a time when no events are scheduled
+  private static final int MAX_IDLE_CYCLES = 10000;
   
   private ArrayList<Chip> chips = new ArrayList<Chip>();
 
+  /* the thread executing instructions, or null between steps */
+  Thread emulationThread;
+  StimulusRecorder stimulusRecorder;
+  StimulusReplayer stimulusReplayer;
+
   final ComponentRegistry registry;
   Profiler profiler;
 
@@ -148,10 +205,28 @@ public class MSP430Core extends Chip implements MSP430Constants {
     MAX_MEM = config.maxMem;
     MSP430XArch = config.MSP430XArch;
 
-    memory = new int[MAX_MEM];
+    ioSegments = (MAX_MEM_IO + Memory.SEGMENT_SIZE - 1) >> 8;
+    ioMemory = new byte[ioSegments << 8];
+    memoryPages = new byte[MAX_MEM >> 8][];
+    sharedPages = new boolean[MAX_MEM >> 8];
+    ramPages = new boolean[MAX_MEM >> 8];
+    byte[] emptyPage = MemoryPagePool.filled(0);
+    for (int i = ioSegments; i < memoryPages.length; i++) {
+        if (config.isRAM(i << 8)) {
+            ramPages[i] = true;
+            memoryPages[i] = new byte[Memory.SEGMENT_SIZE];
+        } else {
+            sharedPages[i] = true;
+            memoryPages[i] = emptyPage;
+        }
+    }
     memorySegments = new Memory[MAX_MEM >> 8];
+    segmentTypes = new byte[MAX_MEM >> 8];
+    dirtySegments = new boolean[MAX_MEM >> 8];
+    decodedSegments = new DecodedInstruction[MAX_MEM >> 8][];
+    blockSegments = new BasicBlock[MAX_MEM >> 8][];
 
-    flash = new Flash(this, memory,
+    flash = new Flash(this, ioMemory,
             new FlashRange(config.mainFlashStart, config.mainFlashStart + config.mainFlashSize, 512, 64),
             new FlashRange(config.infoMemStart, config.infoMemStart + config.infoMemSize, 128, 64),
             config.flashControllerOffset);
@@ -162,6 +237,17 @@ public class MSP430Core extends Chip implements MSP430Constants {
             if (address >= MAX_MEM) {
             	throw new EmulationException("Reading outside memory: 0x" + Utils.hex(address, 4));
             }
+            /* plain RAM and flash are read directly unless misaligned or flash is busy */
+            int segmentType = segmentTypes[address >> 8];
+            if (segmentType == SEGMENT_RAM || (segmentType == SEGMENT_FLASH && !isFlashBusy)) {
+                byte[] page = memoryPages[address >> 8];
+                if (mode == AccessMode.BYTE) {
+                    return page[address & 0xff] & 0xff;
+                }
+                if (mode == AccessMode.WORD && (address & 1) == 0) {
+                    return (page[address & 0xff] & 0xff) | ((page[(address & 0xff) + 1] & 0xff) << 8);
+                }
+            }
             return memorySegments[address >> 8].read(address, mode, type);
         }
         @Override
@@ -169,7 +255,22 @@ public class MSP430Core extends Chip implements MSP430Constants {
             if (address >= MAX_MEM) {
                 throw new EmulationException("Writing outside memory: 0x" + Utils.hex(address, 4));
             }
-            memorySegments[address >> 8].write(address, data, mode);
+            int segment = address >> 8;
+            if (segmentTypes[segment] == SEGMENT_RAM
+                    && (mode == AccessMode.BYTE || (mode == AccessMode.WORD && (address & 1) == 0))) {
+                /* same as RAMSegment.write(), an aligned word never crosses a segment */
+                byte[] page = memoryPages[segment];
+                page[address & 0xff] = (byte) data;
+                if (mode == AccessMode.WORD) {
+                    page[(address & 0xff) + 1] = (byte) (data >> 8);
+                }
+                dirtySegments[segment] = true;
+                if (decodedSegments[segment] != null) {
+                    invalidateDecoded(address, address + mode.bytes);
+                }
+                return;
+            }
+            memorySegments[segment].write(address, data, mode);
         }
         @Override
         public int get(int address, AccessMode mode) {
@@ -190,7 +291,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 //    System.out.println("Set up MSP430 Core with " + MAX_MEM + " bytes memory");
 
     /* this is for detecting writes/read to/from non-existing IO */
-    IOUnit voidIO = new IOUnit("void", this, memory, 0) {
+    IOUnit voidIO = new IOUnit("void", this, ioMemory, 0) {
         public void interruptServiced(int vector) {
         }
         public void write(int address, int value, boolean word, long cycles) {
@@ -207,28 +308,28 @@ public class MSP430Core extends Chip implements MSP430Constants {
     Memory ramSegment = new RAMSegment(this);
     RAMOffsetSegment ramMirrorSegment = null;
     Memory flashSegment = new FlashSegment(this, flash);
-    IOSegment ioSegment = new IOSegment(this, MAX_MEM_IO, voidIO);
+    ioSegment = new IOSegment(this, MAX_MEM_IO, voidIO);
     Memory noMemorySegment = new NoMemSegment(this);
     for (int i = 0; i < maxSeg; i++) {
         if (config.isRAM(i << 8)) {
 //            System.out.println("Setting RAM segment at: " + Utils.hex16(i << 8));
-            memorySegments[i] = ramSegment;
+            setMemorySegment(i, ramSegment);
         } else if (config.isRAMMirror(i << 8)) {
             if (ramMirrorSegment == null) {
                 ramMirrorSegment = new RAMOffsetSegment(this, config.ramMirrorAddress - config.ramMirrorStart);
             }
 //            System.out.println("Setting RAM mirror segment at: " + Utils.hex(i << 8, 4)
 //                    + " => " + Utils.hex((i << 8) + ramMirrorSegment.getOffset()));
-            memorySegments[i] = ramMirrorSegment;
+            setMemorySegment(i, ramMirrorSegment);
         } else if (config.isFlash(i << 8) || config.isInfoMem(i << 8)) {
 //            System.out.println("Setting Flash segment at: " + Utils.hex16(i << 8));
-            memorySegments[i] = flashSegment;
+            setMemorySegment(i, flashSegment);
         } else if (config.isIO(i << 8)) {
 //            System.out.println("Setting IO segment at: " + Utils.hex16(i << 8));
-            memorySegments[i] = ioSegment;
+            setMemorySegment(i, ioSegment);
         } else {
 //            System.out.println("Setting NoMem segment at: " + Utils.hex16(i << 8));
-            memorySegments[i] = noMemorySegment;
+            setMemorySegment(i, noMemorySegment);
         }
     }
 
@@ -246,19 +347,19 @@ public class MSP430Core extends Chip implements MSP430Constants {
     ioSegment.setIORange(config.flashControllerOffset, Flash.SIZE, flash);
  
     /* Setup special function registers */
-    sfr = new SFR(this, memory);
+    sfr = new SFR(this, ioMemory);
     ioSegment.setIORange(config.sfrOffset, 0x10, sfr);
 
     // first step towards making core configurable
     Timer[] timers = new Timer[config.timerConfig.length];
     for (int i = 0; i < config.timerConfig.length; i++) {
-        Timer t = new Timer(this, memory, config.timerConfig[i]);
+        Timer t = new Timer(this, ioMemory, config.timerConfig[i]);
         ioSegment.setIORange(config.timerConfig[i].offset, 0x20, t);
         ioSegment.setIORange(config.timerConfig[i].timerIVAddr, 1, t);
         timers[i] = t;
     }
 
-    bcs = config.createClockSystem(this, memory, timers);
+    bcs = config.createClockSystem(this, ioMemory, timers);
     ioSegment.setIORange(bcs.getAddressRangeMin(), bcs.getAddressRangeMax() - bcs.getAddressRangeMin() + 1, bcs);
 
     // SFR and Basic clock system.
@@ -282,7 +383,6 @@ public class MSP430Core extends Chip implements MSP430Constants {
       if (address + range > MAX_MEM_IO) {
           throw new IllegalStateException("Outside IO memory: 0x" + Utils.hex(address, 4));
       }
-      IOSegment ioSegment = (IOSegment) memorySegments[address >> 8];
       ioSegment.setIORange(address, range, io);
   }
 
@@ -291,9 +391,13 @@ public class MSP430Core extends Chip implements MSP430Constants {
   }
 
   public void setProfiler(Profiler prof) {
-    registry.registerComponent("profiler", prof);
+    if (prof == null) {
+      registry.removeComponent("profiler");
+    } else {
+      registry.registerComponent("profiler", prof);
+      prof.setCPU(this);
+    }
     profiler = prof;
-    profiler.setCPU(this);
   }
 
   public synchronized void addGlobalMonitor(MemoryMonitor mon) {
@@ -302,6 +406,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
           gwm = (GlobalWatchedMemory)currentSegment;
       } else {
           currentSegment = gwm = new GlobalWatchedMemory(currentSegment);
+          updateDecodeCache();
       }
       gwm.addGlobalMonitor(mon);
   }
@@ -313,6 +418,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
           if (!gwm.hasGlobalMonitor()) {
               // No more monitors - switch back to normal memory
               currentSegment = gwm.getWatchedMemory();
+              updateDecodeCache();
           }
       }
   }
@@ -407,11 +513,25 @@ public class MSP430Core extends Chip implements MSP430Constants {
           wm = (WatchedMemory) memorySegments[seg];
       } else {
           wm = new WatchedMemory(address & 0xfff00, memorySegments[seg]);
-          memorySegments[seg] = wm;
+          setMemorySegment(seg, wm);
+          /* watched memory must be executed via the memory segments */
+          dropDecoded(seg);
       }
       wm.addWatchPoint(address, mon);
   }
 
+  /* Watched and not yet paged in segments are never accessed by the fast path */
+  private void setMemorySegment(int segment, Memory mem) {
+      memorySegments[segment] = mem;
+      if (mem instanceof RAMSegment) {
+          segmentTypes[segment] = SEGMENT_RAM;
+      } else if (mem instanceof FlashSegment) {
+          segmentTypes[segment] = SEGMENT_FLASH;
+      } else {
+          segmentTypes[segment] = SEGMENT_OTHER;
+      }
+  }
+
   public synchronized void removeWatchPoint(int address, MemoryMonitor mon) {
       if (memorySegments[address >> 8] instanceof WatchedMemory) {
           WatchedMemory wm = (WatchedMemory) memorySegments[address >> 8];
@@ -431,18 +551,32 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
   public synchronized void addRegisterWriteMonitor(int r, RegisterMonitor mon) {
       regWriteMonitors[r] = RegisterMonitor.Proxy.INSTANCE.add(regWriteMonitors[r], mon);
+      updateRegisterMonitors();
   }
 
   public synchronized void removeRegisterWriteMonitor(int r, RegisterMonitor mon) {
       regWriteMonitors[r] = RegisterMonitor.Proxy.INSTANCE.remove(regWriteMonitors[r], mon);
+      updateRegisterMonitors();
   }
 
   public synchronized void addRegisterReadMonitor(int r, RegisterMonitor mon) {
       regReadMonitors[r] = RegisterMonitor.Proxy.INSTANCE.add(regReadMonitors[r], mon);
+      updateRegisterMonitors();
   }
 
   public synchronized void removeRegisterReadMonitor(int r, RegisterMonitor mon) {
       regReadMonitors[r] = RegisterMonitor.Proxy.INSTANCE.remove(regReadMonitors[r], mon);
+      updateRegisterMonitors();
+  }
+
+  private void updateRegisterMonitors() {
+      boolean monitors = false;
+      for (int i = 0; i < 16; i++) {
+          if (regWriteMonitors[i] != null || regReadMonitors[i] != null) {
+              monitors = true;
+          }
+      }
+      hasRegisterMonitors = monitors;
   }
 
   public void writeRegister(int r, int value) {
@@ -476,7 +610,9 @@ public class MSP430Core extends Chip implements MSP430Constants {
     } else {
         reg[r] = value;
     }
-    if (r == SR) {
+    /* writes that only change the status flags do not affect the mode */
+    if (r == SR && (value & SR_MODE_BITS) != srModeBits) {
+      srModeBits = value & SR_MODE_BITS;
       boolean oldCpuOff = cpuOff;
       if (debugInterrupts) {
           if (((value & GIE) == GIE) != interruptsEnabled) {
@@ -588,6 +724,11 @@ public class MSP430Core extends Chip implements MSP430Constants {
     lastMicrosDelta = 0;
 
     currentDCOFactor = 1.0 * bcs.getMaxDCOFrequency() / frequency;
+    // only the events scheduled in virtual time move in cycles
+    eventQueue.updateDeadlines(this::convertVTime);
+    if (eventQueue.getEventCount() > 0 && nextEventCycles > eventQueue.getNextTime()) {
+      nextEventCycles = eventQueue.getNextTime();
+    }
 
     /*    System.out.println("*** DCO: MAX:" + bcs.getMaxDCOFrequency() +
 	  " current: " + frequency + " DCO_FAC = " + currentDCOFactor);*/
@@ -608,7 +749,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
   // Converts a virtual time to a cycles time according to the current
   // cycle speed
-  private long convertVTime(long vTime) {
+  long convertVTime(long vTime) {
     long tmpTime = lastCyclesTime + (long) ((vTime - lastVTime) / currentDCOFactor);
 //    System.out.println("ConvertVTime: vTime=" + vTime + " => " + tmpTime);
     return tmpTime;
@@ -619,43 +760,13 @@ public class MSP430Core extends Chip implements MSP430Constants {
       return 1000.0 * getTime() / bcs.getMaxDCOFrequency();
   }
   
+  /* Executes all events that are due and sets the next event time */
   private void executeEvents() {
-    if (cycles >= nextVTimeEventCycles) {
-      if (vTimeEventQueue.eventCount == 0) {
-        nextVTimeEventCycles = cycles + 10000;
-      } else {
-        TimeEvent te = vTimeEventQueue.popFirst();
-        long now = getTime();
-//        if (now > te.time) {
-//          System.out.println("VTimeEvent got delayed by: " + (now - te.time) + " at " +
-//              cycles + " target Time: " + te.time + " class: " + te.getClass().getName());
-//        }
-        te.execute(now);
-        if (vTimeEventQueue.eventCount > 0) {
-          nextVTimeEventCycles = convertVTime(vTimeEventQueue.nextTime);
-        } else {
-          nextVTimeEventCycles = cycles + 10000;          
-        }
-      }
+    while (eventQueue.getEventCount() > 0 && eventQueue.getNextTime() <= cycles) {
+      TimeEvent te = eventQueue.popFirst();
+      te.execute(te.virtualTime ? getTime() : cycles);
     }
-    
-    if (cycles >= nextCycleEventCycles) {
-      if (cycleEventQueue.eventCount == 0) {
-        nextCycleEventCycles = cycles + 10000;
-      } else {
-        TimeEvent te = cycleEventQueue.popFirst();
-        te.execute(cycles);
-        if (cycleEventQueue.eventCount > 0) {
-          nextCycleEventCycles = cycleEventQueue.nextTime;
-        } else {
-          nextCycleEventCycles = cycles + 10000;          
-        }
-      }
-    }
-    
-    // Pick the one with shortest time in the future.
-    nextEventCycles = nextCycleEventCycles < nextVTimeEventCycles ? 
-        nextCycleEventCycles : nextVTimeEventCycles;
+    nextEventCycles = eventQueue.getEventCount() > 0 ? eventQueue.getNextTime() : cycles + MAX_IDLE_CYCLES;
   }
   
   /**
@@ -664,13 +775,10 @@ public class MSP430Core extends Chip implements MSP430Constants {
    * @param cycles
    */
   public void scheduleCycleEvent(TimeEvent event, long cycles) {
-    long currentNext = cycleEventQueue.nextTime;
-    cycleEventQueue.addEvent(event, cycles);
-    if (currentNext != cycleEventQueue.nextTime) {
-      nextCycleEventCycles = cycleEventQueue.nextTime;
-      if (nextEventCycles > nextCycleEventCycles) {
-        nextEventCycles = nextCycleEventCycles;
-      }
+    event.virtualTime = false;
+    eventQueue.addEvent(event, cycles, cycles);
+    if (nextEventCycles > cycles) {
+      nextEventCycles = cycles;
     }
   }
 
@@ -681,24 +789,25 @@ public class MSP430Core extends Chip implements MSP430Constants {
    * @param time
    */
   public void scheduleTimeEvent(TimeEvent event, long time) {
-    long currentNext = vTimeEventQueue.nextTime;
-    vTimeEventQueue.addEvent(event, time);
-    if (currentNext != vTimeEventQueue.nextTime) {
-      // This is only valid when not having a cycle event queue also...
-      // if we have it needs to be checked also!
-      nextVTimeEventCycles = convertVTime(vTimeEventQueue.nextTime);
-      if (nextEventCycles > nextVTimeEventCycles) {
-        nextEventCycles = nextVTimeEventCycles;
-      }
-      /* Warn if someone schedules a time backwards in time... */
-      if (cycles > nextVTimeEventCycles) {
-        logger.logw(this, WarningType.EMULATION_ERROR, "Scheduling time event backwards in time!!!");
-        throw new IllegalStateException("Cycles are passed desired future time...");
-      }
+    long deadline = convertVTime(time);
+    event.virtualTime = true;
+    eventQueue.addEvent(event, time, deadline);
+    if (nextEventCycles > deadline) {
+      nextEventCycles = deadline;
+    }
+    /* Warn if someone schedules a time backwards in time... */
+    if (event.heapIndex == 0 && cycles > deadline) {
+      logger.logw(this, WarningType.EMULATION_ERROR, "Scheduling time event backwards in time!!!");
+      throw new IllegalStateException("Cycles are passed desired future time...");
     }
   }
   
   
+  /* the virtual time msec milliseconds in the future */
+  long getTimeAfterMillis(double msec) {
+    return (long) (getTime() + msec / 1000 * bcs.getMaxDCOFrequency());
+  }
+
   /**
    * Schedules a new Time event msec milliseconds in the future
    * @param event
@@ -706,7 +815,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
    */
   public long scheduleTimeEventMillis(TimeEvent event, double msec) {
       /*    System.out.println("MAX_DCO " + bcs.getMaxDCOFrequency());*/
-    long time = (long) (getTime() + msec / 1000 * bcs.getMaxDCOFrequency());
+    long time = getTimeAfterMillis(msec);
 //    System.out.println("Scheduling at: " + time + " (" + msec + ") getTime: " + getTime());
     scheduleTimeEvent(event, time);
     return time;
@@ -714,10 +823,8 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
   public void printEventQueues(PrintStream out) {
       out.println("Current cycles: " + cycles + "  virtual time:" + getTime());
-      out.println("Cycle event queue: (next time: " + nextCycleEventCycles + ")");
-      cycleEventQueue.print(out);
-      out.println("Virtual time event queue: (next time: " + nextVTimeEventCycles + ")");
-      vTimeEventQueue.print(out);
+      out.println("Event queue: (next time: " + nextEventCycles + ")");
+      eventQueue.print(out);
   }
  
   // Should also return active units...
@@ -740,6 +847,18 @@ public class MSP430Core extends Chip implements MSP430Constants {
       return null;
   }
 
+  public <T> T[] getIOUnits(Class<T> type) {
+      ArrayList<T> list = new ArrayList<T>();
+      for (IOUnit ioUnit : ioUnits) {
+          if (type.isInstance(ioUnit)) {
+              list.add(type.cast(ioUnit));
+          }
+      }
+      @SuppressWarnings("unchecked")
+      T[] tmp = (T[]) java.lang.reflect.Array.newInstance(type, list.size());
+      return list.toArray(tmp);
+  }
+
   public <T> T getIOUnit(Class<T> type, String name) {
       for (IOUnit ioUnit : ioUnits) {
           if (type.isInstance(ioUnit)
@@ -751,6 +870,550 @@ public class MSP430Core extends Chip implements MSP430Constants {
       return null;
   }
 
+  /**
+   * Marks the memory in the range [start, end) as modified since the last
+   * snapshot. Must be called before changing memory directly instead of
+   * via the memory segments.
+   */
+  public void setMemoryDirty(int start, int end) {
+      if (start < end) {
+          for (int i = start >> 8, n = (end - 1) >> 8; i <= n; i++) {
+              pageIn(i);
+              dirtySegments[i] = true;
+          }
+          invalidateDecoded(start, end);
+      }
+  }
+
+  /**
+   * Returns the value at the address directly from memory without accessing
+   * IO units, monitors or the flash controller.
+   */
+  public int peekMemory(int address, AccessMode mode) {
+      pageInMemory(address, address + mode.bytes);
+      int value = getMemoryByte(address);
+      if (mode != AccessMode.BYTE) {
+          value |= getMemoryByte(address + 1) << 8;
+          if (mode == AccessMode.WORD20) {
+              value |= getMemoryByte(address + 2) << 16;
+          }
+      }
+      return value & mode.mask;
+  }
+
+  /* Stores the value little endian directly in memory, a WORD20 value occupies four bytes */
+  void pokeMemory(int address, int value, AccessMode mode) {
+      setMemoryByte(address, value);
+      if (mode != AccessMode.BYTE) {
+          setMemoryByte(address + 1, value >> 8);
+          if (mode == AccessMode.WORD20) {
+              setMemoryByte(address + 2, value >> 16);
+              setMemoryByte(address + 3, value >> 24);
+          }
+      }
+  }
+
+  private int getMemoryByte(int address) {
+      if (address < ioMemory.length) {
+          return ioMemory[address] & 0xff;
+      }
+      return memoryPages[address >> 8][address & 0xff] & 0xff;
+  }
+
+  private void setMemoryByte(int address, int value) {
+      if (address < ioMemory.length) {
+          ioMemory[address] = (byte) value;
+      } else {
+          getWritablePage(address >> 8)[address & 0xff] = (byte) value;
+      }
+  }
+
+  /**
+   * Copies length bytes of memory starting at the address into the array.
+   */
+  public void copyMemory(int address, byte[] dest, int offset, int length) {
+      pageInMemory(address, address + length);
+      while (length > 0) {
+          int n = Math.min(length, Memory.SEGMENT_SIZE - (address & 0xff));
+          if (address < ioMemory.length) {
+              System.arraycopy(ioMemory, address, dest, offset, n);
+          } else {
+              System.arraycopy(memoryPages[address >> 8], address & 0xff, dest, offset, n);
+          }
+          address += n;
+          offset += n;
+          length -= n;
+      }
+  }
+
+  /**
+   * Returns a copy of the memory with one byte per address, i.e. to load a
+   * firmware into before it is stored back with setMemoryImage().
+   */
+  public byte[] getMemoryImage() {
+      byte[] image = new byte[MAX_MEM];
+      copyMemory(0, image, 0, MAX_MEM);
+      return image;
+  }
+
+  /**
+   * Replaces the memory with the image. All memory except RAM and IO
+   * registers is shared with other nodes having the same contents, i.e.
+   * the flash of nodes running the same firmware, until it is modified.
+   */
+  public void setMemoryImage(byte[] image) {
+      discardPages();
+      setMemoryDirty(0, MAX_MEM);
+      for (int i = 0; i < memoryPages.length; i++) {
+          setMemoryPage(i, image, i << 8);
+      }
+  }
+
+  /* Replaces the contents of a memory segment with SEGMENT_SIZE bytes from the array */
+  void setMemoryPage(int segment, byte[] data, int offset) {
+      if (segment < ioSegments) {
+          System.arraycopy(data, offset, ioMemory, segment << 8, Memory.SEGMENT_SIZE);
+      } else if (ramPages[segment]) {
+          System.arraycopy(data, offset, memoryPages[segment], 0, Memory.SEGMENT_SIZE);
+      } else {
+          memoryPages[segment] = MemoryPagePool.intern(Arrays.copyOfRange(data, offset, offset + Memory.SEGMENT_SIZE));
+          sharedPages[segment] = true;
+      }
+  }
+
+  /* Returns the page of a segment above the IO registers, copying it first if shared */
+  byte[] getWritablePage(int segment) {
+      if (sharedPages[segment]) {
+          memoryPages[segment] = memoryPages[segment].clone();
+          sharedPages[segment] = false;
+      }
+      return memoryPages[segment];
+  }
+
+  /* Fills the memory range [start, end) above the IO registers with the value */
+  void fillMemory(int start, int end, int value) {
+      byte[] filled = null;
+      while (start < end) {
+          int segment = start >> 8;
+          int next = Math.min(end, (segment + 1) << 8);
+          if (next - start == Memory.SEGMENT_SIZE && !ramPages[segment]) {
+              /* a full page is shared with all other pages with the same contents */
+              if (filled == null) {
+                  filled = MemoryPagePool.filled(value);
+              }
+              memoryPages[segment] = filled;
+              sharedPages[segment] = true;
+          } else {
+              Arrays.fill(getWritablePage(segment), start & 0xff, ((next - 1) & 0xff) + 1, (byte) value);
+          }
+          start = next;
+      }
+  }
+
+  public boolean isDecodeCacheEnabled() {
+      return decodeCacheEnabled;
+  }
+
+  /**
+   * Enables or disables the cache of predecoded instructions. When disabled
+   * each instruction is fetched and decoded from memory when executed.
+   */
+  public synchronized void setDecodeCacheEnabled(boolean enabled) {
+      decodeCacheEnabled = enabled;
+      if (!enabled) {
+          flushDecodeCache();
+      }
+      updateDecodeCache();
+  }
+
+  public int getBlockCompileThreshold() {
+      return blockCompileThreshold;
+  }
+
+  /**
+   * Sets the number of times a basic block is executed in block execution
+   * mode before it is compiled to JVM bytecode. Zero disables the
+   * compilation.
+   */
+  public synchronized void setBlockCompileThreshold(int threshold) {
+      blockCompileThreshold = threshold;
+  }
+
+  public boolean isBusyWaitDetection() {
+      return busyWaitDetection;
+  }
+
+  /**
+   * Selects a hierarchical timing wheel instead of a binary heap for the
+   * scheduled events. The timing wheel has O(1) insert and remove for events
+   * in the near future which suits many short periodic events. The events
+   * are executed in the same order with both schedulers.
+   */
+  public void setTimingWheel(boolean enabled) {
+      if (enabled == eventQueue instanceof TimingWheel) {
+          return;
+      }
+      EventScheduler scheduler = enabled ? new TimingWheel() : new EventQueue();
+      TimeEvent[] events = eventQueue.getEvents();
+      for (TimeEvent event : events) {
+          eventQueue.removeEvent(event);
+      }
+      scheduler.restoreEvents(events);
+      eventQueue = scheduler;
+  }
+
+  public boolean isTimingWheel() {
+      return eventQueue instanceof TimingWheel;
+  }
+
+  /**
+   * Enables or disables fast-forwarding of polling loops. A short loop that
+   * only reads memory and IO registers that can not change until the next
+   * event, and that only writes to registers, is skipped to the next event
+   * with the same cycles and instruction count as if it had been executed.
+   * Disabled by default.
+   */
+  public void setBusyWaitDetection(boolean enabled) {
+      busyWaitDetection = enabled;
+      busyWaitPC = -1;
+  }
+
+  private void updateDecodeCache() {
+      /* global monitors must see every instruction fetch */
+      decodeCacheActive = decodeCacheEnabled && !(currentSegment instanceof GlobalWatchedMemory);
+  }
+
+  /**
+   * Drops all predecoded instructions. Must be called after changing the
+   * program memory directly instead of via the memory segments or
+   * setMemoryDirty().
+   */
+  public void flushDecodeCache() {
+      Arrays.fill(decodedSegments, null);
+      Arrays.fill(blockSegments, null);
+      blockGeneration++;
+  }
+
+  private void dropDecoded(int segment) {
+      decodedSegments[segment] = null;
+      if (blockSegments[segment] != null) {
+          blockSegments[segment] = null;
+          blockGeneration++;
+      }
+  }
+
+  /* Drops the predecoded instructions overlapping the memory range [start, end) */
+  void invalidateDecoded(int start, int end) {
+      for (int i = start >> 8, n = (end - 1) >> 8; i <= n && i < decodedSegments.length; i++) {
+          if (blockSegments[i] != null) {
+              /* blocks refer to the decoded instructions of their segment */
+              blockSegments[i] = null;
+              blockGeneration++;
+          }
+          DecodedInstruction[] page = decodedSegments[i];
+          if (page == null) {
+              continue;
+          }
+          int segmentStart = i << 8;
+          if (start <= segmentStart && end >= segmentStart + Memory.SEGMENT_SIZE) {
+              decodedSegments[i] = null;
+              continue;
+          }
+          /* instructions are at most six bytes and never cross a segment */
+          int from = Math.max(start - 4, segmentStart);
+          int to = Math.min(end, segmentStart + Memory.SEGMENT_SIZE);
+          for (int a = from & ~1; a < to; a += 2) {
+              DecodedInstruction d = page[(a & 0xff) >> 1];
+              if (d != null && a + d.size > start) {
+                  page[(a & 0xff) >> 1] = null;
+              }
+          }
+      }
+  }
+
+  /* Returns the predecoded instruction at the specified address, decoding it if needed */
+  DecodedInstruction getDecoded(int pc) {
+      if ((pc & 1) != 0) {
+          return DecodedInstruction.NOT_DECODED;
+      }
+      int segment = pc >> 8;
+      DecodedInstruction[] page = decodedSegments[segment];
+      if (page == null) {
+          page = decodedSegments[segment] = new DecodedInstruction[Memory.SEGMENT_SIZE >> 1];
+      }
+      DecodedInstruction d = page[(pc & 0xff) >> 1];
+      if (d == null) {
+          if (segmentTypes[segment] != SEGMENT_OTHER) {
+              d = DecodedInstruction.decode(memoryPages[segment], pc, (segment + 1) << 8);
+          } else {
+              /* IO, watched or not yet paged in memory */
+              d = DecodedInstruction.NOT_DECODED;
+          }
+          page[(pc & 0xff) >> 1] = d;
+      }
+      return d;
+  }
+
+  /* Returns the basic block starting at the specified even address, building it if needed */
+  private BasicBlock getBlock(int pc) {
+      int segment = pc >> 8;
+      BasicBlock[] page = blockSegments[segment];
+      if (page == null) {
+          page = blockSegments[segment] = new BasicBlock[Memory.SEGMENT_SIZE >> 1];
+      }
+      BasicBlock block = page[(pc & 0xff) >> 1];
+      if (block == null) {
+          block = page[(pc & 0xff) >> 1] = BasicBlock.build(this, pc);
+      }
+      return block;
+  }
+
+  /* Compiles the block to JVM bytecode when it has been executed often enough */
+  private void compileBlock(BasicBlock block) {
+      if (++block.executions < blockCompileThreshold) {
+          return;
+      }
+      block.executions = Integer.MIN_VALUE;
+      int length = BlockCompiler.getCompilableLength(block);
+      try {
+          CompiledBlock compiled = null;
+          while (length > 0 && (compiled = BlockCompiler.compile(block, length)) == null) {
+              /* the code became too large */
+              length /= 2;
+          }
+          if (compiled != null) {
+              block.compiledLength = length;
+              block.compiled = compiled;
+          }
+      } catch (ReflectiveOperationException | LinkageError e) {
+          log("failed to compile block at $" + getAddressAsString(block.address) + ": " + e);
+      }
+  }
+
+  /* Memory accesses from compiled blocks */
+  int readData(int address, AccessMode mode) throws EmulationException {
+      return currentSegment.read(address, mode, AccessType.READ);
+  }
+
+  void writeData(int address, int value, AccessMode mode) throws EmulationException {
+      currentSegment.write(address, value, mode);
+  }
+
+  void runEvents() {
+      while (cycles >= nextEventCycles) {
+          executeEvents();
+      }
+  }
+
+  /* Returns true if block execution may continue with the next instruction */
+  boolean canContinueBlock(int generation, long cycleLimit) {
+      return cycles < cycleLimit && !isStopping && !cpuOff && generation == blockGeneration
+          && !(interruptsEnabled && servicedInterrupt == -1 && interruptMax >= 0)
+          && !isFlashBusy && !flash.blocksCPU() && decodeCacheActive && regReadMonitors[PC] == null;
+  }
+
+  /**
+   * Ensures that the memory in the range [start, end) has been restored
+   * after a lazy snapshot restore. Must be called before reading memory
+   * directly instead of via the memory segments.
+   */
+  public void pageInMemory(int start, int end) {
+      if (pendingPages != null && start < end) {
+          for (int i = start >> 8, n = (end - 1) >> 8; i <= n; i++) {
+              pageIn(i);
+          }
+      }
+  }
+
+  /* Lazily restore the memory from the specified snapshot memory image
+     where segment i is located at offset + i * SEGMENT_SIZE */
+  void setPageSource(ByteBuffer source, int offset) {
+      discardPages();
+      flushDecodeCache();
+      pageSource = source;
+      pageSourceOffset = offset;
+      pendingPages = new boolean[memorySegments.length];
+      /* IO units access their registers directly in memory */
+      for (int i = 0; i < memorySegments.length; i++) {
+          if (i < ioSegments) {
+              copyPage(i);
+          } else {
+              pendingPages[i] = true;
+              pendingPageCount++;
+              setMemorySegment(i, new PageInSegment(this, i, memorySegments[i]));
+          }
+      }
+      if (pendingPageCount == 0) {
+          pageSource = null;
+          pendingPages = null;
+      }
+  }
+
+  /* Drop all memory not yet paged in, i.e. when memory is overwritten */
+  void discardPages() {
+      for (int i = 0; pendingPages != null && i < pendingPages.length; i++) {
+          discardPage(i);
+      }
+  }
+
+  /* Drop a segment not yet paged in when the full segment is overwritten */
+  void discardPage(int segment) {
+      if (pendingPages != null && pendingPages[segment]) {
+          pendingPages[segment] = false;
+          unwrapPage(segment);
+          if (--pendingPageCount == 0) {
+              pageSource = null;
+              pendingPages = null;
+          }
+      }
+  }
+
+  void pageIn(int segment) {
+      if (pendingPages != null && segment < pendingPages.length && pendingPages[segment]) {
+          pendingPages[segment] = false;
+          copyPage(segment);
+          unwrapPage(segment);
+          if (--pendingPageCount == 0) {
+              pageSource = null;
+              pendingPages = null;
+          }
+      }
+  }
+
+  private void copyPage(int segment) {
+      byte[] page = new byte[Memory.SEGMENT_SIZE];
+      int offset = pageSourceOffset + (segment << 8);
+      for (int i = 0; i < Memory.SEGMENT_SIZE; i++) {
+          page[i] = pageSource.get(offset + i);
+      }
+      setMemoryPage(segment, page, 0);
+  }
+
+  private void unwrapPage(int segment) {
+      /* a watched segment keeps the page in segment as a pass through */
+      if (memorySegments[segment] instanceof PageInSegment) {
+          setMemorySegment(segment, ((PageInSegment) memorySegments[segment]).memory);
+          dropDecoded(segment);
+      }
+  }
+
+  void clearMemoryDirty(long cycles, long id) {
+      Arrays.fill(dirtySegments, false);
+      checkpointCycles = cycles;
+      checkpointId = id;
+  }
+
+  /* Returns the IO units and chips that are part of a snapshot keyed by section id */
+  Map<String,Object> getSnapshotComponents() {
+      LinkedHashMap<String,Object> components = new LinkedHashMap<String,Object>();
+      for (IOUnit ioUnit : ioUnits) {
+          addSnapshotComponent(components, "io:" + ioUnit.getID(), ioUnit);
+      }
+      addSnapshotComponent(components, "io:" + flash.getID(), flash);
+      /* units only mapped into the IO space, such as the multiplier */
+      for (IOUnit ioUnit : ioSegment.getIOUnits()) {
+          if (!components.containsValue(ioUnit)) {
+              addSnapshotComponent(components, "io:" + ioUnit.getID(), ioUnit);
+          }
+      }
+      for (Chip chip : chips) {
+          if (chip != this) {
+              addSnapshotComponent(components, "chip:" + chip.getID(), chip);
+          }
+      }
+      return components;
+  }
+
+  private static void addSnapshotComponent(Map<String,Object> components, String id, Object component) {
+      String key = id;
+      for (int i = 2; components.containsKey(key); i++) {
+          key = id + '#' + i;
+      }
+      components.put(key, component);
+  }
+
+  private InterruptHandler getInterruptHandler(String name) {
+      if (name.length() == 0) {
+          return null;
+      }
+      for (InterruptHandler handler : interruptSource) {
+          if (handler != null && name.equals(handler.getName())) {
+              return handler;
+          }
+      }
+      for (IOUnit ioUnit : ioUnits) {
+          if (name.equals(ioUnit.getName())) {
+              return ioUnit;
+          }
+      }
+      if (name.equals(flash.getName())) {
+          return flash;
+      }
+      logw(WarningType.EMULATION_ERROR, "could not find interrupt source '" + name + "' for snapshot");
+      return null;
+  }
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+      out.writeIntArray(reg);
+      out.writeLong(cycles);
+      out.writeLong(cpuCycles);
+      out.writeInt(getMode());
+      out.writeBoolean(interruptsEnabled);
+      out.writeBoolean(cpuOff);
+      out.writeBoolean(isFlashBusy);
+      out.writeInt(interruptMax);
+      out.writeInt(servicedInterrupt);
+      out.writeUTF(servicedInterruptUnit == null ? "" : servicedInterruptUnit.getName());
+      out.writeInt(interruptSource.length);
+      for (InterruptHandler handler : interruptSource) {
+          out.writeUTF(handler == null ? "" : handler.getName());
+      }
+      out.writeInt(dcoFrq);
+      out.writeInt(aclkFrq);
+      out.writeInt(smclkFrq);
+      out.writeLong(lastCyclesTime);
+      out.writeLong(lastVTime);
+      out.writeLong(currentTime);
+      out.writeLong(lastMicrosDelta);
+      out.writeDouble(currentDCOFactor);
+      out.writeLong(nextEventCycles);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+      in.readIntArray(reg);
+      cycles = in.readLong();
+      cpuCycles = in.readLong();
+      setMode(in.readInt());
+      interruptsEnabled = in.readBoolean();
+      cpuOff = in.readBoolean();
+      srModeBits = -1;
+      busyWaitPC = -1;
+      isFlashBusy = in.readBoolean();
+      interruptMax = in.readInt();
+      servicedInterrupt = in.readInt();
+      servicedInterruptUnit = getInterruptHandler(in.readUTF());
+      int count = in.readInt();
+      InterruptHandler[] sources = new InterruptHandler[interruptSource.length];
+      for (int i = 0; i < count; i++) {
+          InterruptHandler handler = getInterruptHandler(in.readUTF());
+          if (i < sources.length) {
+              sources[i] = handler;
+          }
+      }
+      System.arraycopy(sources, 0, interruptSource, 0, sources.length);
+      dcoFrq = in.readInt();
+      aclkFrq = in.readInt();
+      smclkFrq = in.readInt();
+      lastCyclesTime = in.readLong();
+      lastVTime = in.readLong();
+      currentTime = in.readLong();
+      lastMicrosDelta = in.readLong();
+      currentDCOFactor = in.readDouble();
+      nextEventCycles = in.readLong();
+  }
+
   private void resetIOUnits() {
       for (IOUnit ioUnit : ioUnits) {
           ioUnit.reset(RESET_POR);
@@ -765,9 +1428,13 @@ public class MSP430Core extends Chip implements MSP430Constants {
     servicedInterrupt = -1;
     interruptMax = -1;
     writeRegister(SR, 0);
+    /* firmware may have been loaded directly into memory */
+    flushDecodeCache();
    
-    cycleEventQueue.removeAll();
-    vTimeEventQueue.removeAll();
+    eventQueue.removeAll();
+    if (stimulusReplayer != null) {
+      stimulusReplayer.schedule();
+    }
 
     for (Chip chip : chips) {
       chip.notifyReset();
@@ -783,6 +1450,20 @@ public class MSP430Core extends Chip implements MSP430Constants {
   public EmulationLogger getLogger() {
       return logger;
   }
+
+  /**
+   * Returns the recorder of external stimuli, or null if not recording.
+   */
+  public StimulusRecorder getStimulusRecorder() {
+      return stimulusRecorder;
+  }
+
+  /**
+   * Returns the replayer of recorded stimuli, or null if not replaying.
+   */
+  public StimulusReplayer getStimulusReplayer() {
+      return stimulusReplayer;
+  }
   
   public void reset() {
     flagInterrupt(MAX_INTERRUPT, null, true);
@@ -810,6 +1491,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
       if (interruptMax == MAX_INTERRUPT) {
         // This can not be masked at all!
         interruptsEnabled = true;
+        srModeBits = -1;
         servicedInterrupt = -1; /* Make sure this interrupt will be executed immediately */
       }
     } else {
@@ -847,12 +1529,33 @@ public class MSP430Core extends Chip implements MSP430Constants {
     servicedInterruptUnit = null;
   }  
 
-  void profileCall(int dst, int pc) {
-      MapEntry function = map.getEntry(dst);
-      if (function == null) {
-          function = getFunction(map, dst);
+  /* Reports a call, return or interrupt return executed at pc to the
+     profiler. startCpuCycles are the CPU cycles before the instruction. */
+  void profileInstruction(int pc, long startCpuCycles) {
+      int instruction = peekMemory(pc, AccessMode.WORD);
+      if ((instruction & 0xf800) == 0x1800) {
+          /* extension word */
+          instruction = peekMemory(pc + 2, AccessMode.WORD);
+      }
+      if (instruction == RETURN || instruction == RETURN_A) {
+          profiler.profileReturn(startCpuCycles);
+      } else if (instruction == RETI) {
+          profiler.profileRETI(cycles);
+      } else if ((instruction & 0xff80) == CALL
+              || ((instruction & 0xff00) == RETI && (instruction & CALLA_MASK) > RETI)) {
+          /* the return address is on top of the stack */
+          int sp = reg[SP];
+          int from = peekMemory(sp, AccessMode.WORD);
+          if ((instruction & 0xff00) == RETI) {
+              from |= (peekMemory(sp + 2, AccessMode.WORD) & 0xf) << 16;
+          }
+          int dst = reg[PC];
+          MapEntry function = map.getEntry(dst);
+          if (function == null) {
+              function = getFunction(map, dst);
+          }
+          profiler.profileCall(function, startCpuCycles, from);
       }
-      profiler.profileCall(function, cpuCycles, pc);
   }
   
   void printWarning(EmulationLogger.WarningType type, int address) throws EmulationException {
@@ -887,16 +1590,17 @@ public class MSP430Core extends Chip implements MSP430Constants {
      * be printed */ 
   }
 
+  /* Returns true if time passes without executing instructions */
+  boolean isCPUBlocked() {
+    return cpuOff || flash.blocksCPU();
+  }
+
   private int serviceInterrupt(int pc) {
     int pcBefore = pc;
     int spBefore = readRegister(SP);
     int sp = spBefore;
     int sr = readRegister(SR);
     
-    if (profiler != null) {
-      profiler.profileInterrupt(interruptMax, cycles);
-    }
-        
     if (flash.blocksCPU()) {
       /* TODO: how should this error/warning be handled ?? */
       throw new IllegalStateException(
@@ -999,6 +1703,16 @@ public class MSP430Core extends Chip implements MSP430Constants {
     }
 
     int pcBefore = pc;
+    if (decodeCacheActive && pc < MAX_MEM && !isFlashBusy) {
+      DecodedInstruction decoded = getDecoded(pc);
+      if (decoded.type != DecodedInstruction.NONE) {
+        if (isStopping) {
+          // Signaled to stop the execution before performing the instruction
+          return -2;
+        }
+        return executeDecoded(decoded, pc, startCycles);
+      }
+    }
     instruction = currentSegment.read(pc, AccessMode.WORD, AccessType.EXECUTE);
     if (isStopping) {
         // Signaled to stop the execution before performing the instruction
@@ -1046,6 +1760,8 @@ public class MSP430Core extends Chip implements MSP430Constants {
     op = instruction >> 12;
     int sp = 0;
     int sr = 0;
+    /* status flags not yet written to SR, -1 if none */
+    int pendingSR = -1;
     int rval = 0; /* register value */
     int repeats = 1; /* msp430X can repeat some instructions in some cases */
     boolean zeroCarry = false; /* msp430X can zero carry in repeats */
@@ -1094,9 +1810,6 @@ public class MSP430Core extends Chip implements MSP430Constants {
         	cycles += 3;
             break;
         case MOVA_IND_AUTOINC:
-            if (profiler != null && instruction == 0x0110) {
-                profiler.profileReturn(cpuCycles);
-            }
             writeRegister(PC, pc);
             /* read from address in register */
             src = readRegister(srcData);
@@ -1510,10 +2223,6 @@ public class MSP430Core extends Chip implements MSP430Constants {
               currentSegment.write(sp, pc & 0xffff, AccessMode.WORD);
               writeRegister(SP, sp);
               writeRegister(PC, dst);
-              
-              if (profiler != null) {
-                  profileCall(dst, pc);
-              }
           }
       } else {
           // Address mode of destination...
@@ -1630,9 +2339,35 @@ public class MSP430Core extends Chip implements MSP430Constants {
               dst = currentSegment.read(dstAddress, mode, AccessType.READ);
           }
           
+          /* repeated register shifts in one step with the same result as the loop */
+          if (repeats > 1 && !hasRegisterMonitors && (op == RRC || op == RRA)) {
+              sr = pendingSR >= 0 ? pendingSR : readRegister(SR);
+              int bits = mode.bitSize;
+              int carry;
+              if (op == RRA) {
+                  int value = (dst ^ mode.msb) - mode.msb;
+                  carry = (value >> Math.min(repeats - 1, 31)) & 1;
+                  dst = (value >> Math.min(repeats, 31)) & mode.mask;
+              } else if (zeroCarry) {
+                  /* the carry is cleared before each shift */
+                  carry = repeats - 1 < bits ? (dst >> (repeats - 1)) & 1 : 0;
+                  dst = repeats < bits ? dst >> repeats : 0;
+              } else {
+                  /* rotate the carry and the operand as one value */
+                  long value = ((sr & CARRY) != 0 ? 1L << bits : 0) | dst;
+                  int shift = repeats % (bits + 1);
+                  value = ((value >>> shift) | (value << (bits + 1 - shift))) & ((1L << (bits + 1)) - 1);
+                  carry = (int) (value >> bits) & 1;
+                  dst = (int) value & mode.mask;
+              }
+              write = true;
+              pendingSR = (sr & ~(CARRY | OVERFLOW)) | (carry != 0 ? CARRY : 0);
+              repeats = 0;
+          }
+
           /* TODO: test add the loop here! */
           while(repeats-- > 0) {
-              sr = readRegister(SR);
+              sr = pendingSR >= 0 ? pendingSR : readRegister(SR);
               /* always clear carry before repeat */
               if (repeats >= 0) {
                   if (zeroCarry) {
@@ -1650,7 +2385,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   // Indicate write to memory!!
                   write = true;
                   // Set the next carry!
-                  writeRegister(SR, (sr & ~(CARRY | OVERFLOW)) | nxtCarry);
+                  pendingSR = (sr & ~(CARRY | OVERFLOW)) | nxtCarry;
                   break;
               case SWPB:
                   int tmp = dst;
@@ -1662,7 +2397,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   nxtCarry = (dst & 1) > 0 ? CARRY : 0;
                   dst = (dst & mode.msb) | dst >> 1;
                   write = true;
-                  writeRegister(SR, (sr & ~(CARRY | OVERFLOW)) | nxtCarry);
+                  pendingSR = (sr & ~(CARRY | OVERFLOW)) | nxtCarry;
                   break;
               case SXT:
                   // Extend Sign (bit 8-15 => same as bit 7)
@@ -1672,7 +2407,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   if (dst != 0) {
                       sr |= CARRY;
                   }
-                  writeRegister(SR, sr);
+                  pendingSR = sr;
                   break;
               case PUSH:
                   if (mode == AccessMode.WORD20) {
@@ -1698,11 +2433,6 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   /* Additional cycles: REG => 3, AM_IND_AUTO => 2, other => 1 */
                   cycles += (ad == AM_REG) ? 3 : (ad == AM_IND_AUTOINC) ? 2 : 1;
 
-                  /* profiler will be called during calls */
-                  if (profiler != null) {
-                      profileCall(dst, pc);
-                  }
-
                   write = false;
                   updateStatus = false;
                   break;
@@ -1728,10 +2458,6 @@ public class MSP430Core extends Chip implements MSP430Constants {
                       System.out.println("### RETI at " + pc + " => " + reg[PC] +
                               " SP after: " + reg[SP]);
                   }        
-                  if (profiler != null) {
-                      profiler.profileRETI(cycles);
-                  }
-
                   // This assumes that all interrupts will get back using RETI!
                   handlePendingInterrupts();
 
@@ -1790,6 +2516,9 @@ public class MSP430Core extends Chip implements MSP430Constants {
       // Perform the Jump
       if (jump) {
         writeRegister(PC, pc + jmpOffset);
+        if (jmpOffset < 0 && busyWaitDetection) {
+          busyWaitPC = pc + jmpOffset;
+        }
       }
       updateStatus = false;
       break;
@@ -1996,9 +2725,43 @@ public class MSP430Core extends Chip implements MSP430Constants {
 	// 	  }
       }
 
+      /* repeated register moves and additions in one step with the same result as the loop */
+      if (repeats > 1 && !hasRegisterMonitors) {
+          if (op == MOV) {
+              /* the same value is moved every time */
+              repeats = 1;
+          } else if (op == ADD || (op == ADDC && zeroCarry)) {
+              int b = word ? 0x8000 : (wordx20 ? 0x80000 : 0x80);
+              int b2 = word ? 0xffff : (wordx20 ? 0xfffff : 0xff);
+              /* the flags are set by the last addition */
+              int last;
+              if (srcRegister == dstRegister) {
+                  /* RLAX - shift left */
+                  last = repeats - 1 < 32 ? (dst << (repeats - 1)) & mode.mask : 0;
+                  src = last;
+              } else {
+                  /* the loop does not mask the sum between the additions */
+                  last = dst + src * (repeats - 1);
+              }
+              sr = pendingSR >= 0 ? pendingSR : readRegister(SR);
+              sr &= ~(OVERFLOW | CARRY);
+              int tmp = (src ^ last) & b;
+              dst = last + src;
+              if (dst > b2) {
+                  sr |= CARRY;
+              }
+              if (tmp == 0 && ((src ^ dst) & b) != 0) {
+                  sr |= OVERFLOW;
+              }
+              pendingSR = sr;
+              write = true;
+              repeats = 0;
+          }
+      }
+
       /* TODO: test add the loop here! */
       while(repeats-- > 0) {
-          sr = readRegister(SR);
+          sr = pendingSR >= 0 ? pendingSR : readRegister(SR);
           if (repeats >= 0) {
               if (zeroCarry) {
                   sr = sr & ~CARRY;
@@ -2015,10 +2778,6 @@ public class MSP430Core extends Chip implements MSP430Constants {
               write = true;
               updateStatus = false;
 
-              if (instruction == RETURN && profiler != null) {
-                  profiler.profileReturn(cpuCycles);
-              }
-
               break;
               // FIX THIS!!! - make SUB a separate operation so that
               // it is clear that overflow flag is correct...
@@ -2052,7 +2811,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
 
               // 	  System.out.println(Utils.hex16(dst) + " [SR=" +
               // 			     Utils.hex16(reg[SR]) + "]");
-              writeRegister(SR, sr);
+              pendingSR = sr;
               write = true;
               break;
           case CMP: // CMP
@@ -2065,7 +2824,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
               if (((src ^ tmp) & b) == 0 && (((src ^ dst) & b) != 0)) {
                   sr |= OVERFLOW;
               }
-              writeRegister(SR, sr);
+              pendingSR = sr;
               // Must set dst to the result to set the rest of the status register
               dst = tmp;
               break;
@@ -2085,7 +2844,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
               if (dst != 0) {
                   sr |= CARRY;
               }
-              writeRegister(SR, sr);
+              pendingSR = sr;
               break;
           case BIC: // BIC
               // No status reg change
@@ -2114,7 +2873,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   sr |= CARRY;
               }
               write = true;
-              writeRegister(SR, sr);
+              pendingSR = sr;
               break;
           case AND: // AND
               sr = sr & ~(CARRY | OVERFLOW);
@@ -2123,7 +2882,7 @@ public class MSP430Core extends Chip implements MSP430Constants {
                   sr |= CARRY;
               }
               write = true;
-              writeRegister(SR, sr);
+              pendingSR = sr;
               break;
           default:
               String address = getAddressAsString(pc);
@@ -2150,6 +2909,10 @@ public class MSP430Core extends Chip implements MSP430Constants {
     dst &= mode.mask;
     if (write) {
       if (dstRegMode) {
+        if (dstRegister == SR) {
+          /* the written value replaces the computed flags */
+          pendingSR = -1;
+        }
 	writeRegister(dstRegister, dst);
       } else {
         currentSegment.write(dstAddress, dst, mode);
@@ -2157,11 +2920,14 @@ public class MSP430Core extends Chip implements MSP430Constants {
     }
     if (updateStatus) {
       // Update the Zero and Negative status!
-      // Carry and overflow must be set separately!
-      sr = readRegister(SR);
+      // Carry and overflow are computed by the operation and written
+      // here together with Zero and Negative so that SR is written once
+      sr = pendingSR >= 0 ? pendingSR : readRegister(SR);
       sr = (sr & ~(ZERO | NEGATIVE)) |
 	((dst == 0) ? ZERO : 0) | ((dst & mode.msb) > 0 ? NEGATIVE : 0);
       writeRegister(SR, sr);
+    } else if (pendingSR >= 0) {
+      writeRegister(SR, pendingSR);
     }
 
     //System.out.println("CYCLES AFTER: " + cycles);
@@ -2179,6 +2945,494 @@ public class MSP430Core extends Chip implements MSP430Constants {
     return pcBefore;
   }
   
+  /**
+   * Executes the instructions of the basic block at PC. Stops after the
+   * last instruction of the block, after maxInstructions instructions, when
+   * cycles reaches cycleLimit, or as soon as an interrupt is pending, the CPU
+   * is turned off or the block has been modified, so that events and
+   * interrupts are processed exactly as by emulateOP. Falls back to
+   * emulateOP when there is no block at PC.
+   *
+   * @return the number of executed instructions, or -1 if no instruction was
+   * executed and -2 if stopped before executing as emulateOP
+   */
+  int emulateBlock(long maxCycles, long cycleLimit, int maxInstructions) throws EmulationException {
+    int pc = reg[PC];
+    if (!decodeCacheActive || regReadMonitors[PC] != null || pc >= MAX_MEM || (pc & 1) != 0
+        || isFlashBusy || cpuOff || flash.blocksCPU()
+        || (interruptsEnabled && servicedInterrupt == -1 && interruptMax >= 0)) {
+      pc = emulateOP(maxCycles);
+      return pc >= 0 ? 1 : pc;
+    }
+    BasicBlock block = getBlock(pc);
+    DecodedInstruction[] instructions = block.instructions;
+    if (instructions.length == 0) {
+      pc = emulateOP(maxCycles);
+      return pc >= 0 ? 1 : pc;
+    }
+    if (isStopping) {
+      // Signaled to stop the execution before performing the instruction
+      return -2;
+    }
+    int generation = blockGeneration;
+    if (blockCompileThreshold > 0 && !hasRegisterMonitors) {
+      if (block.compiled == null) {
+        compileBlock(block);
+      }
+      if (block.compiled != null && maxInstructions >= block.compiledLength) {
+        int count = block.compiled.execute(this, cycleLimit, generation);
+        if (reg[PC] == pc && busyWaitDetection) {
+          busyWaitPC = pc;
+        }
+        return count;
+      }
+    }
+    int count = 0;
+    while (true) {
+      DecodedInstruction d = instructions[count++];
+      executeDecoded(d, pc, cycles);
+      pc += d.size;
+      if (count == instructions.length || count >= maxInstructions || reg[PC] != pc
+          || !canContinueBlock(generation, cycleLimit)) {
+        return count;
+      }
+    }
+  }
+
+  /* Returns true if a read of the address has no side effects and returns
+     the same value until the memory is written or events are executed */
+  private boolean isStableRead(int address, AccessMode mode) {
+    if (address >= MAX_MEM || (mode != AccessMode.BYTE && (address & 1) != 0)) {
+      return false;
+    }
+    int segment = address >> 8;
+    int segmentType = segmentTypes[segment];
+    if (segmentType == SEGMENT_RAM || (segmentType == SEGMENT_FLASH && !isFlashBusy)) {
+      return true;
+    }
+    if (memorySegments[segment] != ioSegment) {
+      return false;
+    }
+    IOUnit unit = ioSegment.getIOUnit(address);
+    return unit != null && unit.isReadStable(address);
+  }
+
+  /**
+   * Fast-forwards the polling loop entered by the last backward jump. One
+   * iteration of the loop is executed and if it left the registers
+   * unchanged, further iterations are skipped up to just before the next
+   * event, cycleLimit or maxInstructions, adding their cycles and execution
+   * counts as if they had been executed.
+   *
+   * @return the number of executed or skipped instructions
+   */
+  int skipBusyWait(long cycleLimit, int maxInstructions, int[] execCounter) throws EmulationException {
+    int pc = busyWaitPC;
+    busyWaitPC = -1;
+    if (pc != reg[PC] || !decodeCacheActive || hasRegisterMonitors
+        || isStopping || cpuOff || isFlashBusy || flash.blocksCPU()
+        || (interruptsEnabled && servicedInterrupt == -1 && interruptMax >= 0)) {
+      return 0;
+    }
+    BasicBlock block = getBlock(pc);
+    if (block.busyWaitCycles < 0) {
+      block.analyzeBusyWait();
+    }
+    DecodedInstruction[] instructions = block.instructions;
+    int loopCycles = block.busyWaitCycles;
+    int length = instructions.length;
+    if (loopCycles == 0 || maxInstructions < 2 * length
+        || cycles + 2 * loopCycles >= Math.min(cycleLimit, nextEventCycles)) {
+      return 0;
+    }
+    int[] reads = block.busyWaitReads;
+    for (int i = 0; i < reads.length; i++) {
+      if (!isStableRead(reads[i], block.busyWaitModes[i])) {
+        return 0;
+      }
+    }
+
+    /* execute one iteration and check that it did not change the state */
+    System.arraycopy(reg, 0, busyWaitRegisters, 0, reg.length);
+    long startCycles = cycles;
+    for (DecodedInstruction d : instructions) {
+      executeDecoded(d, pc, cycles);
+      if (execCounter != null) {
+        execCounter[pc]++;
+      }
+      pc += d.size;
+    }
+    busyWaitPC = -1;
+    if (cycles - startCycles != loopCycles || !Arrays.equals(reg, busyWaitRegisters)) {
+      return length;
+    }
+
+    long iterations = Math.min((Math.min(cycleLimit, nextEventCycles) - 1 - cycles) / loopCycles,
+        (maxInstructions - length) / length);
+    if (iterations > 0) {
+      cycles += iterations * loopCycles;
+      cpuCycles += iterations * loopCycles;
+      if (execCounter != null) {
+        pc = block.address;
+        for (DecodedInstruction d : instructions) {
+          execCounter[pc] += iterations;
+          pc += d.size;
+        }
+      }
+    }
+    return (int) (iterations + 1) * length;
+  }
+
+  /* Executes a predecoded MSP430 instruction. Performs the register and
+     memory accesses and adds the cycles in the same order as emulateOP. */
+  private int executeDecoded(DecodedInstruction d, int pc, long startCycles) throws EmulationException {
+    int pcBefore = pc;
+    instruction = d.instruction;
+    extWord = 0;
+    op = d.op;
+    AccessMode mode = d.mode;
+    int sp = 0;
+    int sr = 0;
+    int pendingSR = -1;
+    int rval = 0;
+    int dstRegister = d.dstRegister;
+    int dstAddress = -1;
+    boolean dstRegMode = d.dstRegMode;
+    int dst = -1;
+    boolean write = false;
+    boolean updateStatus = true;
+
+    pc += 2;
+    writeRegister(PC, pc);
+
+    switch (d.type) {
+    case DecodedInstruction.SINGLE:
+    {
+      int ad = d.ad;
+      int nxtCarry = 0;
+      if (op == PUSH || op == CALL) {
+        sp = readRegister(SP) - 2;
+        writeRegister(SP, sp);
+      }
+
+      if (dstRegMode) {
+        cycles++;
+      } else {
+        switch(ad) {
+        case AM_INDEX:
+          rval = readRegisterCG(dstRegister, ad);
+          dstAddress = (d.dstWord + rval) & (rval <= 0xffff ? 0xffff : 0xfffff);
+          pc += 2;
+          writeRegister(PC, pc);
+          cycles += 4;
+          break;
+        case AM_IND_REG:
+          dstAddress = readRegister(dstRegister);
+          cycles += 3;
+          break;
+        case AM_IND_AUTOINC:
+          if (dstRegister == PC) {
+            dstAddress = pc;
+            dst = d.dstWord;
+            pc += 2;
+            writeRegister(PC, pc);
+          } else {
+            dstAddress = readRegister(dstRegister);
+            writeRegister(dstRegister, dstAddress + mode.bytes);
+          }
+          cycles += 3;
+          break;
+        }
+      }
+
+      if (dstRegMode) {
+        dst = readRegisterCG(dstRegister, ad);
+        dst &= mode.mask;
+      } else if (dst == -1) {
+        dst = currentSegment.read(dstAddress, mode, AccessType.READ);
+      }
+
+      sr = readRegister(SR);
+      switch(op) {
+      case RRC:
+        nxtCarry = (dst & 1) > 0 ? CARRY : 0;
+        dst = dst >> 1;
+        dst |= (sr & CARRY) > 0 ? mode.msb : 0;
+        write = true;
+        pendingSR = (sr & ~(CARRY | OVERFLOW)) | nxtCarry;
+        break;
+      case SWPB:
+        dst = ((dst >> 8) & 0xff) + ((dst << 8) & 0xff00);
+        write = true;
+        updateStatus = false;
+        break;
+      case RRA:
+        nxtCarry = (dst & 1) > 0 ? CARRY : 0;
+        dst = (dst & mode.msb) | dst >> 1;
+        write = true;
+        pendingSR = (sr & ~(CARRY | OVERFLOW)) | nxtCarry;
+        break;
+      case SXT:
+        dst = (dst & 0x80) > 0 ? dst | 0xfff00 : dst & 0x7f;
+        write = true;
+        sr = sr & ~(CARRY | OVERFLOW);
+        if (dst != 0) {
+          sr |= CARRY;
+        }
+        pendingSR = sr;
+        break;
+      case PUSH:
+        currentSegment.write(sp, dst, mode);
+        cycles += d.opCycles;
+        updateStatus = false;
+        break;
+      case CALL:
+        pc = readRegister(PC);
+        currentSegment.write(sp, pc, AccessMode.WORD);
+        writeRegister(PC, dst);
+        cycles += d.opCycles;
+        updateStatus = false;
+        break;
+      case RETI:
+        servicedInterrupt = -1; /* needed before write to SR!!! */
+        sp = readRegister(SP);
+        sr = currentSegment.read(sp, AccessMode.WORD, AccessType.READ);
+        writeRegister(SR, sr & 0x0fff);
+        sp = sp + 2;
+        writeRegister(PC, currentSegment.read(sp, AccessMode.WORD, AccessType.READ) | (sr & 0xf000) << 4);
+        sp = sp + 2;
+        writeRegister(SP, sp);
+        updateStatus = false;
+        cycles += d.opCycles;
+        handlePendingInterrupts();
+        break;
+      }
+    }
+    break;
+    case DecodedInstruction.JUMP:
+    {
+      boolean jump = false;
+      cycles += 2;
+      sr = readRegister(SR);
+      switch(op) {
+      case JNE:
+        jump = (sr & ZERO) == 0;
+        break;
+      case JEQ:
+        jump = (sr & ZERO) > 0;
+        break;
+      case JNC:
+        jump = (sr & CARRY) == 0;
+        break;
+      case JC:
+        jump = (sr & CARRY) > 0;
+        break;
+      case JN:
+        jump = (sr & NEGATIVE) > 0;
+        break;
+      case JGE:
+        jump = (sr & NEGATIVE) > 0 == (sr & OVERFLOW) > 0;
+        break;
+      case JL:
+        jump = (sr & NEGATIVE) > 0 != (sr & OVERFLOW) > 0;
+        break;
+      case JMP:
+        jump = true;
+        break;
+      }
+      if (jump) {
+        writeRegister(PC, pc + d.jumpOffset);
+        if (d.jumpOffset < 0 && busyWaitDetection) {
+          busyWaitPC = pc + d.jumpOffset;
+        }
+      }
+      updateStatus = false;
+    }
+    break;
+    default:
+    {
+      int srcRegister = d.srcRegister;
+      int srcAddress = -1;
+      int src = 0;
+
+      if (d.srcConstant) {
+        src = d.srcValue;
+        cycles += d.cycles;
+      } else {
+        switch(d.as) {
+        case AM_REG:
+          src = readRegister(srcRegister);
+          src &= mode.mask;
+          cycles += d.cycles;
+          break;
+        case AM_INDEX:
+          int sval = readRegisterCG(srcRegister, AM_INDEX);
+          srcAddress = (d.srcIndex + sval) & (sval <= 0xffff ? 0xffff : 0xfffff);
+          pc += 2;
+          writeRegister(PC, pc);
+          cycles += d.cycles;
+          break;
+        case AM_IND_REG:
+          srcAddress = readRegister(srcRegister);
+          cycles += d.cycles;
+          break;
+        case AM_IND_AUTOINC:
+          if (srcRegister == PC) {
+            src = d.srcValue;
+            pc += 2;
+            writeRegister(PC, pc);
+          } else {
+            srcAddress = readRegister(srcRegister);
+            incRegister(srcRegister, mode.bytes);
+          }
+          cycles += d.cycles;
+          break;
+        }
+      }
+
+      if (dstRegMode) {
+        if (op != MOV) {
+          dst = readRegister(dstRegister);
+          dst &= mode.mask;
+        }
+      } else {
+        // PC Could have changed above!
+        pc = readRegister(PC);
+        if (dstRegister == SR) {
+          /* absolute mode */
+          dstAddress = d.dstWord;
+        } else {
+          rval = readRegister(dstRegister);
+          dstAddress = (d.dstWord + rval) & (rval <= 0xffff ? 0xffff : 0xfffff);
+        }
+        if (op != MOV) {
+          dst = currentSegment.read(dstAddress, mode, AccessType.READ);
+        }
+        pc += 2;
+        incRegister(PC, 2);
+      }
+
+      if (srcAddress != -1) {
+        src = currentSegment.read(srcAddress, mode, AccessType.READ);
+      }
+
+      sr = readRegister(SR);
+      int tmp = 0;
+      int tmpAdd = 0;
+      switch (op) {
+      case MOV:
+        dst = src;
+        write = true;
+        updateStatus = false;
+        break;
+      case SUB:
+        // Carry always 1 with SUB
+        tmpAdd = 1;
+      case SUBC:
+        // Both sub and subc does one complement (not) + 1 (or carry)
+        src = (src ^ 0xffff) & 0xffff;
+      case ADDC:
+        if (op == ADDC || op == SUBC)
+          tmpAdd = ((sr & CARRY) > 0) ? 1 : 0;
+      case ADD:
+        sr &= ~(OVERFLOW | CARRY);
+        tmp = (src ^ dst) & mode.msb;
+        dst = dst + src + tmpAdd;
+        if (dst > mode.mask) {
+          sr |= CARRY;
+        }
+        if (tmp == 0 && ((src ^ dst) & mode.msb) != 0) {
+          sr |= OVERFLOW;
+        }
+        pendingSR = sr;
+        write = true;
+        break;
+      case CMP:
+        sr = (sr & ~(CARRY | OVERFLOW)) | (dst >= src ? CARRY : 0);
+        tmp = (dst - src);
+        if (((src ^ tmp) & mode.msb) == 0 && (((src ^ dst) & mode.msb) != 0)) {
+          sr |= OVERFLOW;
+        }
+        pendingSR = sr;
+        dst = tmp;
+        break;
+      case DADD:
+        if (DEBUG)
+          log("DADD: Decimal add executed - result error!!!");
+        dst = dst + src + ((sr & CARRY) > 0 ? 1 : 0);
+        write = true;
+        break;
+      case BIT:
+        dst = src & dst;
+        sr = sr & ~(CARRY | OVERFLOW);
+        if (dst != 0) {
+          sr |= CARRY;
+        }
+        pendingSR = sr;
+        break;
+      case BIC:
+        dst = (~src) & dst;
+        write = true;
+        updateStatus = false;
+        break;
+      case BIS:
+        dst = src | dst;
+        write = true;
+        updateStatus = false;
+        break;
+      case XOR:
+        sr = sr & ~(CARRY | OVERFLOW);
+        if ((src & mode.msb) != 0 && (dst & mode.msb) != 0) {
+          sr |= OVERFLOW;
+        }
+        dst = src ^ dst;
+        if (dst != 0) {
+          sr |= CARRY;
+        }
+        write = true;
+        pendingSR = sr;
+        break;
+      case AND:
+        sr = sr & ~(CARRY | OVERFLOW);
+        dst = src & dst;
+        if (dst != 0) {
+          sr |= CARRY;
+        }
+        write = true;
+        pendingSR = sr;
+        break;
+      }
+    }
+    }
+
+    dst &= mode.mask;
+    if (write) {
+      if (dstRegMode) {
+        if (dstRegister == SR) {
+          pendingSR = -1;
+        }
+        writeRegister(dstRegister, dst);
+      } else {
+        currentSegment.write(dstAddress, dst, mode);
+      }
+    }
+    if (updateStatus) {
+      sr = pendingSR >= 0 ? pendingSR : readRegister(SR);
+      sr = (sr & ~(ZERO | NEGATIVE)) |
+        ((dst == 0) ? ZERO : 0) | ((dst & mode.msb) > 0 ? NEGATIVE : 0);
+      writeRegister(SR, sr);
+    } else if (pendingSR >= 0) {
+      writeRegister(SR, pendingSR);
+    }
+
+    while (cycles >= nextEventCycles) {
+      executeEvents();
+    }
+
+    cpuCycles += cycles - startCycles;
+    return pcBefore;
+  }
+
   private static int convertTwoComplement16(int index) {
 	  if(index > 0x8000) {
 		  return -(0x10000 - index);
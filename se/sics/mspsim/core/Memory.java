@@ -63,6 +63,37 @@ public interface Memory {
             this.mask = mask;
             this.msb = 1 << (bitSize - 1);
         }
+
+        /**
+         * Returns the little endian value of this size at the specified
+         * address in a memory array with one byte per address.
+         */
+        public int get(byte[] memory, int address) {
+            int val = memory[address] & 0xff;
+            if (this != BYTE) {
+                val |= (memory[address + 1] & 0xff) << 8;
+                if (this == WORD20) {
+                    val |= (memory[address + 2] & 0xff) << 16;
+                }
+            }
+            return val & mask;
+        }
+
+        /**
+         * Stores the value with this size little endian at the specified
+         * address in a memory array with one byte per address. A WORD20 value
+         * occupies four bytes.
+         */
+        public void set(byte[] memory, int address, int value) {
+            memory[address] = (byte) value;
+            if (this != BYTE) {
+                memory[address + 1] = (byte) (value >> 8);
+                if (this == WORD20) {
+                    memory[address + 2] = (byte) (value >> 16);
+                    memory[address + 3] = (byte) (value >> 24);
+                }
+            }
+        }
     };
 
     public int read(int address, AccessMode mode, AccessType type) throws EmulationException;
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * MemoryPagePool
+ *
+ * Read-only memory pages shared by all nodes, i.e. the flash pages of
+ * nodes running the same firmware. A node copies a shared page before it
+ * is modified.
+ */
+
+package se.sics.mspsim.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+final class MemoryPagePool {
+
+    private static final HashMap<Integer, ArrayList<PageReference>> pages =
+        new HashMap<Integer, ArrayList<PageReference>>();
+    private static final ReferenceQueue<byte[]> released = new ReferenceQueue<byte[]>();
+
+    private static final class PageReference extends WeakReference<byte[]> {
+        final int hash;
+
+        PageReference(byte[] page, int hash) {
+            super(page, released);
+            this.hash = hash;
+        }
+    }
+
+    private MemoryPagePool() {
+    }
+
+    /**
+     * Returns a shared page with the same contents as the specified page.
+     * The page itself is added to the pool if no such page exists. The
+     * returned page must never be modified.
+     */
+    static synchronized byte[] intern(byte[] page) {
+        expunge();
+        int hash = Arrays.hashCode(page);
+        ArrayList<PageReference> list = pages.get(hash);
+        if (list == null) {
+            list = new ArrayList<PageReference>(1);
+            pages.put(hash, list);
+        }
+        for (PageReference ref : list) {
+            byte[] shared = ref.get();
+            if (shared != null && Arrays.equals(shared, page)) {
+                return shared;
+            }
+        }
+        list.add(new PageReference(page, hash));
+        return page;
+    }
+
+    /* Returns a shared page filled with the specified value */
+    static byte[] filled(int value) {
+        byte[] page = new byte[Memory.SEGMENT_SIZE];
+        Arrays.fill(page, (byte) value);
+        return intern(page);
+    }
+
+    /* Forget pages no longer used by any node */
+    private static void expunge() {
+        PageReference ref;
+        while ((ref = (PageReference) released.poll()) != null) {
+            ArrayList<PageReference> list = pages.get(ref.hash);
+            if (list != null && list.remove(ref) && list.isEmpty()) {
+                pages.remove(ref.hash);
+            }
+        }
+    }
+
+}
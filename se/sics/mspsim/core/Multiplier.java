@@ -40,10 +40,12 @@
  */
 
 package se.sics.mspsim.core;
+import java.io.IOException;
+
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.Utils;
 
-public class Multiplier extends IOUnit {
+public class Multiplier extends IOUnit implements Snapshotable {
 
   public static final int MPY = 0x130;
   public static final int MPYS = 0x132;
@@ -72,7 +74,7 @@ public class Multiplier extends IOUnit {
    * Creates a new <code>Multiplier</code> instance.
    *
    */
-  public Multiplier(MSP430Core cpu, int memory[], int offset) {
+  public Multiplier(MSP430Core cpu, byte memory[], int offset) {
     super("Multiplier", "Hardware Multiplier", cpu, memory, offset);
   }
 
@@ -178,4 +180,35 @@ public class Multiplier extends IOUnit {
   @Override
   public void interruptServiced(int vector) {
   }
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+      out.writeInt(mpy);
+      out.writeInt(mpys);
+      out.writeInt(op2);
+      out.writeInt(resLo);
+      out.writeInt(resHi);
+      out.writeInt(mac);
+      out.writeInt(macs);
+      out.writeInt(sumext);
+      out.writeInt(op1);
+      out.writeBoolean(signed);
+      out.writeBoolean(accumulating);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+      mpy = in.readInt();
+      mpys = in.readInt();
+      op2 = in.readInt();
+      resLo = in.readInt();
+      resHi = in.readInt();
+      mac = in.readInt();
+      macs = in.readInt();
+      sumext = in.readInt();
+      op1 = in.readInt();
+      signed = in.readBoolean();
+      accumulating = in.readBoolean();
+  }
+
 }
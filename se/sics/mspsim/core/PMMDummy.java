@@ -29,10 +29,12 @@
 
 package se.sics.mspsim.core;
 
-public class PMMDummy extends IOUnit {
+import java.io.IOException;
+
+public class PMMDummy extends IOUnit implements Snapshotable {
     public static int SIZE = 0x10;
 
-    public PMMDummy(MSP430Core cpu, int[] memory, int address) {
+    public PMMDummy(MSP430Core cpu, byte[] memory, int address) {
         super("PMMDummy", "PMMDummy", cpu, memory, address);
         reset(0);
     }
@@ -41,11 +43,11 @@ public class PMMDummy extends IOUnit {
     }
 
     public void write(int address, int value, boolean word, long cycles) {
-        memory[address] = value;
+        writeMemory(address, value, word);
     }
 
     public int read(int address, boolean word, long cycles) {
-        return memory[address];
+        return readMemory(address, word);
     }
 
     public void interruptServiced(int vector) {
@@ -53,4 +55,13 @@ public class PMMDummy extends IOUnit {
             log(this.getName() + ": Interrupt services vector: " + vector);
         }
     }
+
+    /* the registers are kept in the IO memory which is part of the memory snapshot */
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+    }
 }
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * PageInSegment
+ *
+ * Memory segment that copies its contents from a mapped snapshot on the
+ * first access and then delegates to the real memory segment.
+ */
+
+package se.sics.mspsim.core;
+
+class PageInSegment implements Memory {
+
+    private final MSP430Core core;
+    private final int segment;
+    final Memory memory;
+
+    PageInSegment(MSP430Core core, int segment, Memory memory) {
+        this.core = core;
+        this.segment = segment;
+        this.memory = memory;
+    }
+
+    private void pageIn(int address, AccessMode mode) {
+        core.pageIn(segment);
+        /* word accesses at the end of the segment also touch the next segment */
+        int last = (address + mode.bytes - 1) >> 8;
+        if (last != segment) {
+            core.pageIn(last);
+        }
+    }
+
+    @Override
+    public int read(int address, AccessMode mode, AccessType type) throws EmulationException {
+        pageIn(address, mode);
+        return memory.read(address, mode, type);
+    }
+
+    @Override
+    public void write(int dstAddress, int data, AccessMode mode) throws EmulationException {
+        pageIn(dstAddress, mode);
+        memory.write(dstAddress, data, mode);
+    }
+
+    @Override
+    public int get(int address, AccessMode mode) {
+        pageIn(address, mode);
+        return memory.get(address, mode);
+    }
+
+    @Override
+    public void set(int address, int data, AccessMode mode) {
+        pageIn(address, mode);
+        memory.set(address, data, mode);
+    }
+
+}
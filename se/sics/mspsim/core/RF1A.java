@@ -29,11 +29,13 @@
 
 package se.sics.mspsim.core;
 
+import java.io.IOException;
+
 import se.sics.mspsim.chip.CC1101;
 import se.sics.mspsim.chip.CC1101.GDOListener;
 import se.sics.mspsim.core.IOPort.PinState;
 
-public class RF1A extends IOUnit implements InterruptHandler {
+public class RF1A extends IOUnit implements InterruptHandler, Snapshotable {
     private boolean DEBUG = true;
     
     public static int ADDRESS = 0xf00;
@@ -69,7 +71,7 @@ public class RF1A extends IOUnit implements InterruptHandler {
     private boolean interruptOnCC1101GDO0 = false;
     private boolean gdo0IsHigh = false;
 
-    public RF1A(final MSP430Core cpu, int[] memory) {
+    public RF1A(final MSP430Core cpu, byte[] memory) {
         super("RF1A", "RF1A", cpu, memory, ADDRESS);
         cc1101 = new CC1101(cpu);
         cc1101.setGDO0Listener(new GDOListener() {
@@ -245,4 +247,26 @@ public class RF1A extends IOUnit implements InterruptHandler {
             System.out.println(this.getName() + ": Interrupt services vector: " + vector);
         }
     }
+
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        out.writeBoolean(interruptOnCC1101GDO0);
+        out.writeBoolean(gdo0IsHigh);
+        out.writeInt(ioAddress);
+        out.writeBoolean(ioBurst);
+        out.writeBoolean(ioRead);
+        out.writeBoolean(ioWrite);
+        out.writeBoolean(expectingDummyWrite);
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        interruptOnCC1101GDO0 = in.readBoolean();
+        gdo0IsHigh = in.readBoolean();
+        ioAddress = in.readInt();
+        ioBurst = in.readBoolean();
+        ioRead = in.readBoolean();
+        ioWrite = in.readBoolean();
+        expectingDummyWrite = in.readBoolean();
+    }
 }
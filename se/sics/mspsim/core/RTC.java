@@ -32,6 +32,7 @@
  */
 package se.sics.mspsim.core;
 
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
@@ -45,7 +46,7 @@ import se.sics.mspsim.core.EmulationLogger.WarningType;
  * 
  * @author Víctor Ariño <victor.arino@tado.com>
  */
-public class RTC extends IOUnit {
+public class RTC extends IOUnit implements Snapshotable {
 
 	/**
 	 * Address and size for IO configuration
@@ -107,7 +108,7 @@ public class RTC extends IOUnit {
 	 *           CPU core
 	 */
 	public RTC(MSP430Core cpu, int offset, RtcType r, int intVector) {
-		super("RTC", cpu, cpu.memory, offset);
+		super("RTC", cpu, cpu.ioMemory, offset);
 		type = r;
 		rtcIntVector = intVector;
 		DEBUG = true;
@@ -717,4 +718,59 @@ public class RTC extends IOUnit {
 		logw(WarningType.EMULATION_ERROR, feature + " is not implemented");
 	}
 
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+		out.writeBoolean(oscFaultInterruptEnable);
+		out.writeBoolean(eventInterruptEnable);
+		out.writeBoolean(alarmInterruptEnable);
+		out.writeBoolean(readyInterruptEnable);
+		out.writeBoolean(oscFaultInterruptFlag);
+		out.writeBoolean(eventInterruptFlag);
+		out.writeBoolean(alarmInterruptFlag);
+		out.writeBoolean(readyInterruptFlag);
+		out.writeBoolean(formatBCD);
+		out.writeBoolean(rtcHold);
+		out.writeBoolean(modeCalendar);
+		out.writeBoolean(rtcReady);
+		out.writeInt(clockSource);
+		out.writeInt(rtcEvent);
+		out.writeLong(rtcCount);
+		out.writeDouble(period);
+		out.writeInt(preScaler0Src);
+		out.writeInt(preScaler0Div);
+		out.writeBoolean(preScaler0Hold);
+		out.writeInt(preScaler1Src);
+		out.writeInt(preScaler1Div);
+		out.writeBoolean(preScaler1Hold);
+		out.writeLong(cal.getTimeInMillis());
+		out.writeTimeEvent(rtcTimer);
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+		oscFaultInterruptEnable = in.readBoolean();
+		eventInterruptEnable = in.readBoolean();
+		alarmInterruptEnable = in.readBoolean();
+		readyInterruptEnable = in.readBoolean();
+		oscFaultInterruptFlag = in.readBoolean();
+		eventInterruptFlag = in.readBoolean();
+		alarmInterruptFlag = in.readBoolean();
+		readyInterruptFlag = in.readBoolean();
+		formatBCD = in.readBoolean();
+		rtcHold = in.readBoolean();
+		modeCalendar = in.readBoolean();
+		rtcReady = in.readBoolean();
+		clockSource = in.readInt();
+		rtcEvent = in.readInt();
+		rtcCount = in.readLong();
+		period = in.readDouble();
+		preScaler0Src = in.readInt();
+		preScaler0Div = in.readInt();
+		preScaler0Hold = in.readBoolean();
+		preScaler1Src = in.readInt();
+		preScaler1Div = in.readInt();
+		preScaler1Hold = in.readBoolean();
+		cal.setTimeInMillis(in.readLong());
+		in.readTimeEvent(rtcTimer);
+	}
 }
@@ -41,10 +41,12 @@
 
 package se.sics.mspsim.core;
 
+import java.io.IOException;
+
 /**
  * SFR - emulation of special function registers
  */
-public class SFR extends IOUnit {
+public class SFR extends IOUnit implements Snapshotable {
 
   public static final int IE1 = 0;
   public static final int IE2 = 1;
@@ -67,7 +69,7 @@ public class SFR extends IOUnit {
   private boolean[] autoclear = new boolean[64];
   private int[] irqTriggeredPos = new int[64];
 
-  public SFR(MSP430Core cpu, int[] memory) {
+  public SFR(MSP430Core cpu, byte[] memory) {
     super("SFR", "Special Function Register", cpu, memory, 0);
     reset(0);
   }
@@ -114,7 +116,7 @@ public class SFR extends IOUnit {
     case ME2:
       updateME(address - ME1, value);
     }
-    memory[address] = value;
+    writeMemory(address, value, word);
   }
 
   // read
@@ -135,10 +137,16 @@ public class SFR extends IOUnit {
     case ME2:
       return me2;
     default:
-      return memory[address];
+      return readMemory(address, word);
     }
   }
 
+  @Override
+  public boolean isReadStable(int address) {
+    /* the interrupt flags can be set by peripherals receiving data from outside */
+    return address != IFG1 && address != IFG2;
+  }
+
   private void updateIE(int pos, int value) {
     int oldVal = pos == 0 ? ie1 : ie2;
     int change = oldVal ^ value;
@@ -266,4 +274,30 @@ public class SFR extends IOUnit {
     }
   }
 
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(ie1);
+    out.writeInt(ie2);
+    out.writeInt(ifg1);
+    out.writeInt(ifg2);
+    out.writeInt(me1);
+    out.writeInt(me2);
+    out.writeBooleanArray(irqTriggered);
+    out.writeBooleanArray(autoclear);
+    out.writeIntArray(irqTriggeredPos);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    ie1 = in.readInt();
+    ie2 = in.readInt();
+    ifg1 = in.readInt();
+    ifg2 = in.readInt();
+    me1 = in.readInt();
+    me2 = in.readInt();
+    in.readBooleanArray(irqTriggered);
+    in.readBooleanArray(autoclear);
+    in.readIntArray(irqTriggeredPos);
+  }
+
 } // SFR
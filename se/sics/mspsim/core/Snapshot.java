@@ -0,0 +1,510 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ */
+package se.sics.mspsim.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Saves and restores the complete state of a node: memory, CPU, IO units,
+ * chips and scheduled time events.
+ *
+ * Snapshot format (all values big endian):
+ * <pre>
+ *   int    magic ("MSPS")
+ *   int    version
+ *   UTF    MSP430 configuration class
+ *   int    memory size
+ *   long   cycles when saved
+ *   long   snapshot id
+ *   sections, each as: UTF id, int length, data
+ *   UTF    "" (end of snapshot)
+ * </pre>
+ * The memory section is followed by one section per IO unit and chip, and
+ * a node can only be saved if all of them are {@link Snapshotable}. Then
+ * follows an events section that lists the scheduled events
+ * for inspection only:
+ * <pre>
+ *   int    number of events
+ *   per event: byte queue (1 = cycles, 2 = time), long time, UTF name
+ * </pre>
+ * The CPU section is always the last section since it holds the time base
+ * for all events. The memory section holds:
+ * <pre>
+ *   int    memory size
+ *   byte   memory encoding (0 = raw, 1 = run length encoded)
+ *   memory
+ * </pre>
+ * <p>
+ * A delta snapshot replaces the memory section with a memory delta section
+ * that only holds the memory segments written since the previous snapshot:
+ * <pre>
+ *   long   cycles of the previous snapshot
+ *   long   id of the previous snapshot
+ *   int    number of segments
+ *   byte   memory encoding
+ *   per segment: int segment index, SEGMENT_SIZE bytes of memory
+ * </pre>
+ * A delta snapshot can only be loaded on top of the snapshot it was based on,
+ * identified by its randomly chosen snapshot id, i.e. a chain of snapshots
+ * is restored by loading the full snapshot followed by each delta in order.
+ * <p>
+ * Raw memory is stored as is, which allows a snapshot file to be memory
+ * mapped and paged in on demand. Run length encoded memory is a sequence of
+ * blocks, each starting with a control byte:
+ * <pre>
+ *   0x00 - 0x7f  control + 1 literal bytes follow
+ *   0x80         a run of 0x00 bytes, the run length follows as a varint
+ *   0x81         a run of 0xff bytes, the run length follows as a varint
+ * </pre>
+ * where a varint holds seven bits per byte, least significant first, and
+ * the high bit set in all but the last byte. Most of the memory is either
+ * zeroed RAM or erased flash which makes this encoding compact.
+ * A snapshot file can also be compressed with gzip as a whole.
+ */
+public class Snapshot {
+
+    /**
+     * Memory encoding of a saved snapshot.
+     */
+    public enum Encoding {
+        /** One byte per address. Allows lazy restore of mapped files. */
+        RAW,
+        /** Runs of 0x00 and 0xff bytes are run length encoded. */
+        RLE,
+        /** Run length encoded and the snapshot compressed with gzip. */
+        GZIP
+    }
+
+    public static final int MAGIC = 0x4d535053;
+    public static final int VERSION = 6;
+
+    static final int MEMORY_RAW = 0;
+    static final int MEMORY_RLE = 1;
+
+    /* the first two bytes of a gzip stream */
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    private static final Random snapshotIds = new Random();
+
+    static final String MEMORY_SECTION = "memory";
+    static final String MEMORY_DELTA_SECTION = "memory-delta";
+    static final String EVENTS_SECTION = "events";
+    static final String CPU_SECTION = "cpu";
+
+    private Snapshot() {
+    }
+
+    /**
+     * Saves the node state to the specified file.
+     * @return the size of the snapshot in bytes
+     */
+    public static int save(MSP430Core cpu, File file) throws IOException {
+        return save(cpu, file, false, Encoding.RAW);
+    }
+
+    /**
+     * Saves the node state to the specified file using the specified
+     * memory encoding.
+     * @return the size of the snapshot file in bytes
+     */
+    public static int save(MSP430Core cpu, File file, Encoding encoding) throws IOException {
+        return save(cpu, file, false, encoding);
+    }
+
+    /**
+     * Saves the node state to the specified file as a delta against the
+     * previous snapshot saved or loaded by this node. A full snapshot is
+     * saved if there is no previous snapshot.
+     * @return the size of the snapshot in bytes
+     */
+    public static int saveDelta(MSP430Core cpu, File file) throws IOException {
+        return save(cpu, file, cpu.checkpointCycles >= 0, Encoding.RAW);
+    }
+
+    public static int saveDelta(MSP430Core cpu, File file, Encoding encoding) throws IOException {
+        return save(cpu, file, cpu.checkpointCycles >= 0, encoding);
+    }
+
+    private static int save(MSP430Core cpu, File file, boolean delta, Encoding encoding) throws IOException {
+        long id = snapshotIds.nextLong();
+        SnapshotOutput out = write(cpu, delta, encoding != Encoding.RAW, id);
+        int size;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (encoding == Encoding.GZIP) {
+                /* finish the gzip stream here as the channel is closed below */
+                GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel), 65536);
+                out.writeTo(gzip);
+                gzip.finish();
+                gzip.flush();
+            } else {
+                out.writeTo(channel);
+            }
+            size = (int) channel.position();
+        }
+        cpu.clearMemoryDirty(cpu.cycles, id);
+        return size;
+    }
+
+    /**
+     * Restores the node state from the specified file. The node must have the
+     * same configuration as the node that saved the snapshot.
+     */
+    public static void load(MSP430Core cpu, File file) throws IOException {
+        /* the snapshot is decoded while read from the file, without copying it first */
+        try (InputStream input = open(Channels.newInputStream(
+                FileChannel.open(file.toPath(), StandardOpenOption.READ)))) {
+            read(cpu, new SnapshotInput(cpu, input), false);
+        }
+    }
+
+    /**
+     * Restores the node state from the specified file without copying the
+     * memory. The file is memory mapped and each memory segment is copied
+     * from the file on first access. The file must not be modified while
+     * memory remains to be paged in. Snapshots that are not saved with raw
+     * memory are restored directly.
+     */
+    public static void map(MSP430Core cpu, File file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("snapshot too large: " + size + " bytes");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        read(cpu, input(cpu, buffer), true);
+    }
+
+    /**
+     * Saves the node state to a read only buffer in memory. This does not
+     * affect which memory segments the next delta snapshot includes.
+     */
+    public static ByteBuffer save(MSP430Core cpu) throws IOException {
+        return save(cpu, Encoding.RAW);
+    }
+
+    /**
+     * Saves the node state to a read only buffer in memory using the
+     * specified memory encoding.
+     */
+    public static ByteBuffer save(MSP430Core cpu, Encoding encoding) throws IOException {
+        SnapshotOutput out = write(cpu, false, encoding != Encoding.RAW, snapshotIds.nextLong());
+        if (encoding == Encoding.GZIP) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(out.length() / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(data, 65536)) {
+                out.writeTo(gzip);
+            }
+            return ByteBuffer.wrap(data.toByteArray()).asReadOnlyBuffer();
+        }
+        return out.toByteBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Restores the node state from a snapshot in memory. If lazy is true each
+     * memory segment is copied from the snapshot on first access, which means
+     * that the snapshot can be shared by several nodes as long as it is not
+     * modified.
+     */
+    public static void load(MSP430Core cpu, ByteBuffer snapshot, boolean lazy) throws IOException {
+        read(cpu, input(cpu, snapshot.duplicate()), lazy);
+        /* no delta can be based on a snapshot that was never saved */
+        cpu.checkpointCycles = -1;
+    }
+
+    /* Returns a buffered stream of the snapshot that is decompressed while read if compressed with gzip */
+    private static InputStream open(InputStream input) throws IOException {
+        input = new BufferedInputStream(input, 65536);
+        input.mark(2);
+        int magic = (input.read() << 8) | input.read();
+        input.reset();
+        if (magic == GZIP_MAGIC) {
+            input = new BufferedInputStream(new GZIPInputStream(input, 65536), 65536);
+        }
+        return input;
+    }
+
+    /* Compressed snapshots are decompressed while read as their memory is never paged in lazily */
+    private static SnapshotInput input(MSP430Core cpu, ByteBuffer snapshot) throws IOException {
+        if (snapshot.remaining() >= 2
+                && (snapshot.getShort(snapshot.position()) & 0xffff) == GZIP_MAGIC) {
+            return new SnapshotInput(cpu, open(new SnapshotInput.BufferInput(snapshot)));
+        }
+        return new SnapshotInput(cpu, snapshot);
+    }
+
+    /**
+     * Checks that the state of all IO units and chips of the node can be
+     * saved. A snapshot without them can not be restored since their state
+     * and scheduled events would be lost.
+     * @throws IOException naming the components that are not snapshotable
+     */
+    public static void checkSnapshotable(MSP430Core cpu) throws IOException {
+        StringBuilder sb = null;
+        for (Map.Entry<String,Object> entry : cpu.getSnapshotComponents().entrySet()) {
+            if (!(entry.getValue() instanceof Snapshotable)) {
+                if (sb == null) {
+                    sb = new StringBuilder("snapshot not supported by");
+                } else {
+                    sb.append(',');
+                }
+                sb.append(" '").append(entry.getKey()).append('\'');
+            }
+        }
+        if (sb != null) {
+            throw new IOException(sb.toString());
+        }
+    }
+
+    static SnapshotOutput write(MSP430Core cpu, boolean delta, boolean rle, long id) throws IOException {
+        checkSnapshotable(cpu);
+        SnapshotOutput out = new SnapshotOutput(cpu, delta || rle ? 8192 : cpu.MAX_MEM + 4096);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(cpu.config.getClass().getName());
+        out.writeInt(cpu.MAX_MEM);
+        out.writeLong(cpu.cycles);
+        out.writeLong(id);
+
+        if (delta) {
+            writeMemoryDelta(cpu, out, rle);
+        } else {
+            out.beginSection(MEMORY_SECTION);
+            out.writeInt(cpu.MAX_MEM);
+            out.writeByte(rle ? MEMORY_RLE : MEMORY_RAW);
+            writeMemory(out, cpu.getMemoryImage(), 0, cpu.MAX_MEM, rle);
+            out.endSection();
+        }
+
+        for (Map.Entry<String,Object> entry : cpu.getSnapshotComponents().entrySet()) {
+            out.beginSection(entry.getKey());
+            ((Snapshotable) entry.getValue()).saveState(out);
+            out.endSection();
+        }
+
+        out.beginSection(EVENTS_SECTION);
+        TimeEvent[] events = cpu.eventQueue.getEvents();
+        out.writeInt(events.length);
+        for (TimeEvent event : events) {
+            out.writeByte(event.virtualTime ? SnapshotOutput.TIME_QUEUE : SnapshotOutput.CYCLE_QUEUE);
+            out.writeLong(event.time);
+            out.writeUTF(event.name != null ? event.name : event.getClass().getName());
+        }
+        out.endSection();
+
+        out.beginSection(CPU_SECTION);
+        cpu.saveState(out);
+        out.endSection();
+        out.writeUTF("");
+
+        ArrayList<TimeEvent> unsaved = out.getUnsavedEvents();
+        if (!unsaved.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (TimeEvent event : unsaved) {
+                sb.append(' ').append(event.getShort());
+            }
+            /* events scheduled from outside the node, such as sound output */
+            cpu.log("snapshot does not include events:" + sb);
+        }
+        return out;
+    }
+
+    private static void writeMemory(SnapshotOutput out, byte[] memory, int offset, int len, boolean rle)
+            throws IOException {
+        if (rle) {
+            out.writeMemoryRLE(memory, offset, len);
+        } else {
+            out.writeMemory(memory, offset, len);
+        }
+    }
+
+    private static void readMemory(SnapshotInput in, int encoding, byte[] memory, int offset, int len)
+            throws IOException {
+        if (encoding == MEMORY_RLE) {
+            in.readMemoryRLE(memory, offset, len);
+        } else {
+            in.readMemory(memory, offset, len);
+        }
+    }
+
+    /* Reads the memory directly into the memory pages, one page at a time */
+    private static void readMemoryPages(MSP430Core cpu, SnapshotInput in, int encoding, int size)
+            throws IOException {
+        if (size < 0 || size > cpu.MAX_MEM) {
+            throw new IOException("corrupt snapshot memory size " + size);
+        }
+        byte[] page = new byte[Memory.SEGMENT_SIZE];
+        for (int address = 0; address < size; address += Memory.SEGMENT_SIZE) {
+            int len = Math.min(Memory.SEGMENT_SIZE, size - address);
+            if (len < Memory.SEGMENT_SIZE) {
+                /* keep the rest of a partially saved page */
+                cpu.copyMemory(address, page, 0, Memory.SEGMENT_SIZE);
+            }
+            readMemory(in, encoding, page, 0, len);
+            cpu.setMemoryPage(address / Memory.SEGMENT_SIZE, page, 0);
+        }
+        in.endMemory();
+    }
+
+    private static int readMemoryEncoding(SnapshotInput in) throws IOException {
+        int encoding = in.readByte();
+        if (encoding != MEMORY_RAW && encoding != MEMORY_RLE) {
+            throw new IOException("unsupported memory encoding " + encoding);
+        }
+        return encoding;
+    }
+
+    private static void writeMemoryDelta(MSP430Core cpu, SnapshotOutput out, boolean rle) throws IOException {
+        boolean[] dirty = cpu.dirtySegments;
+        /* IO units may keep their registers in memory without going through
+           the memory segments so the IO segments are always included */
+        int ioSegments = (cpu.MAX_MEM_IO + Memory.SEGMENT_SIZE - 1) / Memory.SEGMENT_SIZE;
+        int count = 0;
+        for (int i = 0; i < dirty.length; i++) {
+            if (dirty[i] || i < ioSegments) {
+                count++;
+            }
+        }
+        out.beginSection(MEMORY_DELTA_SECTION);
+        out.writeLong(cpu.checkpointCycles);
+        out.writeLong(cpu.checkpointId);
+        out.writeInt(count);
+        out.writeByte(rle ? MEMORY_RLE : MEMORY_RAW);
+        byte[] page = new byte[Memory.SEGMENT_SIZE];
+        for (int i = 0; i < dirty.length; i++) {
+            if (dirty[i] || i < ioSegments) {
+                out.writeInt(i);
+                cpu.copyMemory(i * Memory.SEGMENT_SIZE, page, 0, Memory.SEGMENT_SIZE);
+                writeMemory(out, page, 0, Memory.SEGMENT_SIZE, rle);
+            }
+        }
+        out.endSection();
+    }
+
+    private static void readMemoryDelta(MSP430Core cpu, SnapshotInput in) throws IOException {
+        long base = in.readLong();
+        long baseId = in.readLong();
+        if (base != cpu.checkpointCycles) {
+            throw new IOException("delta snapshot is based on the snapshot at cycle " + base
+                    + ", not " + cpu.checkpointCycles);
+        }
+        if (baseId != cpu.checkpointId) {
+            throw new IOException("delta snapshot is based on another snapshot at cycle " + base);
+        }
+        int count = in.readInt();
+        int encoding = readMemoryEncoding(in);
+        int segments = cpu.MAX_MEM / Memory.SEGMENT_SIZE;
+        byte[] page = new byte[Memory.SEGMENT_SIZE];
+        for (int i = 0; i < count; i++) {
+            int segment = in.readInt();
+            if (segment < 0 || segment >= segments) {
+                throw new IOException("corrupt delta snapshot segment " + segment);
+            }
+            cpu.discardPage(segment);
+            readMemory(in, encoding, page, 0, Memory.SEGMENT_SIZE);
+            cpu.setMemoryPage(segment, page, 0);
+        }
+        in.endMemory();
+    }
+
+    static void read(MSP430Core cpu, SnapshotInput in, boolean lazy) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a snapshot file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        String config = in.readUTF();
+        if (!config.equals(cpu.config.getClass().getName())) {
+            throw new IOException("snapshot is for " + config + ", not " + cpu.config.getClass().getName());
+        }
+        if (in.readInt() != cpu.MAX_MEM) {
+            throw new IOException("snapshot memory size does not match");
+        }
+        checkSnapshotable(cpu);
+        long cycles = in.readLong();
+        long snapshotId = in.readLong();
+
+        Map<String,Object> components = cpu.getSnapshotComponents();
+        String id;
+        while ((id = in.readUTF()).length() > 0) {
+            int length = in.readInt();
+            int end = in.position() + length;
+            if (MEMORY_SECTION.equals(id)) {
+                int size = in.readInt();
+                int encoding = readMemoryEncoding(in);
+                if (lazy && encoding == MEMORY_RAW && size == cpu.MAX_MEM
+                        && in.buffer() != null && in.available() >= size) {
+                    cpu.setPageSource(in.buffer(), in.position());
+                } else {
+                    cpu.discardPages();
+                    cpu.flushDecodeCache();
+                    readMemoryPages(cpu, in, encoding, size);
+                }
+            } else if (MEMORY_DELTA_SECTION.equals(id)) {
+                cpu.flushDecodeCache();
+                readMemoryDelta(cpu, in);
+            } else if (EVENTS_SECTION.equals(id)) {
+                /* only for inspection - the events are restored by their owners */
+            } else if (CPU_SECTION.equals(id)) {
+                cpu.loadState(in);
+            } else {
+                Object component = components.get(id);
+                if (component instanceof Snapshotable) {
+                    ((Snapshotable) component).loadState(in);
+                } else {
+                    cpu.log("snapshot section '" + id + "' not found - ignored");
+                }
+            }
+            if (in.position() > end) {
+                throw new IOException("corrupt snapshot section '" + id + '\'');
+            }
+            in.position(end);
+        }
+        in.restoreEvents();
+        cpu.clearMemoryDirty(cycles, snapshotId);
+    }
+
+}
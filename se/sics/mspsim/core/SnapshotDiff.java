@@ -0,0 +1,748 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * SnapshotDiff
+ *
+ * Prints the differences between two snapshots.
+ */
+package se.sics.mspsim.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import se.sics.mspsim.util.ComponentRegistry;
+import se.sics.mspsim.util.ELF;
+import se.sics.mspsim.util.MapEntry;
+import se.sics.mspsim.util.MapTable;
+import se.sics.mspsim.util.Utils;
+
+/**
+ * Compares two snapshots and prints the changed memory ranges annotated
+ * with symbols, the changed registers of each IO unit, other changed
+ * component state, and the differences in pending events.
+ * <p>
+ * Both snapshots are streamed section by section. Memory is compared while
+ * being decoded and only component sections up to {@link #MAX_SECTION_SIZE}
+ * bytes are buffered, which means that the comparison runs in constant
+ * memory regardless of the snapshot size.
+ */
+public class SnapshotDiff {
+
+    /* larger component sections are compared while streamed */
+    public static final int MAX_SECTION_SIZE = 65536;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    /* number of changed bytes printed per memory range */
+    private static final int MAX_SHOWN_BYTES = 8;
+
+    private final PrintStream out;
+    private MapTable map;
+    private int maxRanges = 1000;
+
+    private int differences;
+    private int ranges;
+
+    /* IO unit registers are decoded by loading the saved unit state into
+       two throwaway cores of the snapshot configuration */
+    private String coreConfig;
+    private MSP430Core coreA;
+    private MSP430Core coreB;
+
+    public SnapshotDiff(PrintStream out) {
+        this.out = out;
+    }
+
+    public MapTable getMap() {
+        return map;
+    }
+
+    /**
+     * Sets the map table used to annotate addresses with symbols.
+     */
+    public void setMap(MapTable map) {
+        this.map = map;
+    }
+
+    public int getMaxRanges() {
+        return maxRanges;
+    }
+
+    /**
+     * Sets the maximal number of changed memory ranges to print.
+     */
+    public void setMaxRanges(int maxRanges) {
+        this.maxRanges = maxRanges;
+    }
+
+    /**
+     * Compares two snapshot files and prints the differences.
+     * @return the number of differences found
+     */
+    public int diff(File fileA, File fileB) throws IOException {
+        try (SnapshotReader a = new SnapshotReader(fileA);
+             SnapshotReader b = new SnapshotReader(fileB)) {
+            return diff(a, b);
+        }
+    }
+
+    private int diff(SnapshotReader a, SnapshotReader b) throws IOException {
+        differences = 0;
+        ranges = 0;
+        if (!a.config.equals(b.config)) {
+            difference("configuration: " + a.config + " -> " + b.config);
+        }
+        if (a.memorySize != b.memorySize) {
+            difference("memory size: " + a.memorySize + " -> " + b.memorySize);
+        }
+        if (a.cycles != b.cycles) {
+            out.println("cycles: " + a.cycles + " -> " + b.cycles);
+        }
+
+        String idA = a.nextSection();
+        String idB = b.nextSection();
+        while (idA != null || idB != null) {
+            if (idA != null && idB != null && !idA.equals(idB)) {
+                /* a component only present in one of the snapshots */
+                if (b.hasSection(idA)) {
+                    difference("section '" + idB + "' only in second snapshot");
+                    b.endSection();
+                    idB = b.nextSection();
+                } else {
+                    difference("section '" + idA + "' only in first snapshot");
+                    a.endSection();
+                    idA = a.nextSection();
+                }
+                continue;
+            }
+            if (idA == null) {
+                difference("section '" + idB + "' only in second snapshot");
+            } else if (idB == null) {
+                difference("section '" + idA + "' only in first snapshot");
+            } else if (Snapshot.MEMORY_SECTION.equals(idA)) {
+                diffMemory(a, b);
+            } else if (Snapshot.MEMORY_DELTA_SECTION.equals(idA)) {
+                diffMemoryDelta(a, b);
+            } else if (a.length > MAX_SECTION_SIZE || b.length > MAX_SECTION_SIZE) {
+                diffStream(idA, a, b);
+            } else {
+                diffSection(idA, a.readSection(), b.readSection(), a.config);
+            }
+            if (idA != null) {
+                a.endSection();
+                idA = a.nextSection();
+            }
+            if (idB != null) {
+                b.endSection();
+                idB = b.nextSection();
+            }
+        }
+        if (ranges > maxRanges) {
+            out.println("... " + (ranges - maxRanges) + " more changed memory ranges");
+        }
+        return differences;
+    }
+
+    private void difference(String message) {
+        differences++;
+        out.println(message);
+    }
+
+    private void diffMemory(SnapshotReader a, SnapshotReader b) throws IOException {
+        int sizeA = a.in.readInt();
+        int sizeB = b.in.readInt();
+        MemoryDecoder memA = new MemoryDecoder(a.in, a.in.readByte());
+        MemoryDecoder memB = new MemoryDecoder(b.in, b.in.readByte());
+        if (sizeA != sizeB) {
+            difference("saved memory size: " + sizeA + " -> " + sizeB);
+        }
+        diffMemory(memA, memB, 0, Math.min(sizeA, sizeB));
+    }
+
+    private void diffMemoryDelta(SnapshotReader a, SnapshotReader b) throws IOException {
+        long baseA = a.in.readLong();
+        long baseB = b.in.readLong();
+        if (baseA != baseB) {
+            out.println("delta base cycles: " + baseA + " -> " + baseB);
+        }
+        if (a.in.readLong() != b.in.readLong()) {
+            out.println("delta base: different snapshots");
+        }
+        int countA = a.in.readInt();
+        int countB = b.in.readInt();
+        MemoryDecoder memA = new MemoryDecoder(a.in, a.in.readByte());
+        MemoryDecoder memB = new MemoryDecoder(b.in, b.in.readByte());
+
+        /* the changed segments are saved in address order, each index
+           followed by the segment memory */
+        int segmentA = countA-- > 0 ? a.in.readInt() : Integer.MAX_VALUE;
+        int segmentB = countB-- > 0 ? b.in.readInt() : Integer.MAX_VALUE;
+        while (segmentA != Integer.MAX_VALUE || segmentB != Integer.MAX_VALUE) {
+            if (segmentA == segmentB) {
+                diffMemory(memA, memB, segmentA * Memory.SEGMENT_SIZE, Memory.SEGMENT_SIZE);
+                segmentA = countA-- > 0 ? a.in.readInt() : Integer.MAX_VALUE;
+                segmentB = countB-- > 0 ? b.in.readInt() : Integer.MAX_VALUE;
+            } else if (segmentA < segmentB) {
+                difference("$" + Utils.hex(segmentA * Memory.SEGMENT_SIZE, 4)
+                        + ": segment only changed in first delta");
+                memA.skip(Memory.SEGMENT_SIZE);
+                segmentA = countA-- > 0 ? a.in.readInt() : Integer.MAX_VALUE;
+            } else {
+                difference("$" + Utils.hex(segmentB * Memory.SEGMENT_SIZE, 4)
+                        + ": segment only changed in second delta");
+                memB.skip(Memory.SEGMENT_SIZE);
+                segmentB = countB-- > 0 ? b.in.readInt() : Integer.MAX_VALUE;
+            }
+        }
+    }
+
+    private void diffMemory(MemoryDecoder memA, MemoryDecoder memB, int offset, int len)
+            throws IOException {
+        int[] oldBytes = new int[MAX_SHOWN_BYTES];
+        int[] newBytes = new int[MAX_SHOWN_BYTES];
+        int start = -1;
+        int end = offset + len;
+        for (int address = offset; address < end; address++) {
+            int va = memA.next();
+            int vb = memB.next();
+            if (va != vb) {
+                if (start < 0) {
+                    start = address;
+                }
+                int index = address - start;
+                if (index < MAX_SHOWN_BYTES) {
+                    oldBytes[index] = va;
+                    newBytes[index] = vb;
+                }
+            } else if (start >= 0) {
+                printRange(start, address, oldBytes, newBytes);
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            printRange(start, end, oldBytes, newBytes);
+        }
+    }
+
+    private void printRange(int start, int end, int[] oldBytes, int[] newBytes) {
+        differences++;
+        if (++ranges > maxRanges) {
+            return;
+        }
+        int count = end - start;
+        StringBuilder sb = new StringBuilder();
+        sb.append('$').append(Utils.hex(start, 4));
+        if (count > 1) {
+            sb.append("-$").append(Utils.hex(end - 1, 4));
+        }
+        sb.append(" (").append(count).append(count == 1 ? " byte)" : " bytes)");
+        String symbol = getSymbol(start);
+        if (symbol != null) {
+            sb.append(' ').append(symbol);
+        }
+        int shown = Math.min(count, MAX_SHOWN_BYTES);
+        sb.append(':');
+        appendBytes(sb, oldBytes, shown);
+        if (count > shown) {
+            sb.append(" ...");
+        }
+        sb.append(" ->");
+        appendBytes(sb, newBytes, shown);
+        if (count > shown) {
+            sb.append(" ...");
+        }
+        out.println(sb);
+    }
+
+    private static void appendBytes(StringBuilder sb, int[] data, int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(' ').append(Utils.hex8(data[i]));
+        }
+    }
+
+    private String getSymbol(int address) {
+        if (map == null) {
+            return null;
+        }
+        MapEntry entry = map.getNearestEntry(address);
+        if (entry == null) {
+            return null;
+        }
+        int offset = address - entry.getAddress();
+        if (entry.getSize() > 0 && offset >= entry.getSize()) {
+            return null;
+        }
+        return offset == 0 ? entry.getName() : entry.getName() + '+' + offset;
+    }
+
+    private void diffStream(String id, SnapshotReader a, SnapshotReader b) throws IOException {
+        int len = Math.min(a.length, b.length);
+        int count = 0;
+        int first = -1;
+        for (int i = 0; i < len; i++) {
+            if (a.in.readUnsignedByte() != b.in.readUnsignedByte()) {
+                if (first < 0) {
+                    first = i;
+                }
+                count++;
+            }
+        }
+        count += Math.abs(a.length - b.length);
+        if (count > 0) {
+            if (first < 0) {
+                first = len;
+            }
+            difference(id + ": " + count + " bytes differ, first at offset " + first);
+        }
+    }
+
+    private void diffSection(String id, byte[] dataA, byte[] dataB, String config) throws IOException {
+        if (Snapshot.EVENTS_SECTION.equals(id)) {
+            diffEvents(dataA, dataB);
+            return;
+        }
+        if (Snapshot.CPU_SECTION.equals(id)) {
+            diffCPU(dataA, dataB);
+            return;
+        }
+        int len = Math.min(dataA.length, dataB.length);
+        int count = Math.abs(dataA.length - dataB.length);
+        int first = dataA.length != dataB.length ? len : -1;
+        for (int i = len - 1; i >= 0; i--) {
+            if (dataA[i] != dataB[i]) {
+                first = i;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        difference(id + ": " + count + " bytes of saved state differ, first at offset " + first);
+        if (id.startsWith("io:")) {
+            diffIORegisters(id, dataA, dataB, config);
+        }
+    }
+
+    private void diffIORegisters(String id, byte[] dataA, byte[] dataB, String config) {
+        try {
+            if (!config.equals(coreConfig)) {
+                coreA = createCore(config);
+                coreB = createCore(config);
+                coreConfig = config;
+            }
+            IOUnit unitA = loadUnit(coreA, id, dataA);
+            IOUnit unitB = loadUnit(coreB, id, dataB);
+            if (unitA == null || unitB == null) {
+                return;
+            }
+            for (int address = 0; address < coreA.MAX_MEM_IO; address += 2) {
+                if (coreA.ioSegment.getIOUnit(address) == unitA
+                        && coreB.ioSegment.getIOUnit(address) == unitB) {
+                    int va;
+                    int vb;
+                    try {
+                        va = unitA.read(address, true, coreA.cycles);
+                        vb = unitB.read(address, true, coreB.cycles);
+                    } catch (EmulationException e) {
+                        /* register not readable in this configuration */
+                        continue;
+                    }
+                    if (va != vb) {
+                        out.println("  $" + Utils.hex16(address) + ": $" + Utils.hex16(va)
+                                + " -> $" + Utils.hex16(vb));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            /* the registers can not be decoded - the section difference is still reported */
+            out.println("  (registers not decoded: " + e + ')');
+        }
+    }
+
+    private static MSP430Core createCore(String config) throws Exception {
+        MSP430Config cfg = (MSP430Config) Class.forName(config).getDeclaredConstructor().newInstance();
+        return new MSP430(0, new ComponentRegistry(), cfg);
+    }
+
+    private static IOUnit loadUnit(MSP430Core core, String id, byte[] data) throws IOException {
+        Object component = core.getSnapshotComponents().get(id);
+        if (!(component instanceof IOUnit) || !(component instanceof Snapshotable)) {
+            return null;
+        }
+        SnapshotInput in = new SnapshotInput(core, ByteBuffer.wrap(data));
+        ((Snapshotable) component).loadState(in);
+        return (IOUnit) component;
+    }
+
+    private void diffEvents(byte[] dataA, byte[] dataB) throws IOException {
+        ArrayList<String> eventsA = readEvents(dataA);
+        ArrayList<String> eventsB = readEvents(dataB);
+        Collections.sort(eventsA);
+        Collections.sort(eventsB);
+        int i = 0;
+        int j = 0;
+        while (i < eventsA.size() || j < eventsB.size()) {
+            int c = i >= eventsA.size() ? 1 : j >= eventsB.size() ? -1
+                    : eventsA.get(i).compareTo(eventsB.get(j));
+            if (c == 0) {
+                i++;
+                j++;
+            } else if (c < 0) {
+                difference("event - " + eventsA.get(i++));
+            } else {
+                difference("event + " + eventsB.get(j++));
+            }
+        }
+    }
+
+    private static ArrayList<String> readEvents(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new SnapshotInput.BufferInput(ByteBuffer.wrap(data)));
+        int count = in.readInt();
+        ArrayList<String> events = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            int queue = in.readByte();
+            long time = in.readLong();
+            String name = in.readUTF();
+            /* fixed width time to keep the sort order numeric */
+            events.add(String.format("%s %20d %s",
+                    queue == SnapshotOutput.CYCLE_QUEUE ? "cycle" : "time ", time, name));
+        }
+        return events;
+    }
+
+    private void diffCPU(byte[] dataA, byte[] dataB) throws IOException {
+        DataInputStream inA = new DataInputStream(new SnapshotInput.BufferInput(ByteBuffer.wrap(dataA)));
+        DataInputStream inB = new DataInputStream(new SnapshotInput.BufferInput(ByteBuffer.wrap(dataB)));
+        for (int i = 0; i < 16; i++) {
+            int va = inA.readInt();
+            int vb = inB.readInt();
+            if (va != vb) {
+                String name = i < MSP430Constants.REGISTER_NAMES.length
+                        ? MSP430Constants.REGISTER_NAMES[i] : "R" + i;
+                StringBuilder sb = new StringBuilder();
+                sb.append(name).append(": $").append(Utils.hex(va, 4)).append(" -> $").append(Utils.hex(vb, 4));
+                String symbol = i == 0 ? getSymbol(vb) : null;
+                if (symbol != null) {
+                    sb.append(" (").append(symbol).append(')');
+                }
+                difference(sb.toString());
+            }
+        }
+        /* cycle counters and the remaining processor state */
+        int count = Math.abs(dataA.length - dataB.length);
+        int len = Math.min(dataA.length, dataB.length);
+        for (int i = 16 * 4 + 16; i < len; i++) {
+            if (dataA[i] != dataB[i]) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            difference("cpu: " + count + " bytes of other processor state differ");
+        }
+    }
+
+    /**
+     * Streaming reader of the snapshot sections.
+     */
+    private static class SnapshotReader implements AutoCloseable {
+
+        private final File file;
+        private final SectionInput section;
+        final DataInputStream in;
+        final String config;
+        final int memorySize;
+        final long cycles;
+
+        private final ArrayList<String> ids = new ArrayList<String>();
+        private int index;
+        int length;
+
+        SnapshotReader(File file) throws IOException {
+            this.file = file;
+            section = new SectionInput(open(file));
+            in = new DataInputStream(section);
+            if (in.readInt() != Snapshot.MAGIC) {
+                in.close();
+                throw new IOException(file + " is not a snapshot file");
+            }
+            int version = in.readInt();
+            if (version != Snapshot.VERSION) {
+                in.close();
+                throw new IOException(file + ": unsupported snapshot version " + version);
+            }
+            config = in.readUTF();
+            memorySize = in.readInt();
+            cycles = in.readLong();
+            in.readLong();
+            scanSectionIds();
+        }
+
+        private static InputStream open(File file) throws IOException {
+            InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            input.mark(2);
+            int magic = (input.read() << 8) | input.read();
+            input.reset();
+            if (magic == 0x1f8b) {
+                input = new BufferedInputStream(new GZIPInputStream(input, BUFFER_SIZE), BUFFER_SIZE);
+            }
+            return input;
+        }
+
+        /* a separate pass over the section headers makes it possible to
+           match sections present in only one of the snapshots */
+        private void scanSectionIds() throws IOException {
+            try (DataInputStream scan = new DataInputStream(open(file))) {
+                scan.readInt();
+                scan.readInt();
+                scan.readUTF();
+                scan.readInt();
+                scan.readLong();
+                scan.readLong();
+                String id;
+                while ((id = scan.readUTF()).length() > 0) {
+                    ids.add(id);
+                    int len = scan.readInt();
+                    skipFully(scan, len);
+                }
+            }
+        }
+
+        boolean hasSection(String id) {
+            return ids.indexOf(id) >= index;
+        }
+
+        String nextSection() throws IOException {
+            section.limit = -1;
+            String id = in.readUTF();
+            if (id.length() == 0) {
+                return null;
+            }
+            length = in.readInt();
+            if (length < 0) {
+                throw new IOException(file + ": corrupt snapshot section '" + id + '\'');
+            }
+            index++;
+            section.limit = length;
+            return id;
+        }
+
+        byte[] readSection() throws IOException {
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return data;
+        }
+
+        void endSection() throws IOException {
+            skipFully(in, section.limit);
+            section.limit = -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static void skipFully(DataInputStream in, long len) throws IOException {
+        while (len > 0) {
+            int skipped = in.skipBytes((int) Math.min(len, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            len -= skipped;
+        }
+    }
+
+    /**
+     * Input stream that limits reads to the remaining bytes of the current
+     * section. A negative limit means no section is open.
+     */
+    private static class SectionInput extends InputStream {
+
+        private final InputStream input;
+        long limit = -1;
+
+        SectionInput(InputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (limit == 0) {
+                return -1;
+            }
+            int b = input.read();
+            if (b >= 0 && limit > 0) {
+                limit--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (limit == 0) {
+                return -1;
+            }
+            if (limit > 0 && len > limit) {
+                len = (int) limit;
+            }
+            int n = input.read(b, off, len);
+            if (n > 0 && limit > 0) {
+                limit -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (limit >= 0 && n > limit) {
+                n = limit;
+            }
+            long skipped = input.skip(n);
+            if (skipped > 0 && limit > 0) {
+                limit -= skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Decodes raw or run length encoded memory one byte at a time.
+     */
+    private static class MemoryDecoder {
+
+        private final DataInputStream in;
+        private final boolean rle;
+        private int literals;
+        private int run;
+        private int runValue;
+
+        MemoryDecoder(DataInputStream in, int encoding) throws IOException {
+            if (encoding != Snapshot.MEMORY_RAW && encoding != Snapshot.MEMORY_RLE) {
+                throw new IOException("unsupported memory encoding " + encoding);
+            }
+            this.in = in;
+            this.rle = encoding == Snapshot.MEMORY_RLE;
+        }
+
+        int next() throws IOException {
+            if (!rle) {
+                return in.readUnsignedByte();
+            }
+            if (literals > 0) {
+                literals--;
+                return in.readUnsignedByte();
+            }
+            if (run > 0) {
+                run--;
+                return runValue;
+            }
+            int control = in.readUnsignedByte();
+            if (control < SnapshotOutput.MAX_LITERALS) {
+                literals = control;
+                return in.readUnsignedByte();
+            }
+            if (control != SnapshotOutput.RLE_ZEROS && control != SnapshotOutput.RLE_ONES) {
+                throw new IOException("corrupt run length encoded memory");
+            }
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 28) {
+                    throw new IOException("corrupt run length encoded memory");
+                }
+                int b = in.readUnsignedByte();
+                length |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (length <= 0) {
+                throw new IOException("corrupt run length encoded memory");
+            }
+            runValue = control == SnapshotOutput.RLE_ZEROS ? 0x00 : 0xff;
+            run = length - 1;
+            return runValue;
+        }
+
+        void skip(int len) throws IOException {
+            for (int i = 0; i < len; i++) {
+                next();
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: SnapshotDiff [-elf <file> | -map <file>] <snapshot1> <snapshot2>");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        MapTable map = null;
+        int index = 0;
+        while (index < args.length && args[index].startsWith("-")) {
+            if (index + 1 >= args.length) {
+                usage();
+            }
+            if ("-elf".equals(args[index])) {
+                map = ELF.readELF(args[index + 1]).getMap();
+            } else if ("-map".equals(args[index])) {
+                map = new MapTable(args[index + 1]);
+            } else {
+                usage();
+            }
+            index += 2;
+        }
+        if (args.length - index != 2) {
+            usage();
+        }
+        SnapshotDiff diff = new SnapshotDiff(System.out);
+        diff.setMap(map);
+        int differences = diff.diff(new File(args[index]), new File(args[index + 1]));
+        System.out.println(differences + " differences");
+        System.exit(differences > 0 ? 1 : 0);
+    }
+
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ */
+package se.sics.mspsim.core;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Input stream used when restoring a snapshot, either from a buffer or
+ * directly from a stream. Time events read by the components are collected
+ * and rescheduled in their original order when all components have been
+ * restored.
+ */
+public class SnapshotInput extends DataInputStream {
+
+    static class BufferInput extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int len = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /* Counts the bytes read to keep track of the position in the snapshot */
+    private static class StreamInput extends FilterInputStream {
+
+        long count;
+
+        StreamInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) {
+                count += skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static class PendingEvent {
+        final TimeEvent event;
+        final long time;
+        final boolean virtualTime;
+        final int order;
+        long deadline;
+
+        PendingEvent(TimeEvent event, long time, boolean virtualTime, int order) {
+            this.event = event;
+            this.time = time;
+            this.virtualTime = virtualTime;
+            this.order = order;
+        }
+    }
+
+    private final MSP430Core cpu;
+    private final ByteBuffer buffer;
+    private final StreamInput stream;
+    private final ArrayList<PendingEvent> events = new ArrayList<PendingEvent>();
+
+    /* remaining bytes of a run length encoded block that continues in the next read */
+    private int rleRemaining;
+    private int rleControl;
+
+    SnapshotInput(MSP430Core cpu, ByteBuffer buffer) {
+        super(new BufferInput(buffer));
+        this.cpu = cpu;
+        this.buffer = buffer;
+        this.stream = null;
+    }
+
+    SnapshotInput(MSP430Core cpu, InputStream input) {
+        super(new StreamInput(input));
+        this.cpu = cpu;
+        this.buffer = null;
+        this.stream = (StreamInput) in;
+    }
+
+    public MSP430Core getCPU() {
+        return cpu;
+    }
+
+    /**
+     * Restores the scheduling state of a time event saved with
+     * {@link SnapshotOutput#writeTimeEvent(TimeEvent)}. The event is
+     * rescheduled when the complete snapshot has been read.
+     */
+    public void readTimeEvent(TimeEvent event) throws IOException {
+        int queue = readByte();
+        long time = readLong();
+        event.remove();
+        event.time = time;
+        if (queue != SnapshotOutput.NOT_SCHEDULED) {
+            int order = readInt();
+            events.add(new PendingEvent(event, time, queue == SnapshotOutput.TIME_QUEUE, order));
+        }
+    }
+
+    public void readIntArray(int[] data) throws IOException {
+        readIntArray(data, 0, data.length);
+    }
+
+    public void readIntArray(int[] data, int offset, int len) throws IOException {
+        for (int i = 0; i < len; i++) {
+            data[offset + i] = readInt();
+        }
+    }
+
+    /**
+     * Reads memory written by {@link SnapshotOutput#writeMemory(byte[], int, int)}.
+     */
+    public void readMemory(byte[] memory, int offset, int len) throws IOException {
+        readFully(memory, offset, len);
+    }
+
+    /**
+     * Reads memory written by {@link SnapshotOutput#writeMemoryRLE(byte[], int, int)}.
+     * The memory can be read in parts, i.e. one memory page at a time, as
+     * runs continue in the next read.
+     */
+    public void readMemoryRLE(byte[] memory, int offset, int len) throws IOException {
+        int end = offset + len;
+        while (offset < end) {
+            if (rleRemaining == 0) {
+                rleControl = readUnsignedByte();
+                if (rleControl < SnapshotOutput.MAX_LITERALS) {
+                    rleRemaining = rleControl + 1;
+                } else if (rleControl == SnapshotOutput.RLE_ZEROS || rleControl == SnapshotOutput.RLE_ONES) {
+                    int run = 0;
+                    for (int shift = 0; ; shift += 7) {
+                        if (shift > 28) {
+                            throw new IOException("corrupt run length encoded memory");
+                        }
+                        int b = readUnsignedByte();
+                        run |= (b & 0x7f) << shift;
+                        if ((b & 0x80) == 0) {
+                            break;
+                        }
+                    }
+                    if (run <= 0) {
+                        throw new IOException("corrupt run length encoded memory");
+                    }
+                    rleRemaining = run;
+                } else {
+                    throw new IOException("corrupt run length encoded memory");
+                }
+            }
+            int count = Math.min(rleRemaining, end - offset);
+            if (rleControl < SnapshotOutput.MAX_LITERALS) {
+                readFully(memory, offset, count);
+            } else {
+                Arrays.fill(memory, offset, offset + count, (byte) (rleControl == SnapshotOutput.RLE_ZEROS ? 0x00 : 0xff));
+            }
+            offset += count;
+            rleRemaining -= count;
+        }
+    }
+
+    /* Checks that no run length encoded block continues past the memory */
+    void endMemory() throws IOException {
+        if (rleRemaining != 0) {
+            rleRemaining = 0;
+            throw new IOException("corrupt run length encoded memory");
+        }
+    }
+
+    public void readBooleanArray(boolean[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readBoolean();
+        }
+    }
+
+    /* Returns the snapshot buffer or null if reading from a stream */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int position() {
+        return buffer != null ? buffer.position() : (int) stream.count;
+    }
+
+    /* Moves to a later position, i.e. skips the rest of a section */
+    void position(int position) throws IOException {
+        if (buffer != null) {
+            buffer.position(position);
+            return;
+        }
+        while (stream.count < position) {
+            if (skipBytes((int) (position - stream.count)) <= 0 && read() < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /* Reschedule all read events in the order they had when saved */
+    void restoreEvents() {
+        cpu.eventQueue.removeAll();
+        for (PendingEvent pe : events) {
+            pe.deadline = pe.virtualTime ? cpu.convertVTime(pe.time) : pe.time;
+        }
+        events.sort((a, b) -> a.deadline != b.deadline ? Long.compare(a.deadline, b.deadline)
+                : Integer.compare(a.order, b.order));
+        TimeEvent[] sorted = new TimeEvent[events.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            PendingEvent pe = events.get(i);
+            pe.event.time = pe.time;
+            pe.event.deadline = pe.deadline;
+            pe.event.virtualTime = pe.virtualTime;
+            sorted[i] = pe.event;
+        }
+        cpu.eventQueue.restoreEvents(sorted);
+        events.clear();
+    }
+
+}
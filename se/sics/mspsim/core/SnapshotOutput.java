@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ */
+package se.sics.mspsim.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Output stream used when saving a snapshot. All data is collected in memory
+ * and written to the channel in one go when the snapshot is complete.
+ */
+public class SnapshotOutput extends DataOutputStream {
+
+    static final int NOT_SCHEDULED = 0;
+    static final int CYCLE_QUEUE = 1;
+    static final int TIME_QUEUE = 2;
+
+    /* run length encoding of memory, see Snapshot */
+    static final int RLE_ZEROS = 0x80;
+    static final int RLE_ONES = 0x81;
+    static final int MAX_LITERALS = 0x80;
+    /* shorter runs are cheaper as literals */
+    private static final int MIN_RUN = 4;
+
+    /* A growable buffer where section lengths can be patched afterwards */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        void setInt(int pos, int value) {
+            buf[pos] = (byte) (value >>> 24);
+            buf[pos + 1] = (byte) (value >>> 16);
+            buf[pos + 2] = (byte) (value >>> 8);
+            buf[pos + 3] = (byte) value;
+        }
+
+        void writePacked(byte[] data, int offset, int len) {
+            ensureCapacity(len);
+            System.arraycopy(data, offset, buf, count, len);
+            count += len;
+        }
+
+        void writeRLE(byte[] data, int offset, int len) {
+            int end = offset + len;
+            int literal = offset;
+            int i = offset;
+            while (i < end) {
+                int value = data[i] & 0xff;
+                int run = 1;
+                if (value == 0x00 || value == 0xff) {
+                    while (i + run < end && (data[i + run] & 0xff) == value) {
+                        run++;
+                    }
+                }
+                if (run >= MIN_RUN) {
+                    writeLiterals(data, literal, i);
+                    ensureCapacity(6);
+                    buf[count++] = (byte) (value == 0 ? RLE_ZEROS : RLE_ONES);
+                    int length = run;
+                    for (; length > 0x7f; length >>>= 7) {
+                        buf[count++] = (byte) (length | 0x80);
+                    }
+                    buf[count++] = (byte) length;
+                    literal = i + run;
+                }
+                i += run;
+            }
+            writeLiterals(data, literal, end);
+        }
+
+        private void writeLiterals(byte[] data, int start, int end) {
+            while (start < end) {
+                int len = Math.min(end - start, MAX_LITERALS);
+                ensureCapacity(len + 1);
+                buf[count++] = (byte) (len - 1);
+                System.arraycopy(data, start, buf, count, len);
+                count += len;
+                start += len;
+            }
+        }
+
+        private void ensureCapacity(int len) {
+            if (count + len > buf.length) {
+                byte[] tmp = new byte[Math.max(buf.length * 2, count + len)];
+                System.arraycopy(buf, 0, tmp, 0, count);
+                buf = tmp;
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private final MSP430Core cpu;
+    private final Buffer buffer;
+    private final IdentityHashMap<TimeEvent,Integer> unsavedEvents = new IdentityHashMap<TimeEvent,Integer>();
+    private int sectionStart = -1;
+
+    SnapshotOutput(MSP430Core cpu, int sizeHint) {
+        this(cpu, new Buffer(sizeHint));
+    }
+
+    private SnapshotOutput(MSP430Core cpu, Buffer buffer) {
+        super(buffer);
+        this.cpu = cpu;
+        this.buffer = buffer;
+        TimeEvent[] events = cpu.eventQueue.getEvents();
+        for (int i = 0; i < events.length; i++) {
+            unsavedEvents.put(events[i], i);
+        }
+    }
+
+    public MSP430Core getCPU() {
+        return cpu;
+    }
+
+    /**
+     * Saves the scheduling state of a time event: in which time base it is
+     * scheduled, at what time, and its position in the queue so that events
+     * with the same deadline are executed in the same order after restore.
+     */
+    public void writeTimeEvent(TimeEvent event) throws IOException {
+        EventScheduler queue = event.scheduledIn;
+        if (queue == null) {
+            writeByte(NOT_SCHEDULED);
+        } else {
+            writeByte(event.virtualTime ? TIME_QUEUE : CYCLE_QUEUE);
+        }
+        writeLong(event.time);
+        if (queue != null) {
+            Integer order = unsavedEvents.remove(event);
+            writeInt(order != null ? order : -1);
+        }
+    }
+
+    public void writeIntArray(int[] data) throws IOException {
+        writeIntArray(data, 0, data.length);
+    }
+
+    public void writeIntArray(int[] data, int offset, int len) throws IOException {
+        for (int i = 0; i < len; i++) {
+            writeInt(data[offset + i]);
+        }
+    }
+
+    /**
+     * Writes memory with one byte per address.
+     */
+    public void writeMemory(byte[] memory, int offset, int len) throws IOException {
+        buffer.writePacked(memory, offset, len);
+    }
+
+    /**
+     * Writes memory as {@link #writeMemory(byte[], int, int)} but with runs
+     * of 0x00 and 0xff bytes run length encoded.
+     */
+    public void writeMemoryRLE(byte[] memory, int offset, int len) throws IOException {
+        buffer.writeRLE(memory, offset, len);
+    }
+
+    public void writeBooleanArray(boolean[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            writeBoolean(data[i]);
+        }
+    }
+
+    void beginSection(String id) throws IOException {
+        if (sectionStart >= 0) {
+            throw new IllegalStateException("section already started");
+        }
+        writeUTF(id);
+        sectionStart = buffer.size();
+        writeInt(0);
+    }
+
+    void endSection() {
+        buffer.setInt(sectionStart, buffer.size() - sectionStart - 4);
+        sectionStart = -1;
+    }
+
+    /* Returns the scheduled events that no component has saved */
+    ArrayList<TimeEvent> getUnsavedEvents() {
+        return new ArrayList<TimeEvent>(unsavedEvents.keySet());
+    }
+
+    int length() {
+        return buffer.size();
+    }
+
+    ByteBuffer toByteBuffer() {
+        return buffer.toByteBuffer();
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        buffer.writeTo(out);
+    }
+
+    void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer data = buffer.toByteBuffer();
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+}
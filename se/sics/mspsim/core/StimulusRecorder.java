@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * StimulusRecorder
+ *
+ * Records the external inputs of a node.
+ */
+package se.sics.mspsim.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Records every input that enters a node from outside, with its cycle
+ * timestamp, to a binary append-only log that can be re-injected into the
+ * node by {@link StimulusReplayer}. The recorded inputs are radio bytes
+ * received from the air, bytes received by serial ports, pin states set on
+ * IO ports, button presses and ADC samples.
+ * <p>
+ * An input is external when it is given between steps of the emulation or
+ * from another thread than the one executing the node. The same calls made
+ * by chips while the node executes, or while another input is handled, are
+ * part of the deterministic emulation and are not recorded.
+ * <p>
+ * Log format:
+ * <pre>
+ *   int    magic "MSPR"
+ *   int    version
+ *   UTF    configuration class name
+ *   long   cycles when the recording started
+ * followed by records until end of file:
+ *   byte   type
+ *   if type is SOURCE:
+ *     UTF  id of the next source, as used in snapshots
+ *   else:
+ *     varint cycles since the previous record
+ *     varint source index, in order of definition
+ *     varint value
+ * </pre>
+ * Varints are stored with 7 bits per byte, least significant first.
+ */
+public class StimulusRecorder {
+
+    public static final int MAGIC = 0x4d535052;
+    public static final int VERSION = 1;
+
+    static final int SOURCE = 0;
+    /** Radio byte received from the air. */
+    public static final int RADIO = 1;
+    /** Byte received by a serial port. */
+    public static final int SERIAL = 2;
+    /** Pin state set on an IO port: pin * 2 + 1 for high. */
+    public static final int PIN = 3;
+    /** Sample read by an ADC: channel * 65536 + sample. */
+    public static final int ADC = 4;
+    /** Button pressed (1) or released (0). */
+    public static final int BUTTON = 5;
+
+    private final MSP430Core cpu;
+    private final DataOutputStream out;
+    private final Map<Object,String> ids = new IdentityHashMap<Object,String>();
+    private final Map<Object,Integer> sources = new IdentityHashMap<Object,Integer>();
+
+    private long lastCycles;
+    private long recordCount;
+
+    /* the thread handling an external input, during which inputs are not recorded */
+    private Thread inputThread;
+
+    /**
+     * Starts recording the external inputs of the node to the specified file.
+     */
+    public StimulusRecorder(MSP430Core cpu, File file) throws IOException {
+        if (cpu.stimulusRecorder != null) {
+            throw new IllegalStateException("already recording stimuli");
+        }
+        this.cpu = cpu;
+        for (Map.Entry<String,Object> entry : cpu.getSnapshotComponents().entrySet()) {
+            ids.put(entry.getValue(), entry.getKey());
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(cpu.config.getClass().getName());
+        lastCycles = cpu.cycles;
+        out.writeLong(lastCycles);
+        cpu.stimulusRecorder = this;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Called by a component when it receives an input. Records the input
+     * if it comes from outside of the node and in that case returns true,
+     * after which the caller must call {@link #exit()} when it has handled
+     * the input.
+     */
+    public synchronized boolean enter(Object source, int type, int value) {
+        Thread current = Thread.currentThread();
+        if (current == cpu.emulationThread || current == inputThread) {
+            return false;
+        }
+        record(source, type, value);
+        if (inputThread != null) {
+            /* another thread is already handling an input */
+            return false;
+        }
+        inputThread = current;
+        return true;
+    }
+
+    public synchronized void exit() {
+        inputThread = null;
+    }
+
+    /**
+     * Records a sample read by an ADC during the emulation.
+     */
+    public synchronized void recordSample(Object adc, int channel, int sample) {
+        record(adc, ADC, (channel << 16) | (sample & 0xffff));
+    }
+
+    private void record(Object source, int type, int value) {
+        if (cpu.stimulusRecorder != this) {
+            /* closed */
+            return;
+        }
+        try {
+            Integer index = sources.get(source);
+            if (index == null) {
+                String id = ids.get(source);
+                if (id == null) {
+                    cpu.log("no stimulus source id for " + source + " - input not recorded");
+                    return;
+                }
+                index = sources.size();
+                sources.put(source, index);
+                out.writeByte(SOURCE);
+                out.writeUTF(id);
+            }
+            /* inputs from other threads may see a slightly older cycle count */
+            long cycles = Math.max(cpu.cycles, lastCycles);
+            out.writeByte(type);
+            writeVarint(cycles - lastCycles);
+            writeVarint(index);
+            writeVarint(value & 0xffffffffL);
+            lastCycles = cycles;
+            recordCount++;
+        } catch (IOException e) {
+            cpu.log("failed to record stimulus: " + e);
+            close();
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while (value >= 0x80) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Stops recording and closes the log.
+     */
+    public synchronized void close() {
+        if (cpu.stimulusRecorder == this) {
+            cpu.stimulusRecorder = null;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            cpu.log("failed to close stimulus log: " + e);
+        }
+    }
+
+}
@@ -0,0 +1,324 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * StimulusReplayer
+ *
+ * Re-injects recorded external inputs into a node.
+ */
+package se.sics.mspsim.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import se.sics.mspsim.chip.Button;
+import se.sics.mspsim.chip.RFListener;
+
+/**
+ * Replays a log written by {@link StimulusRecorder}, re-injecting each
+ * recorded input at the cycle it was recorded. The node must be in the
+ * state it was in when the recording started, for example restored from a
+ * snapshot or reset with the same firmware, for the replay to be
+ * deterministic.
+ * <p>
+ * Recorded ADC samples are not scheduled but returned in order to the ADC
+ * conversions of the replayed node, which happen at the same cycles as
+ * during the recording.
+ */
+public class StimulusReplayer {
+
+    private static class Stimulus {
+        final long cycles;
+        final Object target;
+        final int type;
+        final int value;
+
+        Stimulus(long cycles, Object target, int type, int value) {
+            this.cycles = cycles;
+            this.target = target;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    private class ReplayInput implements ADCInput {
+        final ADCInput input;
+        final ArrayDeque<Integer> samples = new ArrayDeque<Integer>();
+        int lastSample;
+
+        ReplayInput(ADCInput input) {
+            this.input = input;
+        }
+
+        @Override
+        public int nextData() {
+            if (samples.isEmpty()) {
+                /* read ahead until a sample for this channel is found */
+                while (samples.isEmpty() && readRecord()) {
+                }
+                schedule();
+            }
+            if (!samples.isEmpty()) {
+                lastSample = samples.poll();
+            } else if (input != null) {
+                lastSample = input.nextData();
+            }
+            return lastSample;
+        }
+    }
+
+    private final MSP430Core cpu;
+    private final File file;
+    private final DataInputStream in;
+    private final ArrayList<Object> sources = new ArrayList<Object>();
+    private final Map<String,Object> components;
+    private final Map<ADC12,ReplayInput[]> adcInputs = new IdentityHashMap<ADC12,ReplayInput[]>();
+    private final ArrayDeque<Stimulus> pending = new ArrayDeque<Stimulus>();
+
+    private long lastCycles;
+    private long replayCount;
+    private boolean endOfLog;
+
+    private final TimeEvent replayEvent = new TimeEvent(0, "StimulusReplay") {
+        @Override
+        public void execute(long t) {
+            replay(t);
+        }
+    };
+
+    /**
+     * Starts replaying the recorded inputs in the specified log.
+     */
+    public StimulusReplayer(MSP430Core cpu, File file) throws IOException {
+        if (cpu.stimulusReplayer != null) {
+            throw new IllegalStateException("already replaying stimuli");
+        }
+        this.cpu = cpu;
+        this.file = file;
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != StimulusRecorder.MAGIC) {
+                throw new IOException("not a stimulus log");
+            }
+            int version = in.readInt();
+            if (version != StimulusRecorder.VERSION) {
+                throw new IOException("unsupported stimulus log version " + version);
+            }
+            String config = in.readUTF();
+            if (!config.equals(cpu.config.getClass().getName())) {
+                throw new IOException("stimulus log is for " + config + ", not " + cpu.config.getClass().getName());
+            }
+            lastCycles = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        if (lastCycles != cpu.cycles) {
+            cpu.log("stimulus recording started at cycle " + lastCycles + " but node is at cycle " + cpu.cycles);
+        }
+        components = cpu.getSnapshotComponents();
+
+        for (ADC12 adc : cpu.getIOUnits(ADC12.class)) {
+            ReplayInput[] inputs = new ReplayInput[16];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = new ReplayInput(adc.getADCInput(i));
+                adc.setADCInput(i, inputs[i]);
+            }
+            adcInputs.put(adc, inputs);
+        }
+        cpu.stimulusReplayer = this;
+        schedule();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getReplayCount() {
+        return replayCount;
+    }
+
+    /**
+     * Returns true when all recorded inputs have been replayed.
+     */
+    public boolean isFinished() {
+        return endOfLog && pending.isEmpty();
+    }
+
+    /* reads the next record and returns false at end of log */
+    private boolean readRecord() {
+        if (endOfLog) {
+            return false;
+        }
+        try {
+            int type = in.read();
+            if (type < 0) {
+                endOfLog = true;
+                in.close();
+                return false;
+            }
+            if (type == StimulusRecorder.SOURCE) {
+                String id = in.readUTF();
+                Object source = components.get(id);
+                if (source == null) {
+                    cpu.log("stimulus source '" + id + "' not found - its inputs are ignored");
+                }
+                sources.add(source);
+                return true;
+            }
+            lastCycles += readVarint();
+            int index = (int) readVarint();
+            int value = (int) readVarint();
+            if (index < 0 || index >= sources.size()) {
+                throw new IOException("corrupt stimulus log");
+            }
+            Object target = sources.get(index);
+            if (target == null) {
+                return true;
+            }
+            if (type == StimulusRecorder.ADC) {
+                ReplayInput[] inputs = adcInputs.get(target);
+                if (inputs != null) {
+                    inputs[(value >>> 16) & 0xf].samples.add(value & 0xffff);
+                }
+            } else {
+                pending.add(new Stimulus(lastCycles, target, type, value));
+            }
+            return true;
+        } catch (IOException e) {
+            cpu.log("failed to read stimulus log: " + e);
+            endOfLog = true;
+            try {
+                in.close();
+            } catch (IOException e2) {
+                // Ignore close errors
+            }
+            return false;
+        }
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 63) {
+                throw new IOException("corrupt stimulus log");
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private Stimulus nextStimulus() {
+        while (pending.isEmpty() && readRecord()) {
+            /* find the next input to inject */
+        }
+        return pending.peek();
+    }
+
+    /* also called by the CPU at reset which clears all scheduled events */
+    void schedule() {
+        Stimulus next = nextStimulus();
+        if (next != null && !replayEvent.isScheduled()) {
+            cpu.scheduleCycleEvent(replayEvent, next.cycles);
+        }
+    }
+
+    private void replay(long cycles) {
+        Stimulus next;
+        while ((next = nextStimulus()) != null) {
+            if (next.cycles > cycles) {
+                cpu.scheduleCycleEvent(replayEvent, next.cycles);
+                break;
+            }
+            pending.poll();
+            inject(next);
+            replayCount++;
+        }
+    }
+
+    private void inject(Stimulus stimulus) {
+        switch (stimulus.type) {
+        case StimulusRecorder.RADIO:
+            ((RFListener) stimulus.target).receivedByte((byte) stimulus.value);
+            break;
+        case StimulusRecorder.SERIAL:
+            ((USARTSource) stimulus.target).byteReceived(stimulus.value);
+            break;
+        case StimulusRecorder.PIN:
+            ((IOPort) stimulus.target).setPinState(stimulus.value >> 1,
+                    (stimulus.value & 1) != 0 ? IOPort.PinState.HI : IOPort.PinState.LOW);
+            break;
+        case StimulusRecorder.BUTTON:
+            ((Button) stimulus.target).setPressed(stimulus.value != 0);
+            break;
+        default:
+            cpu.log("unknown stimulus type " + stimulus.type + " - ignored");
+        }
+    }
+
+    /**
+     * Stops the replay and restores the original ADC inputs.
+     */
+    public void close() {
+        replayEvent.remove();
+        if (cpu.stimulusReplayer == this) {
+            cpu.stimulusReplayer = null;
+        }
+        for (Map.Entry<ADC12,ReplayInput[]> entry : adcInputs.entrySet()) {
+            ReplayInput[] inputs = entry.getValue();
+            for (int i = 0; i < inputs.length; i++) {
+                entry.getKey().setADCInput(i, inputs[i].input);
+            }
+        }
+        adcInputs.clear();
+        pending.clear();
+        endOfLog = true;
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+    }
+
+}
@@ -29,7 +29,9 @@
 
 package se.sics.mspsim.core;
 
-public class SysReg extends IOUnit {
+import java.io.IOException;
+
+public class SysReg extends IOUnit implements Snapshotable {
 	public static int ADDRESS = 0x180;
 	public static int SIZE = 0x1f;
 
@@ -50,7 +52,7 @@ System NMI vector generator SYSSNIV 1Ch
 Reset vector generator SYSRSTIV 1Eh
 	 */
 
-	public SysReg(MSP430Core cpu, int[] memory) {
+	public SysReg(MSP430Core cpu, byte[] memory) {
 		super("SysReg", "System registers", cpu, memory, SysReg.ADDRESS);
 		reset(0);
 	}
@@ -62,19 +64,28 @@ Reset vector generator SYSRSTIV 1Eh
 		if (DEBUG)
 			log(this.getName() + ": Write to: "
 					+ String.format("0x%05x = 0x%05x", address, value));
-		memory[address] = value;
+		writeMemory(address, value, word);
 	}
 
 	public int read(int address, boolean word, long cycles) {
 		if (DEBUG)
 			log(this.getName()
 					+ ": Read from: "
-					+ String.format("0x%05x = 0x%05x", address, memory[address]));
-		return memory[address];
+					+ String.format("0x%05x = 0x%05x", address, readMemory(address, word)));
+		return readMemory(address, word);
 	}
 
 	public void interruptServiced(int vector) {
 		if (DEBUG)
 			log(this.getName() + ": Interrupt services vector: " + vector);
 	}
+
+	/* the registers are kept in the IO memory which is part of the memory snapshot */
+	@Override
+	public void saveState(SnapshotOutput out) throws IOException {
+	}
+
+	@Override
+	public void loadState(SnapshotInput in) throws IOException {
+	}
 }
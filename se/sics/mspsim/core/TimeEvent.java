@@ -42,12 +42,19 @@
 package se.sics.mspsim.core;
 
 public abstract class TimeEvent {
-  // For linking events...
+  // Position in the event queue heap and order among events with the same deadline
+  int heapIndex;
+  long sequence;
+  // Time in CPU cycles when the event is due and whether it is scheduled in virtual time
+  long deadline;
+  boolean virtualTime;
+  // List links and list index when scheduled in a timing wheel
   TimeEvent nextEvent;
   TimeEvent prevEvent;
+  int wheelSlot;
 
   // Keeps track of where this is scheduled
-  EventQueue scheduledIn = null;
+  EventScheduler scheduledIn = null;
   String name;
   
   protected long time;
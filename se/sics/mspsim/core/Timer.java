@@ -36,6 +36,8 @@
  */
 
 package se.sics.mspsim.core;
+import java.io.IOException;
+
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.Utils;
 
@@ -66,7 +68,7 @@ import se.sics.mspsim.util.Utils;
  * counter it will be reading same value for a long time. Needs to "capture"
  * reads to Timers by some simple means...
  */
-public class Timer extends IOUnit {
+public class Timer extends IOUnit implements Snapshotable {
 
   public static final int TBIV = 0x011e;
   public static final int TAIV = 0x012e;
@@ -145,6 +147,13 @@ public class Timer extends IOUnit {
   private int counter = 0;
   private int counterPassed = 0;
 
+  // The overflow trigger is not scheduled while it would only set the
+  // already pending overflow flag (interrupt disabled). Its next time is
+  // then advanced when the timer is accessed.
+  private boolean overflowDeferred;
+  private long overflowTime;
+  private boolean eventDeferral = true;
+
   // Input map for timer A
   public static final int[] TIMER_Ax149 = new int[] {
     SRC_PORT + 0x10, SRC_ACLK, SRC_SMCLK, SRC_PORT + 0x21, // Timer
@@ -215,6 +224,8 @@ public class Timer extends IOUnit {
       long cyclesLeft = 0;
       boolean sync;
       int outMode;
+      /* not scheduled while a compare would only set the already set IFG */
+      boolean deferred;
 
       final int interruptVector;
       final int index;
@@ -274,6 +285,11 @@ public class Timer extends IOUnit {
                       log("setting expCaptureTime to full wrap: " + expCaptureTime);
                   }
               }
+              if (eventDeferral && !captureOn && (tcctl & CC_IE) == 0) {
+                  /* the next compares only set the IFG again - no need to schedule them */
+                  deferred = true;
+                  return;
+              }
               /* schedule again! */
               update();
               triggerInterrupt(cycles);
@@ -351,12 +367,40 @@ public class Timer extends IOUnit {
       public void update() {
           /* schedule this capture register for update*/
           if (expCaptureTime != -1 && expCaptureTime != time) {
+              deferred = false;
               if (DEBUG) log(cpu.cycles + ":" + ">> SCHEDULING " + getName() + " = " + tccr +
                       " TR: " + counter + " at: " + expCaptureTime);
               cpu.scheduleCycleEvent(this, expCaptureTime);
           }
       }
       
+      /* advances the expected compare time past the compares that have been deferred */
+      void updateDeferred(long cycles) {
+          if (deferred && expCaptureTime <= cycles) {
+              if (mode == STOP) {
+                  /* the compare would have been ignored and not scheduled again */
+                  deferred = false;
+                  time = expCaptureTime;
+                  return;
+              }
+              long last;
+              do {
+                  last = expCaptureTime;
+                  expCaptureTime = expCaptureTime + (long) (0x10000 * cyclesMultiplicator);
+              } while (expCaptureTime <= cycles);
+              /* the compare would have left the counter updated at its time */
+              updateCounter(last);
+          }
+      }
+
+      /* schedules the compare again if it would change the IFG or trigger an interrupt */
+      void scheduleDeferred() {
+          if (deferred && (captureOn || (tcctl & CC_TRIGGER_INT) != CC_IFG)) {
+              deferred = false;
+              cpu.scheduleCycleEvent(this, expCaptureTime);
+          }
+      }
+
       public void timerStarted(long cycles) {
           if (cyclesLeft != 0) {
               expCaptureTime = cycles + cyclesLeft;
@@ -373,6 +417,48 @@ public class Timer extends IOUnit {
           }
       }
 
+      void saveState(SnapshotOutput out) throws IOException {
+          out.writeInt(tcctl);
+          out.writeInt(tccr);
+          out.writeInt(expCompare);
+          out.writeInt(expCapInterval);
+          out.writeLong(expCaptureTime);
+          out.writeInt(capMode);
+          out.writeBoolean(captureOn);
+          out.writeInt(inputSel);
+          out.writeInt(inputSrc);
+          out.writeLong(cyclesLeft);
+          out.writeBoolean(sync);
+          out.writeInt(outMode);
+          out.writeBoolean(deferred);
+          out.writeTimeEvent(this);
+      }
+
+      void loadState(SnapshotInput in) throws IOException {
+          tcctl = in.readInt();
+          tccr = in.readInt();
+          expCompare = in.readInt();
+          expCapInterval = in.readInt();
+          expCaptureTime = in.readLong();
+          capMode = in.readInt();
+          captureOn = in.readBoolean();
+          inputSel = in.readInt();
+          inputSrc = in.readInt();
+          cyclesLeft = in.readLong();
+          sync = in.readBoolean();
+          outMode = in.readInt();
+          deferred = in.readBoolean();
+          in.readTimeEvent(this);
+
+          /* reconnect port capture */
+          if (captureOn && (inputSrc & SRC_PORT) != 0) {
+              IOPort ioPort = cpu.getIOUnit(IOPort.class, "P" + ((inputSrc & 0xff) >> 4));
+              if (ioPort != null) {
+                  ioPort.setTimerCapture(Timer.this, inputSrc & 0x0f);
+              }
+          }
+      }
+
       public String info() {
           return "CCR" + index + ":" +
           "  CM: " + capNames[capMode] +
@@ -390,12 +476,19 @@ public class Timer extends IOUnit {
           /* and can be something else if mode is another... */
           // This should be updated whenever clockspeed changes...
           nextTimerTrigger = (long) (nextTimerTrigger + 0x10000 * cyclesMultiplicator);
+          if (eventDeferral && !interruptEnable) {
+              /* the next overflows only set the pending flag again - no need to schedule them */
+              overflowDeferred = true;
+              overflowTime = nextTimerTrigger;
+              return;
+          }
 //          System.out.println("*** scheduling counter trigger..." + nextTimerTrigger + " now = " + t);
           cpu.scheduleCycleEvent(this, nextTimerTrigger);
           
           
           if (lastTIV == 0 && interruptEnable) {
-              lastTIV = memory[tiv] = timerOverflow;
+              lastTIV = timerOverflow;
+              memory[tiv] = (byte) timerOverflow;
               cpu.flagInterrupt(ccr1Vector, Timer.this, true);
           } else {
 //              System.out.println("*** Did not trigger interrupt: " + interruptEnable);
@@ -414,7 +507,7 @@ public class Timer extends IOUnit {
    *
    */
 
-  public Timer(MSP430Core cpu, int[] memory, MSP430Config.TimerConfig config) {
+  public Timer(MSP430Core cpu, byte[] memory, MSP430Config.TimerConfig config) {
     super(config.name, config.name, cpu, memory, config.offset);
     this.srcMap = config.srcMap;
     // noCompare = (srcMap.length / 4) - 1;
@@ -443,6 +536,7 @@ public class Timer extends IOUnit {
       /* reset the capture and compare registers */
       for (int i = 0, n = noCompare; i < n; i++) {
           CCR reg = ccr[i];
+          reg.deferred = false;
           reg.expCompare = -1;
           reg.expCaptureTime = -1;
           reg.expCapInterval = 0;
@@ -467,9 +561,34 @@ public class Timer extends IOUnit {
       cyclesMultiplicator = 1;
       mode = STOP;
       nextTimerTrigger = 0;
+      overflowDeferred = false;
       inputDivider = 1;
   }
 
+  /* Advances the deferred overflow and compare events to the specified time */
+  private void updateDeferred(long cycles) {
+      if (overflowDeferred) {
+          while (overflowTime <= cycles) {
+              nextTimerTrigger = (long) (nextTimerTrigger + 0x10000 * cyclesMultiplicator);
+              overflowTime = nextTimerTrigger;
+          }
+      }
+      for (int i = 0; i < noCompare; i++) {
+          ccr[i].updateDeferred(cycles);
+      }
+  }
+
+  /* Schedules the deferred events again that would now change the timer state */
+  private void scheduleDeferred() {
+      if (overflowDeferred && (interruptEnable || !interruptPending)) {
+          overflowDeferred = false;
+          cpu.scheduleCycleEvent(counterTrigger, overflowTime);
+      }
+      for (int i = 0; i < noCompare; i++) {
+          ccr[i].scheduleDeferred();
+      }
+  }
+
   // Should handle read of byte also (currently ignores that...)
   public int read(int address, boolean word, long cycles) {
 
@@ -482,7 +601,9 @@ public class Timer extends IOUnit {
       // But this mess the TIV up too early......
       // Must DELAY the reset of interrupt flags until next read...?
       int val = lastTIV;
+      updateDeferred(cycles);
       resetTIV(cycles);
+      scheduleDeferred();
       return val;
     }
     int val = 0;
@@ -602,6 +723,8 @@ public class Timer extends IOUnit {
     // This does not handle word/byte difference yet... assumes it gets
     // all 16 bits when called!!!
 
+    updateDeferred(cycles);
+
     if (address == tiv) {
       // should clear registers for cause of interrupt (highest value)?
       // but what if a higher value have been triggered since this was
@@ -788,6 +911,7 @@ public class Timer extends IOUnit {
       ccr[index].update();
       //calculateNextEventTime(cycles);
     }
+    scheduleDeferred();
   }
   void updateCyclesMultiplicator() {
     cyclesMultiplicator = inputDivider;
@@ -802,6 +926,8 @@ public class Timer extends IOUnit {
   }
   
   void resetCounter(long cycles) {
+      /* catch up with the current clock before it is changed */
+      updateDeferred(cycles);
       double divider = 1.0;
       if (clockSource == SRC_ACLK) {
           // Should later be divided with DCO clock?
@@ -826,6 +952,7 @@ public class Timer extends IOUnit {
       log("Counter reset at " + cycles +  " cycMul: " + cyclesMultiplicator);
     }
 
+    overflowDeferred = false;
     cpu.scheduleCycleEvent(counterTrigger, cycles + (long)((0x10000 - counter) * cyclesMultiplicator));
 //    System.out.println("(re)Scheduling counter trigger..." + counterTrigger.time + " now = " + cycles + " ctr: " + counter);
 
@@ -941,10 +1068,12 @@ public class Timer extends IOUnit {
   // Some flags should be cleared (the highest priority flags)?
   public void interruptServiced(int vector) {
     if (vector == ccr0Vector) {
+      ccr[0].updateDeferred(cpu.cycles);
       // Reset the interrupt trigger in "core".
       cpu.flagInterrupt(ccr0Vector, this, false);
       // Remove the flag also - but only for the dedicated vector (CCR0)
       ccr[0].tcctl &= ~CC_IFG;
+      ccr[0].scheduleDeferred();
     }
     if (MSP430Core.debugInterrupts) {
       System.out.println(getName() + " >>>> interrupt Serviced " + lastTIV + 
@@ -954,10 +1083,87 @@ public class Timer extends IOUnit {
     /* triggerInterrupts(cpu.cycles); */
   }
 
+  /**
+   * Enables or disables deferring the overflow and compare events that
+   * would only set an already set interrupt flag. Deferral is enabled by
+   * default. Without it every event is scheduled, which gives the same
+   * timer state but costs one event per timer wrap.
+   */
+  public void setEventDeferral(boolean deferral) {
+      eventDeferral = deferral;
+      if (!deferral) {
+          updateDeferred(cpu.cycles);
+          if (overflowDeferred) {
+              overflowDeferred = false;
+              cpu.scheduleCycleEvent(counterTrigger, overflowTime);
+          }
+          for (int i = 0; i < noCompare; i++) {
+              if (ccr[i].deferred) {
+                  ccr[i].deferred = false;
+                  cpu.scheduleCycleEvent(ccr[i], ccr[i].expCaptureTime);
+              }
+          }
+      }
+  }
+
+  public boolean isEventDeferral() {
+      return eventDeferral;
+  }
+
   public int getModeMax() {
     return 0;
   }
 
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(tctl);
+    out.writeInt(mode);
+    out.writeInt(clockSource);
+    out.writeInt(clockSpeed);
+    out.writeInt(inputDivider);
+    out.writeDouble(cyclesMultiplicator);
+    out.writeBoolean(interruptEnable);
+    out.writeBoolean(interruptPending);
+    out.writeInt(lastTIV);
+    out.writeInt(counter);
+    out.writeInt(counterPassed);
+    out.writeLong(counterStart);
+    out.writeLong(counterAcc);
+    out.writeLong(nextTimerTrigger);
+    out.writeBoolean(overflowDeferred);
+    out.writeLong(overflowTime);
+    out.writeLong(triggerTime);
+    out.writeTimeEvent(counterTrigger);
+    for (CCR reg : ccr) {
+      reg.saveState(out);
+    }
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    tctl = in.readInt();
+    mode = in.readInt();
+    clockSource = in.readInt();
+    clockSpeed = in.readInt();
+    inputDivider = in.readInt();
+    cyclesMultiplicator = in.readDouble();
+    interruptEnable = in.readBoolean();
+    interruptPending = in.readBoolean();
+    lastTIV = in.readInt();
+    counter = in.readInt();
+    counterPassed = in.readInt();
+    counterStart = in.readLong();
+    counterAcc = in.readLong();
+    nextTimerTrigger = in.readLong();
+    overflowDeferred = in.readBoolean();
+    overflowTime = in.readLong();
+    triggerTime = in.readLong();
+    in.readTimeEvent(counterTrigger);
+    for (CCR reg : ccr) {
+      reg.loadState(in);
+    }
+  }
+
   private String getName(int address) {
     int reg = address - offset;
     if (reg == 0) return "TCTL";
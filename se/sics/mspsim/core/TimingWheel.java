@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TimingWheel
+ *
+ * Event scheduler for many short periodic events. Events in the current
+ * block of 256 slots of 64 cycles are kept in unsorted slot lists and
+ * events in the following 64 blocks in one list per block, which gives
+ * O(1) insert and remove. Later events are kept in a heap. The events of
+ * a slot are moved to a small heap when the slot is reached so that the
+ * events are executed in exactly the same order as with EventQueue.
+ */
+
+package se.sics.mspsim.core;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+final class TimingWheel implements EventScheduler {
+
+    private static final int SLOT_BITS = 6;
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SLOTS = 1 << BLOCK_BITS;
+    private static final int BLOCKS = 64;
+
+    private static final int NEAR = -1;
+    private static final int FAR = -2;
+
+    /* the events before the current slot */
+    private final EventQueue near = new EventQueue();
+    /* the events after the last block */
+    private final EventQueue far = new EventQueue();
+    /* one list per slot of the current block followed by one list per block */
+    private final TimeEvent[] lists = new TimeEvent[BLOCK_SLOTS + BLOCKS];
+    private final long[] usedSlots = new long[BLOCK_SLOTS / 64];
+    private long usedBlocks;
+    private int slotCount;
+    private int blockCount;
+
+    /* the current block and the first slot whose events are not in near */
+    private long block;
+    private long slot;
+
+    /* decreases for every added event to order events with the same deadline */
+    private long sequence;
+    private int eventCount;
+    private long nextTime;
+
+    @Override
+    public void addEvent(TimeEvent event, long time, long deadline) {
+        if (event.scheduledIn != null) {
+            event.remove();
+        }
+        event.time = time;
+        event.deadline = deadline;
+        event.sequence = --sequence;
+        event.scheduledIn = this;
+        eventCount++;
+        place(event);
+        updateNextTime();
+    }
+
+    @Override
+    public boolean removeEvent(TimeEvent event) {
+        if (event.scheduledIn != this) {
+            return false;
+        }
+        int list = event.wheelSlot;
+        if (list == NEAR) {
+            near.delete(event);
+        } else if (list == FAR) {
+            far.delete(event);
+        } else {
+            unlink(event, list);
+        }
+        event.scheduledIn = null;
+        eventCount--;
+        updateNextTime();
+        return true;
+    }
+
+    @Override
+    public TimeEvent popFirst() {
+        if (eventCount == 0) {
+            return null;
+        }
+        TimeEvent event = near.poll();
+        event.scheduledIn = null;
+        eventCount--;
+        updateNextTime();
+        return event;
+    }
+
+    @Override
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public long getNextTime() {
+        return nextTime;
+    }
+
+    @Override
+    public void removeAll() {
+        for (TimeEvent event : collect()) {
+            event.time = 0;
+            event.scheduledIn = null;
+        }
+        clear();
+    }
+
+    @Override
+    public void updateDeadlines(LongUnaryOperator toDeadline) {
+        TimeEvent[] events = collect();
+        boolean changed = false;
+        for (TimeEvent event : events) {
+            if (event.virtualTime) {
+                long deadline = toDeadline.applyAsLong(event.time);
+                if (deadline != event.deadline) {
+                    event.deadline = deadline;
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            clear();
+            for (TimeEvent event : events) {
+                place(event);
+            }
+            eventCount = events.length;
+            updateNextTime();
+        }
+    }
+
+    @Override
+    public TimeEvent[] getEvents() {
+        TimeEvent[] events = collect();
+        Arrays.sort(events, EventQueue.ORDER);
+        return events;
+    }
+
+    @Override
+    public void restoreEvents(TimeEvent[] events) {
+        for (int i = 0; i < events.length; i++) {
+            TimeEvent event = events[i];
+            event.sequence = sequence + i;
+            event.scheduledIn = this;
+            place(event);
+        }
+        eventCount = events.length;
+        updateNextTime();
+    }
+
+    @Override
+    public void print(PrintStream out) {
+        TimeEvent[] events = getEvents();
+        out.print("nxt: " + nextTime + " [");
+        for (int i = 0; i < events.length; i++) {
+            if (i > 0) out.print(", ");
+            out.print(events[i].getShort());
+        }
+        out.println("]");
+    }
+
+    /* Puts the event in near, a slot or block list, or far depending on its deadline */
+    private void place(TimeEvent event) {
+        long eventSlot = event.deadline >> SLOT_BITS;
+        long eventBlock = eventSlot >> BLOCK_BITS;
+        if (eventSlot < slot) {
+            event.wheelSlot = NEAR;
+            near.insert(event);
+        } else if (eventBlock == block) {
+            int index = (int) eventSlot & (BLOCK_SLOTS - 1);
+            link(event, index);
+            usedSlots[index >> 6] |= 1L << index;
+            slotCount++;
+        } else if (eventBlock - block < BLOCKS) {
+            int index = (int) eventBlock & (BLOCKS - 1);
+            link(event, BLOCK_SLOTS + index);
+            usedBlocks |= 1L << index;
+            blockCount++;
+        } else {
+            event.wheelSlot = FAR;
+            far.insert(event);
+        }
+    }
+
+    private void link(TimeEvent event, int list) {
+        TimeEvent first = lists[list];
+        event.wheelSlot = list;
+        event.prevEvent = null;
+        event.nextEvent = first;
+        if (first != null) {
+            first.prevEvent = event;
+        }
+        lists[list] = event;
+    }
+
+    private void unlink(TimeEvent event, int list) {
+        TimeEvent prev = event.prevEvent;
+        TimeEvent next = event.nextEvent;
+        if (prev != null) {
+            prev.nextEvent = next;
+        } else {
+            lists[list] = next;
+        }
+        if (next != null) {
+            next.prevEvent = prev;
+        }
+        event.prevEvent = event.nextEvent = null;
+        if (list < BLOCK_SLOTS) {
+            slotCount--;
+            if (lists[list] == null) {
+                usedSlots[list >> 6] &= ~(1L << list);
+            }
+        } else {
+            blockCount--;
+            if (lists[list] == null) {
+                usedBlocks &= ~(1L << (list - BLOCK_SLOTS));
+            }
+        }
+    }
+
+    /* Removes and returns the events of a list linked by nextEvent */
+    private TimeEvent takeList(int list) {
+        TimeEvent first = lists[list];
+        lists[list] = null;
+        if (list < BLOCK_SLOTS) {
+            usedSlots[list >> 6] &= ~(1L << list);
+        } else {
+            usedBlocks &= ~(1L << (list - BLOCK_SLOTS));
+        }
+        return first;
+    }
+
+    private void updateNextTime() {
+        if (eventCount == 0) {
+            nextTime = 0;
+            return;
+        }
+        if (near.eventCount == 0) {
+            advance();
+        }
+        nextTime = near.nextTime;
+    }
+
+    /* Moves the events of the next used slot to near, moving to a later block if needed */
+    private void advance() {
+        while (near.eventCount == 0) {
+            if (slotCount > 0) {
+                int index = nextUsedSlot((int) slot & (BLOCK_SLOTS - 1));
+                slot = (block << BLOCK_BITS) + index + 1;
+                TimeEvent event = takeList(index);
+                while (event != null) {
+                    TimeEvent next = event.nextEvent;
+                    event.prevEvent = event.nextEvent = null;
+                    event.wheelSlot = NEAR;
+                    near.insert(event);
+                    slotCount--;
+                    event = next;
+                }
+            } else {
+                if (blockCount > 0) {
+                    int first = (int) (block + 1) & (BLOCKS - 1);
+                    block += 1 + Long.numberOfTrailingZeros(Long.rotateRight(usedBlocks, first));
+                } else {
+                    block = far.nextTime >> (SLOT_BITS + BLOCK_BITS);
+                }
+                slot = block << BLOCK_BITS;
+                /* the events of the new block go to the slot lists */
+                TimeEvent event = takeList(BLOCK_SLOTS + ((int) block & (BLOCKS - 1)));
+                while (event != null) {
+                    TimeEvent next = event.nextEvent;
+                    event.prevEvent = event.nextEvent = null;
+                    blockCount--;
+                    place(event);
+                    event = next;
+                }
+                while (far.eventCount > 0
+                        && (far.nextTime >> (SLOT_BITS + BLOCK_BITS)) - block < BLOCKS) {
+                    place(far.poll());
+                }
+            }
+        }
+    }
+
+    private int nextUsedSlot(int start) {
+        int word = start >> 6;
+        long bits = usedSlots[word] & (-1L << start);
+        while (bits == 0) {
+            bits = usedSlots[++word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /* returns all scheduled events in no particular order */
+    private TimeEvent[] collect() {
+        TimeEvent[] events = new TimeEvent[eventCount];
+        int count = 0;
+        for (TimeEvent event : near.getEvents()) {
+            events[count++] = event;
+        }
+        for (TimeEvent event : far.getEvents()) {
+            events[count++] = event;
+        }
+        for (TimeEvent first : lists) {
+            for (TimeEvent event = first; event != null; event = event.nextEvent) {
+                events[count++] = event;
+            }
+        }
+        return events;
+    }
+
+    private void clear() {
+        near.clear();
+        far.clear();
+        for (int i = 0; i < lists.length; i++) {
+            for (TimeEvent event = lists[i]; event != null; ) {
+                TimeEvent next = event.nextEvent;
+                event.prevEvent = event.nextEvent = null;
+                event = next;
+            }
+            lists[i] = null;
+        }
+        Arrays.fill(usedSlots, 0);
+        usedBlocks = 0;
+        slotCount = 0;
+        blockCount = 0;
+        eventCount = 0;
+        nextTime = 0;
+    }
+}
@@ -37,9 +37,11 @@
 
 package se.sics.mspsim.core;
 
+import java.io.IOException;
+
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 
-public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource {
+public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource, Snapshotable {
 
   // USART 0/1 register offset (0x70 / 0x78)
   public static final int UCTL = 0;
@@ -132,7 +134,7 @@ public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource
    * Creates a new <code>USART</code> instance.
    *
    */
-  public USART(MSP430Core cpu, int uartID, int[] memory, int offset) {
+  public USART(MSP430Core cpu, int uartID, byte[] memory, int offset) {
     super("USART" + uartID, "USART " + uartID, cpu, memory, offset);
     this.uartID = uartID;
     sfr = cpu.getSFR();
@@ -342,6 +344,14 @@ public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource
     return 0;
   }
 
+  @Override
+  public boolean isReadStable(int address) {
+    /* received data changes the receive control flags and reading the
+       receive buffer clears the receive interrupt flag */
+    int reg = address - offset;
+    return reg != URCTL && reg != URXBUF;
+  }
+
   private void updateBaudRate() {
     int div = ubr0 + (ubr1 << 8);
     if (div == 0) {
@@ -421,6 +431,19 @@ public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource
   // This needs to be complemented with a method for checking if the USART
   // is ready for next byte (readyForReceive) that respects the current speed
   public void byteReceived(int b) {
+    StimulusRecorder recorder = cpu.getStimulusRecorder();
+    if (recorder != null && recorder.enter(this, StimulusRecorder.SERIAL, b)) {
+      try {
+        receiveByte(b);
+      } finally {
+        recorder.exit();
+      }
+    } else {
+      receiveByte(b);
+    }
+  }
+
+  private void receiveByte(int b) {
     if (!rxEnabled) return;
     if (DEBUG) {
       log(" byteReceived: " + b + " " + (b > 32 ? (char)b : '.'));
@@ -453,6 +476,58 @@ public class USART extends IOUnit implements SFRModule, DMATrigger, USARTSource
       "  Baudrate: " + baudRate + " bps  Cycles per byte: " + tickPerByte;
   }
 
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(uctl);
+    out.writeInt(utctl);
+    out.writeInt(urctl);
+    out.writeInt(umctl);
+    out.writeInt(ubr0);
+    out.writeInt(ubr1);
+    out.writeInt(urxbuf);
+    out.writeInt(utxbuf);
+    out.writeInt(clockSource);
+    out.writeInt(baudRate);
+    out.writeInt(tickPerByte);
+    out.writeLong(nextTXReady);
+    out.writeInt(nextTXByte);
+    out.writeInt(txShiftReg);
+    out.writeBoolean(transmitting);
+    out.writeInt(nextRXByte);
+    out.writeBoolean(receiving);
+    out.writeBoolean(txEnabled);
+    out.writeBoolean(rxEnabled);
+    out.writeBoolean(spiMode);
+    out.writeTimeEvent(txTrigger);
+    out.writeTimeEvent(rxTrigger);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    uctl = in.readInt();
+    utctl = in.readInt();
+    urctl = in.readInt();
+    umctl = in.readInt();
+    ubr0 = in.readInt();
+    ubr1 = in.readInt();
+    urxbuf = in.readInt();
+    utxbuf = in.readInt();
+    clockSource = in.readInt();
+    baudRate = in.readInt();
+    tickPerByte = in.readInt();
+    nextTXReady = in.readLong();
+    nextTXByte = in.readInt();
+    txShiftReg = in.readInt();
+    transmitting = in.readBoolean();
+    nextRXByte = in.readInt();
+    receiving = in.readBoolean();
+    txEnabled = in.readBoolean();
+    rxEnabled = in.readBoolean();
+    spiMode = in.readBoolean();
+    in.readTimeEvent(txTrigger);
+    in.readTimeEvent(rxTrigger);
+  }
+
   public boolean getDMATriggerState(int index) {
       if (index == 0) {
           return (getIFG() & urxifg) > 0;
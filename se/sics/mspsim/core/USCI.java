@@ -37,10 +37,11 @@
 
 package se.sics.mspsim.core;
 
+import java.io.IOException;
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 
 
-public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
+public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource, Snapshotable {
 
   // USART 0/1 register offset (0x60 / 0xD0)
   public static final int UAxCTL0 = 0;
@@ -137,7 +138,7 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
    * Creates a new <code>USART</code> instance.
    *
    */
-  public USCI(MSP430Core cpu, int uartID, int[] memory, MSP430Config config) {
+  public USCI(MSP430Core cpu, int uartID, byte[] memory, MSP430Config config) {
     super(config.uartConfig[uartID].name, cpu, memory, config.uartConfig[uartID].offset);
     this.uartID = uartID;
     MSP430Config.UARTConfig uartConfig = config.uartConfig[uartID];
@@ -222,7 +223,7 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
   private int getIFG() {
       if (sfr != null)
           return sfr.getIFG(sfrAddress);
-      return memory[ifgAddress];
+      return memory[ifgAddress] & 0xff;
   }
 
   private boolean isIEBitsSet(int bits) {
@@ -245,7 +246,7 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
   // Only 8 bits / read!
   public void write(int address, int data, boolean word, long cycles) {
     if (address == ieAddress || address == ifgAddress) {
-        memory[address] = data;
+        writeMemory(address, data, word);
     }
     address = address - offset;
 
@@ -331,7 +332,7 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
 
   public int read(int address, boolean word, long cycles) {
       if (address == ieAddress || address == ifgAddress) {
-          return memory[address];
+          return readMemory(address, word);
       }
     address = address - offset;
 //    System.out.println(">>>>> Read from " + getName() + " at " +
@@ -458,6 +459,19 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
   // This needs to be complemented with a method for checking if the USART
   // is ready for next byte (readyForReceive) that respects the current speed
   public void byteReceived(int b) {
+    StimulusRecorder recorder = cpu.getStimulusRecorder();
+    if (recorder != null && recorder.enter(this, StimulusRecorder.SERIAL, b)) {
+      try {
+        receiveByte(b);
+      } finally {
+        recorder.exit();
+      }
+    } else {
+      receiveByte(b);
+    }
+  }
+
+  private void receiveByte(int b) {
       //System.out.println(getName() + " byte received: " + b + " enabled:" + rxEnabled);
       if (!rxEnabled) return;
     
@@ -481,6 +495,52 @@ public class USCI extends IOUnit implements SFRModule, DMATrigger, USARTSource {
       "UTXIFG: " + ((getIFG() & utxifg) > 0) + "  URXIFG:" + ((getIFG() & urxifg) > 0);
   }
 
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(uctl0);
+    out.writeInt(uctl1);
+    out.writeInt(umctl);
+    out.writeInt(ubr0);
+    out.writeInt(ubr1);
+    out.writeInt(urxbuf);
+    out.writeInt(utxbuf);
+    out.writeInt(ustat);
+    out.writeInt(clockSource);
+    out.writeInt(baudRate);
+    out.writeInt(tickPerByte);
+    out.writeLong(nextTXReady);
+    out.writeInt(nextTXByte);
+    out.writeInt(txShiftReg);
+    out.writeBoolean(transmitting);
+    out.writeBoolean(txEnabled);
+    out.writeBoolean(rxEnabled);
+    out.writeBoolean(spiMode);
+    out.writeTimeEvent(txTrigger);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    uctl0 = in.readInt();
+    uctl1 = in.readInt();
+    umctl = in.readInt();
+    ubr0 = in.readInt();
+    ubr1 = in.readInt();
+    urxbuf = in.readInt();
+    utxbuf = in.readInt();
+    ustat = in.readInt();
+    clockSource = in.readInt();
+    baudRate = in.readInt();
+    tickPerByte = in.readInt();
+    nextTXReady = in.readLong();
+    nextTXByte = in.readInt();
+    txShiftReg = in.readInt();
+    transmitting = in.readBoolean();
+    txEnabled = in.readBoolean();
+    rxEnabled = in.readBoolean();
+    spiMode = in.readBoolean();
+    in.readTimeEvent(txTrigger);
+  }
+
   public boolean getDMATriggerState(int index) {
       if (index == 0) {
           return (getIFG() & urxifg) > 0;
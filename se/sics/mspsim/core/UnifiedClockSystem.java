@@ -41,9 +41,11 @@
  */
 
 package se.sics.mspsim.core;
+import java.io.IOException;
+
 import se.sics.mspsim.util.Utils;
 
-public class UnifiedClockSystem extends ClockSystem {
+public class UnifiedClockSystem extends ClockSystem implements Snapshotable {
 
   private static final int UCSCTL0 = 0x0160;
   private static final int UCSCTL1 = 0x0162;
@@ -299,7 +301,7 @@ public class UnifiedClockSystem extends ClockSystem {
    * Creates a new <code>UnifiedClockSystem</code> instance.
    *
    */
-  public UnifiedClockSystem(MSP430Core cpu, int[] memory, int offset, Timer[] timers) {
+  public UnifiedClockSystem(MSP430Core cpu, byte[] memory, int offset, Timer[] timers) {
     super("UnifiedClockSystem", cpu, memory, offset);
     this.timers = timers;
   }
@@ -331,11 +333,7 @@ public class UnifiedClockSystem extends ClockSystem {
 
   // do nothing?
   public int read(int address, boolean word, long cycles) {
-    int val = memory[address];
-    if (word) {
-      val |= memory[(address + 1) & 0xffff] << 8;
-    }
-    return val;
+    return readMemory(address, word);
   }
 
   public void write(int address, int data, boolean word, long cycles) {
@@ -343,8 +341,7 @@ public class UnifiedClockSystem extends ClockSystem {
     if (DEBUG) log("Write to UnifiedClockSystem: " +
 		       Utils.hex16(address) + " => " + Utils.hex16(data));
 
-    memory[address] = data & 0xff;
-    if (word) memory[address + 1] = (data >> 8) & 0xff;
+    writeMemory(address, data, word);
 
     setConfiguration(cycles);
   }
@@ -390,4 +387,15 @@ public class UnifiedClockSystem extends ClockSystem {
       }
     }
   }
+
+  /* the registers are kept in the IO memory and the clock frequencies in the CPU */
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(currentDcoFrequency);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+    currentDcoFrequency = in.readInt();
+  }
 }
@@ -40,6 +40,8 @@
  */
 package se.sics.mspsim.core;
 
+import java.io.IOException;
+
 import se.sics.mspsim.core.EmulationLogger.WarningType;
 import se.sics.mspsim.util.Utils;
 
@@ -47,7 +49,7 @@ import se.sics.mspsim.util.Utils;
  * @author joakim
  *
  */
-public class Watchdog extends IOUnit implements SFRModule {
+public class Watchdog extends IOUnit implements SFRModule, Snapshotable {
   
   private static final int WDTHOLD = 0x80;
   private static final int WDTCNTCL = 0x08;
@@ -77,6 +79,8 @@ public class Watchdog extends IOUnit implements SFRModule {
   private long targetTime;
   // Timer ACLK
   private boolean sourceACLK = false;
+  // Number of times the trigger was left scheduled when the timer was cleared
+  private long avoidedReschedules;
 
   // Timer or WDT mode
   private boolean timerMode = false;
@@ -84,12 +88,23 @@ public class Watchdog extends IOUnit implements SFRModule {
   private TimeEvent wdtTrigger = new TimeEvent(0, "Watchdog") {
     public void execute(long t) {
 //      System.out.println(getName() + " **** executing update timers at " + t + " cycles=" + core.cycles);
+      // Compare with the scheduled time since t is rounded when converted
+      // from cycles and can be just before the scheduled virtual time
+      if (getTime() < targetTime) {
+        // The timer has been cleared since this was scheduled
+        if (sourceACLK) {
+          cpu.scheduleTimeEvent(this, targetTime);
+        } else {
+          cpu.scheduleCycleEvent(this, targetTime);
+        }
+        return;
+      }
       triggerWDT(t);
     }
   };
 
   public Watchdog(MSP430Core cpu, int address) {
-    super("Watchdog", cpu, cpu.memory, address);
+    super("Watchdog", cpu, cpu.ioMemory, address);
 
     resetVector = cpu.MAX_INTERRUPT;
     
@@ -158,16 +173,63 @@ public class Watchdog extends IOUnit implements SFRModule {
   }
 
   private void scheduleTimer() {
+      long time;
       if (sourceACLK) {
           if (DEBUG) log("setting delay in ms (ACLK): " + 1000.0 * delay / cpu.aclkFrq);
-          targetTime = cpu.scheduleTimeEventMillis(wdtTrigger, 1000.0 * delay / cpu.aclkFrq);
+          time = cpu.getTimeAfterMillis(1000.0 * delay / cpu.aclkFrq);
       } else {
           if (DEBUG) log("setting delay in cycles");
-          cpu.scheduleCycleEvent(wdtTrigger, targetTime = cpu.cycles + delay);
+          time = cpu.cycles + delay;
+      }
+      // A trigger scheduled no later than the new target time is kept
+      // and moved to the target time when it executes.
+      if (wdtTrigger.isScheduled() && wdtTrigger.virtualTime == sourceACLK
+              && wdtTrigger.getTime() <= time) {
+          targetTime = time;
+          avoidedReschedules++;
+          return;
+      }
+      targetTime = time;
+      if (sourceACLK) {
+          cpu.scheduleTimeEvent(wdtTrigger, time);
+      } else {
+          cpu.scheduleCycleEvent(wdtTrigger, time);
       }
   }
 
+  /**
+   * Returns the number of times the watchdog was cleared without
+   * rescheduling its trigger.
+   */
+  public long getAvoidedReschedules() {
+      return avoidedReschedules;
+  }
+
   public void enableChanged(int reg, int bit, boolean enabled) {
       if (DEBUG) log("*** Watchdog module enabled: " + enabled);
   }
+
+  @Override
+  public void saveState(SnapshotOutput out) throws IOException {
+      out.writeInt(wdtctl);
+      out.writeBoolean(wdtOn);
+      out.writeBoolean(hold);
+      out.writeInt(delay);
+      out.writeLong(targetTime);
+      out.writeBoolean(sourceACLK);
+      out.writeBoolean(timerMode);
+      out.writeTimeEvent(wdtTrigger);
+  }
+
+  @Override
+  public void loadState(SnapshotInput in) throws IOException {
+      wdtctl = in.readInt();
+      wdtOn = in.readBoolean();
+      hold = in.readBoolean();
+      delay = in.readInt();
+      targetTime = in.readLong();
+      sourceACLK = in.readBoolean();
+      timerMode = in.readBoolean();
+      in.readTimeEvent(wdtTrigger);
+  }
 }
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * BootCache
+ *
+ * Cache of snapshots taken when a node has booted a firmware, used to
+ * restore a booted node instead of executing the firmware initialization.
+ */
+
+package se.sics.mspsim.platform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.Memory.AccessType;
+import se.sics.mspsim.core.MemoryMonitor;
+import se.sics.mspsim.core.Snapshot;
+import se.sics.mspsim.core.TimeEvent;
+import se.sics.mspsim.core.USARTListener;
+import se.sics.mspsim.core.USARTSource;
+import se.sics.mspsim.util.MapTable;
+import se.sics.mspsim.util.Utils;
+
+/**
+ * The snapshots are keyed by the firmware contents, the node type, and the
+ * boot point. The boot point is either a cycle count, a symbol or address
+ * where execution stops, or "uart:" followed by a text that stops execution
+ * at the end of the first serial output line containing the text.
+ *
+ * Only the node state is cached. Any external flash contents written during
+ * boot are not part of the snapshot.
+ */
+public class BootCache {
+
+    public static final long DEFAULT_MAX_CYCLES = 1000000000L;
+
+    private static final String UART_PREFIX = "uart:";
+
+    private final File directory;
+    private long maxCycles = DEFAULT_MAX_CYCLES;
+
+    public BootCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxCycles() {
+        return maxCycles;
+    }
+
+    /**
+     * Sets the maximal number of cycles to execute when searching for the
+     * boot point before giving up.
+     */
+    public void setMaxCycles(long maxCycles) {
+        this.maxCycles = maxCycles;
+    }
+
+    public static String getKey(File firmware, Class<?> nodeType, String bootPoint) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("failed to create firmware hash", e);
+        }
+        digest.update(Files.readAllBytes(firmware.toPath()));
+        digest.update((byte) 0);
+        digest.update(nodeType.getName().getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(bootPoint.getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(Integer.toString(Snapshot.VERSION).getBytes("UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Utils.hex8(b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    public File getSnapshotFile(String key) {
+        return new File(directory, key + ".snap");
+    }
+
+    /**
+     * Brings a newly reset node to the boot point. The node is restored from
+     * the cache if possible, otherwise the firmware is executed until the
+     * boot point and the node state is saved in the cache.
+     * @return true if the node was restored from the cache
+     */
+    public boolean boot(GenericNode node, File firmware, String bootPoint) throws IOException, EmulationException {
+        MSP430 cpu = node.getCPU();
+        File file = getSnapshotFile(getKey(firmware, node.getClass(), bootPoint));
+        if (file.exists()) {
+            try {
+                Snapshot.map(cpu, file);
+                return true;
+            } catch (IOException e) {
+                /* corrupt or incompatible snapshot - remove it to rebuild the cache */
+                file.delete();
+                throw e;
+            }
+        }
+
+        /* fail before booting if the node can not be saved */
+        Snapshot.checkSnapshotable(cpu);
+        if (!runToBootPoint(cpu, bootPoint)) {
+            throw new EmulationException("boot point '" + bootPoint + "' not reached within "
+                    + maxCycles + " cycles");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create boot cache directory " + directory);
+        }
+        /* save to a temporary file first as other nodes might use the cache concurrently */
+        File tmp = File.createTempFile("boot", ".tmp", directory);
+        try {
+            Snapshot.save(cpu, tmp);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+        return false;
+    }
+
+    /**
+     * Executes until the boot point is reached or the maximal number of
+     * cycles have been executed.
+     * @return true if the boot point was reached
+     */
+    public boolean runToBootPoint(final MSP430 cpu, String bootPoint) throws EmulationException {
+        final boolean[] reached = new boolean[1];
+        final long maxCycles = cpu.cycles + this.maxCycles;
+
+        if (bootPoint.length() > 0 && Character.isDigit(bootPoint.charAt(0))
+                && !bootPoint.startsWith("0x")) {
+            TimeEvent event = new TimeEvent(0, "Boot point") {
+                public void execute(long t) {
+                    reached[0] = true;
+                    cpu.stop();
+                }
+            };
+            long bootCycles = Long.parseLong(bootPoint);
+            try {
+                while (!reached[0] && cpu.cycles < maxCycles) {
+                    /* a reset removes all events */
+                    if (!event.isScheduled()) {
+                        cpu.scheduleCycleEvent(event, bootCycles);
+                    }
+                    cpu.stepInstructions(10000);
+                }
+            } finally {
+                event.remove();
+            }
+
+        } else if (bootPoint.startsWith(UART_PREFIX)) {
+            final String marker = bootPoint.substring(UART_PREFIX.length());
+            USARTListener listener = new USARTListener() {
+                private final StringBuilder line = new StringBuilder();
+                public void dataReceived(USARTSource source, int data) {
+                    if (data == '\n') {
+                        if (line.indexOf(marker) >= 0) {
+                            reached[0] = true;
+                            cpu.stop();
+                        }
+                        line.setLength(0);
+                    } else if (data != '\r') {
+                        line.append((char) data);
+                    }
+                }
+            };
+            USARTSource[] uarts = cpu.getIOUnits(USARTSource.class);
+            for (USARTSource uart : uarts) {
+                uart.addUSARTListener(listener);
+            }
+            try {
+                run(cpu, reached, maxCycles);
+            } finally {
+                for (USARTSource uart : uarts) {
+                    uart.removeUSARTListener(listener);
+                }
+            }
+
+        } else {
+            int address = getAddress(cpu, bootPoint);
+            if (address < 0) {
+                throw new EmulationException("unknown boot point: " + bootPoint);
+            }
+            MemoryMonitor monitor = new MemoryMonitor.Adapter() {
+                @Override
+                public void notifyReadBefore(int address, AccessMode mode, AccessType type) {
+                    if (type == AccessType.EXECUTE) {
+                        reached[0] = true;
+                        cpu.stop();
+                    }
+                }
+            };
+            cpu.addWatchPoint(address, monitor);
+            try {
+                run(cpu, reached, maxCycles);
+            } finally {
+                cpu.removeWatchPoint(address, monitor);
+            }
+        }
+        return reached[0];
+    }
+
+    private static void run(MSP430 cpu, boolean[] reached, long maxCycles) throws EmulationException {
+        while (!reached[0] && cpu.cycles < maxCycles) {
+            cpu.stepInstructions(10000);
+        }
+    }
+
+    private static int getAddress(MSP430 cpu, String symbol) {
+        if (symbol.startsWith("0x") || symbol.startsWith("$")) {
+            try {
+                return Utils.decodeInt(symbol);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        MapTable map = cpu.getDisAsm().getMap();
+        return map == null ? -1 : map.getFunctionAddress(symbol);
+    }
+
+}
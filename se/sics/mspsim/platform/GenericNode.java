@@ -41,7 +41,11 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import javax.swing.JFrame;
+import se.sics.mspsim.chip.ExternalFlash;
+import se.sics.mspsim.chip.FileStorage;
+import se.sics.mspsim.chip.OverlayStorage;
 import se.sics.mspsim.cli.CommandHandler;
 import se.sics.mspsim.cli.DebugCommands;
 import se.sics.mspsim.cli.DivCommand;
@@ -56,7 +60,12 @@ import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.MSP430;
 import se.sics.mspsim.core.MSP430Config;
 import se.sics.mspsim.core.MSP430Constants;
+import se.sics.mspsim.core.Snapshot;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
+import se.sics.mspsim.core.Snapshotable;
 import se.sics.mspsim.extutil.highlight.HighlightSourceViewer;
+import se.sics.mspsim.profiler.SimpleProfiler;
 import se.sics.mspsim.ui.ConsoleUI;
 import se.sics.mspsim.ui.ControlUI;
 import se.sics.mspsim.ui.JFrameWindowManager;
@@ -72,7 +81,7 @@ import se.sics.mspsim.util.OperatingModeStatistics;
 import se.sics.mspsim.util.PluginRepository;
 import se.sics.mspsim.util.StatCommands;
 
-public abstract class GenericNode extends Chip implements Runnable {
+public abstract class GenericNode extends Chip implements Runnable, Snapshotable {
 
   private static final String PROMPT = "MSPSim>";
 
@@ -139,9 +148,10 @@ public abstract class GenericNode extends Chip implements Runnable {
 
     if (firmwareFile.endsWith("ihex")) {
       // IHEX Reading
-      int[] memory = cpu.memory;
+      byte[] memory = cpu.getMemoryImage();
       IHexReader reader = new IHexReader();
       reader.readFile(memory, firmwareFile);
+      cpu.setMemoryImage(memory);
     } else {
       loadFirmware(firmwareFile);
     }
@@ -157,6 +167,26 @@ public abstract class GenericNode extends Chip implements Runnable {
     
     setup(config);
 
+    String bootCache = config.getProperty("bootcache");
+    if (bootCache != null) {
+      String bootPoint = config.getProperty("bootpoint");
+      if (bootPoint == null) {
+        System.err.println("No boot point for the boot cache. Use -bootpoint=<cycles | symbol | uart:text>");
+        System.exit(1);
+      }
+      BootCache cache = new BootCache(new File(bootCache));
+      cache.setMaxCycles(config.getPropertyAsLong("bootcycles", BootCache.DEFAULT_MAX_CYCLES));
+      try {
+        if (cache.boot(this, new File(firmwareFile), bootPoint)) {
+          System.out.println("Restored booted node from boot cache at cycle " + cpu.cycles);
+        } else {
+          System.out.println("Saved booted node to boot cache at cycle " + cpu.cycles);
+        }
+      } catch (EmulationException e) {
+        System.err.println("Failed to boot to '" + bootPoint + "': " + e.getMessage());
+        System.exit(1);
+      }
+    }
 
     if (!config.getPropertyAsBoolean("nogui", false)) {
       // Setup control and other UI components
@@ -251,11 +281,28 @@ public abstract class GenericNode extends Chip implements Runnable {
     registry.registerComponent("netcmd", new NetCommands());
     registry.registerComponent("windowManager", new JFrameWindowManager());
 
-    // Monitor execution
-    cpu.setMonitorExec(true);
-    
     setupNode();
 
+    /* A shared read only flash image with the flash writes kept in memory */
+    String flashBase = config.getProperty("flashbase");
+    if (flashBase != null) {
+      for (ExternalFlash flash : cpu.getChips(ExternalFlash.class)) {
+        flash.setStorage(new OverlayStorage(new FileStorage(flashBase, true)));
+      }
+    }
+
+    /* also applied to forked nodes which get a copy of the configuration */
+    int jitThreshold = config.getPropertyAsInt("jit", 0);
+    if (config.getPropertyAsBoolean("blockexec", false) || jitThreshold > 0) {
+      cpu.setBlockExecution(true);
+      cpu.setBlockCompileThreshold(jitThreshold);
+    }
+    cpu.setBusyWaitDetection(config.getPropertyAsBoolean("busywait", false));
+    cpu.setTimingWheel(config.getPropertyAsBoolean("timingwheel", false));
+    if (config.getPropertyAsBoolean("profile", false)) {
+      cpu.setProfiler(new SimpleProfiler());
+    }
+
     registry.start();
 
     cpu.reset();
@@ -298,6 +345,62 @@ public abstract class GenericNode extends Chip implements Runnable {
     }
   }
 
+  /**
+   * Creates an independent copy of this node in its current state.
+   */
+  public GenericNode fork() throws IOException {
+    return fork(1)[0];
+  }
+
+  /**
+   * Creates independent copies of this node in its current state. All copies
+   * share one in memory snapshot of this node and each memory segment is
+   * copied from the snapshot when first accessed by a copy. Each copy keeps
+   * its written external flash pages in memory on top of the flash contents
+   * at the time of the fork, while this node keeps writing to its own flash
+   * storage. The copies have no command line interface.
+   */
+  public GenericNode[] fork(int count) throws IOException {
+    if (cpu.isRunning()) {
+      throw new IllegalStateException("can not fork a running node");
+    }
+    ByteBuffer snapshot = Snapshot.save(cpu);
+    ExternalFlash[] flashes = cpu.getChips(ExternalFlash.class);
+    GenericNode[] nodes = new GenericNode[count];
+    for (int i = 0; i < count; i++) {
+      GenericNode node = createNode();
+      ConfigManager nodeConfig = config == null ? new ConfigManager() : new ConfigManager(config);
+      nodeConfig.setProperty("cli", "false");
+      node.setup(nodeConfig);
+      if (elf != null) {
+        node.loadFirmware(elf);
+        node.firmwareFile = firmwareFile;
+      }
+      for (ExternalFlash flash : flashes) {
+        ExternalFlash nodeFlash = node.cpu.getChip(ExternalFlash.class, flash.getID());
+        if (nodeFlash != null) {
+          nodeFlash.setStorage(flash.forkStorage());
+        }
+      }
+      Snapshot.load(node.cpu, snapshot, true);
+      nodes[i] = node;
+    }
+    return nodes;
+  }
+
+  /**
+   * Creates a new node of the same type as this node, used when forking.
+   * The node is created with its no-arg constructor, nodes that need
+   * constructor arguments override this.
+   */
+  protected GenericNode createNode() throws IOException {
+    try {
+      return getClass().getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("can not create node of type " + getClass().getName(), e);
+    }
+  }
+
   public ELF loadFirmware(URL url) throws IOException {
     DataInputStream inputStream = new DataInputStream(url.openStream());
     ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
@@ -321,7 +424,10 @@ public abstract class GenericNode extends Chip implements Runnable {
         stop();
     }
     this.elf = elf;
-    elf.loadPrograms(cpu.memory);
+    /* the flash pages are shared with other nodes running the same firmware */
+    byte[] memory = cpu.getMemoryImage();
+    elf.loadPrograms(memory);
+    cpu.setMemoryImage(memory);
     MapTable map = elf.getMap();
     cpu.getDisAsm().setMap(map);
     cpu.setMap(map);
@@ -333,4 +439,16 @@ public abstract class GenericNode extends Chip implements Runnable {
   public int getConfiguration(int param) {
       return 0;
   }
+
+  /**
+   * Saves the operating mode of the node. Nodes that keep more state than
+   * their chips and IO units should override this and call super.
+   */
+  public void saveState(SnapshotOutput out) throws IOException {
+    out.writeInt(getMode());
+  }
+
+  public void loadState(SnapshotInput in) throws IOException {
+    setMode(in.readInt());
+  }
 }
@@ -47,6 +47,8 @@ import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.MSP430;
 import se.sics.mspsim.core.PortListener;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
 import se.sics.mspsim.core.USART;
 import se.sics.mspsim.extutil.jfreechart.DataChart;
 import se.sics.mspsim.extutil.jfreechart.DataSourceSampler;
@@ -213,6 +215,20 @@ public class ESBNode extends GenericNode implements PortListener {
     return 0;
   }
 
+  public void saveState(SnapshotOutput out) throws IOException {
+    super.saveState(out);
+    out.writeBoolean(redLed);
+    out.writeBoolean(greenLed);
+    out.writeBoolean(yellowLed);
+  }
+
+  public void loadState(SnapshotInput in) throws IOException {
+    super.loadState(in);
+    redLed = in.readBoolean();
+    greenLed = in.readBoolean();
+    yellowLed = in.readBoolean();
+  }
+
   public static void main(String[] args) throws IOException {
     ESBNode node = new ESBNode();
     ArgumentManager config = new ArgumentManager();
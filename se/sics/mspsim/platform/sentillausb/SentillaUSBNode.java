@@ -45,6 +45,8 @@ import se.sics.mspsim.chip.FileStorage;
 import se.sics.mspsim.chip.Leds;
 import se.sics.mspsim.chip.M25P80;
 import se.sics.mspsim.core.IOPort;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
 import se.sics.mspsim.core.USARTSource;
 import se.sics.mspsim.platform.sky.CC2420Node;
 import se.sics.mspsim.util.ArgumentManager;
@@ -141,6 +143,20 @@ public class SentillaUSBNode extends CC2420Node {
         return MODE_MAX;
     }
 
+    @Override
+    public void saveState(SnapshotOutput out) throws IOException {
+        super.saveState(out);
+        out.writeBoolean(redLed);
+        out.writeBoolean(greenLed);
+    }
+
+    @Override
+    public void loadState(SnapshotInput in) throws IOException {
+        super.loadState(in);
+        redLed = in.readBoolean();
+        greenLed = in.readBoolean();
+    }
+
     public static void main(String[] args) throws IOException {
         SentillaUSBNode node = new SentillaUSBNode();
         ArgumentManager config = new ArgumentManager();
@@ -1,8 +1,11 @@
 package se.sics.mspsim.platform.sky;
+import java.io.IOException;
 import se.sics.mspsim.chip.Button;
 import se.sics.mspsim.chip.Leds;
 import se.sics.mspsim.chip.SHT11;
 import se.sics.mspsim.core.IOPort;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
 
 public abstract class MoteIVNode extends CC2420Node {
 
@@ -89,4 +92,18 @@ public abstract class MoteIVNode extends CC2420Node {
     return MODE_MAX;
   }
 
+  public void saveState(SnapshotOutput out) throws IOException {
+    super.saveState(out);
+    out.writeBoolean(redLed);
+    out.writeBoolean(blueLed);
+    out.writeBoolean(greenLed);
+  }
+
+  public void loadState(SnapshotInput in) throws IOException {
+    super.loadState(in);
+    redLed = in.readBoolean();
+    blueLed = in.readBoolean();
+    greenLed = in.readBoolean();
+  }
+
 }
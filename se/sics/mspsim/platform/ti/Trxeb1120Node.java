@@ -41,6 +41,10 @@ public class Trxeb1120Node extends GenericNode implements PortListener, USARTLis
 		this.withEnc = withEnc;
 	}
 
+	protected GenericNode createNode() {
+		return new Trxeb1120Node(withEnc);
+	}
+
 	public void dataReceived(USARTSource source, int data) {
 		radio.dataReceived(source, data);
 		
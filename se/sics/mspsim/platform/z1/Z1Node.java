@@ -11,6 +11,8 @@ import se.sics.mspsim.core.EmulationException;
 import se.sics.mspsim.core.IOPort;
 import se.sics.mspsim.core.IOUnit;
 import se.sics.mspsim.core.PortListener;
+import se.sics.mspsim.core.SnapshotInput;
+import se.sics.mspsim.core.SnapshotOutput;
 import se.sics.mspsim.core.USARTListener;
 import se.sics.mspsim.core.USARTSource;
 import se.sics.mspsim.core.USCI;
@@ -232,6 +234,22 @@ public class Z1Node extends GenericNode implements PortListener, USARTListener {
         return MODE_MAX;
     }
 
+    public void saveState(SnapshotOutput out) throws IOException {
+        super.saveState(out);
+        out.writeBoolean(redLed);
+        out.writeBoolean(blueLed);
+        out.writeBoolean(greenLed);
+        out.writeInt(lastPort5);
+    }
+
+    public void loadState(SnapshotInput in) throws IOException {
+        super.loadState(in);
+        redLed = in.readBoolean();
+        blueLed = in.readBoolean();
+        greenLed = in.readBoolean();
+        lastPort5 = in.readInt();
+    }
+
     public static void main(String[] args) throws IOException {
         Z1Node node = new Z1Node();
         ArgumentManager config = new ArgumentManager();
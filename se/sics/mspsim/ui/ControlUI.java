@@ -231,7 +231,11 @@ public class ControlUI extends JPanel implements ActionListener, SimEventListene
 	}
       }
     } else if ("Stack Trace".equals(cmd)) {
-      cpu.getProfiler().printStackTrace(System.out);
+      if (cpu.getProfiler() != null) {
+	cpu.getProfiler().printStackTrace(System.out);
+      } else {
+	System.out.println("*** No profiler available");
+      }
     }
     dui.updateRegs();
   }
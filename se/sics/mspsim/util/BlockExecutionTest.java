@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * BlockExecutionTest
+ *
+ * Runs a firmware until it reports EXIT with the interpreter and with
+ * basic block execution, and compares the final state.
+ */
+package se.sics.mspsim.util;
+import java.io.IOException;
+import java.util.Arrays;
+
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.IOUnit;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.USART;
+import se.sics.mspsim.core.USARTListener;
+import se.sics.mspsim.core.USARTSource;
+
+public class BlockExecutionTest implements USARTListener {
+
+  private static final int STEP = 1000;
+  private static final int MAX_INSTRUCTIONS = 20000000;
+
+  private final StringBuilder output = new StringBuilder();
+  private final MSP430 cpu;
+  private boolean exited;
+
+  public BlockExecutionTest(String firmwareFile, boolean blockExecution) throws IOException {
+    cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    byte[] memory = cpu.getMemoryImage();
+    ELF elf = ELF.readELF(firmwareFile);
+    elf.loadPrograms(memory);
+    cpu.setMemoryImage(memory);
+    cpu.setMap(elf.getMap());
+    cpu.reset();
+    cpu.setBlockExecution(blockExecution);
+    IOUnit usart = cpu.getIOUnit("USART 1");
+    if (usart instanceof USART) {
+      ((USART) usart).addUSARTListener(this);
+    }
+  }
+
+  public void dataReceived(USARTSource source, int data) {
+    output.append((char) data);
+    if (data == '\n' && output.toString().endsWith("\nEXIT\n")) {
+      exited = true;
+    }
+  }
+
+  public void stateChanged(int state) {
+  }
+
+  /* Runs in steps of the same size in both modes until EXIT */
+  private boolean run() throws EmulationException {
+    while (!exited && cpu.getInstructionCount() < MAX_INSTRUCTIONS) {
+      cpu.stepInstructions(STEP);
+    }
+    return exited;
+  }
+
+  private static String compare(BlockExecutionTest test, BlockExecutionTest reference) {
+    for (int r = 0; r < 16; r++) {
+      if (test.cpu.getRegister(r) != reference.cpu.getRegister(r)) {
+        return "R" + r + " is $" + Utils.hex(test.cpu.getRegister(r), 4)
+            + ", expected $" + Utils.hex(reference.cpu.getRegister(r), 4);
+      }
+    }
+    if (test.cpu.cycles != reference.cpu.cycles) {
+      return "cycles are " + test.cpu.cycles + ", expected " + reference.cpu.cycles;
+    }
+    if (test.cpu.getInstructionCount() != reference.cpu.getInstructionCount()) {
+      return "instruction count is " + test.cpu.getInstructionCount()
+          + ", expected " + reference.cpu.getInstructionCount();
+    }
+    if (!Arrays.equals(test.cpu.getMemoryImage(), reference.cpu.getMemoryImage())) {
+      return "memory differs";
+    }
+    if (!test.output.toString().equals(reference.output.toString())) {
+      return "serial output differs";
+    }
+    return null;
+  }
+
+  public static void main(String[] args) throws Exception {
+    for (String file : args) {
+      BlockExecutionTest reference = new BlockExecutionTest(file, false);
+      BlockExecutionTest test = new BlockExecutionTest(file, true);
+      if (!reference.run() || !test.run()) {
+        System.out.println("FAIL: " + file + ": no EXIT");
+        System.exit(1);
+      }
+      String error = compare(test, reference);
+      if (error != null) {
+        System.out.println("FAIL: " + file + ": " + error);
+        System.exit(1);
+      }
+      System.out.println("OK: " + file + ": same final state with block execution after "
+          + reference.cpu.getInstructionCount() + " instructions");
+    }
+    System.out.println("Tests succeded!");
+  }
+
+}
@@ -43,7 +43,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import se.sics.mspsim.debug.DwarfReader;
 import se.sics.mspsim.debug.StabDebug;
@@ -86,6 +88,12 @@ public class ELF {
 
   ELFDebug debug;
 
+  // Parsed files shared by all nodes loading the same firmware
+  private static final HashMap<String, WeakReference<ELF>> loadedFiles =
+    new HashMap<String, WeakReference<ELF>>();
+  private long fileModified;
+  private long fileLength;
+
   public ELF(byte[] data) {
     elfData = data;
     setPos(0);
@@ -316,7 +324,7 @@ public class ELF {
     }
   }
 
-  public void loadPrograms(int[] memory) {
+  public void loadPrograms(byte[] memory) {
     for (int i = 0, n = phnum; i < n; i++) {
       // paddr or vaddr???
       loadBytes(memory, programs[i].offset, programs[i].paddr,
@@ -324,14 +332,14 @@ public class ELF {
     }
   }
 
-  private void loadBytes(int[] memory, int offset, int addr, int len,
+  private void loadBytes(byte[] memory, int offset, int addr, int len,
 			 int fill) {
     if (DEBUG) {
       System.out.println("Loading " + len + " bytes into " +
              Integer.toString(addr, 16) + " fill " + fill);
     }
     for (int i = 0, n = len; i < n; i++) {
-      memory[addr++] = elfData[offset++] & 0xff;
+      memory[addr++] = elfData[offset++];
     }
     if (fill > len) {
       int n = fill - len;
@@ -355,7 +363,7 @@ public class ELF {
       return null;
   }
 
-  public String lookupFile(int address) {
+  public synchronized String lookupFile(int address) {
     if (debug != null) {
         DebugInfo di = debug.getDebugInfo(address);
         if (di != null) {
@@ -371,8 +379,13 @@ public class ELF {
     return null;
   }
 
-  public MapTable getMap() {
+  /**
+   * Returns a new map table with the symbols of the file. The ELF itself
+   * may be shared by several nodes.
+   */
+  public synchronized MapTable getMap() {
     MapTable map = new MapTable();
+    files.clear();
     int sAddrHighest = -1;
     boolean foundEnd = false;
 
@@ -465,7 +478,24 @@ public class ELF {
     return map;
   }
 
+  /**
+   * Reads and parses an ELF file. The file is only read once as long as it
+   * is unmodified and in use, i.e. when a firmware is loaded into several
+   * nodes, and the parsed ELF must not be modified.
+   */
   public static ELF readELF(String file) throws IOException {
+    File fp = new File(file);
+    String key = fp.getCanonicalPath();
+    long modified = fp.lastModified();
+    long length = fp.length();
+    synchronized (loadedFiles) {
+      WeakReference<ELF> ref = loadedFiles.get(key);
+      ELF elf = ref != null ? ref.get() : null;
+      if (elf != null && elf.fileModified == modified && elf.fileLength == length) {
+        return elf;
+      }
+    }
+
     DataInputStream input = new DataInputStream(new FileInputStream(file));
     ByteArrayOutputStream baous = new ByteArrayOutputStream();
     byte[] buf = new byte[2048];
@@ -481,6 +511,11 @@ public class ELF {
 
     ELF elf = new ELF(data);
     elf.readAll();
+    elf.fileModified = modified;
+    elf.fileLength = length;
+    synchronized (loadedFiles) {
+      loadedFiles.put(key, new WeakReference<ELF>(elf));
+    }
 
     return elf;
   }
@@ -47,6 +47,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 
 import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.MSP430;
 import se.sics.mspsim.core.MSP430Core;
 import se.sics.mspsim.core.Memory;
 
@@ -127,6 +128,8 @@ public class GDBStubs implements Runnable {
                 sendResponse("m 01");
             } else if ("qsThreadInfo".equals(cmd)){
                 sendResponse("l");      
+            } else if (cmd.startsWith("qSupported")) {
+                sendResponse(cpu instanceof MSP430 ? "ReverseStep+;ReverseContinue+" : "");
             } else if ("qSymbol::".equals(cmd)){
                 sendResponse(OK);
                 //} else if ("qThreadExtraInfo,1".equals(cmd)){
@@ -185,6 +188,26 @@ public class GDBStubs implements Runnable {
         case 'C':
             sendResponse("S01");
             break;
+        case 'b':
+            if (cpu instanceof MSP430 && ("bs".equals(cmd) || "bc".equals(cmd))) {
+                MSP430 msp = (MSP430) cpu;
+                boolean stopped;
+                if (msp.isRunning()) {
+                    sendResponse("E01");
+                    break;
+                }
+                if ("bs".equals(cmd)) {
+                    stopped = msp.reverseStep(1) == 1;
+                } else {
+                    stopped = msp.reverseContinue();
+                }
+                /* tell GDB when the start of the execution history is reached */
+                sendResponse(stopped ? "S05" : "T05replaylog:begin;");
+            } else {
+                System.out.println("Command unknown");
+                sendResponse("");
+            }
+            break;
         default:
             System.out.println("Command unknown");
             sendResponse("");
@@ -59,7 +59,7 @@ public class IHexReader {
   public IHexReader() {
   }
 
-  public boolean readFile(int memory[], String file) {
+  public boolean readFile(byte memory[], String file) {
     for (int i = 0, n = tmpMemory.length; i < n; i++) {
       tmpMemory[i] = -1;
     }
@@ -103,7 +103,7 @@ public class IHexReader {
       System.out.println("Writing to memory!");
       for (int i = 0, n = tmpMemory.length; i < n; i++) {
 	if (tmpMemory[i] != -1) {
-	  memory[i] = tmpMemory[i];
+	  memory[i] = (byte) tmpMemory[i];
 	}
       }
 
@@ -139,8 +139,9 @@ public class IHexReader {
 // 		       " T ^ F => " + (false ^ true));
 
     MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
-    int[] memory = cpu.memory;
+    byte[] memory = cpu.getMemoryImage();
     reader.readFile(memory, args[0]);
+    cpu.setMemoryImage(memory);
     cpu.reset();
     cpu.cpuloop();
   }
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * LockStepTest
+ *
+ * Runs a firmware with compiled basic blocks in lock-step with the
+ * interpreter executing one instruction at a time, and compares the
+ * registers, the cycles and the memory after every step. After the
+ * firmware has reported EXIT, hot loops in RAM and in flash are
+ * rewritten to check that the compiled code is dropped.
+ */
+package se.sics.mspsim.util;
+import java.io.IOException;
+import java.util.Arrays;
+
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.IOUnit;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MSP430Constants;
+import se.sics.mspsim.core.Memory;
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.USART;
+import se.sics.mspsim.core.USARTListener;
+import se.sics.mspsim.core.USARTSource;
+
+public class LockStepTest implements MSP430Constants {
+
+  private static final int STEP = 100;
+  private static final int MAX_INSTRUCTIONS = 20000000;
+
+  /* Flash controller registers and commands */
+  private static final int FCTL1 = 0x128;
+  private static final int FCTL2 = 0x12a;
+  private static final int FCTL3 = 0x12c;
+  private static final int FWKEY = 0xa500;
+  private static final int ERASE = 0x02;
+  private static final int WRT = 0x40;
+  private static final int FSSEL_MCLK = 0x40;
+  private static final int LOCK = 0x10;
+  private static final int BUSY = 0x01;
+
+  /* Code for the hot loops, "add #1, rN" is changed to "add #2, rN" */
+  private static final int RAM_LOOP = 0x1100;
+  private static final int FLASH_LOOP = 0xfc00;
+  private static final int ADD1_R15 = 0x531f;
+  private static final int ADD2_R15 = 0x532f;
+  private static final int ADD1_R14 = 0x531e;
+  private static final int ADD2_R14 = 0x532e;
+  private static final int JMP_BACK = 0x3ffe;
+
+  private final MSP430 reference;
+  private final MSP430 cpu;
+  private final String name;
+  private long steps;
+
+  private static class ExitListener implements USARTListener {
+    private final StringBuilder line = new StringBuilder();
+    boolean exited;
+
+    public void dataReceived(USARTSource source, int data) {
+      if (data == '\n') {
+        if (line.toString().startsWith("EXIT")) {
+          exited = true;
+        }
+        line.setLength(0);
+      } else {
+        line.append((char) data);
+      }
+    }
+
+    public void stateChanged(int state) {
+    }
+  }
+
+  private final ExitListener referenceExit = new ExitListener();
+  private final ExitListener cpuExit = new ExitListener();
+
+  public LockStepTest(String firmwareFile, int compileThreshold) throws IOException {
+    this.name = firmwareFile;
+    reference = createCPU(firmwareFile, referenceExit);
+    cpu = createCPU(firmwareFile, cpuExit);
+    cpu.setBlockExecution(true);
+    cpu.setBlockCompileThreshold(compileThreshold);
+  }
+
+  private static MSP430 createCPU(String firmwareFile, ExitListener listener) throws IOException {
+    MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    byte[] memory = cpu.getMemoryImage();
+    ELF elf = ELF.readELF(firmwareFile);
+    elf.loadPrograms(memory);
+    cpu.setMemoryImage(memory);
+    cpu.setMap(elf.getMap());
+    cpu.reset();
+    IOUnit usart = cpu.getIOUnit("USART 1");
+    if (usart instanceof USART) {
+      ((USART) usart).addUSARTListener(listener);
+    }
+    return cpu;
+  }
+
+  private void fail(String message) {
+    System.out.println("FAIL: " + name + ": " + message + " after " + steps
+        + " instructions at PC $" + Utils.hex(reference.getPC(), 4));
+    System.exit(1);
+  }
+
+  /* Executes count instructions on both CPUs and compares their state */
+  private void step(int count) throws EmulationException {
+    for (int i = 0; i < count; i++) {
+      reference.stepInstructions(1);
+    }
+    cpu.stepInstructions(count);
+    steps += count;
+    for (int r = 0; r < 16; r++) {
+      if (cpu.getRegister(r) != reference.getRegister(r)) {
+        fail("R" + r + " is $" + Utils.hex(cpu.getRegister(r), 4)
+            + ", expected $" + Utils.hex(reference.getRegister(r), 4));
+      }
+    }
+    if (cpu.cycles != reference.cycles) {
+      fail("cycles are " + cpu.cycles + ", expected " + reference.cycles);
+    }
+    if (!Arrays.equals(cpu.getMemoryImage(), reference.getMemoryImage())) {
+      fail("memory differs");
+    }
+  }
+
+  private void write(int address, int value) {
+    reference.getMemory().set(address, value, AccessMode.WORD);
+    cpu.getMemory().set(address, value, AccessMode.WORD);
+  }
+
+  private void setRegister(int register, int value) {
+    reference.writeRegister(register, value);
+    cpu.writeRegister(register, value);
+  }
+
+  /* Writes to the flash controller or the flash and steps until the flash is ready */
+  private void flashCommand(int address, int value) throws EmulationException {
+    write(address, value);
+    while ((reference.getMemory().get(FCTL3, AccessMode.WORD) & BUSY) != 0) {
+      step(STEP);
+    }
+  }
+
+  /* Runs the loop and checks that the register was incremented each iteration */
+  private void runLoop(int address, int register, int increment) throws EmulationException {
+    setRegister(PC, address);
+    int start = reference.getRegister(register);
+    for (int i = 0; i < 40; i++) {
+      step(STEP);
+    }
+    int expected = (start + increment * 40 * STEP / 2) & 0xffff;
+    if (reference.getRegister(register) != expected) {
+      fail("loop at $" + Utils.hex(address, 4) + " did not add " + increment);
+    }
+  }
+
+  public void run() throws EmulationException {
+    while (!referenceExit.exited) {
+      if (steps > MAX_INSTRUCTIONS) {
+        fail("no EXIT");
+      }
+      step(STEP);
+    }
+    if (!cpuExit.exited) {
+      fail("no EXIT with compiled blocks");
+    }
+    System.out.println("OK: " + name + ": " + steps + " instructions in lock-step");
+
+    /* no interrupts and no low power mode while running the loops */
+    setRegister(SR, 0);
+
+    /* a RAM write drops the compiled loop */
+    write(RAM_LOOP, ADD1_R15);
+    write(RAM_LOOP + 2, JMP_BACK);
+    runLoop(RAM_LOOP, 15, 1);
+    write(RAM_LOOP, ADD2_R15);
+    runLoop(RAM_LOOP, 15, 2);
+    System.out.println("OK: " + name + ": RAM write drops the compiled code");
+
+    /* a flash segment erase drops the compiled loop */
+    for (int a = FLASH_LOOP; a < FLASH_LOOP + 4; a += 2) {
+      if (reference.getMemory().get(a, AccessMode.WORD) != 0xffff) {
+        fail("flash at $" + Utils.hex(a, 4) + " is not free");
+      }
+    }
+    setRegister(PC, RAM_LOOP);
+    flashCommand(FCTL2, FWKEY | FSSEL_MCLK | 2);
+    flashCommand(FCTL3, FWKEY);
+    flashCommand(FCTL1, FWKEY | WRT);
+    flashCommand(FLASH_LOOP, ADD1_R14);
+    flashCommand(FLASH_LOOP + 2, JMP_BACK);
+    runLoop(FLASH_LOOP, 14, 1);
+
+    setRegister(PC, RAM_LOOP);
+    flashCommand(FCTL1, FWKEY | ERASE);
+    flashCommand(FLASH_LOOP, 0);
+    if (reference.getMemory().get(FLASH_LOOP, AccessMode.WORD) != 0xffff) {
+      fail("flash segment at $" + Utils.hex(FLASH_LOOP, 4) + " not erased");
+    }
+    flashCommand(FCTL1, FWKEY | WRT);
+    flashCommand(FLASH_LOOP, ADD2_R14);
+    flashCommand(FLASH_LOOP + 2, JMP_BACK);
+    flashCommand(FCTL1, FWKEY);
+    flashCommand(FCTL3, FWKEY | LOCK);
+    runLoop(FLASH_LOOP, 14, 2);
+    System.out.println("OK: " + name + ": flash erase drops the compiled code");
+  }
+
+  public static void main(String[] args) throws Exception {
+    for (String file : args) {
+      new LockStepTest(file, 1).run();
+    }
+    System.out.println("Tests succeded!");
+  }
+
+}
@@ -41,6 +41,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.regex.Pattern;
 
@@ -71,6 +72,7 @@ public class MapTable {
   private ArrayList<MapEntry> modules = new ArrayList<MapEntry>();
   private ArrayList<MapEntry> entries = new ArrayList<MapEntry>();
   private HashMap<Integer, MapEntry> addressMap = new HashMap<Integer, MapEntry>();
+  private MapEntry[] sortedEntries;
   
   public MapTable() {
   }
@@ -212,6 +214,32 @@ public class MapTable {
       return addressMap.get(address);
   }
 
+  /**
+   * Returns the entry with the highest address at or below the specified
+   * address, or null if there is no such entry.
+   */
+  public MapEntry getNearestEntry(int address) {
+    MapEntry[] sorted = sortedEntries;
+    if (sorted == null) {
+      sorted = entries.toArray(new MapEntry[entries.size()]);
+      Arrays.sort(sorted, (a, b) -> Integer.compare(a.getAddress(), b.getAddress()));
+      sortedEntries = sorted;
+    }
+    int low = 0;
+    int high = sorted.length - 1;
+    MapEntry nearest = null;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid].getAddress() <= address) {
+        nearest = sorted[mid];
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return nearest;
+  }
+
   public MapEntry[] getAllEntries() {
     return entries.toArray(new MapEntry[entries.size()]);
   }
@@ -235,6 +263,7 @@ public class MapTable {
   public void setEntry(MapEntry entry) {
     entries.add(entry);
     addressMap.put(entry.getAddress(), entry);
+    sortedEntries = null;
   }
 
   // Really slow way to find a specific function address!!!!
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * MemoryBenchmark
+ *
+ * Runs the memory access benchmark in tests/membench.s with the
+ * interpreter, basic blocks and compiled blocks, with the data segments
+ * accessed directly in memory and with the data segments watched.
+ */
+package se.sics.mspsim.util;
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MemoryMonitor;
+
+public class MemoryBenchmark {
+
+  /* unused addresses in the RAM buffer and the flash table segments */
+  private static final int[] WATCHED = { 0x11fe, 0x41fe };
+
+  private static final int WARMUP = 5000000;
+
+  private final String firmwareFile;
+  private final int instructions;
+
+  public MemoryBenchmark(String firmwareFile, int instructions) {
+    this.firmwareFile = firmwareFile;
+    this.instructions = instructions;
+  }
+
+  private MSP430 createCPU(boolean blocks, int compileThreshold, boolean watched) {
+    MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    byte[] memory = cpu.getMemoryImage();
+    if (!new IHexReader().readFile(memory, firmwareFile)) {
+      throw new IllegalArgumentException("could not read " + firmwareFile);
+    }
+    cpu.setMemoryImage(memory);
+    cpu.reset();
+    cpu.setBlockExecution(blocks);
+    cpu.setBlockCompileThreshold(compileThreshold);
+    if (watched) {
+      MemoryMonitor monitor = new MemoryMonitor.Adapter();
+      for (int address : WATCHED) {
+        cpu.addWatchPoint(address, monitor);
+      }
+    }
+    return cpu;
+  }
+
+  private MSP430 run(String name, boolean blocks, int compileThreshold, boolean watched)
+      throws EmulationException {
+    MSP430 cpu = createCPU(blocks, compileThreshold, watched);
+    cpu.stepInstructions(WARMUP);
+    long time = System.nanoTime();
+    cpu.stepInstructions(instructions);
+    time = System.nanoTime() - time;
+    System.out.printf("%-12s %-8s %8.2f MIPS%n", name, watched ? "watched" : "direct",
+        instructions * 1000.0 / time);
+    return cpu;
+  }
+
+  /* Returns false if any mode ends in another state than the interpreter */
+  public boolean run() throws EmulationException {
+    String[] names = { "interpreter", "blocks", "compiled" };
+    MSP430 reference = null;
+    boolean same = true;
+    for (int i = 0; i < names.length * 2; i++) {
+      MSP430 cpu = run(names[i >> 1], i >= 2, i >= 4 ? 1 : 0, (i & 1) != 0);
+      if (reference == null) {
+        reference = cpu;
+      } else if (cpu.cycles != reference.cycles
+          || cpu.getRegister(6) != reference.getRegister(6)) {
+        System.out.println("FAIL: " + names[i >> 1] + " ends in another state than the interpreter");
+        same = false;
+      }
+    }
+    return same;
+  }
+
+  public static void main(String[] args) throws EmulationException {
+    String file = args.length > 0 ? args[0] : "tests/membench.hex";
+    int instructions = args.length > 1 ? Integer.parseInt(args[1]) : 50000000;
+    if (!new MemoryBenchmark(file, instructions).run()) {
+      System.exit(1);
+    }
+  }
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * MemoryPageTest
+ *
+ * Tests byte, word and 20-bit accesses across the 256 byte memory pages,
+ * the IO memory below the pages, the RAM mirror and the flash pages
+ * shared between nodes.
+ */
+package se.sics.mspsim.util;
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.config.MSP430f5437Config;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MSP430Config;
+import se.sics.mspsim.core.Memory;
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.Memory.AccessType;
+
+public class MemoryPageTest {
+
+  private static final int FWKEY = 0xa500;
+  private static final int FRKEY = 0x9600;
+  private static final int WRT = 0x40;
+  private static final int FSSEL_MCLK = 0x40;
+
+  private final String name;
+  private final MSP430Config config;
+  private final MSP430 cpu;
+  private final Memory memory;
+
+  public MemoryPageTest(String name, MSP430Config config) {
+    this.name = name;
+    this.config = config;
+    this.cpu = new MSP430(0, new ComponentRegistry(), config);
+    this.memory = cpu.getMemory();
+  }
+
+  private void check(String what, int value, int expected) {
+    if (value != expected) {
+      System.out.println("FAIL: " + name + ": " + what + " is $" + Utils.hex20(value)
+          + ", expected $" + Utils.hex20(expected));
+      System.exit(1);
+    }
+  }
+
+  /* Expected little endian value of the bytes (address & 0xff) + 1 */
+  private static int pattern(int address, AccessMode mode) {
+    int value = 0;
+    for (int i = mode.bytes - 1; i >= 0; i--) {
+      value = (value << 8) | ((address + i + 1) & 0xff);
+    }
+    return value & mode.mask;
+  }
+
+  /* Accesses at all alignments that end in or start at the page boundary */
+  private void testAccesses(String what, int boundary, AccessMode mode, int offset) {
+    for (int address = boundary - mode.bytes + 1; address <= boundary; address++) {
+      /* fill around the access with a known pattern */
+      for (int a = address - 4; a < address + 8; a++) {
+        memory.write(a, a & 0xff, AccessMode.BYTE);
+      }
+      int value = mode == AccessMode.WORD20 ? 0x5a5a5 : 0xa5c3 & mode.mask;
+      memory.write(address, value, mode);
+      String at = what + " " + mode + " at $" + Utils.hex(address, 4);
+      check(at + " read", memory.read(address, mode, AccessType.READ), value);
+      check(at + " get", memory.get(address, mode), value);
+      check(at + " peek", cpu.peekMemory(address + offset, mode), value);
+      byte[] image = cpu.getMemoryImage();
+      check(at + " image", mode.get(image, address + offset), value);
+      /* a 20-bit value occupies four bytes */
+      int size = mode == AccessMode.WORD20 ? 4 : mode.bytes;
+      if (mode == AccessMode.WORD20) {
+        check(at + " fourth byte", image[address + offset + 3] & 0xff, 0);
+      }
+      check(at + " byte before", image[address + offset - 1] & 0xff, (address - 1) & 0xff);
+      check(at + " byte after", image[address + offset + size] & 0xff, (address + size) & 0xff);
+    }
+  }
+
+  private void testRAM() {
+    int boundary = config.ramStart + Memory.SEGMENT_SIZE;
+    for (AccessMode mode : AccessMode.values()) {
+      if (mode != AccessMode.WORD20 || config.MSP430XArch) {
+        testAccesses("RAM", boundary, mode, 0);
+      }
+    }
+    if (config.ramMirrorSize > 0) {
+      int mirror = config.ramMirrorStart + Memory.SEGMENT_SIZE;
+      testAccesses("RAM mirror", mirror, AccessMode.WORD, config.ramMirrorAddress - config.ramMirrorStart);
+      memory.write(config.ramMirrorStart, 0x1234, AccessMode.WORD);
+      check("RAM behind mirror", memory.read(config.ramMirrorAddress, AccessMode.WORD, AccessType.READ), 0x1234);
+    }
+    System.out.println("OK: " + name + ": RAM accesses across pages");
+  }
+
+  private void testFlash() {
+    int boundary = config.mainFlashStart + Memory.SEGMENT_SIZE;
+    byte[] image = cpu.getMemoryImage();
+    for (int a = boundary - 4; a < boundary + 4; a++) {
+      image[a] = (byte) (a + 1);
+    }
+    cpu.setMemoryImage(image);
+    MSP430 other = new MSP430(0, new ComponentRegistry(), config);
+    other.setMemoryImage(image);
+    for (AccessMode mode : AccessMode.values()) {
+      if (mode == AccessMode.WORD20 && !config.MSP430XArch) {
+        continue;
+      }
+      for (int address = boundary - mode.bytes + 1; address <= boundary; address++) {
+        String at = "flash " + mode + " at $" + Utils.hex(address, 4);
+        check(at + " read", memory.read(address, mode, AccessType.READ), pattern(address, mode));
+        check(at + " peek", cpu.peekMemory(address, mode), pattern(address, mode));
+      }
+    }
+
+    /* program a word in one node, the other node keeps the shared page */
+    int fctl = config.flashControllerOffset;
+    memory.write(fctl + 2, FWKEY | FSSEL_MCLK | 2, AccessMode.WORD);
+    check("FCTL2", memory.read(fctl + 2, AccessMode.WORD, AccessType.READ), FRKEY | FSSEL_MCLK | 2);
+    memory.write(fctl + 4, FWKEY, AccessMode.WORD);
+    memory.write(fctl, FWKEY | WRT, AccessMode.WORD);
+    memory.write(boundary, 0x0f0f, AccessMode.WORD);
+    check("programmed flash", cpu.peekMemory(boundary, AccessMode.WORD), pattern(boundary, AccessMode.WORD) & 0x0f0f);
+    check("flash of other node", other.peekMemory(boundary, AccessMode.WORD), pattern(boundary, AccessMode.WORD));
+    check("flash before the page", cpu.peekMemory(boundary - 2, AccessMode.WORD), pattern(boundary - 2, AccessMode.WORD));
+    System.out.println("OK: " + name + ": flash accesses across pages");
+  }
+
+  private void testIO() {
+    /* the IO memory is stored apart from the pages */
+    int end = config.maxMemIO;
+    byte[] image = cpu.getMemoryImage();
+    for (int a = end - 4; a < end + 4; a++) {
+      image[a] = (byte) (a + 1);
+    }
+    cpu.setMemoryImage(image);
+    for (AccessMode mode : AccessMode.values()) {
+      for (int address = end - mode.bytes + 1; address <= end; address++) {
+        check("IO memory " + mode + " at $" + Utils.hex(address, 4),
+            cpu.peekMemory(address, mode), pattern(address, mode));
+      }
+    }
+    byte[] copy = new byte[8];
+    cpu.copyMemory(end - 4, copy, 0, copy.length);
+    for (int i = 0; i < copy.length; i++) {
+      check("IO memory copy at $" + Utils.hex(end - 4 + i, 4), copy[i] & 0xff, (end - 3 + i) & 0xff);
+    }
+    System.out.println("OK: " + name + ": IO memory next to the pages");
+  }
+
+  public void run() {
+    testRAM();
+    testFlash();
+    testIO();
+  }
+
+  public static void main(String[] args) {
+    new MemoryPageTest("MSP430f1611", new MSP430f1611Config()).run();
+    new MemoryPageTest("MSP430f5437", new MSP430f5437Config()).run();
+    System.out.println("Tests succeded!");
+  }
+
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * RepeatTest
+ *
+ * Checks that repeated MSP430X instructions (RPT) executed in one step
+ * give the same registers, flags and cycles as the loop that executes
+ * them once per repeat. The loop is used by a CPU with a register
+ * monitor. Each instruction is run with 1 - 16 repeats, with the count
+ * both in the extension word and in a register, for all data lengths
+ * and with and without the ZC bit.
+ */
+package se.sics.mspsim.util;
+import se.sics.mspsim.config.MSP430f5437Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MSP430Constants;
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.RegisterMonitor;
+
+public class RepeatTest implements MSP430Constants {
+
+  private static final int VALUES = 24;
+  private static final int MAX_REPEATS = 16;
+
+  private static final int CODE = 0x2000;
+  private static final int RESET_VECTOR = 0xfffe;
+  private static final int WDTCTL = 0x15c;
+  private static final int NOP = 0x4303;
+
+  /* source, destination and repeat count registers */
+  private static final int RS = 4;
+  private static final int RD = 5;
+  private static final int RN = 12;
+
+  private static final String[] NAMES = {
+    "RRCX", "RRAX", "ADDX", "ADDCX", "RLAX", "MOVX"
+  };
+  private static final int[] INSTRUCTIONS = {
+    0x1000 | RD,             // rrcx rd
+    0x1100 | RD,             // rrax rd
+    0x5000 | RS << 8 | RD,   // addx rs, rd
+    0x6000 | RS << 8 | RD,   // addcx rs, rd
+    0x5000 | RD << 8 | RD,   // rlax rd
+    0x4000 | RS << 8 | RD    // movx rs, rd
+  };
+
+  /* data length suffix, A/L bit of the extension word and B/W bit of the instruction */
+  private static final String[] LENGTHS = { ".W", ".B", ".A" };
+  private static final int[] AL = { EXTWORD_AL, EXTWORD_AL, 0 };
+  private static final int[] BW = { 0, 0x40, 0x40 };
+
+  /* values at the edges of the data lengths */
+  private static final int[] EDGES = {
+    0, 1, 0x7f, 0x80, 0xff, 0x7fff, 0x8000, 0xffff, 0x7ffff, 0x80000, 0xfffff
+  };
+
+  private final MSP430 reference = createCPU();
+  private final MSP430 cpu = createCPU();
+  private long seed = 1;
+  private int executed;
+
+  private RepeatTest() {
+    /* any register monitor makes the CPU execute the repeats one by one */
+    reference.addRegisterWriteMonitor(15, new RegisterMonitor.Adapter());
+  }
+
+  private static MSP430 createCPU() {
+    MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f5437Config());
+    byte[] memory = cpu.getMemoryImage();
+    memory[RESET_VECTOR] = (byte) CODE;
+    memory[RESET_VECTOR + 1] = (byte) (CODE >> 8);
+    memory[CODE] = (byte) NOP;
+    memory[CODE + 1] = (byte) (NOP >> 8);
+    cpu.setMemoryImage(memory);
+    cpu.reset();
+    try {
+      cpu.stepInstructions(1);
+    } catch (EmulationException e) {
+      throw new IllegalStateException(e);
+    }
+    /* stop the watchdog */
+    cpu.getMemory().set(WDTCTL, 0x5a80, AccessMode.WORD);
+    return cpu;
+  }
+
+  private int random() {
+    seed = seed * 6364136223846793005L + 1442695040888963407L;
+    return (int) (seed >>> 33);
+  }
+
+  private int randomValue() {
+    int r = random();
+    if ((r & 3) == 0) {
+      return EDGES[(r >>> 2) % EDGES.length];
+    }
+    return (r >>> 2) & 0xfffff;
+  }
+
+  private static void fail(String message) {
+    System.out.println("FAIL: " + message);
+    System.exit(1);
+  }
+
+  private static void execute(MSP430 cpu, int extWord, int instruction,
+      int src, int dst, int count, int sr) throws EmulationException {
+    cpu.getMemory().set(CODE, extWord, AccessMode.WORD);
+    cpu.getMemory().set(CODE + 2, instruction, AccessMode.WORD);
+    cpu.writeRegister(RS, src);
+    cpu.writeRegister(RD, dst);
+    cpu.writeRegister(RN, count);
+    cpu.writeRegister(SR, sr);
+    cpu.writeRegister(PC, CODE);
+    cpu.stepInstructions(1);
+  }
+
+  private void compare(String name, int src, int dst, int sr) {
+    String values = " with rs=$" + Utils.hex20(src) + " rd=$" + Utils.hex20(dst)
+        + " sr=$" + Utils.hex16(sr);
+    for (int r = 0; r < 16; r++) {
+      if (cpu.getRegister(r) != reference.getRegister(r)) {
+        fail(name + values + ": R" + r + " is $" + Utils.hex20(cpu.getRegister(r))
+            + ", expected $" + Utils.hex20(reference.getRegister(r)));
+      }
+    }
+    if (cpu.cycles != reference.cycles) {
+      fail(name + values + ": cycles are " + cpu.cycles + ", expected " + reference.cycles);
+    }
+    if (reference.getPC() != CODE + 4) {
+      fail(name + values + ": not executed as one instruction");
+    }
+  }
+
+  private void run(int index) throws EmulationException {
+    for (int length = 0; length < LENGTHS.length; length++) {
+      int instruction = INSTRUCTIONS[index] | BW[length];
+      for (int zc = 0; zc <= EXTWORD_ZC; zc += EXTWORD_ZC) {
+        for (int repeats = 1; repeats <= MAX_REPEATS; repeats++) {
+          for (int inRegister = 0; inRegister < 2; inRegister++) {
+            int extWord = 0x1800 | zc | AL[length]
+                | (inRegister != 0 ? EXTWORD_REPEAT | RN : repeats - 1);
+            String name = NAMES[index] + LENGTHS[length] + " RPT "
+                + (inRegister != 0 ? "R" + RN + "=" + (repeats - 1) : "#" + repeats)
+                + (zc != 0 ? " ZC" : "");
+            for (int i = 0; i < VALUES; i++) {
+              int src = randomValue();
+              int dst = randomValue();
+              int sr = random() & (CARRY | ZERO | NEGATIVE | OVERFLOW);
+              execute(reference, extWord, instruction, src, dst, repeats - 1, sr);
+              execute(cpu, extWord, instruction, src, dst, repeats - 1, sr);
+              compare(name, src, dst, sr);
+              executed++;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws EmulationException {
+    RepeatTest test = new RepeatTest();
+    for (int i = 0; i < NAMES.length; i++) {
+      test.executed = 0;
+      test.run(i);
+      System.out.println("OK: " + NAMES[i] + ": same registers, flags and cycles as the loop for "
+          + test.executed + " repeated instructions");
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,628 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * SnapshotTest
+ *
+ * Runs a node, saves a snapshot and checks that the node continues
+ * exactly the same way after the snapshot is restored, both in the
+ * same node and in a new node of the same type. The registers, cycles,
+ * memory and scheduled events are compared, and the restored node must
+ * save the same snapshot again to find state that is not restored.
+ * Full and delta snapshots are restored with all memory encodings.
+ * A chain of delta snapshots is restored the same way in a new node,
+ * as is a snapshot that is restored lazily from a mapped file or from
+ * a buffer shared by several nodes. Forked copies of a node must start
+ * in the same state and not see the memory or flash writes of the node
+ * or the other copies. The differences between two snapshots of a
+ * known change must be reported exactly. Recorded serial input and
+ * button presses must be replayed into a restored node with the same
+ * result as during the recording. Reverse steps must land on the same state as
+ * before the instructions that are stepped back over.
+ */
+package se.sics.mspsim.util;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import se.sics.mspsim.chip.Button;
+import se.sics.mspsim.chip.ExternalFlash;
+import se.sics.mspsim.chip.MemoryStorage;
+import se.sics.mspsim.chip.Storage;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MSP430Constants;
+import se.sics.mspsim.core.Memory.AccessMode;
+import se.sics.mspsim.core.Snapshot;
+import se.sics.mspsim.core.SnapshotDiff;
+import se.sics.mspsim.core.StimulusRecorder;
+import se.sics.mspsim.core.StimulusReplayer;
+import se.sics.mspsim.core.USARTSource;
+import se.sics.mspsim.platform.GenericNode;
+
+public class SnapshotTest {
+
+  private static final int WARMUP_INSTRUCTIONS = 300000;
+  private static final int RUN_INSTRUCTIONS = 200000;
+  private static final int DELTAS = 3;
+  private static final int FORKS = 2;
+  private static final int REPLAY_INPUTS = 10;
+  private static final int REVERSE_INSTRUCTIONS = 4000;
+  private static final long CHECKPOINT_CYCLES = 2000;
+  private static final long TIMEOUT = 60000;
+
+  /* The part of the node state that is compared */
+  private static class State {
+    final String registers;
+    final byte[] memory;
+    final String events;
+
+    State(MSP430 cpu) {
+      StringBuilder sb = new StringBuilder();
+      for (int r = 0; r < 16; r++) {
+        sb.append('R').append(r).append('=').append(Utils.hex(cpu.getRegister(r), 5)).append(' ');
+      }
+      sb.append("cycles=").append(cpu.cycles);
+      registers = sb.toString();
+      memory = cpu.getMemoryImage();
+      events = getEventQueue(cpu);
+    }
+  }
+
+  private final String name;
+
+  private SnapshotTest(String name) {
+    this.name = name;
+  }
+
+  /* Returns the offset of the snapshot id that differs between snapshots of the same state */
+  private static int getIdOffset(ByteBuffer snapshot) {
+    /* magic, version, configuration class, memory size and cycles */
+    return 4 + 4 + 2 + (snapshot.getShort(8) & 0xffff) + 4 + 8;
+  }
+
+  private static String getEventQueue(MSP430 cpu) {
+    ByteArrayOutputStream queue = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(queue);
+    cpu.printEventQueues(out);
+    out.flush();
+    return queue.toString();
+  }
+
+  private static GenericNode createNode(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException {
+    GenericNode node = (GenericNode) Class.forName(nodeClass).getDeclaredConstructor().newInstance();
+    node.loadFirmware(firmwareFile);
+    ConfigManager config = new ConfigManager();
+    config.setProperty("cli", "false");
+    config.setProperty("nogui", "true");
+    node.setup(config);
+    /* keep the external flash in memory instead of in a file next to the firmware */
+    for (ExternalFlash flash : node.getCPU().getChips(ExternalFlash.class)) {
+      MemoryStorage storage = new MemoryStorage();
+      storage.setMaxSize(flash.getSize());
+      flash.setStorage(storage);
+    }
+    return node;
+  }
+
+  private void fail(String message) {
+    System.out.println("FAIL: " + name + ": " + message);
+    System.exit(1);
+  }
+
+  private void compare(String what, State state, State expected) {
+    if (!state.registers.equals(expected.registers)) {
+      fail(what + ": registers are\n  " + state.registers + "\nexpected\n  " + expected.registers);
+    }
+    if (!Arrays.equals(state.memory, expected.memory)) {
+      for (int i = 0; i < state.memory.length; i++) {
+        if (state.memory[i] != expected.memory[i]) {
+          fail(what + ": memory differs at $" + Utils.hex(i, 5));
+        }
+      }
+      fail(what + ": memory differs");
+    }
+    if (!state.events.equals(expected.events)) {
+      fail(what + ": scheduled events are\n" + state.events + "expected:\n" + expected.events);
+    }
+  }
+
+  /* Returns the first offset where the snapshots differ, ignoring the id, or -1 if none */
+  private static int getDifference(ByteBuffer snapshot, ByteBuffer expected) {
+    int idOffset = getIdOffset(expected);
+    for (int i = 0; i < Math.min(snapshot.remaining(), expected.remaining()); i++) {
+      if (snapshot.get(i) != expected.get(i) && (i < idOffset || i >= idOffset + 8)) {
+        return i;
+      }
+    }
+    return snapshot.remaining() != expected.remaining() ? expected.remaining() : -1;
+  }
+
+  private void compare(String what, MSP430 cpu, ByteBuffer expected) throws IOException {
+    ByteBuffer snapshot = Snapshot.save(cpu);
+    if (snapshot.remaining() != expected.remaining()) {
+      fail(what + ": snapshot is " + snapshot.remaining() + " bytes, expected " + expected.remaining());
+    }
+    int offset = getDifference(snapshot, expected);
+    if (offset >= 0) {
+      fail(what + ": snapshot differs at offset " + offset);
+    }
+  }
+
+  private void run(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    Snapshot.checkSnapshotable(cpu);
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+
+    State saved = new State(cpu);
+    ByteBuffer snapshot = Snapshot.save(cpu);
+    compare("after save", new State(cpu), saved);
+    cpu.stepInstructions(RUN_INSTRUCTIONS);
+    State expected = new State(cpu);
+
+    /* restore the node itself */
+    Snapshot.load(cpu, snapshot, false);
+    compare("restored", new State(cpu), saved);
+    compare("saved after restore", cpu, snapshot);
+    cpu.stepInstructions(RUN_INSTRUCTIONS);
+    compare("run after restore", new State(cpu), expected);
+
+    /* restore a new node that has only been reset */
+    GenericNode copy = createNode(nodeClass, firmwareFile);
+    MSP430 copyCPU = copy.getCPU();
+    Snapshot.load(copyCPU, snapshot, false);
+    compare("restored in new node", new State(copyCPU), saved);
+    compare("saved in new node", copyCPU, snapshot);
+    copyCPU.stepInstructions(RUN_INSTRUCTIONS);
+    compare("run in new node", new State(copyCPU), expected);
+
+    System.out.println("OK: " + name + ": same state " + RUN_INSTRUCTIONS
+        + " instructions after restoring a snapshot of " + snapshot.remaining() + " bytes");
+  }
+
+  /* Saves a full snapshot followed by delta snapshots and restores the chain in a new node */
+  private void runDelta(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+
+    File[] files = new File[DELTAS + 1];
+    int[] sizes = new int[files.length];
+    for (int i = 0; i < files.length; i++) {
+      if (i > 0) {
+        cpu.stepInstructions(RUN_INSTRUCTIONS);
+      }
+      files[i] = File.createTempFile("snapshot", ".msps");
+      files[i].deleteOnExit();
+      /* the first snapshot is a full snapshot since there is no previous snapshot */
+      sizes[i] = Snapshot.saveDelta(cpu, files[i]);
+    }
+    State saved = new State(cpu);
+    ByteBuffer snapshot = Snapshot.save(cpu);
+    cpu.stepInstructions(RUN_INSTRUCTIONS);
+    State expected = new State(cpu);
+    for (int i = 1; i < files.length; i++) {
+      if (sizes[i] >= sizes[0]) {
+        fail("delta snapshot " + i + " is " + sizes[i] + " bytes, full snapshot " + sizes[0] + " bytes");
+      }
+    }
+
+    GenericNode copy = createNode(nodeClass, firmwareFile);
+    MSP430 copyCPU = copy.getCPU();
+    Snapshot.load(copyCPU, files[0]);
+    try {
+      Snapshot.load(copyCPU, files[2]);
+      fail("delta snapshot restored on the wrong snapshot");
+    } catch (IOException e) {
+      /* expected - the second delta is based on the first delta */
+    }
+    for (int i = 1; i < files.length; i++) {
+      Snapshot.load(copyCPU, files[i]);
+    }
+    compare("restored delta snapshots", new State(copyCPU), saved);
+    compare("saved after delta snapshots", copyCPU, snapshot);
+    copyCPU.stepInstructions(RUN_INSTRUCTIONS);
+    compare("run after delta snapshots", new State(copyCPU), expected);
+
+    for (File file : files) {
+      file.delete();
+    }
+    System.out.println("OK: " + name + ": same state after restoring a " + sizes[0]
+        + " bytes snapshot and " + DELTAS + " delta snapshots of " + sizes[1] + " - "
+        + sizes[DELTAS] + " bytes");
+  }
+
+  /* Saves full and delta snapshots with each encoding and restores them in new nodes */
+  private void runEncodings(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+    StringBuilder sizes = new StringBuilder();
+    int rawSize = 0;
+    for (Snapshot.Encoding encoding : Snapshot.Encoding.values()) {
+      State saved = new State(cpu);
+      ByteBuffer raw = Snapshot.save(cpu);
+      ByteBuffer snapshot = Snapshot.save(cpu, encoding);
+      File full = File.createTempFile("snapshot", ".msps");
+      full.deleteOnExit();
+      int size = Snapshot.save(cpu, full, encoding);
+      cpu.stepInstructions(RUN_INSTRUCTIONS);
+      File delta = File.createTempFile("snapshot", ".msps");
+      delta.deleteOnExit();
+      int deltaSize = Snapshot.saveDelta(cpu, delta, encoding);
+      State deltaSaved = new State(cpu);
+      ByteBuffer deltaRaw = Snapshot.save(cpu);
+      cpu.stepInstructions(RUN_INSTRUCTIONS);
+      State expected = new State(cpu);
+      if (encoding == Snapshot.Encoding.RAW) {
+        rawSize = size;
+      } else if (size >= rawSize) {
+        fail(encoding + " snapshot is " + size + " bytes, raw snapshot " + rawSize + " bytes");
+      }
+      if (deltaSize >= size) {
+        fail(encoding + " delta snapshot is " + deltaSize + " bytes, full snapshot " + size + " bytes");
+      }
+
+      String what = encoding + " snapshot";
+      MSP430 copyCPU = createNode(nodeClass, firmwareFile).getCPU();
+      Snapshot.load(copyCPU, snapshot, false);
+      compare("restored " + what, new State(copyCPU), saved);
+      compare("saved after " + what, copyCPU, raw);
+
+      MSP430 fileCPU = createNode(nodeClass, firmwareFile).getCPU();
+      Snapshot.load(fileCPU, full);
+      compare("restored " + what + " file", new State(fileCPU), saved);
+      Snapshot.load(fileCPU, delta);
+      compare("restored " + encoding + " delta snapshot", new State(fileCPU), deltaSaved);
+      compare("saved after " + encoding + " delta snapshot", fileCPU, deltaRaw);
+      fileCPU.stepInstructions(RUN_INSTRUCTIONS);
+      compare("run after " + encoding + " delta snapshot", new State(fileCPU), expected);
+
+      full.delete();
+      delta.delete();
+      sizes.append(' ').append(encoding).append(' ').append(size).append('/').append(deltaSize);
+    }
+    System.out.println("OK: " + name + ": same state after restoring full/delta snapshots of"
+        + sizes + " bytes");
+  }
+
+  /* Restores a snapshot lazily from a mapped file and from a buffer shared by two nodes */
+  private void runLazy(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+    File file = File.createTempFile("snapshot", ".msps");
+    file.deleteOnExit();
+    Snapshot.save(cpu, file);
+    ByteBuffer snapshot = Snapshot.save(cpu);
+    cpu.stepInstructions(RUN_INSTRUCTIONS);
+    State expected = new State(cpu);
+
+    /* the memory is paged in while running */
+    MSP430 mappedCPU = createNode(nodeClass, firmwareFile).getCPU();
+    Snapshot.map(mappedCPU, file);
+    mappedCPU.stepInstructions(RUN_INSTRUCTIONS);
+    compare("run after mapped restore", new State(mappedCPU), expected);
+
+    /* a delta against the mapped snapshot only has the memory written since */
+    File delta = File.createTempFile("snapshot", ".msps");
+    delta.deleteOnExit();
+    Snapshot.saveDelta(mappedCPU, delta);
+    MSP430 deltaCPU = createNode(nodeClass, firmwareFile).getCPU();
+    Snapshot.load(deltaCPU, file);
+    Snapshot.load(deltaCPU, delta);
+    compare("delta after mapped restore", new State(deltaCPU), expected);
+
+    /* the nodes must not modify the shared snapshot */
+    ByteBuffer original = ByteBuffer.allocate(snapshot.remaining());
+    original.put(snapshot.duplicate()).flip();
+    MSP430 firstCPU = createNode(nodeClass, firmwareFile).getCPU();
+    MSP430 secondCPU = createNode(nodeClass, firmwareFile).getCPU();
+    Snapshot.load(firstCPU, snapshot, true);
+    Snapshot.load(secondCPU, snapshot, true);
+    firstCPU.stepInstructions(RUN_INSTRUCTIONS);
+    compare("run after lazy restore", new State(firstCPU), expected);
+    secondCPU.stepInstructions(RUN_INSTRUCTIONS);
+    compare("run after shared lazy restore", new State(secondCPU), expected);
+    if (!snapshot.equals(original)) {
+      fail("shared snapshot modified");
+    }
+
+    file.delete();
+    delta.delete();
+    System.out.println("OK: " + name
+        + ": same state after restoring a snapshot lazily from a file and a shared buffer");
+  }
+
+  private static byte[] read(Storage storage, long pos) throws IOException {
+    byte[] data = new byte[16];
+    storage.read(pos, data);
+    return data;
+  }
+
+  private void compare(String what, Storage storage, long pos, byte[] expected) throws IOException {
+    if (!Arrays.equals(read(storage, pos), expected)) {
+      fail(what + ": flash at " + pos + " differs");
+    }
+  }
+
+  /* Forks the node and checks that the copies continue like the node without affecting each other */
+  private void runFork(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+    State saved = new State(cpu);
+    GenericNode[] forks = node.fork(FORKS);
+    MSP430 changedCPU = forks[0].getCPU();
+    MSP430 forkCPU = forks[FORKS - 1].getCPU();
+    compare("forked", new State(changedCPU), saved);
+
+    /* the stack below the stack pointer is written before it is read */
+    int address = (cpu.getRegister(MSP430Constants.SP) - 2) & 0xffffe;
+    int value = cpu.getMemory().get(address, AccessMode.WORD);
+    changedCPU.getMemory().set(address, value ^ 0xffff, AccessMode.WORD);
+    if (cpu.getMemory().get(address, AccessMode.WORD) != value
+        || forkCPU.getMemory().get(address, AccessMode.WORD) != value) {
+      fail("memory write in a fork seen by the node or another fork");
+    }
+    ExternalFlash[] flashes = cpu.getChips(ExternalFlash.class);
+    Storage storage = null;
+    Storage changedStorage = null;
+    Storage forkStorage = null;
+    byte[] pattern = new byte[16];
+    Arrays.fill(pattern, (byte) 0x5a);
+    if (flashes.length > 0) {
+      storage = flashes[0].getStorage();
+      changedStorage = changedCPU.getChips(ExternalFlash.class)[0].getStorage();
+      forkStorage = forkCPU.getChips(ExternalFlash.class)[0].getStorage();
+      byte[] data = read(storage, 0);
+      changedStorage.write(0, pattern);
+      compare("flash write in a fork", storage, 0, data);
+      compare("flash write in another fork", forkStorage, 0, data);
+    }
+
+    cpu.stepInstructions(RUN_INSTRUCTIONS);
+    changedCPU.stepInstructions(RUN_INSTRUCTIONS);
+    forkCPU.stepInstructions(RUN_INSTRUCTIONS);
+    compare("run in fork", new State(forkCPU), new State(cpu));
+
+    if (storage != null) {
+      /* the node keeps writing to its own flash while the forks keep the flash at the fork */
+      byte[] data = read(storage, 256);
+      storage.write(256, pattern);
+      compare("flash write in the node", storage, 256, pattern);
+      compare("flash write in the node", forkStorage, 256, data);
+      compare("flash write in a fork", changedStorage, 0, pattern);
+    }
+    System.out.println("OK: " + name + ": " + FORKS + " independent forks"
+        + (flashes.length > 0 ? " with external flash" : ""));
+  }
+
+  private String diff(File fileA, File fileB, MapTable map, int expected) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(output);
+    SnapshotDiff diff = new SnapshotDiff(out);
+    diff.setMap(map);
+    int differences = diff.diff(fileA, fileB);
+    out.flush();
+    if (differences != expected) {
+      fail(differences + " differences, expected " + expected + ":\n" + output);
+    }
+    return output.toString();
+  }
+
+  /* Changes a register and a known memory range and checks the differences between the snapshots */
+  private void runDiff(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+    File before = File.createTempFile("snapshot", ".msps");
+    before.deleteOnExit();
+    Snapshot.save(cpu, before);
+    diff(before, before, null, 0);
+
+    /* the stack below the stack pointer is not used by the node while not running */
+    int address = (cpu.getRegister(MSP430Constants.SP) - 32) & 0xffffe;
+    MapTable map = new MapTable();
+    map.setEntry(new MapEntry(MapEntry.TYPE.variable, address, 16, "test_buffer", null, false));
+    int oldWord = cpu.getMemory().get(address + 2, AccessMode.WORD);
+    int oldNext = cpu.getMemory().get(address + 4, AccessMode.WORD);
+    cpu.getMemory().set(address + 2, oldWord ^ 0x1234, AccessMode.WORD);
+    cpu.getMemory().set(address + 4, oldNext ^ 0x5678, AccessMode.WORD);
+    int oldR5 = cpu.getRegister(5);
+    int newR5 = oldR5 ^ 0xa5a5;
+    cpu.setRegister(5, newR5);
+
+    for (Snapshot.Encoding encoding : Snapshot.Encoding.values()) {
+      File after = File.createTempFile("snapshot", ".msps");
+      after.deleteOnExit();
+      Snapshot.save(cpu, after, encoding);
+      String output = diff(before, after, map, 2);
+      String range = "$" + Utils.hex(address + 2, 4) + "-$" + Utils.hex(address + 5, 4)
+          + " (4 bytes) test_buffer+2: " + Utils.hex8(oldWord & 0xff) + ' ' + Utils.hex8(oldWord >> 8)
+          + ' ' + Utils.hex8(oldNext & 0xff) + ' ' + Utils.hex8(oldNext >> 8)
+          + " -> " + Utils.hex8((oldWord ^ 0x34) & 0xff) + ' ' + Utils.hex8((oldWord ^ 0x1234) >> 8)
+          + ' ' + Utils.hex8((oldNext ^ 0x78) & 0xff) + ' ' + Utils.hex8((oldNext ^ 0x5678) >> 8);
+      String register = "R5: $" + Utils.hex(oldR5, 4) + " -> $" + Utils.hex(newR5, 4);
+      if (!output.contains(register + System.lineSeparator())
+          || !output.contains(range + System.lineSeparator())) {
+        fail(encoding + " snapshot differences are\n" + output + "expected\n" + register + '\n' + range);
+      }
+      after.delete();
+    }
+    before.delete();
+    System.out.println("OK: " + name + ": snapshot differences of a changed register and memory range");
+  }
+
+  /* Executes in steps with inputs between the steps, or just the steps if no serial port is given */
+  private static void runInputs(MSP430 cpu, USARTSource serial, Button button) throws EmulationException {
+    for (int i = 0; i < REPLAY_INPUTS; i++) {
+      cpu.stepInstructions(RUN_INSTRUCTIONS / REPLAY_INPUTS);
+      if (serial != null) {
+        serial.byteReceived('a' + i);
+        if (button != null) {
+          button.setPressed((i & 1) == 0);
+        }
+      }
+    }
+    cpu.stepInstructions(RUN_INSTRUCTIONS);
+  }
+
+  /* Records external inputs and replays them into a node restored from a snapshot */
+  private void runReplay(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+    USARTSource serial = (USARTSource) node.getRegistry().getComponent("serialio");
+    Button[] buttons = cpu.getChips(Button.class);
+    Button button = buttons.length > 0 ? buttons[0] : null;
+    ByteBuffer snapshot = Snapshot.save(cpu);
+    File log = File.createTempFile("stimuli", ".mspr");
+    log.deleteOnExit();
+    StimulusRecorder recorder = new StimulusRecorder(cpu, log);
+    runInputs(cpu, serial, button);
+    recorder.close();
+    State expected = new State(cpu);
+    ByteBuffer expectedSnapshot = Snapshot.save(cpu);
+    long records = recorder.getRecordCount();
+    if (records != REPLAY_INPUTS * (button != null ? 2 : 1)) {
+      fail(records + " inputs recorded, expected " + REPLAY_INPUTS * (button != null ? 2 : 1));
+    }
+
+    MSP430 replayCPU = createNode(nodeClass, firmwareFile).getCPU();
+    Snapshot.load(replayCPU, snapshot, false);
+    StimulusReplayer replayer = new StimulusReplayer(replayCPU, log);
+    runInputs(replayCPU, null, null);
+    if (!replayer.isFinished() || replayer.getReplayCount() != records) {
+      fail(replayer.getReplayCount() + " of " + records + " inputs replayed");
+    }
+    replayer.close();
+    compare("run with replayed inputs", new State(replayCPU), expected);
+    compare("saved after replayed inputs", replayCPU, expectedSnapshot);
+
+    /* the inputs must make a difference for the replay to be tested */
+    MSP430 inputlessCPU = createNode(nodeClass, firmwareFile).getCPU();
+    Snapshot.load(inputlessCPU, snapshot, false);
+    runInputs(inputlessCPU, null, null);
+    if (getDifference(Snapshot.save(inputlessCPU), expectedSnapshot) < 0) {
+      fail("same state without the recorded inputs");
+    }
+    log.delete();
+    System.out.println("OK: " + name + ": same state after replaying " + records + " recorded inputs");
+  }
+
+  /* Steps single instructions with checkpoints and steps back to earlier instructions */
+  private void runReverse(String nodeClass, String firmwareFile)
+      throws ReflectiveOperationException, IOException, EmulationException {
+    GenericNode node = createNode(nodeClass, firmwareFile);
+    MSP430 cpu = node.getCPU();
+    cpu.stepInstructions(WARMUP_INSTRUCTIONS);
+    cpu.setCheckpointInterval(CHECKPOINT_CYCLES, REVERSE_INSTRUCTIONS);
+    HashMap<Long,String> registers = new HashMap<Long,String>();
+    registers.put(cpu.getInstructionCount(), new State(cpu).registers);
+    State previous = null;
+    for (int i = 0; i < REVERSE_INSTRUCTIONS; i++) {
+      previous = new State(cpu);
+      cpu.stepInstructions(1);
+      registers.put(cpu.getInstructionCount(), new State(cpu).registers);
+    }
+    State last = new State(cpu);
+    if (cpu.getCheckpointCount() < 2) {
+      fail("only " + cpu.getCheckpointCount() + " checkpoints in " + REVERSE_INSTRUCTIONS + " instructions");
+    }
+
+    long end = cpu.getInstructionCount();
+    if (cpu.reverseStep(1) != 1) {
+      fail("reverse step did not step back one instruction");
+    }
+    compare("reverse step", new State(cpu), previous);
+    cpu.stepInstructions(1);
+    compare("step after reverse step", new State(cpu), last);
+
+    /* step back over several checkpoints */
+    long count = REVERSE_INSTRUCTIONS / 2;
+    if (cpu.reverseStep(count) != count) {
+      fail("reverse step did not step back " + count + " instructions");
+    }
+    String expected = registers.get(end - count);
+    if (!new State(cpu).registers.equals(expected)) {
+      fail("reverse " + count + " steps: registers are\n  " + new State(cpu).registers
+          + "\nexpected\n  " + expected);
+    }
+    cpu.stepInstructions((int) count);
+    compare("run after reverse steps", new State(cpu), last);
+    System.out.println("OK: " + name + ": reverse steps land on the previous instructions with "
+        + cpu.getCheckpointCount() + " checkpoints");
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0 || (args.length & 1) != 0) {
+      System.err.println("Usage: SnapshotTest <node class> <firmware> ...");
+      System.exit(1);
+    }
+    /* fail instead of hanging the build if a restored node never returns */
+    Timer timer = new Timer(true);
+    timer.schedule(new TimerTask() {
+      public void run() {
+        System.out.println("FAIL: no result within " + (TIMEOUT / 1000) + " seconds");
+        System.exit(1);
+      }
+    }, TIMEOUT);
+    for (int i = 0; i < args.length; i += 2) {
+      String nodeClass = args[i].substring(args[i].lastIndexOf('.') + 1);
+      SnapshotTest test = new SnapshotTest(nodeClass + " " + args[i + 1]);
+      test.run(args[i], args[i + 1]);
+      test.runDelta(args[i], args[i + 1]);
+      test.runEncodings(args[i], args[i + 1]);
+      test.runLazy(args[i], args[i + 1]);
+      test.runFork(args[i], args[i + 1]);
+      test.runDiff(args[i], args[i + 1]);
+      test.runReplay(args[i], args[i + 1]);
+      test.runReverse(args[i], args[i + 1]);
+    }
+    timer.cancel();
+    System.exit(0);
+  }
+}
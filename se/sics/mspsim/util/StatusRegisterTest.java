@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * StatusRegisterTest
+ *
+ * Checks that SR writes which leave the GIE, CPUOFF, OSCOFF, SCG0 and
+ * SCG1 bits unchanged give the same result as the full SR write path.
+ * A CPU that always takes the full path runs in lock-step with a normal
+ * CPU on firmware, on a program that enters low power modes and is woken
+ * by a timer interrupt, and on a sequence of SR writes that both change
+ * and keep the mode bits.
+ */
+package se.sics.mspsim.util;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.IOUnit;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.MSP430Constants;
+import se.sics.mspsim.core.MSP430Core;
+import se.sics.mspsim.core.USART;
+import se.sics.mspsim.core.USARTListener;
+import se.sics.mspsim.core.USARTSource;
+
+public class StatusRegisterTest implements MSP430Constants {
+
+  private static final int MAX_INSTRUCTIONS = 20000000;
+  private static final int SR_WRITES = 100000;
+  private static final int FLAGS = CARRY | ZERO | NEGATIVE | OVERFLOW;
+  private static final int PROGRAM_INSTRUCTIONS = 200000;
+
+  /* Sleeps in LPM0, LPM2 and LPM3 with flag updates in between, woken by Timer_A CCR0 */
+  private static final int PROGRAM = 0x4000;
+  private static final int[] PROGRAM_CODE = {
+    0x4031, 0x3900,         // mov #0x3900, sp
+    0x40b2, 0x5a80, 0x0120, // mov #WDTPW|WDTHOLD, &WDTCTL
+    0x40b2, 0x0010, 0x0162, // mov #CCIE, &TACCTL0
+    0x40b2, 0x0064, 0x0172, // mov #100, &TACCR0
+    0x40b2, 0x0120, 0x0160, // mov #TASSEL_1|MC_2, &TACTL
+    0x5405,                 // loop: add r4, r5
+    0xd032, 0x0048,         // bis #GIE|SCG0, sr
+    0x8504,                 // sub r5, r4
+    0xc032, 0x0040,         // bic #SCG0, sr
+    0xd032, 0x0098,         // bis #CPUOFF|GIE|SCG1, sr
+    0x5316,                 // add #1, r6
+    0xd032, 0x00d8,         // bis #CPUOFF|GIE|SCG0|SCG1, sr
+    0x1007,                 // rrc r7
+    0xc232,                 // dint
+    0xd032, 0x0018,         // bis #CPUOFF|GIE, sr
+    0x3ff0,                 // jmp loop
+    0x50b2, 0x0064, 0x0172, // isr: add #100, &TACCR0
+    0xc0b1, 0x00f0, 0x0000, // bic #CPUOFF|OSCOFF|SCG0|SCG1, 0(sp)
+    0x1300                  // reti
+  };
+  private static final int PROGRAM_ISR = PROGRAM + 2 * (PROGRAM_CODE.length - 7);
+  private static final int TIMERA0_VECTOR = 0xffec;
+  private static final int RESET_VECTOR = 0xfffe;
+
+  /* the mode bits of the last SR write, forgotten by the full path CPU */
+  private static Field srModeBits;
+
+  private static class TestCPU extends MSP430 implements USARTListener {
+    private final boolean fullPath;
+    private final StringBuilder line = new StringBuilder();
+    boolean exited;
+
+    TestCPU(boolean fullPath) {
+      super(0, new ComponentRegistry(), new MSP430f1611Config());
+      this.fullPath = fullPath;
+    }
+
+    @Override
+    public void writeRegister(int r, int value) {
+      if (fullPath && r == SR) {
+        try {
+          srModeBits.setInt(this, -1);
+        } catch (IllegalAccessException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      super.writeRegister(r, value);
+    }
+
+    String getState() {
+      return "SR=$" + Utils.hex(reg[SR], 4) + " mode=" + getMode()
+          + " GIE=" + interruptsEnabled + " CPUOFF=" + cpuOff;
+    }
+
+    public void dataReceived(USARTSource source, int data) {
+      if (data == '\n') {
+        if (line.toString().startsWith("EXIT")) {
+          exited = true;
+        }
+        line.setLength(0);
+      } else {
+        line.append((char) data);
+      }
+    }
+
+    public void stateChanged(int state) {
+    }
+  }
+
+  private final String name;
+  private final TestCPU reference = new TestCPU(true);
+  private final TestCPU cpu = new TestCPU(false);
+  private long steps;
+
+  private StatusRegisterTest(String name) {
+    this.name = name;
+  }
+
+  /* The mode given by the SR bits as documented for the MSP430 */
+  private static String getExpectedState(int sr) {
+    int mode = MODE_ACTIVE;
+    if ((sr & CPUOFF) != 0) {
+      boolean scg0 = (sr & SCG0) != 0;
+      boolean scg1 = (sr & SCG1) != 0;
+      if ((sr & OSCOFF) != 0 && scg1 && scg0) {
+        mode = MODE_LPM4;
+      } else if (scg1 && scg0) {
+        mode = MODE_LPM3;
+      } else if (scg1) {
+        mode = MODE_LPM2;
+      } else if (scg0) {
+        mode = MODE_LPM1;
+      } else {
+        mode = MODE_LPM0;
+      }
+    }
+    return "SR=$" + Utils.hex(sr, 4) + " mode=" + mode
+        + " GIE=" + ((sr & GIE) != 0) + " CPUOFF=" + ((sr & CPUOFF) != 0);
+  }
+
+  private void fail(String message) {
+    System.out.println("FAIL: " + name + ": " + message + " after " + steps + " steps");
+    System.exit(1);
+  }
+
+  private void compare() {
+    String expected = reference.getState();
+    String state = cpu.getState();
+    if (!state.equals(expected)) {
+      fail(state + ", expected " + expected);
+    }
+    for (int r = 0; r < 16; r++) {
+      if (cpu.getRegister(r) != reference.getRegister(r)) {
+        fail("R" + r + " is $" + Utils.hex(cpu.getRegister(r), 4)
+            + ", expected $" + Utils.hex(reference.getRegister(r), 4));
+      }
+    }
+    if (cpu.cycles != reference.cycles) {
+      fail("cycles are " + cpu.cycles + ", expected " + reference.cycles);
+    }
+  }
+
+  private void load(TestCPU cpu, String firmwareFile) throws IOException {
+    byte[] memory = cpu.getMemoryImage();
+    ELF elf = ELF.readELF(firmwareFile);
+    elf.loadPrograms(memory);
+    cpu.setMemoryImage(memory);
+    cpu.setMap(elf.getMap());
+    cpu.reset();
+    IOUnit usart = cpu.getIOUnit("USART 1");
+    if (usart instanceof USART) {
+      ((USART) usart).addUSARTListener(cpu);
+    }
+  }
+
+  /* Runs the firmware until EXIT, comparing after each instruction */
+  private void runFirmware(String firmwareFile) throws IOException, EmulationException {
+    load(reference, firmwareFile);
+    load(cpu, firmwareFile);
+    while (!reference.exited) {
+      if (steps > MAX_INSTRUCTIONS) {
+        fail("no EXIT");
+      }
+      reference.stepInstructions(1);
+      cpu.stepInstructions(1);
+      steps++;
+      compare();
+    }
+    if (!cpu.exited) {
+      fail("no EXIT without the full SR write path");
+    }
+    System.out.println("OK: " + name + ": same SR in lock-step for " + steps + " instructions");
+  }
+
+  private static void setWord(byte[] memory, int address, int value) {
+    memory[address] = (byte) value;
+    memory[address + 1] = (byte) (value >> 8);
+  }
+
+  private void load(TestCPU cpu) {
+    byte[] memory = cpu.getMemoryImage();
+    for (int i = 0; i < PROGRAM_CODE.length; i++) {
+      setWord(memory, PROGRAM + 2 * i, PROGRAM_CODE[i]);
+    }
+    setWord(memory, TIMERA0_VECTOR, PROGRAM_ISR);
+    setWord(memory, RESET_VECTOR, PROGRAM);
+    cpu.setMemoryImage(memory);
+    cpu.reset();
+  }
+
+  /* Runs the low power mode program, comparing after each instruction */
+  private void runProgram() throws EmulationException {
+    load(reference);
+    load(cpu);
+    int[] modes = new int[MODE_MAX + 1];
+    int lastMode = cpu.getMode();
+    for (int i = 0; i < PROGRAM_INSTRUCTIONS; i++) {
+      reference.stepInstructions(1);
+      cpu.stepInstructions(1);
+      steps++;
+      compare();
+      if (cpu.getMode() != lastMode) {
+        lastMode = cpu.getMode();
+        modes[lastMode]++;
+      }
+    }
+    if (modes[MODE_LPM0] == 0 || modes[MODE_LPM2] == 0 || modes[MODE_LPM3] == 0) {
+      fail("low power modes not entered");
+    }
+    System.out.println("OK: " + name + ": same SR in lock-step with " + modes[MODE_ACTIVE]
+        + " wake ups from LPM0, LPM2 and LPM3");
+  }
+
+  /* Writes SR values that alternately change only the flags and change the mode bits */
+  private void runWrites() {
+    long seed = 1;
+    int sr = 0;
+    int flagWrites = 0;
+    for (int i = 0; i < SR_WRITES; i++) {
+      seed = seed * 6364136223846793005L + 1442695040888963407L;
+      int random = (int) (seed >>> 33);
+      if ((random & 1) == 0) {
+        sr = (sr & ~FLAGS) | ((random >> 1) & FLAGS);
+        flagWrites++;
+      } else {
+        sr = (random >> 1) & 0x1ff;
+      }
+      reference.writeRegister(SR, sr);
+      cpu.writeRegister(SR, sr);
+      steps++;
+      compare();
+      String expected = getExpectedState(sr);
+      if (!cpu.getState().equals(expected)) {
+        fail(cpu.getState() + ", expected " + expected);
+      }
+    }
+    System.out.println("OK: " + name + ": same mode for " + SR_WRITES
+        + " SR writes of which " + flagWrites + " only change the flags");
+  }
+
+  public static void main(String[] args) throws Exception {
+    srModeBits = MSP430Core.class.getDeclaredField("srModeBits");
+    srModeBits.setAccessible(true);
+    for (String file : args) {
+      new StatusRegisterTest(file).runFirmware(file);
+    }
+    new StatusRegisterTest("low power modes").runProgram();
+    new StatusRegisterTest("SR writes").runWrites();
+    System.exit(0);
+  }
+}
@@ -43,6 +43,7 @@ import java.io.IOException;
 
 import se.sics.mspsim.config.MSP430f1611Config;
 import se.sics.mspsim.core.*;
+import se.sics.mspsim.profiler.SimpleProfiler;
 
 /**
  * Test - tests a firmware file and exits when reporting "FAIL:" first
@@ -75,9 +76,16 @@ public class Test implements USARTListener {
       } else if (line.startsWith("DEBUG")) {
 	cpu.setDebug(true);
       } else if (line.startsWith("PROFILE")) {
-	cpu.getProfiler().printProfile(System.out);
+	if (cpu.getProfiler() != null) {
+	  cpu.getProfiler().printProfile(System.out);
+	}
       } else if (line.startsWith("CLEARPROFILE")) {
-	cpu.getProfiler().clearProfile();
+	/* profiling starts at the first clear */
+	if (cpu.getProfiler() == null) {
+	  cpu.setProfiler(new SimpleProfiler());
+	} else {
+	  cpu.getProfiler().clearProfile();
+	}
       }
     } else {
       lineBuffer.append((char) data);
@@ -99,9 +107,10 @@ public class Test implements USARTListener {
     }
 
     try {
-      int[] memory = cpu.memory;
+      byte[] memory = cpu.getMemoryImage();
       ELF elf = ELF.readELF(args[index++]);
       elf.loadPrograms(memory);
+      cpu.setMemoryImage(memory);
       MapTable map = elf.getMap();
       cpu.getDisAsm().setMap(map);
       cpu.setMap(map);
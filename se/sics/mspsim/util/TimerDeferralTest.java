@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TimerDeferralTest
+ *
+ * Checks that deferring the timer overflow and compare events while
+ * their interrupts are disabled gives the same result as scheduling
+ * every event. A CPU with deferral disabled runs in lock-step with a
+ * normal CPU on a program that lets Timer_A wrap with the interrupts
+ * disabled, reads back TAR, TACTL, TACCTLx and TAIV, and then enables
+ * the interrupts. Registers and cycles are compared after every
+ * instruction, which also compares when the interrupts are taken.
+ */
+package se.sics.mspsim.util;
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.Timer;
+
+public class TimerDeferralTest {
+
+  private static final int INSTRUCTIONS = 1000000;
+
+  private static final int PROGRAM = 0x4000;
+  private static final int[] PROGRAM_CODE = {
+    0x4031, 0x3900,         // mov #0x3900, sp
+    0x40b2, 0x5a80, 0x0120, // mov #WDTPW|WDTHOLD, &WDTCTL
+    0x40b2, 0x03e8, 0x0172, // mov #1000, &TACCR0
+    0x40b2, 0x0bb8, 0x0174, // mov #3000, &TACCR1
+    0x40b2, 0x0220, 0x0160, // mov #TASSEL_2|MC_2, &TACTL
+    0x4034, 0x9c40,         // loop: mov #40000, r4
+    0x8314,                 // delay: dec r4
+    0x23fe,                 // jnz delay
+    0x4216, 0x0170,         // mov &TAR, r6
+    0x4217, 0x0160,         // mov &TACTL, r7
+    0x4218, 0x0162,         // mov &TACCTL0, r8
+    0x4219, 0x0164,         // mov &TACCTL1, r9
+    0x4215, 0x012e,         // mov &TAIV, r5
+    0xd0b2, 0x0010, 0x0162, // bis #CCIE, &TACCTL0
+    0xd0b2, 0x0010, 0x0164, // bis #CCIE, &TACCTL1
+    0xd3a2, 0x0160,         // bis #TAIE, &TACTL
+    0xd232,                 // eint
+    0x4034, 0x9c40,         // mov #40000, r4
+    0x8314,                 // delay2: dec r4
+    0x23fe,                 // jnz delay2
+    0xc232,                 // dint
+    0xc0b2, 0x0010, 0x0162, // bic #CCIE, &TACCTL0
+    0xc0b2, 0x0010, 0x0164, // bic #CCIE, &TACCTL1
+    0xc3a2, 0x0160,         // bic #TAIE, &TACTL
+    0x3fdb,                 // jmp loop
+    0x531b,                 // isr0: add #1, r11
+    0x50b2, 0x03e8, 0x0172, // add #1000, &TACCR0
+    0x1300,                 // reti
+    0x421a, 0x012e,         // isr1: mov &TAIV, r10
+    0x5a0c,                 // add r10, r12
+    0x1300                  // reti
+  };
+  private static final int ISR0 = PROGRAM + 2 * 51;
+  private static final int ISR1 = PROGRAM + 2 * 56;
+  private static final int TIMERA1_VECTOR = 0xffea;
+  private static final int TIMERA0_VECTOR = 0xffec;
+  private static final int RESET_VECTOR = 0xfffe;
+
+  /* registers set by the program */
+  private static final String[] REGISTERS = {
+    null, null, null, null, null, "TAIV", "TAR", "TACTL", "TACCTL0", "TACCTL1",
+    null, "CCR0 interrupts", "TAIV sum"
+  };
+
+  private final MSP430 reference = createCPU();
+  private final MSP430 cpu = createCPU();
+  private long steps;
+
+  private TimerDeferralTest() {
+    for (MSP430 cpu : new MSP430[] { reference, this.cpu }) {
+      Timer timer = cpu.getIOUnit(Timer.class);
+      if (timer == null || !timer.isEventDeferral()) {
+        fail("no timer with event deferral");
+      }
+    }
+    reference.getIOUnit(Timer.class).setEventDeferral(false);
+  }
+
+  private static void setWord(byte[] memory, int address, int value) {
+    memory[address] = (byte) value;
+    memory[address + 1] = (byte) (value >> 8);
+  }
+
+  private static MSP430 createCPU() {
+    MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    byte[] memory = cpu.getMemoryImage();
+    for (int i = 0; i < PROGRAM_CODE.length; i++) {
+      setWord(memory, PROGRAM + 2 * i, PROGRAM_CODE[i]);
+    }
+    setWord(memory, TIMERA1_VECTOR, ISR1);
+    setWord(memory, TIMERA0_VECTOR, ISR0);
+    setWord(memory, RESET_VECTOR, PROGRAM);
+    cpu.setMemoryImage(memory);
+    cpu.reset();
+    return cpu;
+  }
+
+  private void fail(String message) {
+    System.out.println("FAIL: " + message + " after " + steps + " instructions");
+    System.exit(1);
+  }
+
+  private void compare() {
+    for (int r = 0; r < 16; r++) {
+      if (cpu.getRegister(r) != reference.getRegister(r)) {
+        String name = r < REGISTERS.length && REGISTERS[r] != null ? " (" + REGISTERS[r] + ")" : "";
+        fail("R" + r + name + " is $" + Utils.hex16(cpu.getRegister(r))
+            + ", expected $" + Utils.hex16(reference.getRegister(r))
+            + " at PC $" + Utils.hex16(reference.getPC()));
+      }
+    }
+    if (cpu.cycles != reference.cycles) {
+      fail("cycles are " + cpu.cycles + ", expected " + reference.cycles);
+    }
+  }
+
+  private void run() throws EmulationException {
+    while (steps < INSTRUCTIONS) {
+      reference.stepInstructions(1);
+      cpu.stepInstructions(1);
+      steps++;
+      compare();
+    }
+    if (cpu.getRegister(11) == 0 || cpu.getRegister(12) == 0) {
+      fail("no timer interrupts");
+    }
+    System.out.println("OK: same timer registers and interrupts with deferred events for "
+        + steps + " instructions and " + cpu.getRegister(11) + " CCR0 interrupts");
+  }
+
+  public static void main(String[] args) throws EmulationException {
+    new TimerDeferralTest().run();
+    System.exit(0);
+  }
+}
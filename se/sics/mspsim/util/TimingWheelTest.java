@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TimingWheelTest
+ *
+ * Runs a firmware with the binary heap event queue and with the timing
+ * wheel, and compares the scheduled events after every instruction, the
+ * execution order of probe events with equal, near and far deadlines,
+ * and the final state.
+ */
+package se.sics.mspsim.util;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.IOUnit;
+import se.sics.mspsim.core.MSP430;
+import se.sics.mspsim.core.TimeEvent;
+import se.sics.mspsim.core.USART;
+import se.sics.mspsim.core.USARTListener;
+import se.sics.mspsim.core.USARTSource;
+
+public class TimingWheelTest implements USARTListener {
+
+  private static final int PROBES = 8;
+  private static final int MAX_INSTRUCTIONS = 20000000;
+
+  private final MSP430 cpu;
+  private final StringBuilder output = new StringBuilder();
+  private final StringBuilder executed = new StringBuilder();
+  private final Probe[] probes = new Probe[PROBES];
+  private final ByteArrayOutputStream queue = new ByteArrayOutputStream();
+  private final PrintStream queueOut = new PrintStream(queue);
+  private boolean exited;
+
+  /* Reschedules itself and sometimes the next probe with pseudo random delays */
+  private class Probe extends TimeEvent {
+    private final int id;
+    private long seed;
+
+    Probe(int id) {
+      super(0, "probe " + id);
+      this.id = id;
+      this.seed = id;
+    }
+
+    private int random() {
+      seed = seed * 6364136223846793005L + 1442695040888963407L;
+      return (int) (seed >>> 33);
+    }
+
+    /* mostly near deadlines, sometimes beyond the end of the test */
+    private long delay() {
+      int r = random();
+      int bucket = r & 31;
+      r >>= 5;
+      if (bucket < 12) {
+        /* few different delays to get events with the same deadline */
+        return r % 4;
+      }
+      if (bucket < 24) {
+        return r % 1000;
+      }
+      if (bucket < 31) {
+        return r % 100000;
+      }
+      return r % 10000000;
+    }
+
+    void schedule(long cycles) {
+      time = cycles;
+      cpu.scheduleCycleEvent(this, cycles);
+    }
+
+    public void execute(long t) {
+      executed.append(id).append('@').append(t).append(' ');
+      schedule(t + 1 + delay());
+      if ((random() & 3) == 0) {
+        Probe next = probes[(id + 1) % PROBES];
+        next.remove();
+        next.schedule(t + delay());
+      }
+    }
+  }
+
+  public TimingWheelTest(String firmwareFile, boolean timingWheel)
+      throws IOException, EmulationException {
+    cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    byte[] memory = cpu.getMemoryImage();
+    ELF elf = ELF.readELF(firmwareFile);
+    elf.loadPrograms(memory);
+    cpu.setMemoryImage(memory);
+    cpu.setMap(elf.getMap());
+    cpu.reset();
+    cpu.setTimingWheel(timingWheel);
+    IOUnit usart = cpu.getIOUnit("USART 1");
+    if (usart instanceof USART) {
+      ((USART) usart).addUSARTListener(this);
+    }
+    /* the reset is done by the first instruction and drops all events */
+    cpu.stepInstructions(1);
+    for (int i = 0; i < PROBES; i++) {
+      probes[i] = new Probe(i);
+      probes[i].schedule(cpu.cycles + 100 * (i / 2));
+    }
+  }
+
+  public void dataReceived(USARTSource source, int data) {
+    output.append((char) data);
+    if (data == '\n' && output.toString().endsWith("\nEXIT\n")) {
+      exited = true;
+    }
+  }
+
+  public void stateChanged(int state) {
+  }
+
+  private String getEventQueue() {
+    queue.reset();
+    cpu.printEventQueues(queueOut);
+    queueOut.flush();
+    return queue.toString();
+  }
+
+  private static void fail(String file, String message) {
+    System.out.println("FAIL: " + file + ": " + message);
+    System.exit(1);
+  }
+
+  public static void main(String[] args) throws IOException, EmulationException {
+    for (String file : args) {
+      TimingWheelTest reference = new TimingWheelTest(file, false);
+      TimingWheelTest test = new TimingWheelTest(file, true);
+      if (!test.cpu.isTimingWheel() || reference.cpu.isTimingWheel()) {
+        fail(file, "timing wheel not selected");
+      }
+      while (!reference.exited) {
+        if (reference.cpu.getInstructionCount() > MAX_INSTRUCTIONS) {
+          fail(file, "no EXIT");
+        }
+        reference.cpu.stepInstructions(1);
+        test.cpu.stepInstructions(1);
+        String expected = reference.getEventQueue();
+        String queue = test.getEventQueue();
+        if (!queue.equals(expected)) {
+          fail(file, "scheduled events differ after "
+              + reference.cpu.getInstructionCount() + " instructions:\n"
+              + queue + "expected:\n" + expected);
+        }
+      }
+      if (!test.executed.toString().equals(reference.executed.toString())) {
+        fail(file, "probe events executed in another order");
+      }
+      if (test.cpu.cycles != reference.cpu.cycles) {
+        fail(file, "cycles are " + test.cpu.cycles + ", expected " + reference.cpu.cycles);
+      }
+      for (int r = 0; r < 16; r++) {
+        if (test.cpu.getRegister(r) != reference.cpu.getRegister(r)) {
+          fail(file, "R" + r + " differs");
+        }
+      }
+      if (!Arrays.equals(test.cpu.getMemoryImage(), reference.cpu.getMemoryImage())) {
+        fail(file, "memory differs");
+      }
+      if (!test.output.toString().equals(reference.output.toString())) {
+        fail(file, "serial output differs");
+      }
+      System.out.println("OK: " + file + ": same events with the timing wheel after "
+          + reference.cpu.getInstructionCount() + " instructions and "
+          + reference.cpu.cycles + " cycles");
+    }
+    System.out.println("Tests succeded!");
+  }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * WatchdogTest
+ *
+ * Runs the watchdog as an interval timer on ACLK while the DCO runs
+ * below its maximum frequency and counts the watchdog interrupts.
+ */
+package se.sics.mspsim.util;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import se.sics.mspsim.config.MSP430f1611Config;
+import se.sics.mspsim.core.EmulationException;
+import se.sics.mspsim.core.MSP430;
+
+public class WatchdogTest {
+
+  private static final int DCO_FREQUENCY = 4000000;
+  private static final long CYCLES = 8000000;
+
+  /* Starts the watchdog interval timer with its interrupt counting in R15 */
+  private static final int[] PROGRAM = {
+    0x4031, 0x3900,          /* 4000: mov #0x3900, sp */
+    0x40b2, 0x0000, 0x0120,  /* 4004: mov #WDTCTL, &WDTCTL */
+    0xd3d2, 0x0000,          /* 400a: bis.b #WDTIE, &IE1 */
+    0xd232,                  /* 400e: eint */
+    0x3fff,                  /* 4010: jmp $ */
+    0x531f,                  /* 4012: inc r15 */
+    0x1300                   /* 4014: reti */
+  };
+  private static final int WDT_VECTOR = 0xfff4;
+
+  /* Returns the number of watchdog interrupts in CYCLES cycles */
+  private static int run(int wdtctl) throws EmulationException {
+    MSP430 cpu = new MSP430(0, new ComponentRegistry(), new MSP430f1611Config());
+    byte[] memory = cpu.getMemoryImage();
+    for (int i = 0; i < PROGRAM.length; i++) {
+      int value = i == 3 ? wdtctl : PROGRAM[i];
+      memory[0x4000 + i * 2] = (byte) value;
+      memory[0x4001 + i * 2] = (byte) (value >> 8);
+    }
+    memory[WDT_VECTOR] = 0x12;
+    memory[WDT_VECTOR + 1] = 0x40;
+    memory[0xfffe] = 0x00;
+    memory[0xffff] = 0x40;
+    cpu.setMemoryImage(memory);
+    cpu.reset();
+    cpu.stepInstructions(1);
+    cpu.setDCOFrq(DCO_FREQUENCY, DCO_FREQUENCY);
+    while (cpu.cycles < CYCLES) {
+      cpu.stepInstructions(1000);
+    }
+    return cpu.getRegister(15);
+  }
+
+  private static void check(String name, int wdtctl, int expected) throws EmulationException {
+    int count = run(wdtctl);
+    /* the first interval starts after a few instructions */
+    if (count < expected - 1 || count > expected) {
+      System.out.println("FAIL: " + name + ": " + count + " watchdog interrupts, expected " + expected);
+      System.exit(1);
+    }
+    System.out.println("OK: " + name + ": " + count + " watchdog interrupts");
+  }
+
+  public static void main(String[] args) throws EmulationException {
+    /* an event that keeps rescheduling itself never returns */
+    new Timer(true).schedule(new TimerTask() {
+      public void run() {
+        System.out.println("FAIL: the watchdog did not return");
+        System.exit(1);
+      }
+    }, 20000);
+    long seconds = CYCLES / DCO_FREQUENCY;
+    /* WDTPW | WDTMSEL | WDTCNTCL | WDTSSEL | WDTIS */
+    check("ACLK / 64", 0x5a1f, (int) (seconds * 32768 / 64));
+    check("ACLK / 512", 0x5a1e, (int) (seconds * 32768 / 512));
+    check("ACLK / 32768", 0x5a1c, (int) (seconds * 32768 / 32768));
+    System.out.println("Tests succeded!");
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2026, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of MSPSim.
+ * This file is part of MSPSim.
+ *
+ * -----------------------------------------------------------------
+ *
+ * membench - memory access benchmark for the RAM and flash fast path.
+ * Loops forever reading a table in flash, an IO port and RAM and
+ * writing RAM, with the code and the data in separate segments so
+ * the data segments can be watched without slowing down the fetches.
+ * Built as membench.hex, which is what MemoryBenchmark runs.
+ */
+
+	.text
+reset:	mov	#0x3900, r1		; top of RAM
+	mov	#0x5a80, &0x0120	; WDTCTL = WDTPW | WDTHOLD
+	mov	#0x1100, r4		; RAM buffer
+	mov	#table, r5		; flash table
+	clr	r6			; checksum
+loop:	mov	#64, r7
+inner:	mov	@r5+, r8		; flash word read
+	add	r8, r6
+	mov.b	&0x0020, r9		; P1IN byte read
+	add	r9, r6
+	mov	r6, 0(r4)		; RAM word write
+	add	@r4+, r6		; RAM word read
+	mov.b	r6, 0(r4)		; RAM byte write
+	dec	r7
+	jnz	inner
+	sub	#128, r5
+	sub	#128, r4
+	jmp	loop
+
+	.org	0x100			; the table in its own flash segment
+table:
+	.set	n, 1
+	.rept	64
+	.word	n
+	.set	n, n + 1
+	.endr
+
+	.section .vectors, "ax", @progbits
+	.org	30
+	.word	reset